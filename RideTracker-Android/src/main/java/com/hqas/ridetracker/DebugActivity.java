@@ -0,0 +1,143 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+import android.view.View;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Shows what {@link Metrics} has recorded, starts and stops recording, and saves a dump to
+ * take off the device. Reached from the overflow menu.
+ */
+public class DebugActivity extends Activity {
+
+    private static final String TAG = DebugActivity.class.getSimpleName();
+    private static final long REFRESH_INTERVAL_MS = 2000L;
+
+    private TextView metricsView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_debug);
+        metricsView = (TextView) findViewById(R.id.debug_metrics);
+
+        CheckBox enabledBox = (CheckBox) findViewById(R.id.debug_enabled);
+        enabledBox.setChecked(Metrics.isEnabled());
+        enabledBox.setOnCheckedChangeListener(enabledListener);
+        findViewById(R.id.debug_refresh).setOnClickListener(refreshListener);
+        findViewById(R.id.debug_dump).setOnClickListener(dumpListener);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh.run();
+    }
+
+    @Override
+    protected void onPause() {
+        metricsView.removeCallbacks(refresh);
+        super.onPause();
+    }
+
+    /**
+     * Starting begins a fresh set of figures. The runtime only counts allocations while asked
+     * to, so that's tied to recording too.
+     */
+    private static void setRecording(boolean on) {
+        if (on) {
+            Metrics.reset();
+            Debug.resetAllCounts();
+            Debug.startAllocCounting();
+        } else {
+            sampleRuntime();
+            Debug.stopAllocCounting();
+        }
+        Metrics.setEnabled(on);
+    }
+
+    private static void sampleRuntime() {
+        if (Metrics.isEnabled()) {
+            Metrics.ALLOCATIONS.set(Debug.getGlobalAllocCount());
+            Metrics.ALLOCATED_BYTES.set(Debug.getGlobalAllocSize());
+            Metrics.GC_RUNS.set(Debug.getGlobalGcInvocationCount());
+        }
+    }
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            sampleRuntime();
+            metricsView.setText(Metrics.describe());
+            metricsView.removeCallbacks(this);
+            metricsView.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    private final CompoundButton.OnCheckedChangeListener enabledListener =
+            new CompoundButton.OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton button, boolean checked) {
+            setRecording(checked);
+            refresh.run();
+        }
+    };
+
+    private final View.OnClickListener refreshListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            refresh.run();
+        }
+    };
+
+    private final View.OnClickListener dumpListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            File dir = getExternalCacheDir();
+            if (dir == null) {
+                dir = getCacheDir();
+            }
+            File file = new File(dir, "metrics-" + System.currentTimeMillis() + ".rtm");
+            sampleRuntime();
+            try {
+                // A few kilobytes at most, so it's done here rather than on another thread.
+                Metrics.writeDump(file);
+                Toast.makeText(DebugActivity.this,
+                        getString(R.string.debug_dumped, file.getAbsolutePath()),
+                        Toast.LENGTH_LONG).show();
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't write metrics to " + file, e);
+                Toast.makeText(DebugActivity.this, R.string.debug_dump_failed,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+}
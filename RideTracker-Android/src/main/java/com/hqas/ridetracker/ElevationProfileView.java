@@ -0,0 +1,117 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws an elevation profile: the band between the lowest and highest altitude at each point,
+ * with the highest outlined on top. Scaled to fill the view whatever the climb.
+ */
+public class ElevationProfileView extends View {
+    private static final float LINE_WIDTH = 3.0f;
+    private static final float MIN_RANGE_METERS = 20.0f;
+
+    private final Paint bandPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path band = new Path();
+    private final Path line = new Path();
+    private float[] min = new float[0];
+    private float[] max = new float[0];
+    private int count;
+
+    public ElevationProfileView(Context context) {
+        this(context, null);
+    }
+
+    public ElevationProfileView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        bandPaint.setStyle(Paint.Style.FILL);
+        bandPaint.setColor(getResources().getColor(android.R.color.holo_green_light));
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(LINE_WIDTH);
+        linePaint.setColor(getResources().getColor(android.R.color.holo_green_dark));
+    }
+
+    /**
+     * Takes copies of the profile; see {@link ElevationSeries#getProfile}.
+     */
+    public void setProfile(float[] min, float[] max, int count) {
+        if (this.min.length < count) {
+            this.min = new float[count];
+            this.max = new float[count];
+        }
+        System.arraycopy(min, 0, this.min, 0, count);
+        System.arraycopy(max, 0, this.max, 0, count);
+        this.count = count;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float lowest = Float.POSITIVE_INFINITY;
+        float highest = Float.NEGATIVE_INFINITY;
+        int first = -1;
+        for (int i = 0; i < count; i++) {
+            if (Float.isNaN(max[i])) {
+                continue;
+            }
+            if (first < 0) {
+                first = i;
+            }
+            lowest = Math.min(lowest, min[i]);
+            highest = Math.max(highest, max[i]);
+        }
+        if ((first < 0) || (count < 2)) {
+            return;
+        }
+
+        float top = getPaddingTop();
+        float height = getHeight() - top - getPaddingBottom();
+        // Keep a flat ride flat rather than blowing a metre up to the full height.
+        float range = Math.max(highest - lowest, MIN_RANGE_METERS);
+        float xStep = getWidth() / (float) (count - 1);
+        float yScale = height / range;
+
+        band.reset();
+        line.reset();
+        for (int i = first; i < count; i++) {
+            float x = i * xStep;
+            float y = top + (highest - max[i]) * yScale;
+            if (i == first) {
+                band.moveTo(x, y);
+                line.moveTo(x, y);
+            } else {
+                band.lineTo(x, y);
+                line.lineTo(x, y);
+            }
+        }
+        for (int i = count - 1; i >= first; i--) {
+            band.lineTo(i * xStep, top + (highest - min[i]) * yScale);
+        }
+        band.close();
+        canvas.drawPath(band, bandPaint);
+        canvas.drawPath(line, linePaint);
+    }
+}
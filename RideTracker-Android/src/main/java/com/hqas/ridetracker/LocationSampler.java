@@ -0,0 +1,59 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import android.location.Criteria;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.util.Log;
+
+/**
+ * Registers a listener for location updates at the rate a {@link SamplingPolicy.Mode} asks for.
+ */
+public class LocationSampler {
+    private static final String TAG = LocationSampler.class.getSimpleName();
+
+    private final LocationManager locMan;
+    private final LocationListener listener;
+    private final Criteria crit;
+    private SamplingPolicy.Mode current;
+
+    public LocationSampler(LocationManager locMan, LocationListener listener) {
+        this.locMan = locMan;
+        this.listener = listener;
+        crit = new Criteria();
+        crit.setAccuracy(Criteria.ACCURACY_FINE);
+    }
+
+    public void apply(SamplingPolicy.Mode mode) {
+        if (mode == current) {
+            return;
+        }
+        // Registering the same listener again replaces its old request.
+        locMan.requestLocationUpdates(mode.getMinTimeMs(), mode.getMinDistanceMeters(), crit,
+                listener, null);
+        current = mode;
+        Log.i(TAG, "Location sampling now " + mode);
+    }
+
+    public void stop() {
+        locMan.removeUpdates(listener);
+        current = null;
+    }
+}
@@ -19,26 +19,39 @@
 package com.hqas.ridetracker;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
 import java.util.UUID;
 
-import com.getpebble.android.kit.PebbleKit;
-import com.getpebble.android.kit.util.PebbleDictionary;
-
 public class MainActivity extends Activity {
 
     public final static UUID PEBBLE_APP_UUID = UUID.fromString("YOUR-UUID-GOES-HERE");
+    // Labels for IngestMode.values(), in the same order.
+    private static final int[] INGEST_MODE_LABELS = {
+            R.string.ingest_mode_live, R.string.ingest_mode_batched, R.string.ingest_mode_long_ride
+    };
+    // Null until the service is bound.
     private TrackerService tService;
-    private Intent serviceIntent;
+    private boolean activityStarted;
+    private boolean firstFrameDrawn;
+    private boolean serviceBound;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.activityCreated();
+        StartupTrace.beginSection("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         ColorDrawable actionBarBackground = new ColorDrawable(getResources().getColor(android.R.color.holo_red_light));
@@ -50,16 +63,60 @@ public class MainActivity extends Activity {
                     .commit();
         }
 
-        PebbleKit.registerReceivedDataHandler(this, new PebbleKit.PebbleDataReceiver(PEBBLE_APP_UUID) {
+        final View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
             @Override
-            public void receiveData(Context context, int transactionId, PebbleDictionary pebbleTuples) {
-                PebbleKit.sendAckToPebble(getApplicationContext(), transactionId);
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.firstFrame();
+                // Posted, so it runs once this frame has been drawn.
+                decor.post(afterFirstFrame);
+                return true;
             }
         });
+        StartupTrace.endSection();
+    }
+
+    /**
+     * Creating the service registers for locations and Pebble messages, which can wait until
+     * there's something on screen.
+     */
+    private final Runnable afterFirstFrame = new Runnable() {
+        @Override
+        public void run() {
+            firstFrameDrawn = true;
+            if (activityStarted) {
+                bindTrackerService();
+            }
+        }
+    };
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        activityStarted = true;
+        if (firstFrameDrawn) {
+            bindTrackerService();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        activityStarted = false;
+        if (serviceBound) {
+            // A ride being tracked keeps the service going; otherwise this lets it stop.
+            unbindService(serviceConnection);
+            serviceBound = false;
+            setTrackerService(null);
+        }
+        super.onStop();
+    }
 
-        tService = new TrackerService();
-        serviceIntent = new Intent(this, TrackerService.class);
-        startService(serviceIntent);
+    private void bindTrackerService() {
+        if (!serviceBound) {
+            serviceBound = bindService(new Intent(this, TrackerService.class), serviceConnection,
+                    Context.BIND_AUTO_CREATE);
+        }
     }
 
 
@@ -78,19 +135,69 @@ public class MainActivity extends Activity {
         // as you specify a parent activity in AndroidManifest.xml.
         int id = item.getItemId();
         if (id == R.id.action_settings) {
+            startActivity(new Intent(this, DebugActivity.class));
+            return true;
+        }
+        if (id == R.id.action_ingest_mode) {
+            showIngestModes();
             return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public void onDestroy() {
-        tService.deactivate();
-        stopService(serviceIntent);
-        super.onDestroy();
+    /**
+     * Lets the rider pick how often fixes are processed with the screen off. The service keeps
+     * the choice for later rides.
+     */
+    private void showIngestModes() {
+        if (tService == null) {
+            return;
+        }
+        final IngestMode[] modes = IngestMode.values();
+        CharSequence[] labels = new CharSequence[modes.length];
+        for (int i = 0; i < modes.length; i++) {
+            labels[i] = getString(INGEST_MODE_LABELS[i]);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.ingest_mode_title)
+                .setSingleChoiceItems(labels, tService.getIngestMode().ordinal(),
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                if (tService != null) {
+                                    tService.setIngestMode(modes[which]);
+                                }
+                                dialog.dismiss();
+                            }
+                        })
+                .show();
     }
 
+    /**
+     * @return the service, or null while it isn't bound
+     */
     public TrackerService getTrackerService() {
         return tService;
     }
+
+    private void setTrackerService(TrackerService service) {
+        tService = service;
+        RideTrackerFragment fragment =
+                (RideTrackerFragment) getFragmentManager().findFragmentById(R.id.container);
+        if (fragment != null) {
+            fragment.setTrackerService(service);
+        }
+    }
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            setTrackerService(((TrackerService.LocalBinder) binder).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            setTrackerService(null);
+        }
+    };
 }
@@ -0,0 +1,137 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the recorded rides that came near a point through the ride index, then reads each one's
+ * archive off the UI thread and cuts it down to a polyline that's cheap to draw.
+ */
+public class PastRidesTask extends AsyncTask<Void, Void, List<PastRidesTask.PastRide>> {
+    private static final String TAG = PastRidesTask.class.getSimpleName();
+    // Only the newest rides are drawn, so a much ridden road doesn't bury the map.
+    public static final int MAX_RIDES = 10;
+
+    public interface Listener {
+        /**
+         * @param found how many rides the index returned, including ones not drawn
+         */
+        void onPastRides(List<PastRide> rides, int found);
+    }
+
+    public static class PastRide {
+        public final long rideId;
+        public final double[] latitudes;
+        public final double[] longitudes;
+        public final int count;
+
+        PastRide(long rideId, double[] latitudes, double[] longitudes, int count) {
+            this.rideId = rideId;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.count = count;
+        }
+    }
+
+    private final TrackerService service;
+    private final double latitude;
+    private final double longitude;
+    private final double radiusMeters;
+    private final double metersPerPixel;
+    private final int vertexBudget;
+    private final Listener listener;
+    private int found;
+
+    /**
+     * @param metersPerPixel  the map scale the rides will be drawn at
+     * @param vertexBudget    the most points to draw for each ride
+     */
+    public PastRidesTask(TrackerService service, double latitude, double longitude,
+                         double radiusMeters, double metersPerPixel, int vertexBudget,
+                         Listener listener) {
+        this.service = service;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusMeters = radiusMeters;
+        this.metersPerPixel = metersPerPixel;
+        this.vertexBudget = vertexBudget;
+        this.listener = listener;
+    }
+
+    @Override
+    protected List<PastRide> doInBackground(Void... params) {
+        List<PastRide> result = new ArrayList<PastRide>();
+        RideIndex index = service.getRideIndex();
+        if (index == null) {
+            return result;
+        }
+        double dLat = radiusMeters / GeoMath.METERS_PER_DEGREE;
+        double dLon = radiusMeters
+                / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        long[] rides = index.queryBoundingBox(latitude - dLat, longitude - dLon,
+                latitude + dLat, longitude + dLon);
+        found = rides.length;
+
+        RideArchive.Block block = new RideArchive.Block();
+        TrackSimplifier simplifier = new TrackSimplifier();
+        // Ride ids are start times, so the newest rides are at the end.
+        for (int r = rides.length - 1; (r >= 0) && (result.size() < MAX_RIDES); r--) {
+            File file = service.getRideArchiveFile(rides[r]);
+            if ((file == null) || !file.exists()) {
+                // The ride in progress isn't archived until it stops.
+                continue;
+            }
+            simplifier.clear();
+            try {
+                RideArchive archive = new RideArchive(file);
+                try {
+                    for (int b = 0; b < archive.getBlockCount(); b++) {
+                        archive.readBlock(b, block);
+                        for (int i = 0; i < block.size; i++) {
+                            simplifier.add(block.latitudes[i], block.longitudes[i]);
+                        }
+                    }
+                } finally {
+                    archive.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read ride " + rides[r], e);
+                continue;
+            }
+            double[] lats = new double[vertexBudget];
+            double[] lons = new double[vertexBudget];
+            int tier = simplifier.selectTier(metersPerPixel, vertexBudget);
+            int count = simplifier.copyTier(tier, lats, lons, vertexBudget);
+            result.add(new PastRide(rides[r], lats, lons, count));
+        }
+        return result;
+    }
+
+    @Override
+    protected void onPostExecute(List<PastRide> rides) {
+        listener.onPastRides(rides, found);
+    }
+}
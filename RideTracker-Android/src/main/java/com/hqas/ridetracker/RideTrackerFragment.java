@@ -18,46 +18,90 @@
 
 package com.hqas.ridetracker;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
-import android.graphics.Typeface;
-import android.location.Criteria;
-import android.location.Location;
-import android.location.LocationManager;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.getpebble.android.kit.PebbleKit;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
-import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
 import android.view.View.OnClickListener;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by joneby on 11/14/2013.
  */
 public class RideTrackerFragment extends Fragment {
+    private static final String TAG = RideTrackerFragment.class.getSimpleName();
+
+    private static final int TRACK_VERTEX_BUDGET = 500;
+    private static final long TRACK_REDRAW_INTERVAL_MS = 1000L;
+    private static final float TRACK_WIDTH = 8.0f;
+    private static final float FOLLOW_ZOOM = 15.0f;
+    private static final long FOLLOW_STATS_INTERVAL_MS = 60000L;
+    private static final float KMH_PER_MS = 3.6f;
+    private static final int PROFILE_POINTS = 120;
+    private static final long PROFILE_REFRESH_MS = 10000L;
+    private static final double PAST_RIDE_RADIUS_METERS = 250.0;
+    private static final float PAST_RIDE_WIDTH = 6.0f;
+    // A second long press this soon after the first offers to make a segment between them.
+    private static final long SEGMENT_PICK_MS = 30000L;
 
     private Resources res;
     private GoogleMap map;
-    private LocationManager locMan;
     private TextView pebbleStatus;
+    private TextView rideStats;
+    private ElevationProfileView elevationProfile;
+    private long lastProfileRefresh;
+    // Null while the activity isn't bound to the service.
     private TrackerService tService;
+    private boolean resumed;
     private LocalBroadcastManager broadcastManager;
     private Button startStop;
     private Button clear;
-    private boolean initialLaunch;
+    private Polyline trackLine;
+    private long lastTrackRedraw;
+    private final double[] trackLats = new double[TRACK_VERTEX_BUDGET];
+    private final double[] trackLons = new double[TRACK_VERTEX_BUDGET];
+    private final ArrayList<LatLng> trackPoints = new ArrayList<LatLng>(TRACK_VERTEX_BUDGET);
+    private final ArrayList<Polyline> pastRideLines = new ArrayList<Polyline>();
+    private LatLng segmentStart;
+    private long segmentStartPickedAt;
+    private final Handler handler = new Handler();
+    private CameraFollowController follow;
+    private FrameCounter frameCounter;
+    private long statsUpdates;
+    private long statsMoves;
+    private long statsSkipped;
+    private long statsStartedAt;
+    private int statsAllocations;
 
     public RideTrackerFragment() {
     }
@@ -66,35 +110,41 @@ public class RideTrackerFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         tService = ((MainActivity)getActivity()).getTrackerService();
-        initialLaunch = true;
     }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
-        View rootView = inflater.inflate(R.layout.fragment_main, container, false);
+        StartupTrace.beginSection("RideTrackerFragment.onCreateView");
+        final View rootView = inflater.inflate(R.layout.fragment_main, container, false);
 
         if (res == null) {
             res = getActivity().getResources();
         }
 
         pebbleStatus = (TextView) rootView.findViewById(R.id.pebble_connection_status);
-        Typeface iconFont = Typeface.createFromAsset(res.getAssets(), "fonts/Android-Dev-Icons-1.ttf");
-        pebbleStatus.setTypeface(iconFont);
+        pebbleStatus.setTypeface(TypefaceCache.get(getActivity(), TypefaceCache.ICON_FONT));
+        rideStats = (TextView) rootView.findViewById(R.id.ride_stats);
+        elevationProfile = (ElevationProfileView) rootView.findViewById(R.id.elevation_profile);
 
-        MapFragment mapFrag = (MapFragment) getFragmentManager().findFragmentById(R.id.map_container);
-        map = mapFrag.getMap();
-        if (map != null) {
-            map.setMyLocationEnabled(true);
-            map.getUiSettings().setZoomControlsEnabled(false);
-            map.getUiSettings().setZoomGesturesEnabled(false);
-        }
+        // The map isn't needed for the first frame, so it's set up once that's drawn.
+        rootView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                rootView.getViewTreeObserver().removeOnPreDrawListener(this);
+                handler.post(setUpMap);
+                return true;
+            }
+        });
 
         startStop = (Button)rootView.findViewById(R.id.startStopButton);
 
         startStop.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
+                if (tService == null) {
+                    return;
+                }
                 if (tService.getStarted()) {
                     stopTracker();
                 } else {
@@ -108,32 +158,68 @@ public class RideTrackerFragment extends Fragment {
         clear.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                tService.resetPebbleData(getActivity().getApplicationContext());
+                if (tService == null) {
+                    return;
+                }
+                tService.resetPebbleData();
+                clearTrackedMap();
             }
         });
 
         rootView.findViewById(R.id.shareButton).setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-
+                shareRide();
             }
         });
 
+        StartupTrace.endSection();
         return rootView;
     }
 
+    private final Runnable setUpMap = new Runnable() {
+        @Override
+        public void run() {
+            if ((map != null) || !isAdded()) {
+                return;
+            }
+            StartupTrace.beginSection("RideTrackerFragment.setUpMap");
+            MapFragment mapFrag = (MapFragment) getFragmentManager().findFragmentById(R.id.map_container);
+            map = mapFrag.getMap();
+            if (map != null) {
+                map.setMyLocationEnabled(true);
+                map.getUiSettings().setZoomControlsEnabled(false);
+                map.getUiSettings().setZoomGesturesEnabled(false);
+                follow = new CameraFollowController(followCamera, new HandlerScheduler(handler));
+                follow.setZoom(FOLLOW_ZOOM);
+                map.setOnMapLongClickListener(new GoogleMap.OnMapLongClickListener() {
+                    @Override
+                    public void onMapLongClick(LatLng point) {
+                        showPastRides(point);
+                    }
+                });
+                if (resumed) {
+                    if (tService != null) {
+                        map.setLocationSource(tService);
+                    }
+                    startFollowStats();
+                }
+            }
+            StartupTrace.endSection();
+        }
+    };
+
     @Override
     public void onResume() {
         super.onResume();
 
-        locMan = (LocationManager) getActivity().getSystemService(Context.LOCATION_SERVICE);
-        Criteria crit = new Criteria();
-        crit.setAccuracy(Criteria.ACCURACY_FINE);
-        locMan.requestLocationUpdates(0L, 0.0f, crit, tService, null);
-        map.setLocationSource(tService);
+        resumed = true;
+        tService = ((MainActivity) getActivity()).getTrackerService();
+        if (tService != null) {
+            attachService();
+        }
+        startFollowStats();
         broadcastManager = LocalBroadcastManager.getInstance(getActivity());
-        broadcastManager.registerReceiver(mapUpdateReceiver,
-                new IntentFilter(TrackerService.ACTION_MAP_UPDATE_LOCATION));
         broadcastManager.registerReceiver(startStopReceiver,
                 new IntentFilter(TrackerService.ACTION_START_STOP_RECEIVED));
         broadcastManager.registerReceiver(pebbleConnectedReceiver,
@@ -143,26 +229,85 @@ public class RideTrackerFragment extends Fragment {
         broadcastManager.registerReceiver(resetReceiver,
                 new IntentFilter(TrackerService.ACTION_RESET_RECEIVED));
 
-        if (PebbleKit.isWatchConnected(getActivity())) {
-            PebbleKit.startAppOnPebble(getActivity(), MainActivity.PEBBLE_APP_UUID);
-            pebbleConnected();
-        } else {
-            pebbleStatus.setText(res.getString(R.string.pebble_status_disconnected));
-            pebbleDisconnected();
+        new PebbleStatusTask().execute();
+    }
+
+    /**
+     * Asks PebbleKit whether the watch is connected, which queries a content provider, off the
+     * main thread, and opens the watch app if it is.
+     */
+    private class PebbleStatusTask extends AsyncTask<Void, Void, Boolean> {
+        private final Context context = getActivity().getApplicationContext();
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            boolean connected = PebbleKit.isWatchConnected(context);
+            if (connected) {
+                PebbleKit.startAppOnPebble(context, MainActivity.PEBBLE_APP_UUID);
+            }
+            return connected;
         }
 
+        @Override
+        protected void onPostExecute(Boolean connected) {
+            if (!isAdded()) {
+                return;
+            }
+            if (connected) {
+                pebbleConnected();
+            } else {
+                pebbleDisconnected();
+            }
+        }
     }
 
     @Override
     public void onPause() {
-        map.setLocationSource(null);
-        broadcastManager.unregisterReceiver(mapUpdateReceiver);
+        resumed = false;
+        if (tService != null) {
+            detachService();
+        }
+        if (follow != null) {
+            follow.stop();
+        }
+        stopFollowStats();
         broadcastManager.unregisterReceiver(startStopReceiver);
         broadcastManager.unregisterReceiver(resetReceiver);
         broadcastManager.unregisterReceiver(pebbleConnectedReceiver);
         super.onPause();
     }
 
+    /**
+     * Called by the activity as the service is bound and unbound.
+     */
+    public void setTrackerService(TrackerService service) {
+        if (resumed && (tService != null)) {
+            detachService();
+        }
+        tService = service;
+        if (resumed && (tService != null)) {
+            attachService();
+        }
+    }
+
+    private void attachService() {
+        if (map != null) {
+            map.setLocationSource(tService);
+        }
+        tService.setOnRideUpdateListener(rideUpdateListener);
+        // The ride may have been going on without us.
+        showTracking(tService.getStarted());
+        lastTrackRedraw = 0L;
+        lastProfileRefresh = 0L;
+    }
+
+    private void detachService() {
+        if (map != null) {
+            map.setLocationSource(null);
+        }
+        tService.setOnRideUpdateListener(null);
+    }
+
     public void pebbleConnected() {
         pebbleStatus.setText(res.getString(R.string.pebble_status_connected));
         pebbleStatus.setTextColor(res.getColor(android.R.color.holo_green_light));
@@ -173,29 +318,159 @@ public class RideTrackerFragment extends Fragment {
         pebbleStatus.setTextColor(res.getColor(android.R.color.holo_red_light));
     }
 
-    private BroadcastReceiver mapUpdateReceiver = new BroadcastReceiver() {
+    private TrackerService.OnRideUpdateListener rideUpdateListener =
+            new TrackerService.OnRideUpdateListener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            Location loc = intent.getParcelableExtra(TrackerService.KEY_LOCATION);
-            float zoom = 15.0f;
-            if (loc != null) {
-                initialLaunch = false;
-                CameraPosition myPosition = new CameraPosition.Builder()
-                    .target(new LatLng(loc.getLatitude(), loc.getLongitude()))
-                    .zoom(zoom).build();
-                map.animateCamera(CameraUpdateFactory.newCameraPosition(myPosition));
+        public void onRideUpdate(RideSnapshot snapshot) {
+            showStats(tService.getStats().read());
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastProfileRefresh >= PROFILE_REFRESH_MS) {
+                lastProfileRefresh = now;
+                tService.requestElevationProfile(PROFILE_POINTS, profileListener);
+            }
+            if (follow == null) {
+                return;
+            }
+            follow.update(snapshot.getLatitude(), snapshot.getLongitude(), snapshot.getSpeed(),
+                    snapshot.getBearing());
+            redrawTrack(snapshot.getLatitude(), follow.getZoom());
+        }
+    };
+
+    private final TrackerService.OnProfileListener profileListener =
+            new TrackerService.OnProfileListener() {
+        @Override
+        public void onProfile(float[] min, float[] max, int count) {
+            elevationProfile.setProfile(min, max, count);
+        }
+    };
+
+    private void showStats(RideStats.Values stats) {
+        long movingMinutes = stats.movingMs / 60000L;
+        rideStats.setText(res.getString(R.string.ride_stats_format, stats.speed * KMH_PER_MS,
+                stats.average10s * KMH_PER_MS, stats.averageSpeed * KMH_PER_MS,
+                stats.maxSpeed * KMH_PER_MS, movingMinutes / 60L, movingMinutes % 60L,
+                stats.elevationGain, Math.abs(stats.lean), stats.grade));
+    }
+
+    private CameraFollowController.Camera followCamera = new CameraFollowController.Camera() {
+        @Override
+        public void moveTo(double latitude, double longitude, float zoom, int durationMs) {
+            map.animateCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(latitude, longitude), zoom),
+                    durationMs, null);
+        }
+    };
+
+    /**
+     * Logs camera moves, map frames and main thread allocations once a minute, to see what
+     * following the rider costs. The runtime only counts allocations while the diagnostics screen
+     * is recording, which starts and stops the counting, so this only reads the count.
+     */
+    private void startFollowStats() {
+        if (follow == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (frameCounter == null) {
+                frameCounter = new FrameCounter();
+            }
+            frameCounter.start();
+        }
+        statsAllocations = allocationCount();
+        statsUpdates = follow.getUpdateCount();
+        statsMoves = follow.getMoveCount();
+        statsSkipped = follow.getSkippedCount();
+        statsStartedAt = SystemClock.elapsedRealtime();
+        handler.postDelayed(logFollowStats, FOLLOW_STATS_INTERVAL_MS);
+    }
+
+    private void stopFollowStats() {
+        handler.removeCallbacks(logFollowStats);
+        if (frameCounter != null) {
+            frameCounter.stop();
+        }
+    }
+
+    /**
+     * The main thread's allocations so far, or -1 when they aren't being counted.
+     */
+    private static int allocationCount() {
+        return Metrics.isEnabled() ? Debug.getThreadAllocCount() : -1;
+    }
+
+    private final Runnable logFollowStats = new Runnable() {
+        @Override
+        public void run() {
+            long elapsed = SystemClock.elapsedRealtime() - statsStartedAt;
+            if (elapsed <= 0) {
+                return;
+            }
+            double minutes = elapsed / 60000.0;
+            StringBuilder sb = new StringBuilder("Per minute: ");
+            sb.append(Math.round((follow.getUpdateCount() - statsUpdates) / minutes)).append(" updates, ")
+                    .append(Math.round((follow.getMoveCount() - statsMoves) / minutes)).append(" camera moves, ")
+                    .append(Math.round((follow.getSkippedCount() - statsSkipped) / minutes)).append(" skipped");
+            if (frameCounter != null) {
+                sb.append(", ").append(Math.round(frameCounter.takeCount() / minutes)).append(" frames");
             }
+            int allocations = allocationCount();
+            // Recording starting over resets the count, leaving nothing to compare with.
+            if ((statsAllocations >= 0) && (allocations >= statsAllocations)) {
+                sb.append(", ").append(Math.round((allocations - statsAllocations) / minutes))
+                        .append(" main thread allocations");
+            }
+            Log.d(TAG, sb.toString());
+
+            statsUpdates = follow.getUpdateCount();
+            statsMoves = follow.getMoveCount();
+            statsSkipped = follow.getSkippedCount();
+            statsStartedAt = SystemClock.elapsedRealtime();
+            statsAllocations = allocations;
+            handler.postDelayed(this, FOLLOW_STATS_INTERVAL_MS);
         }
     };
 
+    /**
+     * Counts frames drawn, on API 16 and up where there's a Choreographer to ask.
+     */
+    private static class FrameCounter implements Choreographer.FrameCallback {
+        private long count;
+        private boolean running;
+
+        void start() {
+            if (!running) {
+                running = true;
+                count = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void stop() {
+            running = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        long takeCount() {
+            long taken = count;
+            count = 0;
+            return taken;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            count++;
+            if (running) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+
     private BroadcastReceiver startStopReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            boolean start = intent.getBooleanExtra(TrackerService.KEY_START_STOP, false);
-            if ((start) && (startStop != null)) {
-                startTracker();
-            } else if ((!start) && (startStop != null)) {
-                stopTracker();
+            // The service has already acted on it; just catch the buttons up.
+            if (startStop != null) {
+                showTracking(intent.getBooleanExtra(TrackerService.KEY_START_STOP, false));
             }
         }
     };
@@ -217,26 +492,159 @@ public class RideTrackerFragment extends Fragment {
     private BroadcastReceiver resetReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            //TODO: Clear the tracked map
+            clearTrackedMap();
+        }
+    };
+
+    private void redrawTrack(double latitude, float zoom) {
+        long now = SystemClock.elapsedRealtime();
+        if ((map == null) || (tService == null)
+                || (now - lastTrackRedraw < TRACK_REDRAW_INTERVAL_MS)) {
+            return;
+        }
+        lastTrackRedraw = now;
+
+        TrackSimplifier simplifier = tService.getSimplifier();
+        double metersPerPixel = CameraFollowController.METERS_PER_PIXEL_ZOOM_0 * Math.cos(Math.toRadians(latitude))
+                / Math.pow(2.0, zoom);
+        int tier = simplifier.selectTier(metersPerPixel, TRACK_VERTEX_BUDGET);
+        int count = simplifier.copyTier(tier, trackLats, trackLons, TRACK_VERTEX_BUDGET);
+
+        trackPoints.clear();
+        for (int i = 0; i < count; i++) {
+            trackPoints.add(new LatLng(trackLats[i], trackLons[i]));
+        }
+        if (trackLine == null) {
+            trackLine = map.addPolyline(new PolylineOptions()
+                    .color(res.getColor(android.R.color.holo_red_light))
+                    .width(TRACK_WIDTH));
+        }
+        trackLine.setPoints(trackPoints);
+    }
+
+    /**
+     * Draws the rides recorded before that came through the point that was long pressed.
+     */
+    private void showPastRides(LatLng point) {
+        if ((tService == null) || (follow == null)) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if ((segmentStart != null) && (now - segmentStartPickedAt < SEGMENT_PICK_MS)) {
+            offerSegment(segmentStart, point);
+            segmentStart = null;
+            return;
+        }
+        segmentStart = point;
+        segmentStartPickedAt = now;
+        double metersPerPixel = CameraFollowController.METERS_PER_PIXEL_ZOOM_0
+                * Math.cos(Math.toRadians(point.latitude)) / Math.pow(2.0, follow.getZoom());
+        new PastRidesTask(tService, point.latitude, point.longitude, PAST_RIDE_RADIUS_METERS,
+                metersPerPixel, TRACK_VERTEX_BUDGET, pastRidesListener).execute();
+    }
+
+    private final PastRidesTask.Listener pastRidesListener = new PastRidesTask.Listener() {
+        @Override
+        public void onPastRides(List<PastRidesTask.PastRide> rides, int found) {
+            if (!isAdded() || (map == null)) {
+                return;
+            }
+            clearPastRides();
+            for (PastRidesTask.PastRide ride : rides) {
+                ArrayList<LatLng> points = new ArrayList<LatLng>(ride.count);
+                for (int i = 0; i < ride.count; i++) {
+                    points.add(new LatLng(ride.latitudes[i], ride.longitudes[i]));
+                }
+                pastRideLines.add(map.addPolyline(new PolylineOptions()
+                        .color(res.getColor(android.R.color.darker_gray))
+                        .width(PAST_RIDE_WIDTH)
+                        .addAll(points)));
+            }
+            String message = (found == 0) ? res.getString(R.string.past_rides_none)
+                    : res.getString(R.string.past_rides_found, found);
+            Toast.makeText(getActivity(), message, Toast.LENGTH_SHORT).show();
         }
     };
 
+    private void offerSegment(final LatLng from, final LatLng to) {
+        new AlertDialog.Builder(getActivity())
+                .setMessage(R.string.segment_offer)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (tService == null) {
+                            return;
+                        }
+                        new SegmentFromRideTask(getActivity(), tService, from.latitude,
+                                from.longitude, to.latitude, to.longitude).execute();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void clearPastRides() {
+        for (Polyline line : pastRideLines) {
+            line.remove();
+        }
+        pastRideLines.clear();
+    }
+
+    private void clearTrackedMap() {
+        if (trackLine != null) {
+            trackLine.remove();
+            trackLine = null;
+        }
+        clearPastRides();
+        trackPoints.clear();
+        lastTrackRedraw = 0L;
+    }
+
+    private void shareRide() {
+        if (tService == null) {
+            return;
+        }
+        final TrackBuffer track = tService.getTrack();
+        if (track.isEmpty()) {
+            Toast.makeText(getActivity(), R.string.nothing_to_share, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // Taken now, as the service may be unbound by the time a format is picked.
+        final RoadGraph roads = tService.getRoadGraph();
+
+        final TrackExporter.Format[] formats = TrackExporter.Format.values();
+        CharSequence[] labels = new CharSequence[formats.length];
+        for (int i = 0; i < formats.length; i++) {
+            labels[i] = formats[i].getLabel();
+        }
+
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.export_format_title)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (track.isEmpty()) {
+                            return;
+                        }
+                        new ShareRideTask(getActivity(), track.view(null), roads,
+                                formats[which]).execute();
+                    }
+                })
+                .show();
+    }
+
     private void stopTracker() {
-        tService.setStopped(getActivity().getApplicationContext());
-        startStop.setText(res.getString(R.string.start));
-        clear.setEnabled(true);
+        tService.setStopped();
+        showTracking(false);
     }
 
     private void startTracker() {
-        tService.setStarted(getActivity().getApplicationContext());
-        startStop.setText(res.getString(R.string.stop));
-        clear.setEnabled(false);
+        tService.setStarted();
+        showTracking(true);
     }
 
-    @Override
-    public void onDestroy() {
-        locMan.removeUpdates(tService);
-        locMan = null;
-        super.onDestroy();
+    private void showTracking(boolean tracking) {
+        startStop.setText(res.getString(tracking ? R.string.stop : R.string.start));
+        clear.setEnabled(!tracking);
     }
 }
@@ -0,0 +1,133 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Makes a segment from two points on the map: finds the newest recorded ride that went from the
+ * first to the second, reads that stretch of it off the UI thread and hands it to the service to
+ * time from then on, with the ride's own times as the best to beat.
+ */
+public class SegmentFromRideTask extends AsyncTask<Void, Void, TrackBuffer.View> {
+    private static final String TAG = SegmentFromRideTask.class.getSimpleName();
+    // How close a ride has to have come to each point.
+    private static final double MATCH_RADIUS_METERS = 50.0;
+
+    private final Context context;
+    private final TrackerService service;
+    private final double fromLat;
+    private final double fromLon;
+    private final double toLat;
+    private final double toLon;
+
+    public SegmentFromRideTask(Context context, TrackerService service, double fromLat,
+                               double fromLon, double toLat, double toLon) {
+        this.context = context.getApplicationContext();
+        this.service = service;
+        this.fromLat = fromLat;
+        this.fromLon = fromLon;
+        this.toLat = toLat;
+        this.toLon = toLon;
+    }
+
+    @Override
+    protected TrackBuffer.View doInBackground(Void... params) {
+        RideIndex index = service.getRideIndex();
+        if (index == null) {
+            return null;
+        }
+        long[] rides = ridesNear(index, fromLat, fromLon);
+        long[] toRides = ridesNear(index, toLat, toLon);
+
+        RideArchive.Block block = new RideArchive.Block();
+        TrackBuffer stretch = new TrackBuffer();
+        // Ride ids are start times, so the newest rides are at the end.
+        for (int r = rides.length - 1; r >= 0; r--) {
+            if (Arrays.binarySearch(toRides, rides[r]) < 0) {
+                continue;
+            }
+            File file = service.getRideArchiveFile(rides[r]);
+            if ((file == null) || !file.exists()) {
+                continue;
+            }
+            stretch.clear();
+            try {
+                RideArchive archive = new RideArchive(file);
+                try {
+                    if (archive.readStretch(fromLat, fromLon, toLat, toLon, MATCH_RADIUS_METERS,
+                            block, stretch) > 0) {
+                        return withoutOutliers(stretch.view(null));
+                    }
+                } finally {
+                    archive.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read ride " + rides[r], e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The archive keeps every fix, and a gate put on an outlier would be off the road.
+     */
+    private static TrackBuffer.View withoutOutliers(TrackBuffer.View stretch) {
+        TrackBuffer clean = new TrackBuffer();
+        DistanceFilter filter = new DistanceFilter();
+        for (int i = 0; i < stretch.size(); i++) {
+            if (filter.update(stretch.getTime(i), stretch.getLatitude(i), stretch.getLongitude(i),
+                    stretch.getAccuracy(i))) {
+                clean.append(stretch.getLatitude(i), stretch.getLongitude(i),
+                        stretch.getAltitude(i), stretch.getTime(i), stretch.getAccuracy(i));
+            }
+        }
+        return clean.view(null);
+    }
+
+    private static long[] ridesNear(RideIndex index, double latitude, double longitude) {
+        double dLat = MATCH_RADIUS_METERS / GeoMath.METERS_PER_DEGREE;
+        double dLon = MATCH_RADIUS_METERS
+                / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        return index.queryBoundingBox(latitude - dLat, longitude - dLon, latitude + dLat,
+                longitude + dLon);
+    }
+
+    @Override
+    protected void onPostExecute(TrackBuffer.View stretch) {
+        if (stretch == null) {
+            Toast.makeText(context, R.string.segment_not_found, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        service.addSegmentFromRide(stretch, new TrackerService.OnSegmentAddedListener() {
+            @Override
+            public void onSegmentAdded(int segment) {
+                Toast.makeText(context, (segment >= 0) ? R.string.segment_added
+                        : R.string.segment_too_short, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Exports the ride to a file off the UI thread, then offers it to other apps with a share Intent.
+ * If the service has a road graph the exported track is matched to the roads on the way out.
+ */
+public class ShareRideTask extends AsyncTask<Void, Void, File> {
+    private static final String TAG = ShareRideTask.class.getSimpleName();
+    private static final String EXPORT_DIR = "exports";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final TrackBuffer.View track;
+    private final RoadGraph roads;
+    private final TrackExporter.Format format;
+
+    /**
+     * @param track the points to export. Only the view's bounds are captured here, so the
+     *              tracker can keep recording while the export runs.
+     * @param roads the graph to match the track to, or null to export it as recorded
+     */
+    public ShareRideTask(Context context, TrackBuffer.View track, RoadGraph roads,
+                         TrackExporter.Format format) {
+        this.context = context.getApplicationContext();
+        this.track = track;
+        this.roads = roads;
+        this.format = format;
+    }
+
+    @Override
+    protected File doInBackground(Void... params) {
+        // Other apps need to read the file through a file:// Uri, so it goes on external storage.
+        File dir = new File(context.getExternalCacheDir(), EXPORT_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create export directory " + dir);
+            return null;
+        }
+
+        File file = new File(dir, "ride-" + track.getTime(0) + "." + format.getExtension());
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+                    WRITE_BUFFER_SIZE);
+            new TrackExporter().export(track, roads, format, writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not export ride", e);
+            file = null;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not close export file", e);
+                    file = null;
+                }
+            }
+        }
+        return file;
+    }
+
+    @Override
+    protected void onPostExecute(File file) {
+        if (file == null) {
+            Toast.makeText(context, R.string.export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Intent share = new Intent(Intent.ACTION_SEND);
+        share.setType(format.getMimeType());
+        share.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+        share.putExtra(Intent.EXTRA_SUBJECT, file.getName());
+
+        Intent chooser = Intent.createChooser(share, context.getString(R.string.share_map));
+        chooser.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(chooser);
+    }
+}
@@ -0,0 +1,89 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Startup timings, so they can be compared from one release to the next.
+ *
+ * Times to the first frame and the first fix are measured from the activity being created and
+ * logged once per start. The first start in a process is cold, later ones (the activity
+ * recreated while the process lived on) are warm. The steps in between are also marked as
+ * sections for systrace on API 18 and up.
+ *
+ * Main thread only.
+ */
+public final class StartupTrace {
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    private static boolean processStarted;
+    private static boolean cold;
+    private static long createdAt = -1L;
+    private static boolean waitingForFrame;
+    private static boolean waitingForFix;
+
+    private StartupTrace() {
+    }
+
+    public static void activityCreated() {
+        cold = !processStarted;
+        processStarted = true;
+        createdAt = SystemClock.elapsedRealtime();
+        waitingForFrame = true;
+        waitingForFix = true;
+    }
+
+    public static void firstFrame() {
+        if (waitingForFrame) {
+            waitingForFrame = false;
+            log("first frame");
+        }
+    }
+
+    public static void fixReceived() {
+        if (waitingForFix) {
+            waitingForFix = false;
+            log("first fix");
+        }
+    }
+
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    public static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    private static void log(String milestone) {
+        if (createdAt < 0) {
+            return;
+        }
+        Log.i(TAG, (cold ? "Cold" : "Warm") + " start, " + milestone + " after "
+                + (SystemClock.elapsedRealtime() - createdAt) + "ms");
+    }
+}
@@ -18,104 +18,585 @@
 
 package com.hqas.ridetracker;
 
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.location.Location;
+import android.location.LocationManager;
+import android.os.Binder;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 
 import android.location.LocationListener;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import com.getpebble.android.kit.PebbleKit;
 import com.getpebble.android.kit.util.PebbleDictionary;
 import com.google.android.gms.maps.LocationSource;
 
 /**
  * Created by joneby on 11/12/2013.
+ *
+ * Activities bind to it for the {@link LocalBinder} API. While a ride is being tracked it is
+ * started as well and runs in the foreground with a notification, so tracking, recording and
+ * the Pebble carry on with the screen off or the activity gone.
  */
 public class TrackerService extends Service implements LocationListener,
         LocationSource {
     private static final String TAG = TrackerService.class.getSimpleName();
+    private static final String JOURNAL_FILE = "current_ride.journal";
+    private static final String RIDE_INDEX_FILE = "rides.index";
+    private static final String SEGMENTS_FILE = "segments.dat";
+    private static final String ARCHIVE_DIR = "rides";
+    // Optional; rides are matched to the roads in it when it's there.
+    static final String ROAD_GRAPH_FILE = "roads.rgr";
+    private static final String PREFERENCES = "tracker";
+    private static final String PREF_INGEST_MODE = "ingest_mode";
 
     public static final String ACTION_PEBBLE_CONNECTED = "pebble_connected";
     public static final String ACTION_PEBBLE_DISCONNECTED = "pebble_disconnected";
-    public static final String ACTION_MAP_UPDATE_LOCATION = "map_update_location";
     public static final String ACTION_START_STOP_RECEIVED = "start_stop_received";
     public static final String ACTION_RESET_RECEIVED = "reset_received";
 
+    public static final String ACTION_START_TRACKING = "com.hqas.ridetracker.starttracking";
+    public static final String ACTION_STOP_TRACKING = "com.hqas.ridetracker.stoptracking";
+
     public static final String KEY_PEBBLE_STATUS = "key_pebble_status";
-    public static final String KEY_LOCATION = "key_new_location";
     public static final String KEY_START_STOP = "key_start_stop";
 
-    private final int KEY_PEBBLE_STARTSTOP = 0;
-    private final int KEY_PEBBLE_LOCATIONUPDATE = 1;
-    private final int KEY_PEBBLE_RESET = 2;
+    private static final int PEBBLE_PROFILE_POINTS = 48;
+    private static final long PEBBLE_PROFILE_INTERVAL_MS = 60000L;
+    // A reading a second is plenty for altitude and lets the sensor idle in between.
+    private static final int PRESSURE_SAMPLING_US = 1000000;
 
     private final String trackerStartedMessage = "true";
     private final String trackerStoppedMessage = "false";
     private final String trackerResetMessage = "reset";
 
-    private float distanceTravelled;
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Receives the ride's position and totals on the main thread, at the snapshot rate. The
+     * snapshot object is reused, so copy anything that's needed later.
+     */
+    public interface OnRideUpdateListener {
+        void onRideUpdate(RideSnapshot snapshot);
+    }
+
+    /**
+     * Gets an elevation profile on the main thread; see {@link ElevationSeries#getProfile}.
+     */
+    public interface OnProfileListener {
+        void onProfile(float[] min, float[] max, int count);
+    }
+
+    /**
+     * Hears on the main thread whether a segment was added.
+     */
+    public interface OnSegmentAddedListener {
+        /**
+         * @param segment the segment's number, or -1 if the stretch was too short
+         */
+        void onSegmentAdded(int segment);
+    }
+
+    /**
+     * What bound clients get; the service runs in the same process, so it just hands itself over.
+     */
+    public class LocalBinder extends Binder {
+        public TrackerService getService() {
+            return TrackerService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
 
     private OnLocationChangedListener mapLocationListener;
-    private final float pebbleUpdateThreshold = 100.0f;
-    private Location lastLoc;
-    private boolean started;
+    private OnRideUpdateListener rideUpdateListener;
+    // Whether anything on screen wants snapshots; when not, the worker doesn't post them.
+    private volatile boolean uiAttached;
+    private volatile boolean started;
+    private LocationSampler locationSampler;
+    private SensorManager sensorManager;
+    private Sensor pressureSensor;
+
+    // Fixes are processed on their own thread; only snapshots come back to the main thread.
+    private final RideProcessor processor;
+    private HandlerThread workerThread;
+    private Handler worker;
+    private final Handler mainHandler;
+    private final Fix incoming = new Fix();
+    private final RideSnapshot uiSnapshot = new RideSnapshot();
+    private final Location uiLocation = new Location("pipeline");
+    private final AtomicBoolean drainPending = new AtomicBoolean();
+    // System.nanoTime() of the last fix while metrics are on, for the time between fixes.
+    private long lastFixNanos;
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+    private final AtomicBoolean telemetryPending = new AtomicBoolean();
+    private volatile SamplingPolicy.Mode samplingMode;
+    private volatile IngestMode ingestMode = IngestMode.LIVE;
+    private volatile RoadGraph roadGraph;
+    private final PebbleSendQueue pebbleQueue;
+
+    // Fixes processed with an activity bound and with none, counted up to fixesCountedTo.
+    private boolean bound;
+    private long fixesCountedTo;
+    private long fixesWithActivity;
+    private long fixesWithoutActivity;
+
+    public TrackerService() {
+        mainHandler = new Handler();
+        pebbleQueue = new PebbleSendQueue(pebbleTransport, new HandlerScheduler(mainHandler),
+                pebbleTelemetry);
+        processor = new RideProcessor(processorListener);
+        samplingMode = processor.getSamplingMode();
+    }
 
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
+    public void onCreate() {
+        StartupTrace.beginSection("TrackerService.onCreate");
+        super.onCreate();
         PebbleKit.registerPebbleConnectedReceiver(this, pebbleConnectedReceiver);
         PebbleKit.registerPebbleDisconnectedReceiver(this, pebbleDisconnectedReceiver);
         PebbleKit.registerReceivedAckHandler(this, pebbleAckReceiver);
         PebbleKit.registerReceivedNackHandler(this, pebbleNackReceiver);
         PebbleKit.registerReceivedDataHandler(this, pebbleDataReceiver);
+        locationSampler = new LocationSampler(
+                (LocationManager) getSystemService(Context.LOCATION_SERVICE), this);
+        applySamplingMode();
+        ingestMode = loadIngestMode();
+        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        pressureSensor = sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+
+        final File journalFile = new File(getFilesDir(), JOURNAL_FILE);
+        final File indexFile = new File(getFilesDir(), RIDE_INDEX_FILE);
+        final File segmentsFile = new File(getFilesDir(), SEGMENTS_FILE);
+        final File archiveDir = new File(getFilesDir(), ARCHIVE_DIR);
+        final File roadGraphFile = new File(getFilesDir(), ROAD_GRAPH_FILE);
+        getWorker().post(new Runnable() {
+            @Override
+            public void run() {
+                processor.setArchiveDir(archiveDir);
+                processor.openRideIndex(indexFile);
+                processor.openSegments(segmentsFile);
+                if (processor.openRoadGraph(roadGraphFile)) {
+                    roadGraph = processor.getRoadGraph();
+                }
+                long recovered = processor.openJournal(journalFile);
+                if (recovered > 0) {
+                    Log.i(TAG, "Recovered " + recovered + " fixes from ride journal");
+                }
+            }
+        });
+        StartupTrace.endSection();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = (intent != null) ? intent.getAction() : null;
+        // A redelivered start is the system bringing a ride back after killing the service.
+        if (ACTION_START_TRACKING.equals(action) && !started) {
+            setStarted();
+        } else if (ACTION_STOP_TRACKING.equals(action) && started) {
+            setStopped();
+        }
+        if (!started) {
+            stopSelf();
+        }
+        return Service.START_REDELIVER_INTENT;
+    }
 
-        return Service.START_STICKY;
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(pebbleConnectedReceiver);
+        unregisterReceiver(pebbleDisconnectedReceiver);
+        unregisterReceiver(pebbleAckReceiver);
+        unregisterReceiver(pebbleNackReceiver);
+        unregisterReceiver(pebbleDataReceiver);
+        locationSampler.stop();
+        sensorManager.unregisterListener(pressureListener);
+        mainHandler.removeCallbacksAndMessages(null);
+        countFixes();
+        logFixCounts();
+        if (workerThread != null) {
+            final HandlerThread thread = workerThread;
+            // Let whatever is already queued finish, then close up and stop the thread.
+            worker.post(new Runnable() {
+                @Override
+                public void run() {
+                    drainQueued();
+                    processor.closeJournal();
+                    processor.closeRideIndex();
+                    Log.i(TAG, processor.getPipeline().describe());
+                    thread.quit();
+                }
+            });
+            workerThread = null;
+            worker = null;
+        }
+        super.onDestroy();
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        countFixes();
+        bound = true;
+        return binder;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        countFixes();
+        bound = true;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        countFixes();
+        bound = false;
+        logFixCounts();
+        // Ask for onRebind so coming back is counted too.
+        return true;
     }
 
     @Override
     public void activate(OnLocationChangedListener listener) {
         this.mapLocationListener = listener;
+        updateUiAttached();
     }
 
     @Override
     public void deactivate() {
         this.mapLocationListener = null;
+        updateUiAttached();
+    }
+
+    public void setOnRideUpdateListener(OnRideUpdateListener listener) {
+        this.rideUpdateListener = listener;
+        updateUiAttached();
+    }
+
+    private void updateUiAttached() {
+        uiAttached = (mapLocationListener != null) || (rideUpdateListener != null);
+        if (uiAttached && (processor.getPipeline().getQueueDepth() > 0)) {
+            // Bring the screen up to date rather than wait out the batch.
+            drainNow();
+        }
+    }
+
+    public IngestMode getIngestMode() {
+        return ingestMode;
+    }
+
+    /**
+     * Sets how fixes are batched while nothing is on screen; with the UI attached they're always
+     * processed as they come. The mode is saved and read back whenever the service is created.
+     */
+    public void setIngestMode(IngestMode mode) {
+        ingestMode = mode;
+        getSharedPreferences(PREFERENCES, MODE_PRIVATE).edit()
+                .putString(PREF_INGEST_MODE, mode.name()).apply();
+        Log.i(TAG, "Fix ingestion now " + mode);
+    }
+
+    /**
+     * @return the mode last saved by {@link #setIngestMode}, or LIVE
+     */
+    private IngestMode loadIngestMode() {
+        String name = getSharedPreferences(PREFERENCES, MODE_PRIVATE)
+                .getString(PREF_INGEST_MODE, null);
+        if (name != null) {
+            try {
+                return IngestMode.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown saved ingest mode " + name);
+            }
+        }
+        return IngestMode.LIVE;
+    }
+
+    /**
+     * Fixes processed so far while an activity was bound to the service.
+     */
+    public long getFixesWithActivity() {
+        countFixes();
+        return fixesWithActivity;
+    }
+
+    /**
+     * Fixes processed so far with no activity bound, e.g. riding with the app closed.
+     */
+    public long getFixesWithoutActivity() {
+        countFixes();
+        return fixesWithoutActivity;
+    }
+
+    private void countFixes() {
+        long processed = processor.getPipeline().getProcessedCount();
+        if (bound) {
+            fixesWithActivity += processed - fixesCountedTo;
+        } else {
+            fixesWithoutActivity += processed - fixesCountedTo;
+        }
+        fixesCountedTo = processed;
+    }
+
+    private void logFixCounts() {
+        Log.i(TAG, "Fixes processed: " + fixesWithActivity + " with the activity, "
+                + fixesWithoutActivity + " without");
     }
 
     @Override
     public void onLocationChanged(Location loc) {
-        if ((mapLocationListener != null) && (started)) {
-            mapLocationListener.onLocationChanged(loc);
-            Intent newLocation = new Intent(ACTION_MAP_UPDATE_LOCATION);
-            newLocation.putExtra(KEY_LOCATION, loc);
-            LocalBroadcastManager.getInstance(this).sendBroadcast(newLocation);
+        StartupTrace.fixReceived();
+        boolean metrics = Metrics.isEnabled();
+        long start = 0L;
+        int allocations = 0;
+        if (metrics) {
+            start = System.nanoTime();
+            allocations = Debug.getThreadAllocCount();
+            if (lastFixNanos != 0L) {
+                Metrics.FIX_INTERVAL.record(start - lastFixNanos);
+            }
+            lastFixNanos = start;
+        } else {
+            lastFixNanos = 0L;
+        }
+        Metrics.FIXES.increment();
+
+        incoming.set(loc.getTime(), loc.getLatitude(), loc.getLongitude(),
+                loc.hasAltitude() ? loc.getAltitude() : Double.NaN,
+                loc.hasAccuracy() ? loc.getAccuracy() : 0.0f,
+                loc.hasSpeed() ? loc.getSpeed() : -1.0f,
+                loc.hasBearing() ? loc.getBearing() : -1.0f);
+        FixPipeline pipeline = processor.getPipeline();
+        if (!pipeline.offer(incoming)) {
+            Metrics.FIXES_DROPPED.increment();
+            Log.w(TAG, "Fix pipeline is full, dropped a fix");
+        }
+
+        IngestMode mode = uiAttached ? IngestMode.LIVE : ingestMode;
+        if (mode == IngestMode.LIVE) {
+            if (drainPending.compareAndSet(false, true)) {
+                getWorker().post(drainFixes);
+            }
+        } else if (pipeline.getQueueDepth() >= mode.getMaxBatchFixes()) {
+            drainNow();
+        } else if (drainPending.compareAndSet(false, true)) {
+            // First fix of a batch; the rest wait with it.
+            getWorker().postDelayed(drainFixes, mode.getMaxDelayMs());
         }
 
-        if (lastLoc == null) {
-            lastLoc = loc;
+        if (metrics) {
+            Metrics.LOCATION_CHANGED.record(System.nanoTime() - start);
+            Metrics.FIX_ALLOCATIONS.add(Debug.getThreadAllocCount() - allocations);
         }
+    }
 
-        float distanceFromLastPoint = loc.distanceTo(lastLoc);
+    /**
+     * Has the worker drain the queue straight away, even if a batch is waiting on a timer.
+     */
+    private void drainNow() {
+        // Set before posting, so the drain that clears it can't be missed.
+        drainPending.set(true);
+        Handler handler = getWorker();
+        handler.removeCallbacks(drainFixes);
+        handler.post(drainFixes);
+    }
 
-        if ((distanceFromLastPoint >= pebbleUpdateThreshold) && (started)) {
-            distanceTravelled += distanceFromLastPoint;
-            lastLoc = loc;
-            PebbleDictionary newLocData = new PebbleDictionary();
-            newLocData.addInt32(KEY_PEBBLE_LOCATIONUPDATE, (int) distanceTravelled);
-            PebbleKit.sendDataToPebble(getBaseContext(), MainActivity.PEBBLE_APP_UUID, newLocData);
+    /**
+     * Worker thread only.
+     */
+    private void drainQueued() {
+        if (ingestMode == IngestMode.LIVE) {
+            processor.getPipeline().drain();
+        } else {
+            processor.drainBatch();
         }
     }
 
+    private Handler getWorker() {
+        if (worker == null) {
+            workerThread = new HandlerThread("TrackerPipeline", Process.THREAD_PRIORITY_BACKGROUND);
+            workerThread.start();
+            worker = new Handler(workerThread.getLooper());
+        }
+        return worker;
+    }
+
+    private final Runnable drainFixes = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared first so a fix offered while draining schedules another pass.
+            drainPending.set(false);
+            boolean metrics = Metrics.isEnabled();
+            long start = metrics ? System.nanoTime() : 0L;
+            drainQueued();
+            if (metrics) {
+                Metrics.DRAIN.record(System.nanoTime() - start);
+            }
+        }
+    };
+
+    private final RideProcessor.Listener processorListener = new RideProcessor.Listener() {
+        @Override
+        public void onSamplingModeChanged(SamplingPolicy.Mode mode) {
+            samplingMode = mode;
+            mainHandler.post(applySamplingMode);
+        }
+
+        @Override
+        public void onAutoPauseChanged(final boolean paused) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    sendAutoPause(paused);
+                }
+            });
+        }
+
+        @Override
+        public void onTelemetryChanged() {
+            if (telemetryPending.compareAndSet(false, true)) {
+                mainHandler.post(telemetryChanged);
+            }
+        }
+
+        @Override
+        public void onSnapshot(RideSnapshot snapshot) {
+            if (uiAttached && snapshotPending.compareAndSet(false, true)) {
+                mainHandler.post(publishSnapshot);
+            }
+        }
+
+        @Override
+        public void onStorageError(String message, IOException e) {
+            Log.w(TAG, message, e);
+        }
+
+        @Override
+        public void onSegmentSplit(final int segment, final int gate, int gateCount,
+                                   final long splitMs, final long deltaMs) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    sendSegmentSplit(segment, gate, splitMs, deltaMs);
+                }
+            });
+        }
+    };
+
+    /**
+     * Shows an auto-pause on the watch the same way as a stop. Pressing start there resumes by
+     * hand, and the ride stays started on the phone either way.
+     */
+    private void sendAutoPause(boolean paused) {
+        if (!started) {
+            return;
+        }
+        NotificationManager notifications =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notifications.notify(NOTIFICATION_ID, buildNotification(paused));
+        PebbleDictionary pauseData = new PebbleDictionary();
+        pauseData.addString(PebbleKeys.START_STOP,
+                paused ? trackerStoppedMessage : trackerStartedMessage);
+        pebbleQueue.sendControl(PebbleKeys.START_STOP, pauseData);
+    }
+
+    private void sendSegmentSplit(int segment, int gate, long splitMs, long deltaMs) {
+        PebbleDictionary splitData = new PebbleDictionary();
+        splitData.addInt32(PebbleKeys.SEGMENT, segment);
+        splitData.addInt32(PebbleKeys.SEGMENT_GATE, gate);
+        splitData.addInt32(PebbleKeys.SEGMENT_SPLIT, (int) (splitMs / 100L));
+        if (deltaMs != SegmentTimer.NO_BEST) {
+            splitData.addInt32(PebbleKeys.SEGMENT_DELTA, (int) (deltaMs / 100L));
+        }
+        pebbleQueue.sendEvent(splitData);
+    }
+
+    /**
+     * Times a stretch of an earlier ride as a segment from now on, with that ride's times as the
+     * best to beat; see {@link RideProcessor#addSegmentFromTrack}.
+     */
+    public void addSegmentFromRide(final TrackBuffer.View stretch,
+                                   final OnSegmentAddedListener listener) {
+        getWorker().post(new Runnable() {
+            @Override
+            public void run() {
+                final int segment = processor.addSegmentFromTrack(stretch, 0, stretch.size() - 1);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSegmentAdded(segment);
+                    }
+                });
+            }
+        });
+    }
+
+    private final Runnable applySamplingMode = new Runnable() {
+        @Override
+        public void run() {
+            applySamplingMode();
+        }
+    };
+
+    private final Runnable telemetryChanged = new Runnable() {
+        @Override
+        public void run() {
+            telemetryPending.set(false);
+            pebbleQueue.markTelemetryDirty();
+        }
+    };
+
+    private final Runnable publishSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            snapshotPending.set(false);
+            processor.getSnapshot().copyTo(uiSnapshot);
+            if (!started) {
+                return;
+            }
+            if (mapLocationListener != null) {
+                // The map copies what it needs, so one Location does for every update.
+                uiLocation.reset();
+                uiLocation.setTime(uiSnapshot.getTime());
+                uiLocation.setLatitude(uiSnapshot.getLatitude());
+                uiLocation.setLongitude(uiSnapshot.getLongitude());
+                if (uiSnapshot.getAccuracy() > 0.0f) {
+                    uiLocation.setAccuracy(uiSnapshot.getAccuracy());
+                }
+                if (uiSnapshot.getSpeed() >= 0.0f) {
+                    uiLocation.setSpeed(uiSnapshot.getSpeed());
+                }
+                if (uiSnapshot.getBearing() >= 0.0f) {
+                    uiLocation.setBearing(uiSnapshot.getBearing());
+                }
+                mapLocationListener.onLocationChanged(uiLocation);
+            }
+            if (rideUpdateListener != null) {
+                rideUpdateListener.onRideUpdate(uiSnapshot);
+            }
+        }
+    };
+
     @Override
     public void onStatusChanged(String provider, int status, Bundle extras) {
         // Nothing to do here at this point.
@@ -134,18 +615,23 @@ public class TrackerService extends Service implements LocationListener,
     private BroadcastReceiver pebbleConnectedReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+            Metrics.BROADCASTS_RECEIVED.increment();
             Intent connected = new Intent(ACTION_PEBBLE_CONNECTED);
             connected.putExtra(KEY_PEBBLE_STATUS, true);
             LocalBroadcastManager.getInstance(context).sendBroadcast(connected);
+            Metrics.BROADCASTS_SENT.increment();
         }
     };
 
     private BroadcastReceiver pebbleDisconnectedReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+            Metrics.BROADCASTS_RECEIVED.increment();
+            pebbleQueue.clear();
             Intent disconnected = new Intent(ACTION_PEBBLE_DISCONNECTED);
             disconnected.putExtra(KEY_PEBBLE_STATUS, false);
             LocalBroadcastManager.getInstance(context).sendBroadcast(disconnected);
+            Metrics.BROADCASTS_SENT.increment();
         }
     };
 
@@ -153,8 +639,8 @@ public class TrackerService extends Service implements LocationListener,
             MainActivity.PEBBLE_APP_UUID) {
         @Override
         public void receiveAck(Context context, int i) {
-            // We don't particularly care about an Ack, but log it anyway.
-            Log.i(TAG, "Got Ack from Pebble");
+            Metrics.BROADCASTS_RECEIVED.increment();
+            pebbleQueue.onAck(i);
         }
     };
 
@@ -162,8 +648,10 @@ public class TrackerService extends Service implements LocationListener,
             MainActivity.PEBBLE_APP_UUID) {
         @Override
         public void receiveNack(Context context, int i) {
+            Metrics.BROADCASTS_RECEIVED.increment();
             // Something bad is probably going on if we got a Nack, log it as a warning.
             Log.w(TAG, "Got Nack from Pebble");
+            pebbleQueue.onNack(i);
         }
     };
 
@@ -171,14 +659,16 @@ public class TrackerService extends Service implements LocationListener,
             MainActivity.PEBBLE_APP_UUID) {
         @Override
         public void receiveData(Context context, int transactionId, PebbleDictionary pebbleTuples) {
+            Metrics.BROADCASTS_RECEIVED.increment();
             String messageString = pebbleTuples.getString(0);
             if ((messageString != null) && (messageString.equals("true"))) {
-                started = true;
+                trackingChanged(true);
                 broadcastStartStop(started);
             } else if ((messageString != null) && (messageString.equals("false"))) {
-                started = false;
+                trackingChanged(false);
                 broadcastStartStop(started);
             } else if ((messageString != null) && (messageString.equals("reset"))) {
+                resetRide();
                 broadcastReset();
             } else {
                 Log.w(TAG, "Got unknown message from Pebble: " + messageString);
@@ -192,40 +682,253 @@ public class TrackerService extends Service implements LocationListener,
         Intent startStopIntent = new Intent(ACTION_START_STOP_RECEIVED);
         startStopIntent.putExtra(KEY_START_STOP, started);
         LocalBroadcastManager.getInstance(this).sendBroadcast(startStopIntent);
+        Metrics.BROADCASTS_SENT.increment();
     }
 
     private void broadcastReset() {
         Intent resetIntent = new Intent(ACTION_RESET_RECEIVED);
         LocalBroadcastManager.getInstance(this).sendBroadcast(resetIntent);
+        Metrics.BROADCASTS_SENT.increment();
     }
 
-    public void setStarted(Context context) {
-        if (PebbleKit.isWatchConnected(context)) {
+    public void setStarted() {
+        if (PebbleKit.isWatchConnected(this)) {
             PebbleDictionary startedData = new PebbleDictionary();
-            startedData.addString(KEY_PEBBLE_STARTSTOP, trackerStartedMessage);
-            PebbleKit.sendDataToPebble(context, MainActivity.PEBBLE_APP_UUID, startedData);
+            startedData.addString(PebbleKeys.START_STOP, trackerStartedMessage);
+            pebbleQueue.sendControl(PebbleKeys.START_STOP, startedData);
         }
-        started = true;
+        trackingChanged(true);
     }
 
-    public void setStopped(Context context) {
-        if (PebbleKit.isWatchConnected(context)) {
+    public void setStopped() {
+        if (PebbleKit.isWatchConnected(this)) {
             PebbleDictionary stoppedData = new PebbleDictionary();
-            stoppedData.addString(KEY_PEBBLE_STARTSTOP, trackerStoppedMessage);
-            PebbleKit.sendDataToPebble(context, MainActivity.PEBBLE_APP_UUID, stoppedData);
+            stoppedData.addString(PebbleKeys.START_STOP, trackerStoppedMessage);
+            pebbleQueue.sendControl(PebbleKeys.START_STOP, stoppedData);
         }
-        started = false;
+        trackingChanged(false);
     }
 
-    public void resetPebbleData(Context context) {
-        if (PebbleKit.isWatchConnected(context)) {
+    public void resetPebbleData() {
+        resetRide();
+        if (PebbleKit.isWatchConnected(this)) {
             PebbleDictionary resetData = new PebbleDictionary();
-            resetData.addString(KEY_PEBBLE_RESET, trackerResetMessage);
-            PebbleKit.sendDataToPebble(context, MainActivity.PEBBLE_APP_UUID, resetData);
+            resetData.addString(PebbleKeys.RESET, trackerResetMessage);
+            pebbleQueue.sendControl(PebbleKeys.RESET, resetData);
+        }
+    }
+
+    private PebbleSendQueue.Transport pebbleTransport = new PebbleSendQueue.Transport() {
+        @Override
+        public void send(PebbleDictionary data, int transactionId) {
+            PebbleKit.sendDataToPebbleWithTransactionId(TrackerService.this,
+                    MainActivity.PEBBLE_APP_UUID, data, transactionId);
+        }
+    };
+
+    private PebbleSendQueue.TelemetrySource pebbleTelemetry = new PebbleSendQueue.TelemetrySource() {
+        @Override
+        public PebbleDictionary buildTelemetry() {
+            byte[] frame = processor.buildTelemetryFrame();
+            if (frame == null) {
+                return null;
+            }
+            PebbleDictionary telemetryData = new PebbleDictionary();
+            telemetryData.addBytes(PebbleKeys.TELEMETRY, frame);
+            return telemetryData;
         }
+
+        @Override
+        public void onTelemetryLost() {
+            processor.onTelemetryLost();
+        }
+    };
+
+    public PebbleSendQueue getPebbleQueue() {
+        return pebbleQueue;
     }
 
     public boolean getStarted() {
         return started;
     }
+
+    public TrackBuffer getTrack() {
+        return processor.getTrack();
+    }
+
+    public TrackSimplifier getSimplifier() {
+        return processor.getSimplifier();
+    }
+
+    /**
+     * Live ride figures; read them from the main thread only.
+     */
+    public RideStats getStats() {
+        return processor.getStats();
+    }
+
+    /**
+     * @return the index of recorded rides, or null if it couldn't be opened
+     */
+    public RideIndex getRideIndex() {
+        return processor.getRideIndex();
+    }
+
+    /**
+     * @return where a ride found in the {@link #getRideIndex() index} is archived, or null before
+     *         the service has been created
+     */
+    public File getRideArchiveFile(long rideId) {
+        return processor.getArchiveFile(rideId);
+    }
+
+    /**
+     * @return the road graph rides are matched to, or null. Nothing writes to a graph once it's
+     *         read, so it can be used from any thread.
+     */
+    public RoadGraph getRoadGraph() {
+        return roadGraph;
+    }
+
+    /**
+     * Per stage timings and queue depth of the fix pipeline.
+     */
+    public FixPipeline getFixPipeline() {
+        return processor.getPipeline();
+    }
+
+    private void trackingChanged(final boolean tracking) {
+        started = tracking;
+        if (tracking) {
+            // Started as well as bound, so the ride outlives the activity.
+            startService(new Intent(this, TrackerService.class).setAction(ACTION_START_TRACKING));
+            startForeground(NOTIFICATION_ID, buildNotification(false));
+            if (pressureSensor != null) {
+                sensorManager.registerListener(pressureListener, pressureSensor,
+                        PRESSURE_SAMPLING_US);
+            }
+            mainHandler.removeCallbacks(sendPebbleProfile);
+            mainHandler.postDelayed(sendPebbleProfile, PEBBLE_PROFILE_INTERVAL_MS);
+        } else {
+            stopForeground(true);
+            stopSelf();
+            sensorManager.unregisterListener(pressureListener);
+            mainHandler.removeCallbacks(sendPebbleProfile);
+        }
+        getWorker().post(new Runnable() {
+            @Override
+            public void run() {
+                // Fixes still waiting in a batch belong to the ride as it was.
+                drainQueued();
+                processor.setStarted(tracking);
+            }
+        });
+    }
+
+    /**
+     * Fetches the ride's elevation profile from the processing thread.
+     *
+     * @param points how many points to split the ride into
+     */
+    public void requestElevationProfile(final int points, final OnProfileListener listener) {
+        getWorker().post(new Runnable() {
+            @Override
+            public void run() {
+                final float[] min = new float[points];
+                final float[] max = new float[points];
+                final int count = processor.getElevationProfile(points, min, max);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onProfile(min, max, count);
+                    }
+                });
+            }
+        });
+    }
+
+    private final SensorEventListener pressureListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            processor.onPressure(event.values[0]);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // Nothing to do here at this point.
+        }
+    };
+
+    private final Runnable sendPebbleProfile = new Runnable() {
+        @Override
+        public void run() {
+            requestElevationProfile(PEBBLE_PROFILE_POINTS, pebbleProfileListener);
+            mainHandler.postDelayed(this, PEBBLE_PROFILE_INTERVAL_MS);
+        }
+    };
+
+    private final OnProfileListener pebbleProfileListener = new OnProfileListener() {
+        @Override
+        public void onProfile(float[] min, float[] max, int count) {
+            if (!started || (count == 0)) {
+                return;
+            }
+            float lowest = Float.POSITIVE_INFINITY;
+            float highest = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                if (!Float.isNaN(max[i])) {
+                    lowest = Math.min(lowest, max[i]);
+                    highest = Math.max(highest, max[i]);
+                }
+            }
+            if (lowest > highest) {
+                return;
+            }
+            int lo = Math.round(lowest);
+            int hi = Math.max(lo + 1, Math.round(highest));
+            byte[] profile = new byte[4 + count];
+            profile[0] = (byte) (lo >> 8);
+            profile[1] = (byte) lo;
+            profile[2] = (byte) (hi >> 8);
+            profile[3] = (byte) hi;
+            for (int i = 0; i < count; i++) {
+                float value = Float.isNaN(max[i]) ? lo : max[i];
+                profile[4 + i] = (byte) Math.max(0, Math.min(255,
+                        Math.round((value - lo) * 255.0f / (hi - lo))));
+            }
+            PebbleDictionary profileData = new PebbleDictionary();
+            profileData.addBytes(PebbleKeys.PROFILE, profile);
+            pebbleQueue.sendBackground(PebbleKeys.PROFILE, profileData);
+        }
+    };
+
+    private Notification buildNotification(boolean paused) {
+        Intent openApp = new Intent(this, MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        // build() is API 16.
+        return new Notification.Builder(this)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(paused
+                        ? R.string.notification_paused : R.string.notification_tracking))
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentIntent(PendingIntent.getActivity(this, 0, openApp, 0))
+                .setOngoing(true)
+                .getNotification();
+    }
+
+    private void applySamplingMode() {
+        if (locationSampler != null) {
+            locationSampler.apply(samplingMode);
+        }
+    }
+
+    private void resetRide() {
+        getWorker().post(new Runnable() {
+            @Override
+            public void run() {
+                drainQueued();
+                processor.reset();
+            }
+        });
+    }
 }
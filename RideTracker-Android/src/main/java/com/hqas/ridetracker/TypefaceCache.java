@@ -0,0 +1,46 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import android.content.Context;
+import android.graphics.Typeface;
+
+import java.util.HashMap;
+
+/**
+ * Typefaces loaded from assets, kept for the life of the process. Loading one reads and parses
+ * the font file, too slow to repeat every time a view is created.
+ */
+public final class TypefaceCache {
+    public static final String ICON_FONT = "fonts/Android-Dev-Icons-1.ttf";
+
+    private static final HashMap<String, Typeface> cache = new HashMap<String, Typeface>();
+
+    private TypefaceCache() {
+    }
+
+    public static synchronized Typeface get(Context context, String asset) {
+        Typeface typeface = cache.get(asset);
+        if (typeface == null) {
+            typeface = Typeface.createFromAsset(context.getApplicationContext().getAssets(), asset);
+            cache.put(asset, typeface);
+        }
+        return typeface;
+    }
+}
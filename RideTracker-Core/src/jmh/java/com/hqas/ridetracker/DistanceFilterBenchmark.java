@@ -0,0 +1,155 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a fix through {@link DistanceFilter} against what the service used to spend on one,
+ * Location.distanceTo from the previous fix. distanceTo runs Vincenty's inverse formula on the
+ * WGS84 ellipsoid, which {@link #vincenty} does here since android.location isn't on a desktop
+ * JVM. Haversine is there for scale. Run with -prof gc to see the filter allocates nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceFilterBenchmark {
+
+    private static final int FIXES = 3600;
+
+    private final long[] times = new long[FIXES];
+    private final double[] latitudes = new double[FIXES];
+    private final double[] longitudes = new double[FIXES];
+    private final float[] accuracies = new float[FIXES];
+    private final DistanceFilter filter = new DistanceFilter();
+    private int next;
+    private long lap;
+
+    @Setup
+    public void setUp() {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(track, FIXES, 1000L, 4.0, 42L);
+        for (int i = 0; i < FIXES; i++) {
+            times[i] = track.getTime(i);
+            latitudes[i] = track.getLatitude(i);
+            longitudes[i] = track.getLongitude(i);
+            accuracies[i] = track.getAccuracy(i);
+        }
+    }
+
+    @Benchmark
+    public double filter() {
+        int i = nextFix();
+        // Each time round is a new ride a day later, so time keeps going forward.
+        filter.update(times[i] + lap * 86400000L, latitudes[i], longitudes[i], accuracies[i]);
+        return filter.getDistance();
+    }
+
+    @Benchmark
+    public double distanceTo() {
+        int i = nextFix();
+        return vincenty(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+    }
+
+    @Benchmark
+    public double haversine() {
+        int i = nextFix();
+        return GeoMath.haversine(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+    }
+
+    /**
+     * Index of the next fix, going round the ride again when it runs out.
+     */
+    private int nextFix() {
+        if (++next == FIXES) {
+            next = 1;
+            lap++;
+        }
+        return next;
+    }
+
+    /**
+     * Vincenty's inverse formula on WGS84, iterated to 1e-12 up to 20 times as distanceTo does.
+     */
+    static double vincenty(double lat1, double lon1, double lat2, double lon2) {
+        double a = 6378137.0;
+        double b = 6356752.3142;
+        double f = (a - b) / a;
+        double aSqMinusBSqOverBSq = (a * a - b * b) / (b * b);
+
+        double l = Math.toRadians(lon2 - lon1);
+        double u1 = Math.atan((1.0 - f) * Math.tan(Math.toRadians(lat1)));
+        double u2 = Math.atan((1.0 - f) * Math.tan(Math.toRadians(lat2)));
+        double cosU1 = Math.cos(u1);
+        double cosU2 = Math.cos(u2);
+        double sinU1 = Math.sin(u1);
+        double sinU2 = Math.sin(u2);
+
+        double sigma = 0.0;
+        double deltaSigma = 0.0;
+        double bigA = 1.0;
+        double lambda = l;
+        for (int iteration = 0; iteration < 20; iteration++) {
+            double previousLambda = lambda;
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            double sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = (sinSigma == 0.0) ? 0.0 : cosU1 * cosU2 * sinLambda / sinSigma;
+            double cosSqAlpha = 1.0 - sinAlpha * sinAlpha;
+            double cos2SM = (cosSqAlpha == 0.0) ? 0.0
+                    : cosSigma - 2.0 * sinU1 * sinU2 / cosSqAlpha;
+
+            double uSquared = cosSqAlpha * aSqMinusBSqOverBSq;
+            bigA = 1.0 + uSquared / 16384.0
+                    * (4096.0 + uSquared * (-768.0 + uSquared * (320.0 - 175.0 * uSquared)));
+            double bigB = uSquared / 1024.0
+                    * (256.0 + uSquared * (-128.0 + uSquared * (74.0 - 47.0 * uSquared)));
+            double c = f / 16.0 * cosSqAlpha * (4.0 + f * (4.0 - 3.0 * cosSqAlpha));
+            double cos2SMSq = cos2SM * cos2SM;
+            deltaSigma = bigB * sinSigma * (cos2SM + bigB / 4.0 * (cosSigma * (-1.0 + 2.0
+                    * cos2SMSq) - bigB / 6.0 * cos2SM * (-3.0 + 4.0 * sinSigma * sinSigma)
+                    * (-3.0 + 4.0 * cos2SMSq)));
+            lambda = l + (1.0 - c) * f * sinAlpha * (sigma + c * sinSigma
+                    * (cos2SM + c * cosSigma * (-1.0 + 2.0 * cos2SMSq)));
+            if ((lambda == 0.0) || (Math.abs((lambda - previousLambda) / lambda) < 1.0e-12)) {
+                break;
+            }
+        }
+        return b * bigA * (sigma - deltaSigma);
+    }
+}
@@ -0,0 +1,126 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the elevation work a fix brings: the {@link ElevationFilter} update fusing GPS and
+ * barometer altitude, and adding the result to an {@link ElevationSeries}. Then a 120 point
+ * profile of the whole ride and of 20km of it, from a series of a fix every 8m for 20000km, far
+ * longer than any real ride. setUp prints the bytes that series holds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElevationBenchmark {
+
+    private static final int FIXES = 36000;
+    private static final int SERIES_FIXES = 2500000;
+    private static final double SPACING_METERS = 8.0;
+    private static final int POINTS = 120;
+
+    private final double[] gps = new double[FIXES];
+    private final double[] barometer = new double[FIXES];
+    private final ElevationFilter filter = new ElevationFilter();
+    private final ElevationSeries growing = new ElevationSeries();
+    private final ElevationSeries series = new ElevationSeries();
+    private final float[] min = new float[POINTS];
+    private final float[] max = new float[POINTS];
+    private int next;
+    private int added;
+    private int query;
+
+    @Setup
+    public void setUp() {
+        // The made up climb at 8m/s, GPS altitude wandering 8m and the barometer drifting half
+        // a hPa an hour with the weather, smoothed like RideProcessor does.
+        Random random = new Random(42L);
+        double gpsNoise = 0.0;
+        double pressure = Double.NaN;
+        for (int i = 0; i < FIXES; i++) {
+            double truth = ReplayEngine.climbAltitude(i * SPACING_METERS);
+            gpsNoise = 0.95 * gpsNoise + 0.31 * 8.0 * random.nextGaussian();
+            gps[i] = truth + gpsNoise;
+            double hPa = 1013.25 * Math.pow(1.0 - truth / 44330.0, 5.255) + 0.5 * i / 3600.0
+                    + 0.1 * random.nextGaussian();
+            pressure = Double.isNaN(pressure) ? hPa : pressure + 0.1 * (hPa - pressure);
+            barometer[i] = ElevationFilter.pressureAltitude(pressure);
+        }
+        for (int i = 0; i < SERIES_FIXES; i++) {
+            series.add(i * SPACING_METERS, ReplayEngine.climbAltitude(i * SPACING_METERS));
+        }
+        System.out.printf("%nseries %.0fkm in %d fixes: %d bytes%n", series.getDistance() / 1000.0,
+                series.getCount(), series.getMemoryBytes());
+    }
+
+    @Benchmark
+    public double filterUpdate() {
+        if (next == FIXES) {
+            // Start the ride again, so time never runs backwards.
+            filter.reset();
+            next = 0;
+        }
+        double altitude = filter.update(1384250400000L + next * 1000L, gps[next],
+                barometer[next], next * SPACING_METERS);
+        next++;
+        return altitude;
+    }
+
+    @Benchmark
+    public double seriesAdd() {
+        if (added == SERIES_FIXES) {
+            growing.clear();
+            added = 0;
+        }
+        double distance = added * SPACING_METERS;
+        growing.add(distance, ReplayEngine.climbAltitude(distance));
+        added++;
+        return growing.getDistance();
+    }
+
+    @Benchmark
+    public int wholeRide() {
+        query = (query + 1) % 1000;
+        return series.getProfile(0.0, series.getDistance() - query, POINTS, min, max);
+    }
+
+    @Benchmark
+    public int twentyKilometers() {
+        query = (query + 1) % 1000;
+        double from = query * 50.0;
+        return series.getProfile(from, from + 20000.0, POINTS, min, max);
+    }
+}
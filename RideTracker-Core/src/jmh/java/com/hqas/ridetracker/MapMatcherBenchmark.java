@@ -0,0 +1,124 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MapMatcher} on a made up 20km square street grid with a junction every 100m, 40000
+ * nodes, ridden for an hour. liveFix matches a fix at a time with the live window, as during a
+ * ride, and batchRide the whole hour with the batch window, as an export does; both are in fixes
+ * a second. read loads the graph file, in reads a second. setUp prints the bytes the graph and
+ * a matcher hold.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapMatcherBenchmark {
+
+    private static final int FIXES = 3600;
+    private static final int GRID_SIZE = 200;
+    private static final double GRID_SPACING_METERS = 100.0;
+
+    private TrackBuffer.View ride;
+    private File file;
+    private MapMatcher live;
+    private MapMatcher batch;
+    private int next;
+    private double routed;
+
+    private final MapMatcher.Listener listener = new MapMatcher.Listener() {
+        @Override
+        public void onMatched(long tag, long time, double latitude, double longitude,
+                              double routeMeters) {
+            routed += routeMeters;
+        }
+
+        @Override
+        public void onUnmatched(long tag, long time, double latitude, double longitude) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        RoadGraph graph = ReplayEngine.synthesizeRoads(GRID_SIZE, GRID_SPACING_METERS);
+        TrackBuffer track = new TrackBuffer(12, 8);
+        ReplayEngine.synthesizeOnRoads(track, FIXES, GRID_SIZE, GRID_SPACING_METERS, 4.0, 42L);
+        ride = track.view(null);
+        file = File.createTempFile("roads", ".rgr");
+        graph.write(file);
+        live = new MapMatcher(graph, MapMatcher.LIVE_WINDOW, listener);
+        batch = new MapMatcher(graph, MapMatcher.BATCH_WINDOW, listener);
+
+        System.out.printf("%ngraph %d nodes %d edges: %d bytes in memory, %d on file;"
+                        + " matcher %d bytes%n", graph.getNodeCount(), graph.getEdgeCount(),
+                graph.getMemoryBytes(), file.length(), batch.getMemoryBytes());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public double liveFix() {
+        if (next == FIXES) {
+            // Start the ride again, so time never runs backwards.
+            live.reset();
+            next = 0;
+        }
+        live.update(ride.getTime(next), ride.getLatitude(next), ride.getLongitude(next),
+                ride.getAccuracy(next), next);
+        next++;
+        return routed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIXES)
+    public double batchRide() {
+        routed = 0.0;
+        batch.match(ride);
+        return routed;
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        return RoadGraph.read(file).getEdgeCount();
+    }
+}
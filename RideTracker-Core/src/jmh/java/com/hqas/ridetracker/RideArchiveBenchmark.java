@@ -0,0 +1,178 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a 100k point ride from a {@link RideArchive} against the same ride as raw binary
+ * columns and as GPX, in points a second. Writing the archive is there too. setUp prints each
+ * file's size in bytes a point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RideArchiveBenchmark {
+
+    private static final int POINTS = 100000;
+
+    private final RideArchive.Block block = new RideArchive.Block();
+    private TrackBuffer.View view;
+    private File dir;
+    private File archiveFile;
+    private File rawFile;
+    private File gpxFile;
+    private TrackBuffer gpxTrack;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        TrackBuffer track = new TrackBuffer(12, 32);
+        ReplayEngine.synthesize(track, POINTS, 1000L, 4.0, 42L);
+        view = track.view(null);
+        dir = File.createTempFile("archive", "");
+        dir.delete();
+        dir.mkdirs();
+
+        archiveFile = new File(dir, "ride.rta");
+        RideArchiveWriter.write(view, archiveFile);
+
+        rawFile = new File(dir, "ride.raw");
+        DataOutputStream raw = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(rawFile)));
+        try {
+            for (int i = 0; i < POINTS; i++) {
+                raw.writeDouble(view.getLatitude(i));
+                raw.writeDouble(view.getLongitude(i));
+                raw.writeDouble(view.getAltitude(i));
+                raw.writeLong(view.getTime(i));
+                raw.writeFloat(view.getAccuracy(i));
+            }
+        } finally {
+            raw.close();
+        }
+
+        gpxFile = new File(dir, "ride.gpx");
+        BufferedWriter gpx = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(gpxFile), "UTF-8"));
+        try {
+            new TrackExporter().export(view, TrackExporter.Format.GPX, gpx);
+        } finally {
+            gpx.close();
+        }
+        gpxTrack = new TrackBuffer(12, 32);
+
+        System.out.printf("%nbytes a point: archive %.2f, raw %.2f, gpx %.2f%n",
+                (double) archiveFile.length() / POINTS, (double) rawFile.length() / POINTS,
+                (double) gpxFile.length() / POINTS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        archiveFile.delete();
+        rawFile.delete();
+        gpxFile.delete();
+        new File(dir, "written.rta").delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double archive() throws IOException {
+        RideArchive archive = new RideArchive(archiveFile);
+        double sum = 0.0;
+        try {
+            for (int b = 0; b < archive.getBlockCount(); b++) {
+                archive.readBlock(b, block);
+                sum += block.latitudes[block.size - 1];
+            }
+        } finally {
+            archive.close();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double raw() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(rawFile), 64 * 1024));
+        double sum = 0.0;
+        try {
+            for (int i = 0; i < POINTS; i += RideArchive.BLOCK_SIZE) {
+                int n = Math.min(RideArchive.BLOCK_SIZE, POINTS - i);
+                for (int j = 0; j < n; j++) {
+                    block.latitudes[j] = in.readDouble();
+                    block.longitudes[j] = in.readDouble();
+                    block.altitudes[j] = in.readDouble();
+                    block.times[j] = in.readLong();
+                    block.accuracies[j] = in.readFloat();
+                }
+                sum += block.latitudes[n - 1];
+            }
+        } finally {
+            in.close();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int gpx() throws IOException {
+        gpxTrack.clear();
+        FileInputStream in = new FileInputStream(gpxFile);
+        try {
+            return GpxReader.read(new BufferedInputStream(in, 64 * 1024), gpxTrack);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public long write() throws IOException {
+        return RideArchiveWriter.write(view, new File(dir, "written.rta"));
+    }
+}
@@ -0,0 +1,165 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keeping the {@link RideIndex} up to date and of looking rides up in it, by how many
+ * entries it already holds. Rides are walks of a hundred tiles through a thousand tiles square.
+ *
+ * Each op of addRide is a ride entering {@link #RIDE_TILES} tiles it hasn't been in, which is
+ * one full pending run and so one merge. The index grows as it's measured, so each iteration is
+ * a short batch on a freshly loaded index; scores are for the whole batch, divide by 16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = 16)
+@Measurement(iterations = 20, batchSize = 16)
+@Fork(1)
+public class RideIndexBenchmark {
+
+    private static final int TILES = 1 << RideIndex.TILE_ZOOM;
+    private static final int AREA_TILES = 1000;
+    private static final int AREA_X = 8000;
+    private static final int AREA_Y = 5000;
+    private static final int WALK_TILES = 100;
+    private static final int RIDE_TILES = 256;
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private File dir;
+    private File file;
+    private RideIndex index;
+    private Random random;
+    private long nextRide;
+    private long builtSize;
+
+    @Setup(Level.Trial)
+    public void build() throws IOException {
+        dir = File.createTempFile("rideindex", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, "rides.idx");
+        random = new Random(42);
+        index = new RideIndex(file);
+        index.open();
+        while (index.getEntryCount() < entries) {
+            int x = AREA_X + random.nextInt(AREA_TILES);
+            int y = AREA_Y + random.nextInt(AREA_TILES);
+            for (int i = 0; i < WALK_TILES; i++) {
+                if (random.nextBoolean()) {
+                    x = clamp(x + random.nextInt(3) - 1, AREA_X);
+                } else {
+                    y = clamp(y + random.nextInt(3) - 1, AREA_Y);
+                }
+                index.add(nextRide, latitude(y), longitude(x));
+            }
+            nextRide++;
+        }
+        index.close();
+        builtSize = file.length();
+    }
+
+    @Setup(Level.Iteration)
+    public void load() throws IOException {
+        index = new RideIndex(file);
+        index.open();
+        // Half a pending run, as there would be part way through a ride.
+        for (int i = 0; i < RIDE_TILES / 2; i++) {
+            index.add(nextRide, latitude(AREA_Y + i), longitude(AREA_X));
+        }
+        nextRide++;
+    }
+
+    @TearDown(Level.Iteration)
+    public void unload() throws IOException {
+        index.close();
+        // Drop what the batch appended, so every iteration starts from the same index.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(builtSize);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        file.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public int addRide() throws IOException {
+        long ride = nextRide++;
+        int x = AREA_X + random.nextInt(AREA_TILES - RIDE_TILES);
+        int y = AREA_Y + random.nextInt(AREA_TILES);
+        for (int i = 0; i < RIDE_TILES; i++) {
+            index.add(ride, latitude(y), longitude(x + i));
+        }
+        return index.getEntryCount();
+    }
+
+    /**
+     * Rides through a box a few tiles across, with the pending run half full.
+     */
+    @Benchmark
+    public long[] queryBox() {
+        int x = AREA_X + random.nextInt(AREA_TILES - 4);
+        int y = AREA_Y + random.nextInt(AREA_TILES - 4);
+        return index.queryBoundingBox(latitude(y + 4), longitude(x), latitude(y), longitude(x + 4));
+    }
+
+    private static int clamp(int tile, int areaStart) {
+        return Math.max(areaStart, Math.min(areaStart + AREA_TILES - 1, tile));
+    }
+
+    /**
+     * @return the latitude of the middle of a row of tiles
+     */
+    private static double latitude(int y) {
+        double n = Math.PI * (1.0 - 2.0 * (y + 0.5) / TILES);
+        return Math.toDegrees(Math.atan(0.5 * (Math.exp(n) - Math.exp(-n))));
+    }
+
+    private static double longitude(int x) {
+        return (x + 0.5) * 360.0 / TILES - 180.0;
+    }
+}
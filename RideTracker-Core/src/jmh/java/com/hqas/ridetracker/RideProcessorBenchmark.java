@@ -0,0 +1,146 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of one fix going through every stage of {@link RideProcessor}, as onLocationChanged
+ * hands it over and the worker drains it, in each {@link IngestMode}. The batched modes leave
+ * fixes queued until the oldest has waited maxDelayMs of ride time or maxBatchFixes have piled
+ * up, as TrackerService does, so the worker's per-wakeup work is shared by the batch. The
+ * "fixes" and "wakeups" counters are totals, and fixes divided by wakeups is the batch size a
+ * wakeup gets. Run with -prof gc for the allocation rate, which is nothing once the track's
+ * chunks are all allocated. Pebble messages and distance error depend on the whole ride rather
+ * than one fix, so {@link ReplayEngine} reports those.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RideProcessorBenchmark {
+
+    private static final int FIXES = 400000;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wakeups {
+        public long fixes;
+        public long wakeups;
+    }
+
+    @Param({"LIVE", "BATCHED", "LONG_RIDE"})
+    public IngestMode ingest;
+
+    private final TrackBuffer ride = new TrackBuffer(12, 128);
+    private final Fix fix = new Fix();
+    private RideProcessor processor;
+    private long next;
+    private long batchStart = -1L;
+
+    @Setup
+    public void setUp() {
+        ReplayEngine.synthesize(ride, FIXES, 1000L, 4.0, 42L);
+        processor = new RideProcessor(new RideProcessor.Listener() {
+            @Override
+            public void onSamplingModeChanged(SamplingPolicy.Mode mode) {
+            }
+
+            @Override
+            public void onTelemetryChanged() {
+            }
+
+            @Override
+            public void onSnapshot(RideSnapshot snapshot) {
+            }
+
+            @Override
+            public void onStorageError(String message, IOException e) {
+            }
+
+            @Override
+            public void onSegmentSplit(int segment, int gate, int gateCount, long splitMs,
+                                       long deltaMs) {
+            }
+
+            @Override
+            public void onAutoPauseChanged(boolean paused) {
+            }
+        });
+        processor.setStarted(true);
+        next = ride.getFirstIndex();
+    }
+
+    @Benchmark
+    public float processFix(Wakeups counters) {
+        if (next == ride.getEndIndex()) {
+            // Start the ride again, so time never runs backwards.
+            if (processor.drainBatch() > 0) {
+                counters.wakeups++;
+            }
+            processor.reset();
+            next = ride.getFirstIndex();
+            batchStart = -1L;
+        }
+        long time = ride.getTime(next);
+        if ((batchStart >= 0) && (time - batchStart >= ingest.getMaxDelayMs())) {
+            // The batch timer would have gone off before this fix came in.
+            processor.drainBatch();
+            counters.wakeups++;
+            batchStart = -1L;
+        }
+        fix.set(time, ride.getLatitude(next), ride.getLongitude(next), ride.getAltitude(next),
+                ride.getAccuracy(next), -1.0f, -1.0f);
+        next++;
+        counters.fixes++;
+        FixPipeline pipeline = processor.getPipeline();
+        pipeline.offer(fix);
+        if (ingest == IngestMode.LIVE) {
+            pipeline.drain();
+            counters.wakeups++;
+        } else {
+            if (batchStart < 0) {
+                batchStart = time;
+            }
+            if (pipeline.getQueueDepth() >= ingest.getMaxBatchFixes()) {
+                processor.drainBatch();
+                counters.wakeups++;
+                batchStart = -1L;
+            }
+        }
+        return processor.getDistance();
+    }
+}
@@ -0,0 +1,119 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a fix through {@link RideStats}, update, publish and a read as the UI would, against
+ * working the two windows out again from the stored fixes on every one. Run with -prof gc to see
+ * the stats allocate nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RideStatsBenchmark {
+
+    private static final int FIXES = 36000;
+
+    @Param({"1000", "100"})
+    public long intervalMs;
+
+    private final long[] times = new long[FIXES];
+    private final float[] speeds = new float[FIXES];
+    private final double[] altitudes = new double[FIXES];
+    private final double[] latitudes = new double[FIXES];
+    private final double[] longitudes = new double[FIXES];
+    private final RideStats stats = new RideStats();
+    private int next;
+    private long lap;
+
+    @Setup
+    public void setUp() {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(track, 8192, intervalMs, 4.0, 42L);
+        for (int i = 0; i < FIXES; i++) {
+            // Round and round the synthetic ride, which is as long as the buffer holds.
+            int j = i % 8191 + 1;
+            times[i] = track.getTime(0) + i * intervalMs;
+            speeds[i] = (float) (GeoMath.haversine(track.getLatitude(j - 1),
+                    track.getLongitude(j - 1), track.getLatitude(j), track.getLongitude(j))
+                    * 1000.0 / intervalMs);
+            altitudes[i] = track.getAltitude(j);
+            latitudes[i] = track.getLatitude(j);
+            longitudes[i] = track.getLongitude(j);
+        }
+    }
+
+    @Benchmark
+    public float stats() {
+        int i = nextFix();
+        stats.update(times[i] + lap, speeds[i], altitudes[i], -1.0f, latitudes[i],
+                longitudes[i], 0.0f);
+        stats.publish();
+        return stats.read().average60s;
+    }
+
+    @Benchmark
+    public float bruteForce() {
+        int i = nextFix();
+        return window(i, 10000L) + window(i, 60000L);
+    }
+
+    /**
+     * Mean plus maximum of the speeds in the window ending at fix i, from scratch.
+     */
+    private float window(int i, long windowMs) {
+        float sum = 0.0f;
+        float max = 0.0f;
+        int count = 0;
+        for (int j = i; (j >= 0) && (times[i] - times[j] <= windowMs); j--) {
+            sum += speeds[j];
+            max = Math.max(max, speeds[j]);
+            count++;
+        }
+        return sum / count + max;
+    }
+
+    /**
+     * Index of the next fix, going round again a day later when it runs out.
+     */
+    private int nextFix() {
+        if (++next == FIXES) {
+            next = 0;
+            lap += 86400000L;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,69 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing an hour of a made up ride, replayed flat out, when the {@link SamplingPolicy} picks
+ * the fixes the location provider hands over, against taking every fix. How many fixes the policy
+ * skips and how far off the route they were is checked in SamplingPolicyTest; this is what
+ * skipping them saves the worker.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamplingPolicyBenchmark {
+
+    private static final int FIXES = 3600;
+
+    @Param({"false", "true"})
+    public boolean policy;
+
+    private final TrackBuffer ride = new TrackBuffer(12, 128);
+
+    @Setup
+    public void setUp() {
+        ReplayEngine.synthesize(ride, FIXES, 1000L, 4.0, 42L);
+    }
+
+    @Benchmark
+    public long rideHour() throws InterruptedException {
+        ReplayEngine engine = new ReplayEngine(ride);
+        engine.setHonourSampling(policy);
+        engine.run();
+        return engine.getFixCount();
+    }
+}
@@ -0,0 +1,179 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a fix through {@link SegmentTimer} by how many segments there are, against testing
+ * every gate each fix. The segments are stretches of 5 to 25km of a 300km ride, with a gate
+ * every 500m, and a second ride along the same roads goes through them. The "gateTests" counter
+ * is gates tested per second of benchmark; divide by the ops figure for gates a fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentTimerBenchmark {
+
+    private static final int FIXES = 20000;
+
+    @Param({"1", "10", "100", "1000"})
+    public int segments;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class GateTests {
+        public long gateTests;
+    }
+
+    private final long[] times = new long[FIXES];
+    private final double[] latitudes = new double[FIXES];
+    private final double[] longitudes = new double[FIXES];
+    private SegmentTimer timer;
+    private int next;
+    private long lap;
+    private long crossings;
+
+    // Every gate in a plane of its own, for testing them all.
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+    private double[] gates;
+    private int gateCount;
+    private double lastX;
+    private double lastY;
+
+    @Setup
+    public void setUp() {
+        TrackBuffer first = new TrackBuffer(10, 32);
+        ReplayEngine.synthesize(first, FIXES, 1000L, 3.0, 1L);
+        TrackBuffer second = new TrackBuffer(10, 32);
+        ReplayEngine.synthesize(second, FIXES, 1000L, 3.0, 2L);
+        for (int i = 0; i < FIXES; i++) {
+            times[i] = second.getTime(i);
+            latitudes[i] = second.getLatitude(i);
+            longitudes[i] = second.getLongitude(i);
+        }
+
+        timer = new SegmentTimer(new SegmentTimer.Listener() {
+            @Override
+            public void onSplit(int segment, int gate, int gateCount, long splitMs,
+                                long deltaMs) {
+                crossings++;
+            }
+        });
+        Random random = new Random(42L);
+        TrackBuffer.View view = first.view(null);
+        for (int s = 0; s < segments; s++) {
+            int from = random.nextInt(FIXES - 1800);
+            timer.addSegmentFromTrack(view, from, from + 300 + random.nextInt(1500), 500.0, 40.0);
+        }
+
+        originLat = latitudes[0];
+        originLon = longitudes[0];
+        metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+        gates = new double[0];
+        for (int s = 0; s < timer.getSegmentCount(); s++) {
+            int count = timer.getGateCount(s);
+            double[] lats = new double[count * 2];
+            double[] lons = new double[count * 2];
+            timer.getGates(s, lats, lons);
+            gates = Arrays.copyOf(gates, (gateCount + count) * 4);
+            for (int g = 0; g < count; g++) {
+                int at = (gateCount + g) * 4;
+                gates[at] = (lons[2 * g] - originLon) * metersPerDegreeLon;
+                gates[at + 1] = (lats[2 * g] - originLat) * GeoMath.METERS_PER_DEGREE;
+                gates[at + 2] = (lons[2 * g + 1] - originLon) * metersPerDegreeLon;
+                gates[at + 3] = (lats[2 * g + 1] - originLat) * GeoMath.METERS_PER_DEGREE;
+            }
+            gateCount += count;
+        }
+    }
+
+    @Benchmark
+    public long update(GateTests counters) {
+        int i = nextFix();
+        long tested = timer.getGateTestCount();
+        // Each time round is a new ride a day later, so time keeps going forward.
+        timer.update(times[i] + lap * 86400000L, latitudes[i], longitudes[i]);
+        counters.gateTests += timer.getGateTestCount() - tested;
+        return crossings;
+    }
+
+    @Benchmark
+    public long everyGate(GateTests counters) {
+        int i = nextFix();
+        double x = (longitudes[i] - originLon) * metersPerDegreeLon;
+        double y = (latitudes[i] - originLat) * GeoMath.METERS_PER_DEGREE;
+        if (i > 0) {
+            double rx = x - lastX;
+            double ry = y - lastY;
+            for (int g = 0; g < gateCount; g++) {
+                int at = g * 4;
+                double sx = gates[at + 2] - gates[at];
+                double sy = gates[at + 3] - gates[at + 1];
+                double denominator = rx * sy - ry * sx;
+                if (denominator >= 0.0) {
+                    continue;
+                }
+                double qx = gates[at] - lastX;
+                double qy = gates[at + 1] - lastY;
+                double t = (qx * sy - qy * sx) / denominator;
+                double u = (qx * ry - qy * rx) / denominator;
+                if ((t >= 0.0) && (t <= 1.0) && (u >= 0.0) && (u <= 1.0)) {
+                    crossings++;
+                }
+            }
+            counters.gateTests += gateCount;
+        }
+        lastX = x;
+        lastY = y;
+        return crossings;
+    }
+
+    /**
+     * Index of the next fix, going round the ride again when it runs out.
+     */
+    private int nextFix() {
+        if (++next == FIXES) {
+            next = 0;
+            lap++;
+            timer.breakSegment();
+        }
+        return next;
+    }
+}
@@ -0,0 +1,170 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Telemetry for a minute of riding, a fix a second, as {@link TelemetryCodec} frames against the
+ * scheme they replaced: an int32 distance whenever the rider had gone another 100m. The frames
+ * carry seven fields where that carried one, so legacyAllFields also sends each of the seven the
+ * old way, an int32 message whenever it moves past the codec's threshold.
+ *
+ * Each op is one ride-minute, so dividing the "messages" and "bytes" counters by the ops figure
+ * gives them per minute. Bytes are what goes over the air: a tuple count, a 7 byte tuple header
+ * and the payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TelemetryCodecBenchmark {
+
+    private static final int FIXES = 3600;
+    private static final int DICTIONARY_OVERHEAD = 1 + 7;
+    private static final int LEGACY_THRESHOLD_METERS = 100;
+    // TelemetryCodec's thresholds.
+    private static final int[] THRESHOLDS = {100, 10, 5, 60, 15, 5, 5};
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Sent {
+        public long messages;
+        public long bytes;
+    }
+
+    private final int[][] values = new int[FIXES][TelemetryCodec.FIELD_COUNT];
+    private final TelemetryCodec codec = new TelemetryCodec();
+    private int next;
+    private int legacySentDistance;
+    private final int[] legacySent = new int[TelemetryCodec.FIELD_COUNT];
+
+    @Setup
+    public void setUp() {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(track, FIXES, 1000L, 4.0, 42L);
+        DistanceFilter filter = new DistanceFilter();
+        ElevationFilter elevation = new ElevationFilter();
+        double lastLat = track.getLatitude(0);
+        double lastLon = track.getLongitude(0);
+        int heading = 0;
+        for (int i = 0; i < FIXES; i++) {
+            filter.update(track.getTime(i), track.getLatitude(i), track.getLongitude(i),
+                    track.getAccuracy(i));
+            double distance = filter.getDistance();
+            elevation.update(track.getTime(i), track.getAltitude(i), Double.NaN, distance);
+            // A receiver's bearing comes from Doppler, so it's as smooth as the filtered track.
+            double lat = filter.getLatitude();
+            double lon = filter.getLongitude();
+            if (filter.getSpeed() >= 1.0) {
+                heading = ((int) Math.round(GeoMath.initialBearing(lastLat, lastLon, lat, lon))
+                        + 360) % 360;
+            }
+            lastLat = lat;
+            lastLon = lon;
+
+            // As RideProcessor fills them in.
+            int[] v = values[i];
+            v[TelemetryCodec.FIELD_DISTANCE] = (int) distance;
+            v[TelemetryCodec.FIELD_SPEED] = (int) Math.round(filter.getSpeed() * 10.0);
+            v[TelemetryCodec.FIELD_AVERAGE_SPEED] = (int) Math.round(distance * 10.0 / (i + 1));
+            v[TelemetryCodec.FIELD_ELAPSED] = i;
+            v[TelemetryCodec.FIELD_HEADING] = heading;
+            v[TelemetryCodec.FIELD_ALTITUDE] = (int) Math.round(elevation.getAltitude());
+            v[TelemetryCodec.FIELD_GRADE] = Math.round(elevation.getGrade() * 10.0f);
+        }
+    }
+
+    @Benchmark
+    public int frames(Sent sent) {
+        int last = 0;
+        for (int i = 0; i < 60; i++) {
+            byte[] frame = codec.encode(values[nextFix()]);
+            if (frame != null) {
+                sent.messages++;
+                sent.bytes += DICTIONARY_OVERHEAD + frame.length;
+                last = frame.length;
+            }
+        }
+        return last;
+    }
+
+    @Benchmark
+    public int legacy(Sent sent) {
+        int last = 0;
+        for (int i = 0; i < 60; i++) {
+            int distance = values[nextFix()][TelemetryCodec.FIELD_DISTANCE];
+            if (distance - legacySentDistance >= LEGACY_THRESHOLD_METERS) {
+                legacySentDistance = distance;
+                sent.messages++;
+                sent.bytes += DICTIONARY_OVERHEAD + 4;
+                last = distance;
+            }
+        }
+        return last;
+    }
+
+    @Benchmark
+    public int legacyAllFields(Sent sent) {
+        int last = 0;
+        for (int i = 0; i < 60; i++) {
+            int[] v = values[nextFix()];
+            for (int field = 0; field < TelemetryCodec.FIELD_COUNT; field++) {
+                int delta = Math.abs(v[field] - legacySent[field]);
+                if (field == TelemetryCodec.FIELD_HEADING) {
+                    delta = Math.min(delta, 360 - delta);
+                }
+                if (delta >= THRESHOLDS[field]) {
+                    legacySent[field] = v[field];
+                    sent.messages++;
+                    sent.bytes += DICTIONARY_OVERHEAD + 4;
+                    last = v[field];
+                }
+            }
+        }
+        return last;
+    }
+
+    private int nextFix() {
+        if (++next == FIXES) {
+            // A new ride: the watch is sent a keyframe and the old scheme starts from zero.
+            next = 0;
+            codec.forceKeyframe();
+            legacySentDistance = 0;
+            Arrays.fill(legacySent, 0);
+        }
+        return next;
+    }
+}
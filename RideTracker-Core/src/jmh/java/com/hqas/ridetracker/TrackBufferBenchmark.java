@@ -0,0 +1,78 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends to a track whose ring has already wrapped, so every chunk is allocated and the
+ * figures are for a long ride. Run with -prof gc to see that an append allocates nothing;
+ * storage is {@link TrackBuffer#BYTES_PER_POINT} bytes a point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackBufferBenchmark {
+
+    private TrackBuffer track;
+    private final double[] latitudes = new double[1024];
+    private final double[] longitudes = new double[1024];
+    private long time;
+
+    @Setup
+    public void setUp() {
+        track = new TrackBuffer();
+        for (int i = 0; i <= track.capacity(); i++) {
+            append();
+        }
+    }
+
+    @Benchmark
+    public long append() {
+        time += 1000L;
+        return track.append(51.5 + (time & 1023) * 1e-6, -0.12, 30.0, time, 5.0f);
+    }
+
+    /**
+     * Copying the newest 1024 points, which is how the map and exporters read.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @BenchmarkMode(Mode.AverageTime)
+    public double copyPositions() {
+        track.copyPositions(track.getEndIndex() - latitudes.length, latitudes.length, latitudes,
+                longitudes, 0);
+        return latitudes[0];
+    }
+}
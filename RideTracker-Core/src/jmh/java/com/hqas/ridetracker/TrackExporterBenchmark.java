@@ -0,0 +1,102 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to export rides of 10k, 100k and 1M points into a buffered writer that throws the text
+ * away, as recorded and matched to a grid of streets. With -prof gc, gc.alloc.rate.norm stays
+ * the same whatever the length of the ride, which is the constant memory the exporter promises.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackExporterBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int points;
+
+    @Param({"GPX", "TCX", "GEOJSON"})
+    public TrackExporter.Format format;
+
+    @Param({"false", "true"})
+    public boolean matched;
+
+    private final TrackExporter exporter = new TrackExporter();
+    private final CountingWriter sink = new CountingWriter();
+    private TrackBuffer track;
+    private TrackBuffer.View view;
+    private RoadGraph roads;
+
+    @Setup
+    public void setUp() {
+        track = new TrackBuffer(14, 64);
+        if (matched) {
+            roads = ReplayEngine.synthesizeRoads(20, 100.0);
+            ReplayEngine.synthesizeOnRoads(track, points, 20, 100.0, 4.0, 42L);
+        } else {
+            ReplayEngine.synthesize(track, points, 1000L, 4.0, 42L);
+        }
+        view = track.view(null);
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        sink.count = 0L;
+        exporter.export(view, roads, format, new BufferedWriter(sink, 8192));
+        return sink.count;
+    }
+
+    private static class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
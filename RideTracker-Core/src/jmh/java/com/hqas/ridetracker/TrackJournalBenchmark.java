@@ -0,0 +1,118 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journaling a fix through {@link TrackJournal} against the naive way of making each fix durable:
+ * writing it with a FileOutputStream and syncing. The "syncs" counter is how many times each one
+ * went to the flash, per second of benchmark; divide by the ops figure for syncs a fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackJournalBenchmark {
+
+    // The journal starts a new ride after this many, so the file doesn't grow without end.
+    private static final int RIDE_RECORDS = 100000;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Syncs {
+        public long syncs;
+    }
+
+    private File dir;
+    private TrackJournal journal;
+    private FileOutputStream naiveFile;
+    private DataOutputStream naive;
+    private long time;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdirs();
+        journal = new TrackJournal(new File(dir, "ride.journal"));
+        journal.open(null);
+        naiveFile = new FileOutputStream(new File(dir, "ride.raw"));
+        naive = new DataOutputStream(new BufferedOutputStream(naiveFile));
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        journal.close();
+        naive.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void journal(Syncs syncs) throws IOException {
+        if (journal.getRecordCount() == RIDE_RECORDS) {
+            journal.reset();
+        }
+        int forces = journal.getForceCount();
+        time += 1000L;
+        journal.append(51.5, -0.12, 30.0, time, 5.0f);
+        syncs.syncs += journal.getForceCount() - forces;
+    }
+
+    @Benchmark
+    public void fileOutputStream(Syncs syncs) throws IOException {
+        time += 1000L;
+        naive.writeDouble(51.5);
+        naive.writeDouble(-0.12);
+        naive.writeDouble(30.0);
+        naive.writeLong(time);
+        naive.writeFloat(5.0f);
+        naive.flush();
+        naiveFile.getFD().sync();
+        syncs.syncs++;
+    }
+}
@@ -0,0 +1,99 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one fix through {@link TrackSimplifier} once a ride of the given length is already in
+ * it, and of picking and copying the polyline the map draws. A flat add() across ride lengths is
+ * the amortised constant cost. The vertex count of each tier for the ride is printed before the
+ * trial; add() keeps going round the same ride, so its vertex arrays still grow by doubling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackSimplifierBenchmark {
+
+    // Matches the map's budget and a city zoom level.
+    private static final int VERTEX_BUDGET = 500;
+    private static final double METERS_PER_PIXEL = 5.0;
+
+    @Param({"10000", "100000", "1000000"})
+    public int points;
+
+    private TrackBuffer track;
+    private TrackSimplifier simplifier;
+    private final double[] latitudes = new double[VERTEX_BUDGET];
+    private final double[] longitudes = new double[VERTEX_BUDGET];
+    private long next;
+
+    @Setup
+    public void setUp() {
+        track = new TrackBuffer(14, 64);
+        ReplayEngine.synthesize(track, points, 1000L, 4.0, 42L);
+        simplifier = new TrackSimplifier();
+        for (long i = 0; i < points; i++) {
+            simplifier.add(track.getLatitude(i), track.getLongitude(i));
+        }
+        printVertexCounts();
+    }
+
+    @Benchmark
+    public long add() {
+        if (next == points) {
+            next = 0;
+        }
+        simplifier.add(track.getLatitude(next), track.getLongitude(next));
+        next++;
+        return next;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int draw() {
+        int tier = simplifier.selectTier(METERS_PER_PIXEL, VERTEX_BUDGET);
+        return simplifier.copyTier(tier, latitudes, longitudes, VERTEX_BUDGET);
+    }
+
+    private void printVertexCounts() {
+        StringBuilder counts = new StringBuilder("vertices by tier:");
+        for (int i = 0; i < TrackSimplifier.TIER_COUNT; i++) {
+            counts.append(' ').append(simplifier.getVertexCount(i));
+        }
+        counts.append(", drawn tier ").append(simplifier.selectTier(METERS_PER_PIXEL, VERTEX_BUDGET));
+        System.out.println(counts);
+    }
+}
@@ -0,0 +1,182 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Keeps the map centred on the rider without animating the camera for every fix.
+ *
+ * Positions are only stored as they arrive. Camera moves happen on a timer capped at
+ * {@link #MOVE_INTERVAL_MS}, each animating to where the rider is predicted to be when that
+ * animation ends (dead reckoning from the last speed and bearing), so one animation hands over to
+ * the next instead of piling up. A move that would shift the map by less than
+ * {@link #MIN_MOVE_PIXELS} is skipped.
+ */
+public class CameraFollowController {
+
+    public static final long MOVE_INTERVAL_MS = 500L;
+    public static final double MIN_MOVE_PIXELS = 2.0;
+    // Stop guessing if fixes dry up for this long.
+    private static final long MAX_PREDICTION_MS = 5000L;
+    // Metres per pixel at zoom level 0 on the equator for a 256 pixel tile.
+    public static final double METERS_PER_PIXEL_ZOOM_0 = 156543.03392;
+
+    public interface Camera {
+        void moveTo(double latitude, double longitude, float zoom, int durationMs);
+    }
+
+    private final Camera camera;
+    private final Scheduler scheduler;
+    private float zoom = 15.0f;
+
+    private boolean hasPosition;
+    private long positionAt;
+    private double latitude;
+    private double longitude;
+    private float speed;
+    private float bearing;
+
+    private boolean hasCamera;
+    private double cameraLat;
+    private double cameraLon;
+    private float cameraZoom;
+    private long lastMoveAt = Long.MIN_VALUE / 2;
+    private boolean tickScheduled;
+
+    private long updateCount;
+    private long moveCount;
+    private long skippedCount;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tickScheduled = false;
+            follow();
+        }
+    };
+
+    public CameraFollowController(Camera camera, Scheduler scheduler) {
+        this.camera = camera;
+        this.scheduler = scheduler;
+    }
+
+    public void setZoom(float zoom) {
+        this.zoom = zoom;
+    }
+
+    public float getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @param speed metres per second, negative if unknown
+     * @param bearing degrees, negative if unknown
+     */
+    public void update(double latitude, double longitude, float speed, float bearing) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.speed = speed;
+        this.bearing = bearing;
+        positionAt = scheduler.now();
+        hasPosition = true;
+        updateCount++;
+        scheduleTick();
+    }
+
+    /**
+     * Stops following and forgets where the camera was, e.g. when the map goes away.
+     */
+    public void stop() {
+        scheduler.cancel(tick);
+        tickScheduled = false;
+        hasPosition = false;
+        hasCamera = false;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    public long getMoveCount() {
+        return moveCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    private void scheduleTick() {
+        scheduleTick(Math.max(0L, lastMoveAt + MOVE_INTERVAL_MS - scheduler.now()));
+    }
+
+    private void scheduleTick(long delay) {
+        if (tickScheduled) {
+            return;
+        }
+        scheduler.schedule(tick, delay);
+        tickScheduled = true;
+    }
+
+    private void follow() {
+        if (!hasPosition) {
+            return;
+        }
+        long now = scheduler.now();
+        long sinceFix = now - positionAt;
+        boolean predicting = (speed > 0.0f) && (bearing >= 0.0f) && (sinceFix < MAX_PREDICTION_MS);
+
+        double targetLat = latitude;
+        double targetLon = longitude;
+        if (predicting) {
+            // Aim for where the rider will be when this animation finishes.
+            double metres = speed * (sinceFix + MOVE_INTERVAL_MS) / 1000.0;
+            double rad = Math.toRadians(bearing);
+            targetLat += metres * Math.cos(rad) / GeoMath.METERS_PER_DEGREE;
+            targetLon += metres * Math.sin(rad)
+                    / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        }
+
+        if (hasCamera && (cameraZoom == zoom)) {
+            double metersPerPixel = METERS_PER_PIXEL_ZOOM_0 * Math.cos(Math.toRadians(targetLat))
+                    / Math.pow(2.0, zoom);
+            double dy = (targetLat - cameraLat) * GeoMath.METERS_PER_DEGREE;
+            double dx = (targetLon - cameraLon) * GeoMath.METERS_PER_DEGREE
+                    * Math.cos(Math.toRadians(targetLat));
+            double pixels = Math.sqrt(dx * dx + dy * dy) / metersPerPixel;
+            if (pixels < MIN_MOVE_PIXELS) {
+                skippedCount++;
+                if (predicting) {
+                    scheduleTick(MOVE_INTERVAL_MS);
+                }
+                return;
+            }
+        }
+
+        camera.moveTo(targetLat, targetLon, zoom, (int) MOVE_INTERVAL_MS);
+        cameraLat = targetLat;
+        cameraLon = targetLon;
+        cameraZoom = zoom;
+        hasCamera = true;
+        lastMoveAt = now;
+        moveCount++;
+        if (predicting) {
+            // Keep gliding between fixes.
+            scheduleTick(MOVE_INTERVAL_MS);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Smooths fixes with a constant velocity Kalman filter and sums the distance between the
+ * smoothed positions.
+ *
+ * Positions are worked in metres on a local equirectangular plane whose cos(latitude) is worked
+ * out once per origin, so an update is a handful of multiplies with no trig and no allocation.
+ * Each axis gets its own position/velocity filter, with the fix's reported accuracy as the
+ * measurement noise. Fixes whose innovation is too unlikely are rejected, leaving the filter as it
+ * was, unless several are rejected in a row, in which case the filter assumes it is the one
+ * that's lost and restarts.
+ * Distance is only added while the filtered speed says we're actually moving, so jitter at a
+ * standstill doesn't count.
+ */
+public class DistanceFilter {
+
+    private static final double ACCELERATION_NOISE = 1.0;   // m/s^2
+    private static final float MIN_ACCURACY = 3.0f;         // metres
+    private static final float UNKNOWN_ACCURACY = 30.0f;    // metres
+    private static final double GATE = 13.8;                // chi-square, 2 dof, 99.9%
+    private static final int MAX_REJECTIONS = 5;
+    private static final double MOVING_SPEED = 0.5;         // m/s
+    private static final double REORIGIN_DISTANCE = 20000.0; // metres
+    private static final double MAX_DT = 60.0;              // seconds
+
+    private boolean initialized;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+
+    private long lastTime;
+    private final Axis east = new Axis();
+    private final Axis north = new Axis();
+
+    private double lastX;
+    private double lastY;
+    private double distance;
+    private int consecutiveRejections;
+    private long rejectedCount;
+
+    /**
+     * @param accuracy reported accuracy in metres, zero or less if unknown
+     * @return false if the fix was rejected as an outlier
+     */
+    public boolean update(long time, double latitude, double longitude, float accuracy) {
+        if (!initialized) {
+            setOrigin(latitude, longitude);
+        }
+        double x = (longitude - originLon) * metersPerDegreeLon;
+        double y = (latitude - originLat) * GeoMath.METERS_PER_DEGREE;
+        float acc = (accuracy > 0.0f) ? Math.max(accuracy, MIN_ACCURACY) : UNKNOWN_ACCURACY;
+        double r = (double) acc * acc;
+
+        if (!initialized) {
+            start(time, x, y, r);
+            return true;
+        }
+
+        double dt = (time - lastTime) / 1000.0;
+        if (dt > MAX_DT) {
+            // Too long a gap for a constant velocity guess to mean anything.
+            start(time, x, y, r);
+            return true;
+        }
+        // Predicted aside, so a rejected fix leaves the state at the last accepted one.
+        east.predict(Math.max(dt, 0.0));
+        north.predict(Math.max(dt, 0.0));
+
+        double innovationX = x - east.predictedPosition;
+        double innovationY = y - north.predictedPosition;
+        double mahalanobis = innovationX * innovationX / (east.predicted00 + r)
+                + innovationY * innovationY / (north.predicted00 + r);
+        if (mahalanobis > GATE) {
+            rejectedCount++;
+            if (++consecutiveRejections >= MAX_REJECTIONS) {
+                start(time, x, y, r);
+                return true;
+            }
+            return false;
+        }
+        consecutiveRejections = 0;
+
+        east.acceptPrediction();
+        north.acceptPrediction();
+        east.correct(innovationX, r);
+        north.correct(innovationY, r);
+        lastTime = time;
+
+        double fx = east.position;
+        double fy = north.position;
+        double speedSquared = east.velocity * east.velocity + north.velocity * north.velocity;
+        if (speedSquared >= MOVING_SPEED * MOVING_SPEED) {
+            double dx = fx - lastX;
+            double dy = fy - lastY;
+            distance += Math.sqrt(dx * dx + dy * dy);
+        }
+        lastX = fx;
+        lastY = fy;
+
+        if (fx * fx + fy * fy > REORIGIN_DISTANCE * REORIGIN_DISTANCE) {
+            reorigin();
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the filter state but keeps the distance, for when tracking resumes after a pause
+     * and the gap shouldn't be counted.
+     */
+    public void breakSegment() {
+        initialized = false;
+        consecutiveRejections = 0;
+    }
+
+    public void reset() {
+        breakSegment();
+        distance = 0.0;
+        rejectedCount = 0;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public boolean hasPosition() {
+        return initialized;
+    }
+
+    public double getLatitude() {
+        return originLat + north.position / GeoMath.METERS_PER_DEGREE;
+    }
+
+    public double getLongitude() {
+        return originLon + east.position / metersPerDegreeLon;
+    }
+
+    /**
+     * Filtered ground speed in metres per second.
+     */
+    public double getSpeed() {
+        return Math.sqrt(east.velocity * east.velocity + north.velocity * north.velocity);
+    }
+
+    private void start(long time, double x, double y, double r) {
+        east.start(x, r);
+        north.start(y, r);
+        lastX = x;
+        lastY = y;
+        lastTime = time;
+        consecutiveRejections = 0;
+        initialized = true;
+    }
+
+    private void setOrigin(double latitude, double longitude) {
+        originLat = latitude;
+        originLon = longitude;
+        metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Moves the plane's origin to the current position so the equirectangular error stays small
+     * on long rides.
+     */
+    private void reorigin() {
+        double lat = getLatitude();
+        double lon = getLongitude();
+        double oldMetersPerDegreeLon = metersPerDegreeLon;
+        setOrigin(lat, lon);
+        // Velocity is in plane metres, so the east component scales with the new cos(latitude).
+        east.velocity *= metersPerDegreeLon / oldMetersPerDegreeLon;
+        east.position = 0.0;
+        north.position = 0.0;
+        lastX = 0.0;
+        lastY = 0.0;
+    }
+
+    /**
+     * One axis of the filter: position and velocity with a 2x2 covariance.
+     */
+    private static class Axis {
+        double position;
+        double velocity;
+        double p00;
+        double p01;
+        double p11;
+
+        // State predicted for the fix being gated, only taken on if the fix is accepted.
+        double predictedPosition;
+        double predicted00;
+        double predicted01;
+        double predicted11;
+
+        void start(double z, double r) {
+            position = z;
+            velocity = 0.0;
+            p00 = r;
+            p01 = 0.0;
+            p11 = 100.0;
+        }
+
+        void predict(double dt) {
+            predictedPosition = position + velocity * dt;
+
+            double dt2 = dt * dt;
+            double q = ACCELERATION_NOISE * ACCELERATION_NOISE;
+            predicted00 = p00 + dt * (2.0 * p01 + dt * p11) + q * dt2 * dt2 * 0.25;
+            predicted01 = p01 + dt * p11 + q * dt2 * dt * 0.5;
+            predicted11 = p11 + q * dt2;
+        }
+
+        void acceptPrediction() {
+            position = predictedPosition;
+            p00 = predicted00;
+            p01 = predicted01;
+            p11 = predicted11;
+        }
+
+        void correct(double innovation, double r) {
+            double s = p00 + r;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+
+            double np11 = p11 - k1 * p01;
+            p01 = (1.0 - k0) * p01;
+            p00 = (1.0 - k0) * p00;
+            p11 = np11;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Works out the altitude from GPS and the barometer, when the phone has one, and the grade.
+ *
+ * The barometer is smooth and quick but only relative: the weather moves it and the sea level
+ * pressure it's measured against is a guess. GPS altitude is absolute but wanders by ten metres
+ * or more. With a barometer the altitude is the barometric one plus an offset that slowly
+ * follows GPS; without one it is GPS altitude smoothed over a shorter time.
+ *
+ * Grade is the rise over roughly the last {@link #GRADE_METERS} ridden, from a small ring of
+ * altitude samples taken every few metres. An update is constant time and allocates nothing.
+ * Plain Java, so it can be driven by recorded rides off the device.
+ */
+public class ElevationFilter {
+
+    public static final double GRADE_METERS = 100.0;
+
+    private static final double OFFSET_TIME_CONSTANT_S = 120.0;
+    private static final double GPS_TIME_CONSTANT_S = 15.0;
+    // Longer than this between fixes and the smoothing starts over.
+    private static final double MAX_GAP_S = 60.0;
+    private static final double SAMPLE_METERS = 5.0;
+    // Enough samples to reach back GRADE_METERS with room to spare.
+    private static final int SAMPLE_CAPACITY = 64;
+    private static final float GRADE_SMOOTHING = 0.3f;
+    private static final double STANDARD_PRESSURE_HPA = 1013.25;
+
+    private long lastTime;
+    private double altitude = Double.NaN;
+    private boolean hasOffset;
+    private double offset;
+
+    private final double[] sampleDistances = new double[SAMPLE_CAPACITY];
+    private final double[] sampleAltitudes = new double[SAMPLE_CAPACITY];
+    // Samples run from oldest to newest, both counting up without wrapping.
+    private int oldest;
+    private int newest = -1;
+    private float grade;
+
+    /**
+     * Altitude in the standard atmosphere, the same as SensorManager.getAltitude with standard
+     * sea level pressure.
+     */
+    public static double pressureAltitude(double hPa) {
+        return 44330.0 * (1.0 - Math.pow(hPa / STANDARD_PRESSURE_HPA, 1.0 / 5.255));
+    }
+
+    /**
+     * @param gpsAltitude      metres, NaN if the fix has none
+     * @param pressureAltitude metres from {@link #pressureAltitude}, NaN without a barometer
+     * @param distance         the ride's distance so far, for the grade
+     * @return the altitude, or NaN if there's nothing to go on yet
+     */
+    public double update(long time, double gpsAltitude, double pressureAltitude, double distance) {
+        double dt = (time - lastTime) / 1000.0;
+        boolean restart = (lastTime == 0L) || (dt < 0.0) || (dt > MAX_GAP_S);
+        lastTime = time;
+
+        if (!Double.isNaN(pressureAltitude)) {
+            if (!Double.isNaN(gpsAltitude)) {
+                double error = gpsAltitude - pressureAltitude;
+                if (!hasOffset) {
+                    offset = error;
+                    hasOffset = true;
+                } else if (!restart) {
+                    offset += (error - offset) * Math.min(1.0, dt / OFFSET_TIME_CONSTANT_S);
+                }
+            }
+            altitude = pressureAltitude + offset;
+        } else if (!Double.isNaN(gpsAltitude)) {
+            if (restart || Double.isNaN(altitude)) {
+                altitude = gpsAltitude;
+            } else {
+                altitude += (gpsAltitude - altitude) * Math.min(1.0, dt / GPS_TIME_CONSTANT_S);
+            }
+        }
+
+        if (!Double.isNaN(altitude)) {
+            updateGrade(distance);
+        }
+        return altitude;
+    }
+
+    /**
+     * @return metres, NaN if unknown
+     */
+    public double getAltitude() {
+        return altitude;
+    }
+
+    /**
+     * @return rise over run as a percentage, uphill positive
+     */
+    public float getGrade() {
+        return grade;
+    }
+
+    /**
+     * Forgets the grade samples, e.g. after a pause, but keeps the barometer's offset.
+     */
+    public void breakSegment() {
+        oldest = 0;
+        newest = -1;
+        grade = 0.0f;
+    }
+
+    public void reset() {
+        breakSegment();
+        lastTime = 0L;
+        altitude = Double.NaN;
+        hasOffset = false;
+        offset = 0.0;
+    }
+
+    private void updateGrade(double distance) {
+        if ((newest >= oldest) && (distance - sample(sampleDistances, newest) < SAMPLE_METERS)) {
+            return;
+        }
+        newest++;
+        sampleDistances[newest % SAMPLE_CAPACITY] = distance;
+        sampleAltitudes[newest % SAMPLE_CAPACITY] = altitude;
+        if (newest - oldest >= SAMPLE_CAPACITY) {
+            oldest++;
+        }
+        // Keep the oldest sample the last one at least GRADE_METERS back.
+        while ((oldest < newest)
+                && (distance - sample(sampleDistances, oldest + 1) >= GRADE_METERS)) {
+            oldest++;
+        }
+
+        double run = distance - sample(sampleDistances, oldest);
+        if (run >= GRADE_METERS / 2.0) {
+            float rise = (float) ((altitude - sample(sampleAltitudes, oldest)) * 100.0 / run);
+            grade += GRADE_SMOOTHING * (rise - grade);
+        }
+    }
+
+    private static double sample(double[] samples, int i) {
+        return samples[i % SAMPLE_CAPACITY];
+    }
+}
@@ -0,0 +1,151 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.util.Arrays;
+
+/**
+ * Minimum and maximum altitude along the ride, at several resolutions, for drawing an elevation
+ * profile of any length from a fixed number of points.
+ *
+ * Level 0 buckets altitude by every {@link #BASE_METERS} of distance, and each level up has
+ * buckets twice as long. Every level has the same fixed number of buckets, so the fine levels
+ * fill up early in a long ride and stop taking more while the coarse ones keep going. Adding an
+ * altitude touches one bucket per level; a profile comes from the coarsest level whose buckets
+ * are still no longer than a point, so it costs about the same whatever the ride's length.
+ *
+ * Not thread safe.
+ */
+public class ElevationSeries {
+
+    public static final double BASE_METERS = 10.0;
+    public static final int LEVELS = 14;
+    public static final int BUCKETS = 1024;
+
+    private final float[][] mins = new float[LEVELS][BUCKETS];
+    private final float[][] maxes = new float[LEVELS][BUCKETS];
+    private double distance;
+    private long count;
+
+    public ElevationSeries() {
+        clear();
+    }
+
+    public void clear() {
+        for (int level = 0; level < LEVELS; level++) {
+            Arrays.fill(mins[level], Float.POSITIVE_INFINITY);
+            Arrays.fill(maxes[level], Float.NEGATIVE_INFINITY);
+        }
+        distance = 0.0;
+        count = 0L;
+    }
+
+    /**
+     * @param distance along the ride in metres
+     */
+    public void add(double distance, double altitude) {
+        if ((distance < 0.0) || Double.isNaN(altitude)) {
+            return;
+        }
+        long bucket = (long) (distance / BASE_METERS);
+        float value = (float) altitude;
+        for (int level = 0; level < LEVELS; level++) {
+            long b = bucket >> level;
+            if (b >= BUCKETS) {
+                continue;
+            }
+            int i = (int) b;
+            if (value < mins[level][i]) {
+                mins[level][i] = value;
+            }
+            if (value > maxes[level][i]) {
+                maxes[level][i] = value;
+            }
+        }
+        this.distance = Math.max(this.distance, distance);
+        count++;
+    }
+
+    /**
+     * @return the furthest distance added
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the farthest any level reaches, beyond which altitudes are no longer kept
+     */
+    public static double getMaxDistance() {
+        return BASE_METERS * BUCKETS * (1L << (LEVELS - 1));
+    }
+
+    public long getMemoryBytes() {
+        return 2L * LEVELS * BUCKETS * 4L;
+    }
+
+    /**
+     * Fills min and max with the profile between two distances, split into equal steps. Steps
+     * with nothing in them take the values of the one before, or NaN at the start.
+     *
+     * @return the number of points filled, 0 if the range is empty
+     */
+    public int getProfile(double from, double to, int points, float[] min, float[] max) {
+        if ((points <= 0) || !(to > from) || (count == 0)) {
+            return 0;
+        }
+        double step = (to - from) / points;
+        int level = 0;
+        while ((level < LEVELS - 1) && (BASE_METERS * (1L << (level + 1)) <= step)) {
+            level++;
+        }
+        // A fine level that filled up before the end of the range can't be used.
+        while ((level < LEVELS - 1) && (to > BASE_METERS * (1L << level) * BUCKETS)) {
+            level++;
+        }
+        double width = BASE_METERS * (1L << level);
+        float[] levelMins = mins[level];
+        float[] levelMaxes = maxes[level];
+
+        float lastMin = Float.NaN;
+        float lastMax = Float.NaN;
+        for (int p = 0; p < points; p++) {
+            double start = from + p * step;
+            int first = Math.max(0, (int) (start / width));
+            int last = Math.min(BUCKETS - 1, (int) Math.ceil((start + step) / width) - 1);
+            float lo = Float.POSITIVE_INFINITY;
+            float hi = Float.NEGATIVE_INFINITY;
+            for (int b = first; b <= last; b++) {
+                lo = Math.min(lo, levelMins[b]);
+                hi = Math.max(hi, levelMaxes[b]);
+            }
+            if (lo <= hi) {
+                lastMin = lo;
+                lastMax = hi;
+            }
+            min[p] = lastMin;
+            max[p] = lastMax;
+        }
+        return points;
+    }
+}
@@ -0,0 +1,61 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * A location fix as plain primitives, reused from one fix to the next instead of passing
+ * {@code android.location.Location} objects around.
+ */
+public class Fix {
+    public long time;
+    public double latitude;
+    public double longitude;
+    // NaN when the provider didn't give one.
+    public double altitude;
+    // Metres, zero when unknown.
+    public float accuracy;
+    // Metres per second, negative when unknown.
+    public float speed;
+    // Degrees, negative when unknown.
+    public float bearing;
+
+    public Fix set(long time, double latitude, double longitude, double altitude, float accuracy,
+                   float speed, float bearing) {
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.bearing = bearing;
+        return this;
+    }
+
+    public boolean hasAltitude() {
+        return !Double.isNaN(altitude);
+    }
+
+    public boolean hasSpeed() {
+        return speed >= 0.0f;
+    }
+
+    public boolean hasBearing() {
+        return bearing >= 0.0f;
+    }
+}
@@ -0,0 +1,104 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * A run of fixes taken off a {@link FixQueue} in one go, kept in primitive columns so the
+ * stages that work on whole batches are plain loops over arrays.
+ *
+ * Not thread safe; it belongs to the pipeline's consumer thread.
+ */
+public class FixBatch {
+
+    final long[] times;
+    final double[] latitudes;
+    final double[] longitudes;
+    final double[] altitudes;
+    final float[] accuracies;
+    final float[] speeds;
+    final float[] bearings;
+    final long[] queuedAt;
+    // Whether the fix got through every per fix stage.
+    final boolean[] passed;
+    int size;
+
+    public FixBatch(int capacity) {
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        altitudes = new double[capacity];
+        accuracies = new float[capacity];
+        speeds = new float[capacity];
+        bearings = new float[capacity];
+        queuedAt = new long[capacity];
+        passed = new boolean[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return times.length;
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    /**
+     * @return the altitude, or NaN if the fix didn't have one
+     */
+    public double getAltitude(int i) {
+        return altitudes[i];
+    }
+
+    public float getAccuracy(int i) {
+        return accuracies[i];
+    }
+
+    public boolean isPassed(int i) {
+        return passed[i];
+    }
+
+    /**
+     * @return the newest fix that got through every per fix stage, or -1 if none did
+     */
+    public int getLastPassed() {
+        for (int i = size - 1; i >= 0; i--) {
+            if (passed[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void get(int i, Fix out) {
+        out.set(times[i], latitudes[i], longitudes[i], altitudes[i], accuracies[i], speeds[i],
+                bearings[i]);
+    }
+}
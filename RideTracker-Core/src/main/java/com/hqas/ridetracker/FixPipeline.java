@@ -0,0 +1,272 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Hands fixes from the thread that receives them to a worker that runs them through a fixed
+ * list of stages.
+ *
+ * The producer side only copies the fix into a {@link FixQueue}; if the worker has fallen so far
+ * behind that the queue is full the fix is dropped and counted rather than blocking the caller.
+ * The worker drains the queue and runs each fix through the stages in order; a stage returning
+ * false stops that fix going any further.
+ *
+ * Fixes can also be drained as a {@link FixBatch}: the stages up to the first {@link BatchStage}
+ * still see the fixes one by one, then each batch stage gets the whole batch at once. That lets
+ * the stages that do I/O or talk to the UI do it once per batch rather than once per fix.
+ *
+ * Time spent in each stage, time spent waiting in the queue and the deepest the queue has been
+ * are recorded as it goes. A batch stage's maximum is for a whole batch.
+ */
+public class FixPipeline {
+
+    public interface Stage {
+        /**
+         * @return false to stop the fix here
+         */
+        boolean process(Fix fix);
+    }
+
+    /**
+     * A stage that can take a whole batch. Only fixes marked as passed got through the stages
+     * before it.
+     */
+    public interface BatchStage extends Stage {
+        void processBatch(FixBatch batch);
+    }
+
+    private final FixQueue queue;
+    private final Stage[] stages;
+    private final String[] stageNames;
+    private final Fix current = new Fix();
+    // Stages before this one see batched fixes one at a time.
+    private final int firstBatchStage;
+
+    // Written by the producer.
+    private volatile long offeredCount;
+    private volatile long droppedCount;
+    private volatile int maxDepth;
+
+    // Written by the consumer.
+    private volatile long processedCount;
+    private volatile long drainCount;
+    private final long[] stageNanos;
+    private final long[] stageMaxNanos;
+    private volatile long queueWaitNanos;
+    private volatile long queueWaitMaxNanos;
+
+    public FixPipeline(int capacity, String[] stageNames, Stage[] stages) {
+        if (stageNames.length != stages.length) {
+            throw new IllegalArgumentException("Every stage needs a name");
+        }
+        this.queue = new FixQueue(capacity);
+        this.stages = stages;
+        this.stageNames = stageNames;
+        this.stageNanos = new long[stages.length];
+        this.stageMaxNanos = new long[stages.length];
+
+        int first = stages.length;
+        for (int i = stages.length - 1; (i >= 0) && (stages[i] instanceof BatchStage); i--) {
+            first = i;
+        }
+        firstBatchStage = first;
+    }
+
+    /**
+     * Queues a fix. Producer thread only.
+     *
+     * @return false if the queue was full and the fix was dropped
+     */
+    public boolean offer(Fix fix) {
+        offeredCount++;
+        if (!queue.offer(fix, System.nanoTime())) {
+            droppedCount++;
+            return false;
+        }
+        int depth = queue.size();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        return true;
+    }
+
+    /**
+     * Runs every queued fix through the stages. Consumer thread only.
+     *
+     * @return the number of fixes processed
+     */
+    public int drain() {
+        int drained = 0;
+        drainCount++;
+        long queued;
+        while ((queued = queue.poll(current)) >= 0) {
+            long start = System.nanoTime();
+            long wait = start - queued;
+            queueWaitNanos += wait;
+            if (wait > queueWaitMaxNanos) {
+                queueWaitMaxNanos = wait;
+            }
+
+            for (int i = 0; i < stages.length; i++) {
+                boolean carryOn = stages[i].process(current);
+                long end = System.nanoTime();
+                long spent = end - start;
+                stageNanos[i] += spent;
+                if (spent > stageMaxNanos[i]) {
+                    stageMaxNanos[i] = spent;
+                }
+                start = end;
+                if (!carryOn) {
+                    break;
+                }
+            }
+            processedCount++;
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Takes every queued fix, up to the batch's capacity, and runs it through the stages as a
+     * batch. Consumer thread only.
+     *
+     * @return the number of fixes processed
+     */
+    public int drainBatch(FixBatch batch) {
+        int n = queue.drainTo(batch);
+        if (n == 0) {
+            return 0;
+        }
+        drainCount++;
+        long start = System.nanoTime();
+        for (int f = 0; f < n; f++) {
+            long wait = start - batch.queuedAt[f];
+            queueWaitNanos += wait;
+            if (wait > queueWaitMaxNanos) {
+                queueWaitMaxNanos = wait;
+            }
+        }
+
+        for (int f = 0; f < n; f++) {
+            batch.get(f, current);
+            boolean passed = true;
+            for (int i = 0; i < firstBatchStage; i++) {
+                passed = stages[i].process(current);
+                long end = System.nanoTime();
+                long spent = end - start;
+                stageNanos[i] += spent;
+                if (spent > stageMaxNanos[i]) {
+                    stageMaxNanos[i] = spent;
+                }
+                start = end;
+                if (!passed) {
+                    break;
+                }
+            }
+            batch.passed[f] = passed;
+        }
+        for (int i = firstBatchStage; i < stages.length; i++) {
+            ((BatchStage) stages[i]).processBatch(batch);
+            long end = System.nanoTime();
+            long spent = end - start;
+            stageNanos[i] += spent;
+            if (spent > stageMaxNanos[i]) {
+                stageMaxNanos[i] = spent;
+            }
+            start = end;
+        }
+        processedCount += n;
+        return n;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    public long getOfferedCount() {
+        return offeredCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    /**
+     * @return how many times the queue has been drained, one fix at a time or as a batch
+     */
+    public long getDrainCount() {
+        return drainCount;
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    public String getStageName(int stage) {
+        return stageNames[stage];
+    }
+
+    /**
+     * Average time a fix spent in the stage. Only meaningful on the consumer thread or as a rough
+     * figure elsewhere.
+     */
+    public long getAverageStageNanos(int stage) {
+        long processed = processedCount;
+        return (processed == 0) ? 0 : stageNanos[stage] / processed;
+    }
+
+    public long getMaxStageNanos(int stage) {
+        return stageMaxNanos[stage];
+    }
+
+    public long getAverageQueueWaitNanos() {
+        long processed = processedCount;
+        return (processed == 0) ? 0 : queueWaitNanos / processed;
+    }
+
+    public long getMaxQueueWaitNanos() {
+        return queueWaitMaxNanos;
+    }
+
+    /**
+     * One line summary for the log.
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("fixes ").append(processedCount).append('/').append(offeredCount)
+                .append(" drains ").append(drainCount)
+                .append(" dropped ").append(droppedCount)
+                .append(" depth ").append(queue.size()).append(" max ").append(maxDepth)
+                .append(" wait avg ").append(getAverageQueueWaitNanos() / 1000).append("us");
+        for (int i = 0; i < stages.length; i++) {
+            sb.append(", ").append(stageNames[i]).append(" avg ")
+                    .append(getAverageStageNanos(i) / 1000).append("us max ")
+                    .append(stageMaxNanos[i] / 1000).append("us");
+        }
+        return sb.toString();
+    }
+}
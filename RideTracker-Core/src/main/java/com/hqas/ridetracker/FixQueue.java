@@ -0,0 +1,138 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Bounded single producer, single consumer queue of fixes stored in primitive columns.
+ *
+ * The producer never blocks: {@link #offer} just returns false when the queue is full. Neither
+ * side locks or allocates. Only one thread may offer and only one thread may poll.
+ */
+public class FixQueue {
+
+    private final int capacity;
+    private final int mask;
+
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private final float[] accuracies;
+    private final float[] speeds;
+    private final float[] bearings;
+    private final long[] queuedAt;
+
+    // head is only written by the consumer and tail only by the producer.
+    private volatile long head;
+    private volatile long tail;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public FixQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        times = new long[size];
+        latitudes = new double[size];
+        longitudes = new double[size];
+        altitudes = new double[size];
+        accuracies = new float[size];
+        speeds = new float[size];
+        bearings = new float[size];
+        queuedAt = new long[size];
+    }
+
+    /**
+     * @param queuedAtNanos when the fix was queued, handed back by {@link #poll} for latency
+     * @return false if the queue was full and the fix was not added
+     */
+    public boolean offer(Fix fix, long queuedAtNanos) {
+        long t = tail;
+        if (t - head == capacity) {
+            return false;
+        }
+        int i = (int) (t & mask);
+        times[i] = fix.time;
+        latitudes[i] = fix.latitude;
+        longitudes[i] = fix.longitude;
+        altitudes[i] = fix.altitude;
+        accuracies[i] = fix.accuracy;
+        speeds[i] = fix.speed;
+        bearings[i] = fix.bearing;
+        queuedAt[i] = queuedAtNanos;
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * Copies the oldest fix into out and removes it.
+     *
+     * @return the time it was queued, or -1 if the queue was empty
+     */
+    public long poll(Fix out) {
+        long h = head;
+        if (h == tail) {
+            return -1L;
+        }
+        int i = (int) (h & mask);
+        out.set(times[i], latitudes[i], longitudes[i], altitudes[i], accuracies[i], speeds[i],
+                bearings[i]);
+        long queued = queuedAt[i];
+        head = h + 1;
+        return queued;
+    }
+
+    /**
+     * Moves as many of the queued fixes as fit into the batch, oldest first, replacing what it
+     * held.
+     *
+     * @return the number of fixes moved
+     */
+    public int drainTo(FixBatch batch) {
+        long h = head;
+        int n = (int) Math.min(tail - h, batch.capacity());
+        int start = (int) (h & mask);
+        int first = Math.min(n, capacity - start);
+        copyTo(batch, start, 0, first);
+        copyTo(batch, 0, first, n - first);
+        batch.size = n;
+        head = h + n;
+        return n;
+    }
+
+    private void copyTo(FixBatch batch, int from, int to, int count) {
+        System.arraycopy(times, from, batch.times, to, count);
+        System.arraycopy(latitudes, from, batch.latitudes, to, count);
+        System.arraycopy(longitudes, from, batch.longitudes, to, count);
+        System.arraycopy(altitudes, from, batch.altitudes, to, count);
+        System.arraycopy(accuracies, from, batch.accuracies, to, count);
+        System.arraycopy(speeds, from, batch.speeds, to, count);
+        System.arraycopy(bearings, from, batch.bearings, to, count);
+        System.arraycopy(queuedAt, from, batch.queuedAt, to, count);
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,52 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * How fixes get from the location provider to the processing thread.
+ *
+ * LIVE processes each fix as it arrives. The batched modes leave fixes in the queue and process
+ * them in a burst once the oldest has waited maxDelayMs or maxBatchFixes have piled up, so the
+ * worker wakes, the journal is forced and the Pebble is sent an update once per batch rather than
+ * once per fix. The price is that the watch and notification lag by up to maxDelayMs.
+ */
+public enum IngestMode {
+    LIVE(0L, 1),
+    BATCHED(10000L, 16),
+    LONG_RIDE(60000L, 128);
+
+    private final long maxDelayMs;
+    private final int maxBatchFixes;
+
+    IngestMode(long maxDelayMs, int maxBatchFixes) {
+        this.maxDelayMs = maxDelayMs;
+        this.maxBatchFixes = maxBatchFixes;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /**
+     * Kept below {@link RideProcessor#QUEUE_CAPACITY} so a batch never overflows the queue.
+     */
+    public int getMaxBatchFixes() {
+        return maxBatchFixes;
+    }
+}
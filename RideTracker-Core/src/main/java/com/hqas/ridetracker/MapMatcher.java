@@ -0,0 +1,483 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.util.Arrays;
+
+/**
+ * Snaps fixes onto a {@link RoadGraph} with a hidden Markov model: each fix's candidates are the
+ * nearby points on roads, a candidate is likelier the closer it is to the fix, and a move between
+ * candidates is likelier the closer its distance along the roads is to the straight line distance
+ * between the fixes. The Viterbi algorithm picks the likeliest run of candidates.
+ *
+ * Only the last few fixes are kept. Once the window is full the oldest fix is committed along
+ * the best path so far, so a fix is reported window - 1 fixes late. A small window suits a ride
+ * in progress; a track can be matched in one go with a larger one, see {@link #match}. Fixes
+ * with no road near them, and gaps the roads can't explain, break the path.
+ *
+ * Not thread safe.
+ */
+public class MapMatcher {
+
+    public static final int LIVE_WINDOW = 10;
+    public static final int BATCH_WINDOW = 60;
+
+    private static final int MAX_CANDIDATES = 8;
+    // Fix accuracy below this is taken with a pinch of salt.
+    private static final double MIN_SIGMA_METERS = 5.0;
+    private static final double SEARCH_SIGMAS = 4.0;
+    private static final double MIN_SEARCH_METERS = 30.0;
+    private static final double MAX_SEARCH_METERS = 100.0;
+    // Scale of the difference between road and straight line distance a move is allowed.
+    private static final double BETA_METERS = 10.0;
+    // Roads are searched up to twice the straight line distance plus this.
+    private static final double ROUTE_SLACK_METERS = 100.0;
+    // Noisy fixes can seem to go back a little along the road they're on.
+    private static final double BACKTRACK_METERS = 10.0;
+
+    public interface Listener {
+        /**
+         * @param routeMeters the distance along the roads from the previous matched fix, or 0
+         *                    when it starts a new path
+         */
+        void onMatched(long tag, long time, double latitude, double longitude, double routeMeters);
+
+        /**
+         * The fix couldn't be matched to a road and is passed through as it is.
+         */
+        void onUnmatched(long tag, long time, double latitude, double longitude);
+    }
+
+    private final RoadGraph graph;
+    private final Listener listener;
+    private final int window;
+
+    // Ring of steps, oldest at head; candidate arrays hold MAX_CANDIDATES per step.
+    private final long[] times;
+    private final long[] tags;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] counts;
+    private final int[] edges;
+    private final float[] fractions;
+    private final double[] scores;
+    private final int[] backs;
+    private final float[] routes;
+    private final int[] path;
+    private int head;
+    private int size;
+
+    // The last committed candidate, which the oldest step in the window follows on from.
+    private int committedCandidate = -1;
+    private int committedEdge;
+    private float committedFraction;
+    private double committedLatitude;
+    private double committedLongitude;
+
+    private final int[] foundEdges = new int[MAX_CANDIDATES];
+    private final float[] foundFractions = new float[MAX_CANDIDATES];
+    private final float[] foundDistances = new float[MAX_CANDIDATES];
+    private final float[] stepRoutes = new float[MAX_CANDIDATES];
+    private final int[] commitEdge = new int[1];
+    private final float[] commitFraction = new float[1];
+    private final float[] commitRoute = new float[1];
+
+    // Dijkstra state, reused between searches; a node's distance only counts if its stamp is current.
+    private final float[] nodeDistance;
+    private final int[] nodeStamp;
+    private int stamp;
+    private int[] heapNodes = new int[64];
+    private float[] heapDistances = new float[64];
+    private int heapSize;
+
+    private long matchedCount;
+    private long unmatchedCount;
+
+    public MapMatcher(RoadGraph graph, int window, Listener listener) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1");
+        }
+        this.graph = graph;
+        this.window = window;
+        this.listener = listener;
+        times = new long[window];
+        tags = new long[window];
+        latitudes = new double[window];
+        longitudes = new double[window];
+        counts = new int[window];
+        edges = new int[window * MAX_CANDIDATES];
+        fractions = new float[window * MAX_CANDIDATES];
+        scores = new double[window * MAX_CANDIDATES];
+        backs = new int[window * MAX_CANDIDATES];
+        routes = new float[window * MAX_CANDIDATES];
+        path = new int[window];
+        nodeDistance = new float[graph.getNodeCount()];
+        nodeStamp = new int[graph.getNodeCount()];
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    public long getMatchedCount() {
+        return matchedCount;
+    }
+
+    public long getUnmatchedCount() {
+        return unmatchedCount;
+    }
+
+    /**
+     * Bytes of search state this matcher keeps on top of the graph.
+     */
+    public long getMemoryBytes() {
+        return 8L * nodeDistance.length + (4L + 4L) * heapNodes.length
+                + window * (8L * 4 + 4L + MAX_CANDIDATES * (4L + 4L + 8L + 4L + 4L) + 4L);
+    }
+
+    /**
+     * Adds a fix. Matched fixes are reported to the listener once they leave the window.
+     *
+     * @param accuracy the fix's accuracy in metres, or 0 if unknown
+     * @param tag      handed back with the fix, e.g. its index in the track
+     */
+    public void update(long time, double latitude, double longitude, float accuracy, long tag) {
+        double sigma = Math.max(MIN_SIGMA_METERS, accuracy);
+        double radius = Math.max(MIN_SEARCH_METERS, Math.min(MAX_SEARCH_METERS,
+                SEARCH_SIGMAS * sigma));
+        int found = graph.findNearbyEdges(latitude, longitude, radius, MAX_CANDIDATES, foundEdges,
+                foundFractions, foundDistances);
+        if (found == 0) {
+            flush();
+            unmatchedCount++;
+            listener.onUnmatched(tag, time, latitude, longitude);
+            return;
+        }
+
+        if (size == window) {
+            commitOldest();
+        }
+        if ((size > 0) && !addStep(time, latitude, longitude, sigma, found, tag)) {
+            // Nothing the roads can explain, so start again from here.
+            flush();
+        }
+        if (size == 0) {
+            int s = startStep(time, latitude, longitude, found, tag);
+            int base = s * MAX_CANDIDATES;
+            for (int k = 0; k < found; k++) {
+                scores[base + k] = emission(foundDistances[k], sigma);
+                backs[base + k] = -1;
+                routes[base + k] = 0.0f;
+            }
+            normalize(base, found);
+        }
+    }
+
+    /**
+     * Commits every fix still in the window along the best path, e.g. at the end of a ride.
+     */
+    public void flush() {
+        if (size == 0) {
+            return;
+        }
+        backtrack();
+        for (int i = 0; i < size; i++) {
+            commit((head + i) % window, path[i]);
+        }
+        head = 0;
+        size = 0;
+        committedCandidate = -1;
+    }
+
+    /**
+     * Drops the fixes in the window without reporting them.
+     */
+    public void reset() {
+        head = 0;
+        size = 0;
+        committedCandidate = -1;
+    }
+
+    /**
+     * Matches a whole track, reporting each fix with its index in the view as the tag. Outliers,
+     * as a {@link DistanceFilter} sees them, are left out like they are during a ride.
+     */
+    public void match(TrackBuffer.View track) {
+        reset();
+        DistanceFilter filter = new DistanceFilter();
+        int n = track.size();
+        for (int i = 0; i < n; i++) {
+            long time = track.getTime(i);
+            double latitude = track.getLatitude(i);
+            double longitude = track.getLongitude(i);
+            float accuracy = track.getAccuracy(i);
+            if (filter.update(time, latitude, longitude, accuracy)) {
+                update(time, latitude, longitude, accuracy, i);
+            }
+        }
+        flush();
+    }
+
+    private int startStep(long time, double latitude, double longitude, int found, long tag) {
+        int s = (head + size) % window;
+        times[s] = time;
+        tags[s] = tag;
+        latitudes[s] = latitude;
+        longitudes[s] = longitude;
+        counts[s] = found;
+        int base = s * MAX_CANDIDATES;
+        System.arraycopy(foundEdges, 0, edges, base, found);
+        System.arraycopy(foundFractions, 0, fractions, base, found);
+        size++;
+        return s;
+    }
+
+    /**
+     * Scores the found candidates against the latest step and appends them.
+     *
+     * @return false if none of them can be reached from it
+     */
+    private boolean addStep(long time, double latitude, double longitude, double sigma, int found,
+                            long tag) {
+        int p = (head + size - 1) % window;
+        int pBase = p * MAX_CANDIDATES;
+        int s = (head + size) % window;
+        int base = s * MAX_CANDIDATES;
+        double straight = GeoMath.haversine(latitudes[p], longitudes[p], latitude, longitude);
+        double limit = 2.0 * straight + ROUTE_SLACK_METERS;
+
+        for (int k = 0; k < found; k++) {
+            scores[base + k] = Double.NEGATIVE_INFINITY;
+            backs[base + k] = -1;
+        }
+        boolean reachable = false;
+        for (int j = 0; j < counts[p]; j++) {
+            if (scores[pBase + j] == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            routeDistances(edges[pBase + j], fractions[pBase + j], limit, foundEdges,
+                    foundFractions, found, stepRoutes);
+            for (int k = 0; k < found; k++) {
+                float route = stepRoutes[k];
+                if (route == Float.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double score = scores[pBase + j] + emission(foundDistances[k], sigma)
+                        - Math.abs(route - straight) / BETA_METERS;
+                if (score > scores[base + k]) {
+                    scores[base + k] = score;
+                    backs[base + k] = j;
+                    routes[base + k] = route;
+                    reachable = true;
+                }
+            }
+        }
+        if (!reachable) {
+            return false;
+        }
+        startStep(time, latitude, longitude, found, tag);
+        normalize(base, found);
+        return true;
+    }
+
+    private static double emission(float distance, double sigma) {
+        double z = distance / sigma;
+        return -0.5 * z * z;
+    }
+
+    private void normalize(int base, int count) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < count; k++) {
+            best = Math.max(best, scores[base + k]);
+        }
+        for (int k = 0; k < count; k++) {
+            scores[base + k] -= best;
+        }
+    }
+
+    /**
+     * Fills path with the best candidate of each step in the window, oldest first.
+     */
+    private void backtrack() {
+        int last = (head + size - 1) % window;
+        int base = last * MAX_CANDIDATES;
+        int k = 0;
+        for (int c = 1; c < counts[last]; c++) {
+            if (scores[base + c] > scores[base + k]) {
+                k = c;
+            }
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            path[i] = k;
+            if (i > 0) {
+                k = backs[((head + i) % window) * MAX_CANDIDATES + k];
+            }
+        }
+    }
+
+    private void commitOldest() {
+        backtrack();
+        commit(head, path[0]);
+        head = (head + 1) % window;
+        size--;
+    }
+
+    private void commit(int s, int k) {
+        int i = s * MAX_CANDIDATES + k;
+        int edge = edges[i];
+        float fraction = fractions[i];
+        double latitude = graph.getLatitudeAlong(edge, fraction);
+        double longitude = graph.getLongitudeAlong(edge, fraction);
+
+        double route;
+        if ((backs[i] < 0) || (committedCandidate < 0)) {
+            route = 0.0;
+        } else if (backs[i] == committedCandidate) {
+            route = routes[i];
+        } else {
+            // The best path changed its mind about a fix that is already out; go from that one.
+            commitEdge[0] = edge;
+            commitFraction[0] = fraction;
+            double straight = GeoMath.haversine(committedLatitude, committedLongitude, latitude,
+                    longitude);
+            routeDistances(committedEdge, committedFraction, 2.0 * straight + ROUTE_SLACK_METERS,
+                    commitEdge, commitFraction, 1, commitRoute);
+            route = (commitRoute[0] != Float.POSITIVE_INFINITY) ? commitRoute[0] : straight;
+        }
+
+        committedCandidate = k;
+        committedEdge = edge;
+        committedFraction = fraction;
+        committedLatitude = latitude;
+        committedLongitude = longitude;
+        matchedCount++;
+        listener.onMatched(tags[s], times[s], latitude, longitude, route);
+    }
+
+    /**
+     * Finds the distance along the roads from a point on one edge to points on others, giving up
+     * past limit. Unreachable targets get positive infinity.
+     */
+    private void routeDistances(int fromEdge, float fromFraction, double limit, int[] toEdges,
+                                float[] toFractions, int count, float[] out) {
+        float fromLength = graph.getEdgeLength(fromEdge);
+        int pending = 0;
+        for (int k = 0; k < count; k++) {
+            out[k] = Float.POSITIVE_INFINITY;
+            if (toEdges[k] == fromEdge) {
+                float along = (toFractions[k] - fromFraction) * fromLength;
+                if (along >= -BACKTRACK_METERS) {
+                    out[k] = Math.abs(along);
+                    continue;
+                }
+            }
+            pending++;
+        }
+        if (pending == 0) {
+            return;
+        }
+
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(nodeStamp, 0);
+            stamp = 1;
+        }
+        heapSize = 0;
+        int start = graph.getEdgeTo(fromEdge);
+        float startDistance = (1.0f - fromFraction) * fromLength;
+        nodeStamp[start] = stamp;
+        nodeDistance[start] = startDistance;
+        push(start, startDistance);
+
+        while (heapSize > 0) {
+            int node = heapNodes[0];
+            float distance = heapDistances[0];
+            pop();
+            if (distance > nodeDistance[node]) {
+                continue;
+            }
+            if (distance > limit) {
+                break;
+            }
+            for (int k = 0; k < count; k++) {
+                if ((out[k] == Float.POSITIVE_INFINITY)
+                        && (graph.getEdgeFrom(toEdges[k]) == node)) {
+                    out[k] = distance + toFractions[k] * graph.getEdgeLength(toEdges[k]);
+                    pending--;
+                }
+            }
+            if (pending == 0) {
+                break;
+            }
+            int end = graph.getEndEdge(node);
+            for (int e = graph.getFirstEdge(node); e < end; e++) {
+                int to = graph.getEdgeTo(e);
+                float d = distance + graph.getEdgeLength(e);
+                if ((nodeStamp[to] != stamp) || (d < nodeDistance[to])) {
+                    nodeStamp[to] = stamp;
+                    nodeDistance[to] = d;
+                    push(to, d);
+                }
+            }
+        }
+    }
+
+    private void push(int node, float distance) {
+        if (heapSize == heapNodes.length) {
+            heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+            heapDistances = Arrays.copyOf(heapDistances, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (heapDistances[parent] <= distance) {
+                break;
+            }
+            heapNodes[i] = heapNodes[parent];
+            heapDistances[i] = heapDistances[parent];
+            i = parent;
+        }
+        heapNodes[i] = node;
+        heapDistances[i] = distance;
+    }
+
+    private void pop() {
+        int node = heapNodes[--heapSize];
+        float distance = heapDistances[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if ((child + 1 < heapSize) && (heapDistances[child + 1] < heapDistances[child])) {
+                child++;
+            }
+            if (heapDistances[child] >= distance) {
+                break;
+            }
+            heapNodes[i] = heapNodes[child];
+            heapDistances[i] = heapDistances[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            heapNodes[i] = node;
+            heapDistances[i] = distance;
+        }
+    }
+}
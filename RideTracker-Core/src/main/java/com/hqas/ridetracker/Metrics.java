@@ -0,0 +1,214 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for the hot paths: fixes arriving and being handled, messages
+ * to the Pebble and their acks, broadcasts, and allocations along the way. Shown on the
+ * app's debug screen and written out with {@link #writeDump(File)}.
+ *
+ * Everything is off until {@link #setEnabled(boolean)}. While it's off, recording costs one
+ * volatile read; callers that would have to read the clock check {@link #isEnabled()} first.
+ */
+public final class Metrics {
+
+    private static final int MAGIC = 0x52544d31; // "RTM1"
+    private static final short VERSION = 1;
+    private static final long NANOS_PER_MS = 1000000L;
+
+    // Registered in the order they're declared below, which is the order they're shown in.
+    private static final List<Counter> counters = new ArrayList<Counter>();
+    private static final List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+
+    public static final LatencyHistogram FIX_INTERVAL = histogram("fix_interval", NANOS_PER_MS);
+    public static final LatencyHistogram LOCATION_CHANGED =
+            histogram("location_changed", NANOS_PER_MS);
+    public static final LatencyHistogram DRAIN = histogram("drain", NANOS_PER_MS);
+    public static final LatencyHistogram PEBBLE_ACK = histogram("pebble_ack", 1L);
+
+    public static final Counter FIXES = counter("fixes");
+    public static final Counter FIXES_DROPPED = counter("fixes_dropped");
+    public static final Counter PEBBLE_SENT = counter("pebble_sent");
+    public static final Counter PEBBLE_ACKED = counter("pebble_acked");
+    public static final Counter PEBBLE_NACKED = counter("pebble_nacked");
+    public static final Counter PEBBLE_TIMED_OUT = counter("pebble_timed_out");
+    public static final Counter PEBBLE_DROPPED = counter("pebble_dropped");
+    public static final Counter BROADCASTS_SENT = counter("broadcasts_sent");
+    public static final Counter BROADCASTS_RECEIVED = counter("broadcasts_received");
+    // Objects allocated by onLocationChanged; anything but 0 a fix means garbage on the main
+    // thread.
+    public static final Counter FIX_ALLOCATIONS = counter("fix_allocations");
+    // Sampled from the runtime rather than counted here.
+    public static final Counter ALLOCATIONS = counter("allocations");
+    public static final Counter ALLOCATED_BYTES = counter("allocated_bytes");
+    public static final Counter GC_RUNS = counter("gc_runs");
+
+    private static volatile boolean enabled;
+    // System.nanoTime() when recording last started or was reset.
+    private static volatile long since;
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        if (on && !enabled) {
+            since = System.nanoTime();
+        }
+        enabled = on;
+    }
+
+    public static void reset() {
+        for (Counter counter : counters) {
+            counter.value.set(0L);
+        }
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        since = System.nanoTime();
+    }
+
+    /**
+     * A count that any thread may add to.
+     */
+    public static final class Counter {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            if (enabled) {
+                value.incrementAndGet();
+            }
+        }
+
+        public void add(long n) {
+            if (enabled) {
+                value.addAndGet(n);
+            }
+        }
+
+        /**
+         * For figures sampled from somewhere else, such as the runtime's allocation counts.
+         */
+        public void set(long n) {
+            value.set(n);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Everything recorded so far, for the debug screen.
+     */
+    public static String describe() {
+        StringBuilder text = new StringBuilder();
+        long elapsedNs = (since == 0L) ? 0L : System.nanoTime() - since;
+        double minutes = elapsedNs / (60000.0 * NANOS_PER_MS);
+        text.append(String.format(Locale.US, "%s for %.1f min\n\n",
+                enabled ? "Recording" : "Stopped", minutes));
+
+        text.append("Latency, ms: n / mean / p50 / p99 / max\n");
+        for (LatencyHistogram histogram : histograms) {
+            double scale = histogram.getUnitsPerMs();
+            text.append(String.format(Locale.US, "%s  %d / %.2f / %.2f / %.2f / %.2f\n",
+                    histogram.getName(), histogram.getCount(), histogram.getMean() / scale,
+                    histogram.getValueAtPercentile(50.0) / scale,
+                    histogram.getValueAtPercentile(99.0) / scale, histogram.getMax() / scale));
+        }
+
+        text.append("\nCount, per min\n");
+        for (Counter counter : counters) {
+            long n = counter.get();
+            text.append(String.format(Locale.US, "%s  %d, %.1f\n", counter.getName(), n,
+                    (minutes > 0.0) ? n / minutes : 0.0));
+        }
+
+        long sent = PEBBLE_SENT.get();
+        if (sent > 0) {
+            text.append(String.format(Locale.US, "\nPebble nacks %.1f%%, drops %.1f%% of sent\n",
+                    100.0 * PEBBLE_NACKED.get() / sent, 100.0 * PEBBLE_DROPPED.get() / sent));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes everything out in a compact binary form: "RTM1", a short version and a spare
+     * short, the wall clock time and nanoseconds recorded for, then the counters as a count
+     * followed by name and value pairs, then the histograms the same way, each as written by
+     * {@link LatencyHistogram#writeTo(DataOutputStream)}.
+     */
+    public static void writeDump(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong((since == 0L) ? 0L : System.nanoTime() - since);
+            out.writeInt(counters.size());
+            for (Counter counter : counters) {
+                out.writeUTF(counter.getName());
+                out.writeLong(counter.get());
+            }
+            out.writeInt(histograms.size());
+            for (LatencyHistogram histogram : histograms) {
+                histogram.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    private static LatencyHistogram histogram(String name, long unitsPerMs) {
+        LatencyHistogram histogram = new LatencyHistogram(name, unitsPerMs);
+        histograms.add(histogram);
+        return histogram;
+    }
+}
@@ -0,0 +1,250 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Works out from the stream of fixes whether the rider has stopped, for auto-pause.
+ *
+ * Speed is averaged over a sliding window of recent fixes, and how far the rider got across
+ * the window is measured too, so GPS drift at a standstill (which reports a speed but goes
+ * nowhere) doesn't look like riding. Going from riding to stopped takes a few seconds of both
+ * being low, and getting going again needs a real move away from where the stop began, so the
+ * state doesn't flicker at a walking pace or in traffic.
+ *
+ * Each fix costs a constant amount of work and no allocation. Plain Java, so it can be driven
+ * by recorded rides.
+ */
+public class MotionDetector {
+
+    public enum State {
+        MOVING,
+        // Speed has dropped; not yet sure it's a stop.
+        SLOWING,
+        STOPPED,
+        // Moving off after a stop; becomes MOVING once it keeps up.
+        RESUMED
+    }
+
+    private static final long WINDOW_MS = 10000L;
+    private static final int WINDOW_FIXES = 64;
+    private static final float SLOW_SPEED = 2.0f;         // m/s
+    private static final float STOP_SPEED = 0.8f;         // m/s
+    private static final float RESUME_SPEED = 3.0f;       // m/s
+    private static final float STOP_RADIUS = 15.0f;       // metres
+    private static final float RESUME_RADIUS = 30.0f;     // metres
+    private static final long STOP_CONFIRM_MS = 5000L;
+    private static final long RESUME_CONFIRM_MS = 5000L;
+    // Fixes in a row that have to look like riding away, so one wild fix can't end a stop.
+    private static final int RESUME_FIXES = 2;
+
+    private State state = State.MOVING;
+
+    // Window of recent fixes on a local plane, oldest at head.
+    private final long[] times = new long[WINDOW_FIXES];
+    private final double[] xs = new double[WINDOW_FIXES];
+    private final double[] ys = new double[WINDOW_FIXES];
+    private final float[] speeds = new float[WINDOW_FIXES];
+    private int head;
+    private int size;
+    // Sum and count of the receiver speeds in the window; fixes without one aren't counted.
+    private double speedSum;
+    private int speedCount;
+
+    private boolean hasOrigin;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+
+    private long slowSince = -1L;
+    private long resumedAt;
+    private int movingFixes;
+    private double stopX;
+    private double stopY;
+    private long stoppedAt = -1L;
+    private long pausedMs;
+    private int stopCount;
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true while the ride should be treated as paused
+     */
+    public boolean isStopped() {
+        return state == State.STOPPED;
+    }
+
+    /**
+     * Feeds in a fix.
+     *
+     * @param speed metres per second, negative if unknown
+     * @param accuracy metres, zero if unknown
+     * @return true if the state changed
+     */
+    public boolean update(long time, double latitude, double longitude, float speed,
+                          float accuracy) {
+        if (!hasOrigin) {
+            originLat = latitude;
+            originLon = longitude;
+            metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+            hasOrigin = true;
+        }
+        double x = (longitude - originLon) * metersPerDegreeLon;
+        double y = (latitude - originLat) * GeoMath.METERS_PER_DEGREE;
+        push(time, x, y, speed);
+
+        int oldest = head;
+        double dx = x - xs[oldest];
+        double dy = y - ys[oldest];
+        double displacement = Math.sqrt(dx * dx + dy * dy);
+        float windowSpeed;
+        if (speedCount > 0) {
+            windowSpeed = (float) (speedSum / speedCount);
+        } else {
+            // Without receiver speeds, go by how far the window got, less what the fixes' own
+            // error could account for. Speeds worked out between neighbouring fixes are mostly
+            // position noise at a standstill.
+            long span = time - times[oldest];
+            windowSpeed = (span > 0)
+                    ? (float) (Math.max(0.0, displacement - accuracy) * 1000.0 / span) : 0.0f;
+        }
+        if (speed < 0.0f) {
+            speed = windowSpeed;
+        }
+        // Noisy fixes wander further, so let the radii grow with the reported accuracy.
+        float stopRadius = Math.max(STOP_RADIUS, 1.5f * accuracy);
+        float resumeRadius = Math.max(RESUME_RADIUS, 2.0f * accuracy);
+
+        switch (state) {
+            case MOVING:
+                if (windowSpeed < SLOW_SPEED) {
+                    return changeState(State.SLOWING);
+                }
+                return false;
+
+            case SLOWING:
+                if (windowSpeed >= RESUME_SPEED) {
+                    slowSince = -1L;
+                    return changeState(State.MOVING);
+                }
+                if ((windowSpeed < STOP_SPEED) && (displacement < stopRadius)) {
+                    if (slowSince < 0) {
+                        slowSince = time;
+                        stopX = x;
+                        stopY = y;
+                    } else if (time - slowSince >= STOP_CONFIRM_MS) {
+                        stoppedAt = slowSince;
+                        slowSince = -1L;
+                        stopCount++;
+                        movingFixes = 0;
+                        return changeState(State.STOPPED);
+                    }
+                } else {
+                    slowSince = -1L;
+                }
+                return false;
+
+            case STOPPED:
+                double fromStopX = x - stopX;
+                double fromStopY = y - stopY;
+                if ((speed < RESUME_SPEED) || (fromStopX * fromStopX + fromStopY * fromStopY
+                        < resumeRadius * resumeRadius)) {
+                    movingFixes = 0;
+                } else if (++movingFixes >= RESUME_FIXES) {
+                    pausedMs += time - stoppedAt;
+                    stoppedAt = -1L;
+                    resumedAt = time;
+                    return changeState(State.RESUMED);
+                }
+                return false;
+
+            case RESUMED:
+                if (windowSpeed < STOP_SPEED) {
+                    // A false start, e.g. edging forward in a queue; still counts as a stop.
+                    return changeState(State.SLOWING);
+                }
+                if (time - resumedAt >= RESUME_CONFIRM_MS) {
+                    return changeState(State.MOVING);
+                }
+                return false;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Starts over as if moving, e.g. when the rider presses start.
+     */
+    public void reset() {
+        state = State.MOVING;
+        head = 0;
+        size = 0;
+        speedSum = 0.0;
+        speedCount = 0;
+        slowSince = -1L;
+        stoppedAt = -1L;
+    }
+
+    /**
+     * Time spent stopped so far, counting the stop in progress up to the given time.
+     */
+    public long getPausedMs(long now) {
+        return pausedMs + ((stoppedAt >= 0) ? Math.max(0L, now - stoppedAt) : 0L);
+    }
+
+    public int getStopCount() {
+        return stopCount;
+    }
+
+    /**
+     * @return when the current stop began, or -1 if not stopped
+     */
+    public long getStoppedAt() {
+        return stoppedAt;
+    }
+
+    private void push(long time, double x, double y, float speed) {
+        // Drop fixes that have slid out of the window, or the oldest if there's no room.
+        while ((size > 0) && ((time - times[head] > WINDOW_MS) || (size == WINDOW_FIXES))) {
+            if (speeds[head] >= 0.0f) {
+                speedSum -= speeds[head];
+                speedCount--;
+            }
+            head = (head + 1) % WINDOW_FIXES;
+            size--;
+        }
+        int tail = (head + size) % WINDOW_FIXES;
+        times[tail] = time;
+        xs[tail] = x;
+        ys[tail] = y;
+        speeds[tail] = speed;
+        if (speed >= 0.0f) {
+            speedSum += speed;
+            speedCount++;
+        }
+        size++;
+    }
+
+    private boolean changeState(State next) {
+        state = next;
+        return true;
+    }
+}
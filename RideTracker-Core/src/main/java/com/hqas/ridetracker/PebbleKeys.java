@@ -0,0 +1,42 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+/**
+ * Keys of the tuples exchanged with the watch app, which has to use the same ones.
+ */
+public final class PebbleKeys {
+
+    // "true", "false" or "reset" as a string.
+    public static final int START_STOP = 0;
+    public static final int RESET = 2;
+    // A TelemetryCodec frame.
+    public static final int TELEMETRY = 3;
+    public static final int SEGMENT = 4;
+    public static final int SEGMENT_GATE = 5;
+    public static final int SEGMENT_SPLIT = 6;      // tenths of a second
+    public static final int SEGMENT_DELTA = 7;      // tenths, only if there's a best
+    // Lowest and highest metres as big endian int16s, then a byte per point from 0 (lowest) to
+    // 255 (highest).
+    public static final int PROFILE = 8;
+
+    private PebbleKeys() {
+    }
+}
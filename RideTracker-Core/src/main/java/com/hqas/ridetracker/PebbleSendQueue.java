@@ -0,0 +1,395 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import com.getpebble.android.kit.util.PebbleDictionary;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Outbound messages to the Pebble, one at a time.
+ *
+ * Only one message is in flight; the next goes once the watch acks it. A nack or a missing ack
+ * is retried with exponential backoff and given up on after a few attempts. Control messages
+ * (start, stop, reset) always go before telemetry, and are never dropped to make room: a new one
+ * replaces a waiting one with the same key, which it supersedes, and if the queue is still full
+ * the new one is refused. Telemetry isn't queued at all: callers just
+ * mark it dirty and the {@link TelemetrySource} is asked for the latest values when there's
+ * room to send, so any number of updates in between collapse into one message. Events, like a
+ * segment split, each say something of their own: they go after control and before telemetry,
+ * and none is ever superseded. Background messages, like the elevation profile, are queued the
+ * same way as control but go last, unless one has waited {@link #MAX_BACKGROUND_WAIT_MS} behind
+ * telemetry.
+ *
+ * Not thread safe, everything is expected to happen on the scheduler's thread.
+ */
+public class PebbleSendQueue {
+
+    private static final int MAX_CONTROL_MESSAGES = 16;
+    private static final int MAX_EVENT_MESSAGES = 8;
+    private static final int MAX_BACKGROUND_MESSAGES = 4;
+    public static final long MAX_BACKGROUND_WAIT_MS = 10000L;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long ACK_TIMEOUT_MS = 3000L;
+    private static final long BASE_BACKOFF_MS = 250L;
+    private static final long MAX_BACKOFF_MS = 4000L;
+    // Key of a message nothing supersedes.
+    private static final int NO_KEY = -1;
+
+    public interface Transport {
+        void send(PebbleDictionary data, int transactionId);
+    }
+
+    public interface TelemetrySource {
+        /**
+         * @return the message to send now, or null if there is nothing worth sending
+         */
+        PebbleDictionary buildTelemetry();
+
+        /**
+         * Called when a telemetry message was given up on.
+         */
+        void onTelemetryLost();
+    }
+
+    private static class Message {
+        final int key;
+        final PebbleDictionary data;
+        final long queuedAt;
+
+        Message(int key, PebbleDictionary data, long queuedAt) {
+            this.key = key;
+            this.data = data;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final Transport transport;
+    private final Scheduler scheduler;
+    private final TelemetrySource telemetrySource;
+    private final ArrayDeque<Message> controlMessages = new ArrayDeque<Message>();
+    private final ArrayDeque<Message> eventMessages = new ArrayDeque<Message>();
+    private final ArrayDeque<Message> backgroundMessages = new ArrayDeque<Message>();
+
+    private boolean telemetryDirty;
+    private long telemetryDirtySince;
+
+    private PebbleDictionary inFlight;
+    private boolean inFlightIsTelemetry;
+    private long inFlightQueuedAt;
+    private int inFlightId = -1;
+    private int attempts;
+    private boolean waitingToRetry;
+    private int nextTransactionId;
+
+    private long sentCount;
+    private long ackCount;
+    private long nackCount;
+    private long timeoutCount;
+    private long retryCount;
+    private long dropCount;
+    private long coalescedCount;
+    private long supersededCount;
+    private long refusedCount;
+    private long latencyTotalMs;
+    private long latencyMaxMs;
+
+    private final Runnable ackTimeout = new Runnable() {
+        @Override
+        public void run() {
+            timeoutCount++;
+            Metrics.PEBBLE_TIMED_OUT.increment();
+            failed();
+        }
+    };
+
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            waitingToRetry = false;
+            retryCount++;
+            if (!inFlightIsTelemetry) {
+                transmit();
+                return;
+            }
+
+            // Telemetry isn't resent as it was: newer values may be waiting, and if only the ack
+            // went missing the watch has already applied it.
+            telemetrySource.onTelemetryLost();
+            if (!telemetryDirty) {
+                telemetryDirty = true;
+                telemetryDirtySince = inFlightQueuedAt;
+            } else {
+                telemetryDirtySince = Math.min(telemetryDirtySince, inFlightQueuedAt);
+            }
+            inFlight = null;
+            pump(attempts);
+        }
+    };
+
+    public PebbleSendQueue(Transport transport, Scheduler scheduler, TelemetrySource telemetrySource) {
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.telemetrySource = telemetrySource;
+    }
+
+    /**
+     * Queues a control message behind the others. One still waiting with the same key, say a
+     * pause that a resume has overtaken, is taken out; the watch only needs the newest.
+     *
+     * @param key the {@link PebbleKeys} key that says what the message is about
+     * @return false if the queue is full of other messages and this one was refused
+     */
+    public boolean sendControl(int key, PebbleDictionary data) {
+        return enqueue(controlMessages, MAX_CONTROL_MESSAGES, key, data);
+    }
+
+    /**
+     * Queues a message behind the control messages and ahead of telemetry. Unlike control, one
+     * waiting is never replaced: two splits for different gates are both worth showing.
+     *
+     * @return false if the event queue is full and this one was refused
+     */
+    public boolean sendEvent(PebbleDictionary data) {
+        return enqueue(eventMessages, MAX_EVENT_MESSAGES, NO_KEY, data);
+    }
+
+    /**
+     * Queues a message that can wait behind control and telemetry, replacing one still waiting
+     * with the same key like {@link #sendControl} does.
+     *
+     * @return false if the background queue is full of other messages and this one was refused
+     */
+    public boolean sendBackground(int key, PebbleDictionary data) {
+        return enqueue(backgroundMessages, MAX_BACKGROUND_MESSAGES, key, data);
+    }
+
+    private boolean enqueue(ArrayDeque<Message> messages, int max, int key,
+                            PebbleDictionary data) {
+        Iterator<Message> waiting = messages.iterator();
+        while ((key != NO_KEY) && waiting.hasNext()) {
+            if (waiting.next().key == key) {
+                waiting.remove();
+                supersededCount++;
+                break;
+            }
+        }
+        if (messages.size() == max) {
+            refusedCount++;
+            return false;
+        }
+        messages.addLast(new Message(key, data, scheduler.now()));
+        pump();
+        return true;
+    }
+
+    /**
+     * Notes that telemetry has changed. The values are read from the source when it's sent.
+     */
+    public void markTelemetryDirty() {
+        if (telemetryDirty) {
+            coalescedCount++;
+        } else {
+            telemetryDirty = true;
+            telemetryDirtySince = scheduler.now();
+        }
+        pump();
+    }
+
+    public void onAck(int transactionId) {
+        if ((inFlight == null) || (transactionId != inFlightId) || waitingToRetry) {
+            return;
+        }
+        scheduler.cancel(ackTimeout);
+        ackCount++;
+        long latency = scheduler.now() - inFlightQueuedAt;
+        latencyTotalMs += latency;
+        latencyMaxMs = Math.max(latencyMaxMs, latency);
+        Metrics.PEBBLE_ACKED.increment();
+        Metrics.PEBBLE_ACK.record(latency);
+        inFlight = null;
+        pump();
+    }
+
+    public void onNack(int transactionId) {
+        if ((inFlight == null) || (transactionId != inFlightId) || waitingToRetry) {
+            return;
+        }
+        scheduler.cancel(ackTimeout);
+        nackCount++;
+        Metrics.PEBBLE_NACKED.increment();
+        failed();
+    }
+
+    /**
+     * Drops everything, e.g. when the watch disconnects.
+     */
+    public void clear() {
+        scheduler.cancel(ackTimeout);
+        scheduler.cancel(retry);
+        int waiting = controlMessages.size() + eventMessages.size() + backgroundMessages.size();
+        dropCount += waiting;
+        Metrics.PEBBLE_DROPPED.add(waiting);
+        controlMessages.clear();
+        eventMessages.clear();
+        backgroundMessages.clear();
+        if (inFlight != null) {
+            dropCount++;
+            Metrics.PEBBLE_DROPPED.increment();
+            if (inFlightIsTelemetry) {
+                telemetrySource.onTelemetryLost();
+            }
+        }
+        inFlight = null;
+        waitingToRetry = false;
+        telemetryDirty = false;
+    }
+
+    public boolean isIdle() {
+        return (inFlight == null) && controlMessages.isEmpty() && eventMessages.isEmpty()
+                && backgroundMessages.isEmpty() && !telemetryDirty;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getAckCount() {
+        return ackCount;
+    }
+
+    public long getNackCount() {
+        return nackCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    public long getDropCount() {
+        return dropCount;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return control messages taken out of the queue by a newer one with the same key
+     */
+    public long getSupersededCount() {
+        return supersededCount;
+    }
+
+    /**
+     * @return control, event or background messages refused because their queue was full
+     */
+    public long getRefusedCount() {
+        return refusedCount;
+    }
+
+    /**
+     * Average time from a message being queued (or telemetry first marked dirty) to its ack.
+     */
+    public long getAverageLatencyMs() {
+        return (ackCount == 0) ? 0 : latencyTotalMs / ackCount;
+    }
+
+    public long getMaxLatencyMs() {
+        return latencyMaxMs;
+    }
+
+    private void pump() {
+        pump(0);
+    }
+
+    /**
+     * @param telemetryAttempts attempts already used up if the next message is telemetry
+     */
+    private void pump(int telemetryAttempts) {
+        if (inFlight != null) {
+            return;
+        }
+
+        Message message = controlMessages.pollFirst();
+        if (message == null) {
+            message = eventMessages.pollFirst();
+        }
+        if ((message == null) && telemetryDirty && !backgroundOverdue()) {
+            telemetryDirty = false;
+            PebbleDictionary data = telemetrySource.buildTelemetry();
+            if (data != null) {
+                inFlight = data;
+                inFlightQueuedAt = telemetryDirtySince;
+                inFlightIsTelemetry = true;
+                attempts = telemetryAttempts;
+                transmit();
+                return;
+            }
+        }
+        if (message == null) {
+            message = backgroundMessages.pollFirst();
+            if (message == null) {
+                return;
+            }
+        }
+        inFlight = message.data;
+        inFlightQueuedAt = message.queuedAt;
+        inFlightIsTelemetry = false;
+        attempts = 0;
+        transmit();
+    }
+
+    private boolean backgroundOverdue() {
+        Message oldest = backgroundMessages.peekFirst();
+        return (oldest != null) && (scheduler.now() - oldest.queuedAt >= MAX_BACKGROUND_WAIT_MS);
+    }
+
+    private void transmit() {
+        attempts++;
+        inFlightId = nextTransactionId;
+        nextTransactionId = (nextTransactionId + 1) & 0xff;
+        sentCount++;
+        Metrics.PEBBLE_SENT.increment();
+        transport.send(inFlight, inFlightId);
+        scheduler.schedule(ackTimeout, ACK_TIMEOUT_MS);
+    }
+
+    private void failed() {
+        if (attempts >= MAX_ATTEMPTS) {
+            dropCount++;
+            Metrics.PEBBLE_DROPPED.increment();
+            if (inFlightIsTelemetry) {
+                telemetrySource.onTelemetryLost();
+            }
+            inFlight = null;
+            pump();
+            return;
+        }
+
+        waitingToRetry = true;
+        long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (attempts - 1));
+        scheduler.schedule(retry, backoff);
+    }
+}
@@ -0,0 +1,350 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a ride written by {@link RideArchiveWriter}.
+ *
+ * Opening only reads the block table, which has every block's bounding box and time range, so
+ * a query for a viewport or a stretch of time decodes just the blocks that can match. Blocks
+ * are decoded into reused arrays; a corrupt block fails its CRC rather than coming back wrong.
+ */
+public class RideArchive {
+
+    static final int MAGIC = 0x52544131; // "RTA1"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int FOOTER_SIZE = 16;
+    static final int TABLE_ENTRY_SIZE = 52;
+    public static final int BLOCK_SIZE = 4096;
+    // Fixed point units per degree.
+    private static final double FIXED_SCALE = 1e6;
+
+    /**
+     * One decoded block; the arrays are reused from block to block.
+     */
+    public static class Block {
+        public final double[] latitudes = new double[BLOCK_SIZE];
+        public final double[] longitudes = new double[BLOCK_SIZE];
+        public final double[] altitudes = new double[BLOCK_SIZE];
+        public final long[] times = new long[BLOCK_SIZE];
+        public final float[] accuracies = new float[BLOCK_SIZE];
+        public int size;
+    }
+
+    private final RandomAccessFile file;
+    private final int blockCount;
+    private final long pointCount;
+    private final byte[] table;
+    private final CRC32 crc = new CRC32();
+    private byte[] data = new byte[BLOCK_SIZE * 4];
+    private int pos;
+
+    public RideArchive(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            long length = file.length();
+            if (length < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("Not a ride archive: " + path);
+            }
+            byte[] header = new byte[HEADER_SIZE];
+            file.readFully(header);
+            byte[] footer = new byte[FOOTER_SIZE];
+            file.seek(length - FOOTER_SIZE);
+            file.readFully(footer);
+            if ((getInt(header, 0) != MAGIC) || (getInt(footer, 12) != MAGIC)) {
+                throw new IOException("Not a ride archive: " + path);
+            }
+            if (header[5] != VERSION) {
+                throw new IOException("Unknown ride archive version " + header[5]);
+            }
+            blockCount = getInt(footer, 0);
+            pointCount = getLong(footer, 4);
+            long tableStart = length - FOOTER_SIZE - (long) blockCount * TABLE_ENTRY_SIZE;
+            if ((blockCount < 0) || (tableStart < HEADER_SIZE)) {
+                throw new IOException("Bad block table in " + path);
+            }
+            table = new byte[blockCount * TABLE_ENTRY_SIZE];
+            file.seek(tableStart);
+            file.readFully(table);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    public int getBlockSize(int block) {
+        return getInt(table, block * TABLE_ENTRY_SIZE + 12);
+    }
+
+    public double getBlockMinLatitude(int block) {
+        return fromFixed(getInt(table, block * TABLE_ENTRY_SIZE + 20));
+    }
+
+    public double getBlockMaxLatitude(int block) {
+        return fromFixed(getInt(table, block * TABLE_ENTRY_SIZE + 24));
+    }
+
+    public double getBlockMinLongitude(int block) {
+        return fromFixed(getInt(table, block * TABLE_ENTRY_SIZE + 28));
+    }
+
+    public double getBlockMaxLongitude(int block) {
+        return fromFixed(getInt(table, block * TABLE_ENTRY_SIZE + 32));
+    }
+
+    public long getBlockStartTime(int block) {
+        return getLong(table, block * TABLE_ENTRY_SIZE + 36);
+    }
+
+    public long getBlockEndTime(int block) {
+        return getLong(table, block * TABLE_ENTRY_SIZE + 44);
+    }
+
+    /**
+     * Decodes one block into out.
+     */
+    public void readBlock(int block, Block out) throws IOException {
+        int entry = block * TABLE_ENTRY_SIZE;
+        long offset = getLong(table, entry);
+        int length = getInt(table, entry + 8);
+        if (length > data.length) {
+            data = new byte[length];
+        }
+        file.seek(offset);
+        file.readFully(data, 0, length);
+        crc.reset();
+        crc.update(data, 0, length);
+        if ((int) crc.getValue() != getInt(table, entry + 16)) {
+            throw new IOException("Block " + block + " is corrupt");
+        }
+
+        pos = 0;
+        int n = readVarint();
+        if ((n < 0) || (n > BLOCK_SIZE)) {
+            throw new IOException("Block " + block + " is corrupt");
+        }
+        out.size = n;
+
+        int value = 0;
+        int delta = 0;
+        for (int i = 0; i < n; i++) {
+            delta += unzigzag(readVarint());
+            value += delta;
+            out.latitudes[i] = fromFixed(value);
+        }
+        value = 0;
+        delta = 0;
+        for (int i = 0; i < n; i++) {
+            delta += unzigzag(readVarint());
+            value += delta;
+            out.longitudes[i] = fromFixed(value);
+        }
+        value = 0;
+        for (int i = 0; i < n; i++) {
+            value += unzigzag(readVarint());
+            out.altitudes[i] = value / 10.0;
+        }
+        long time = 0L;
+        long timeDelta = 0L;
+        int i = 0;
+        while (i < n) {
+            long raw = readVarintLong();
+            int run = ((raw & 1) != 0) ? readVarint() : 1;
+            raw >>>= 1;
+            long change = (raw >>> 1) ^ -(raw & 1);
+            for (int r = 0; (r < run) && (i < n); r++) {
+                timeDelta += change;
+                time += timeDelta;
+                out.times[i++] = time;
+            }
+        }
+        i = 0;
+        while (i < n) {
+            long raw = readVarintLong();
+            int run = ((raw & 1) != 0) ? readVarint() : 1;
+            int accuracy = (int) (raw >>> 1);
+            for (int r = 0; (r < run) && (i < n); r++) {
+                out.accuracies[i++] = accuracy;
+            }
+        }
+    }
+
+    /**
+     * Appends to out every point inside the box and time range, only decoding blocks that
+     * overlap them.
+     *
+     * @return the number of points added
+     */
+    public int query(double minLat, double minLon, double maxLat, double maxLon, long fromTime,
+                     long toTime, Block scratch, TrackBuffer out) throws IOException {
+        int added = 0;
+        for (int b = 0; b < blockCount; b++) {
+            if ((getBlockMaxLatitude(b) < minLat) || (getBlockMinLatitude(b) > maxLat)
+                    || (getBlockMaxLongitude(b) < minLon) || (getBlockMinLongitude(b) > maxLon)
+                    || (getBlockEndTime(b) < fromTime) || (getBlockStartTime(b) > toTime)) {
+                continue;
+            }
+            readBlock(b, scratch);
+            for (int i = 0; i < scratch.size; i++) {
+                double lat = scratch.latitudes[i];
+                double lon = scratch.longitudes[i];
+                long time = scratch.times[i];
+                if ((lat >= minLat) && (lat <= maxLat) && (lon >= minLon) && (lon <= maxLon)
+                        && (time >= fromTime) && (time <= toTime)) {
+                    out.append(lat, lon, scratch.altitudes[i], time, scratch.accuracies[i]);
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Reads the whole ride into out.
+     */
+    public void readAll(Block scratch, TrackBuffer out) throws IOException {
+        for (int b = 0; b < blockCount; b++) {
+            readBlock(b, scratch);
+            for (int i = 0; i < scratch.size; i++) {
+                out.append(scratch.latitudes[i], scratch.longitudes[i], scratch.altitudes[i],
+                        scratch.times[i], scratch.accuracies[i]);
+            }
+        }
+    }
+
+    /**
+     * Appends to out the part of the ride from where it came closest to one point to where it
+     * came closest to another after that, if it passed within radiusMeters of both.
+     *
+     * @return the number of points added, or 0 if the ride didn't go from one to the other or
+     *         the stretch is too long for out
+     */
+    public int readStretch(double fromLat, double fromLon, double toLat, double toLon,
+                           double radiusMeters, Block scratch, TrackBuffer out) throws IOException {
+        // The first pass finds the ends and the second copies what's between them.
+        long start = -1L;
+        long end = -1L;
+        double startDistance = radiusMeters;
+        double endDistance = radiusMeters;
+        long index = 0L;
+        for (int b = 0; b < blockCount; b++) {
+            readBlock(b, scratch);
+            for (int i = 0; i < scratch.size; i++, index++) {
+                double lat = scratch.latitudes[i];
+                double lon = scratch.longitudes[i];
+                double distance = GeoMath.haversine(fromLat, fromLon, lat, lon);
+                if (distance <= startDistance) {
+                    // A closer start, on this pass or a later lap; the end has to follow it.
+                    start = index;
+                    startDistance = distance;
+                    end = -1L;
+                    endDistance = radiusMeters;
+                } else if (start >= 0) {
+                    distance = GeoMath.haversine(toLat, toLon, lat, lon);
+                    if (distance <= endDistance) {
+                        end = index;
+                        endDistance = distance;
+                    }
+                }
+            }
+        }
+        if ((end < 0) || (end - start + 1 > out.capacity())) {
+            return 0;
+        }
+
+        long blockStart = 0L;
+        for (int b = 0; (b < blockCount) && (blockStart <= end); b++) {
+            int size = getBlockSize(b);
+            if (blockStart + size > start) {
+                readBlock(b, scratch);
+                int from = (int) Math.max(0L, start - blockStart);
+                int to = (int) Math.min(size - 1, end - blockStart);
+                for (int i = from; i <= to; i++) {
+                    out.append(scratch.latitudes[i], scratch.longitudes[i], scratch.altitudes[i],
+                            scratch.times[i], scratch.accuracies[i]);
+                }
+            }
+            blockStart += size;
+        }
+        return (int) (end - start + 1);
+    }
+
+    static int toFixed(double degrees) {
+        return (int) Math.round(degrees * FIXED_SCALE);
+    }
+
+    private static double fromFixed(int fixed) {
+        return fixed / FIXED_SCALE;
+    }
+
+    private int readVarint() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = data[pos++];
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+
+    private long readVarintLong() throws IOException {
+        long result = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = data[pos++];
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int getInt(byte[] b, int at) {
+        return ((b[at] & 0xff) << 24) | ((b[at + 1] & 0xff) << 16) | ((b[at + 2] & 0xff) << 8)
+                | (b[at + 3] & 0xff);
+    }
+
+    private static long getLong(byte[] b, int at) {
+        return ((long) getInt(b, at) << 32) | (getInt(b, at + 4) & 0xffffffffL);
+    }
+}
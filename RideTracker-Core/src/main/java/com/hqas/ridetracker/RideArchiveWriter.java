@@ -0,0 +1,280 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a finished ride in the compact format {@link RideArchive} reads.
+ *
+ * Points are buffered a block at a time and each block is written as columns: latitude and
+ * longitude as the change in fixed point delta, altitude as a delta, time as run length coded
+ * changes in delta and accuracy as run length coded values, all as zigzag varints. A steady ride
+ * logged once a second comes to around three bytes a point. The block table, with each block's
+ * bounds, goes at the end of the file.
+ */
+public class RideArchiveWriter {
+
+    private final OutputStream out;
+    private final CRC32 crc = new CRC32();
+
+    private final int[] lats = new int[RideArchive.BLOCK_SIZE];
+    private final int[] lons = new int[RideArchive.BLOCK_SIZE];
+    private final int[] alts = new int[RideArchive.BLOCK_SIZE];
+    private final long[] times = new long[RideArchive.BLOCK_SIZE];
+    private final int[] accs = new int[RideArchive.BLOCK_SIZE];
+    private int count;
+
+    private byte[] block = new byte[RideArchive.BLOCK_SIZE * 8];
+    private int pos;
+
+    private byte[] table = new byte[RideArchive.TABLE_ENTRY_SIZE * 16];
+    private int tableSize;
+    private int blockCount;
+    private long pointCount;
+    private long offset;
+
+    public RideArchiveWriter(OutputStream out) throws IOException {
+        this.out = out;
+        byte[] header = new byte[RideArchive.HEADER_SIZE];
+        putInt(header, 0, RideArchive.MAGIC);
+        header[4] = 0;
+        header[5] = RideArchive.VERSION;
+        out.write(header);
+        offset = RideArchive.HEADER_SIZE;
+    }
+
+    /**
+     * Writes a whole track to a file, replacing anything already there.
+     *
+     * @return the size of the file
+     */
+    public static long write(TrackBuffer.View track, File file) throws IOException {
+        File dir = file.getParentFile();
+        if ((dir != null) && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        RideArchiveWriter writer = new RideArchiveWriter(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            for (int i = 0; i < track.size(); i++) {
+                writer.append(track.getLatitude(i), track.getLongitude(i), track.getAltitude(i),
+                        track.getTime(i), track.getAccuracy(i));
+            }
+        } finally {
+            writer.close();
+        }
+        return file.length();
+    }
+
+    public void append(double latitude, double longitude, double altitude, long time,
+                       float accuracy) throws IOException {
+        lats[count] = RideArchive.toFixed(latitude);
+        lons[count] = RideArchive.toFixed(longitude);
+        alts[count] = (int) Math.round(altitude * 10.0);
+        times[count] = time;
+        accs[count] = Math.min(0xffff, Math.round(accuracy));
+        if (++count == RideArchive.BLOCK_SIZE) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Writes the last block and the block table, and closes the stream.
+     */
+    public void close() throws IOException {
+        try {
+            if (count > 0) {
+                flushBlock();
+            }
+            byte[] footer = new byte[RideArchive.FOOTER_SIZE];
+            putInt(footer, 0, blockCount);
+            putLong(footer, 4, pointCount);
+            putInt(footer, 12, RideArchive.MAGIC);
+            out.write(table, 0, tableSize);
+            out.write(footer);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        pos = 0;
+        // Worst case: 5 bytes each for latitude, longitude and altitude, 12 for time and 5 for
+        // accuracy.
+        ensureBlockSpace(count * 32 + 5);
+        writeVarint(count);
+
+        int minLat = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE;
+        int minLon = Integer.MAX_VALUE;
+        int maxLon = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+        }
+
+        writeDeltaOfDelta(lats);
+        writeDeltaOfDelta(lons);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            writeVarint(zigzag(alts[i] - previous));
+            previous = alts[i];
+        }
+        writeTimes();
+        writeRuns(accs);
+
+        crc.reset();
+        crc.update(block, 0, pos);
+        out.write(block, 0, pos);
+
+        if (tableSize + RideArchive.TABLE_ENTRY_SIZE > table.length) {
+            byte[] grown = new byte[table.length * 2];
+            System.arraycopy(table, 0, grown, 0, tableSize);
+            table = grown;
+        }
+        int t = tableSize;
+        putLong(table, t, offset);
+        putInt(table, t + 8, pos);
+        putInt(table, t + 12, count);
+        putInt(table, t + 16, (int) crc.getValue());
+        putInt(table, t + 20, minLat);
+        putInt(table, t + 24, maxLat);
+        putInt(table, t + 28, minLon);
+        putInt(table, t + 32, maxLon);
+        putLong(table, t + 36, times[0]);
+        putLong(table, t + 44, times[count - 1]);
+        tableSize += RideArchive.TABLE_ENTRY_SIZE;
+
+        offset += pos;
+        pointCount += count;
+        blockCount++;
+        count = 0;
+    }
+
+    private void writeDeltaOfDelta(int[] values) {
+        int previous = 0;
+        int previousDelta = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = values[i] - previous;
+            writeVarint(zigzag(delta - previousDelta));
+            previous = values[i];
+            previousDelta = delta;
+        }
+    }
+
+    /**
+     * Change in delta, run length coded: a steady rate is one run for the whole block.
+     */
+    private void writeTimes() {
+        long previous = 0L;
+        long previousDelta = 0L;
+        int i = 0;
+        while (i < count) {
+            long delta = times[i] - previous;
+            long change = delta - previousDelta;
+            previous = times[i];
+            previousDelta = delta;
+            int runLength = 1;
+            while ((i + runLength < count)
+                    && (times[i + runLength] - previous - previousDelta == change)) {
+                previousDelta = times[i + runLength] - previous;
+                previous = times[i + runLength];
+                runLength++;
+            }
+            writeRun(zigzagLong(change), runLength);
+            i += runLength;
+        }
+    }
+
+    private void writeRuns(int[] values) {
+        int i = 0;
+        while (i < count) {
+            int value = values[i];
+            int runLength = 1;
+            while ((i + runLength < count) && (values[i + runLength] == value)) {
+                runLength++;
+            }
+            writeRun(value, runLength);
+            i += runLength;
+        }
+    }
+
+    /**
+     * A value with a low bit saying whether a run length follows, so a value that doesn't
+     * repeat costs no more than it would without run length coding.
+     */
+    private void writeRun(long value, int runLength) {
+        if (runLength == 1) {
+            writeVarintLong(value << 1);
+        } else {
+            writeVarintLong((value << 1) | 1);
+            writeVarint(runLength);
+        }
+    }
+
+    private void ensureBlockSpace(int needed) {
+        if (needed > block.length) {
+            block = new byte[needed];
+        }
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7f) != 0) {
+            block[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        block[pos++] = (byte) value;
+    }
+
+    private void writeVarintLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            block[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        block[pos++] = (byte) value;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzagLong(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static void putInt(byte[] b, int at, int value) {
+        b[at] = (byte) (value >>> 24);
+        b[at + 1] = (byte) (value >>> 16);
+        b[at + 2] = (byte) (value >>> 8);
+        b[at + 3] = (byte) value;
+    }
+
+    static void putLong(byte[] b, int at, long value) {
+        putInt(b, at, (int) (value >>> 32));
+        putInt(b, at + 4, (int) value);
+    }
+}
@@ -0,0 +1,522 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Persistent index of which rides passed through which map tiles, for finding past rides by
+ * area without reading their points.
+ *
+ * The world is cut into web mercator tiles at {@link #TILE_ZOOM} (about 2.4km across at the
+ * equator) keyed row by row, so each row of a bounding box is one contiguous key range. The
+ * index is a sorted array of (tile, ride) pairs held in memory and backed by an append-only
+ * file; a fix only costs anything when it enters a tile its ride hasn't been in before. New
+ * pairs wait in a small pending run that queries scan directly, and are merged into the sorted
+ * array in one linear pass when the run fills.
+ *
+ * Results are candidates at tile resolution: a ride that is returned went through a tile the
+ * query touches, and any ride that really matches is returned.
+ */
+public class RideIndex {
+
+    public static final int TILE_ZOOM = 14;
+    private static final int TILES = 1 << TILE_ZOOM;
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    private static final int MAGIC = 0x52495831; // "RIX1"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 4 + 8;
+
+    private static final int PENDING_SIZE = 256;
+    // Bounding boxes wider than this many tiles are scanned rather than probed row by row.
+    private static final int MAX_PROBED_ROWS = 1024;
+
+    private final File file;
+    private DataOutputStream out;
+
+    // Sorted by tile, then ride.
+    private int[] tiles = new int[1024];
+    private long[] rides = new long[1024];
+    private int size;
+
+    // Recent additions in the order they came, merged in when full.
+    private final int[] pendingTiles = new int[PENDING_SIZE];
+    private final long[] pendingRides = new long[PENDING_SIZE];
+    private int pendingSize;
+    // Scratch for sorting the pending run before it's merged.
+    private final long[] pendingOrder = new long[PENDING_SIZE];
+    private final int[] sortedPendingTiles = new int[PENDING_SIZE];
+    private final long[] sortedPendingRides = new long[PENDING_SIZE];
+
+    private long lastRide = -1L;
+    // Bounds of the last tile added to, so most fixes need no projection at all.
+    private double lastMinLat = Double.NaN;
+    private double lastMaxLat;
+    private double lastMinLon;
+    private double lastMaxLon;
+
+    public RideIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the index and leaves it open for adding to. A torn last record is ignored.
+     *
+     * @return the number of entries loaded
+     */
+    public synchronized int open() throws IOException {
+        File dir = file.getParentFile();
+        if ((dir != null) && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+
+        size = 0;
+        pendingSize = 0;
+        boolean valid = false;
+        if (file.length() >= HEADER_SIZE) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                valid = (in.readInt() == MAGIC) && (in.readShort() == VERSION)
+                        && (in.readShort() == TILE_ZOOM);
+                long records = valid ? (file.length() - HEADER_SIZE) / RECORD_SIZE : 0;
+                for (long i = 0; i < records; i++) {
+                    int tile = in.readInt();
+                    long ride = in.readLong();
+                    ensureCapacity(size + 1);
+                    tiles[size] = tile;
+                    rides[size] = ride;
+                    size++;
+                }
+            } catch (EOFException e) {
+                // Torn write at the end, keep what we have.
+            } finally {
+                in.close();
+            }
+        }
+
+        if (valid) {
+            sortAndDedupe();
+            // Append after the last whole record.
+            long length = HEADER_SIZE + ((file.length() - HEADER_SIZE) / RECORD_SIZE) * RECORD_SIZE;
+            if (length != file.length()) {
+                truncate(length);
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        } else {
+            size = 0;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(TILE_ZOOM);
+            out.flush();
+        }
+        lastRide = -1L;
+        lastMinLat = Double.NaN;
+        return size;
+    }
+
+    /**
+     * Notes that the ride was at this position.
+     */
+    public synchronized void add(long rideId, double latitude, double longitude) throws IOException {
+        if ((rideId == lastRide) && (latitude >= lastMinLat) && (latitude < lastMaxLat)
+                && (longitude >= lastMinLon) && (longitude < lastMaxLon)) {
+            return;
+        }
+        int x = tileX(longitude);
+        int y = tileY(latitude);
+        int tile = tileKey(x, y);
+        lastRide = rideId;
+        lastMaxLat = tileLatitude(y);
+        lastMinLat = tileLatitude(y + 1);
+        lastMinLon = x * 360.0 / TILES - 180.0;
+        lastMaxLon = (x + 1) * 360.0 / TILES - 180.0;
+        if (contains(tile, rideId)) {
+            return;
+        }
+
+        if (pendingSize == PENDING_SIZE) {
+            mergePending();
+        }
+        pendingTiles[pendingSize] = tile;
+        pendingRides[pendingSize] = rideId;
+        pendingSize++;
+        if (out != null) {
+            out.writeInt(tile);
+            out.writeLong(rideId);
+        }
+    }
+
+    /**
+     * Pushes entries added so far out to the file.
+     */
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * @return the rides that passed through the box, in ascending order
+     */
+    public synchronized long[] queryBoundingBox(double minLat, double minLon, double maxLat,
+                                                double maxLon) {
+        LongSet found = new LongSet();
+        collect(tileX(minLon), tileX(maxLon), tileY(maxLat), tileY(minLat), found);
+        return found.toSortedArray();
+    }
+
+    /**
+     * Finds rides that followed a stretch of road: ones that came within about widthMeters of
+     * every part of the polyline.
+     *
+     * @return the candidate rides in ascending order
+     */
+    public synchronized long[] queryCorridor(double[] latitudes, double[] longitudes, int count,
+                                             double widthMeters) {
+        if (count == 0) {
+            return new long[0];
+        }
+        // Samples close enough together that no tile along the way is skipped.
+        double spacing = tileSizeMeters(latitudes[0]) / 2.0;
+        long[] candidates = null;
+        LongSet found = new LongSet();
+        for (int i = 0; i < count; i++) {
+            int steps = 1;
+            if (i > 0) {
+                double length = GeoMath.haversine(latitudes[i - 1], longitudes[i - 1], latitudes[i],
+                        longitudes[i]);
+                steps = Math.max(1, (int) Math.ceil(length / spacing));
+            }
+            for (int s = (i == 0) ? 0 : 1; s <= steps; s++) {
+                double f = (i == 0) ? 0.0 : (double) s / steps;
+                double lat = (i == 0) ? latitudes[0]
+                        : latitudes[i - 1] + (latitudes[i] - latitudes[i - 1]) * f;
+                double lon = (i == 0) ? longitudes[0]
+                        : longitudes[i - 1] + (longitudes[i] - longitudes[i - 1]) * f;
+                double dLat = widthMeters / GeoMath.METERS_PER_DEGREE;
+                double dLon = widthMeters / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+
+                found.clear();
+                collect(tileX(lon - dLon), tileX(lon + dLon), tileY(lat + dLat), tileY(lat - dLat),
+                        found);
+                candidates = (candidates == null) ? found.toSortedArray()
+                        : intersect(candidates, found.toSortedArray());
+                if (candidates.length == 0) {
+                    return candidates;
+                }
+            }
+        }
+        return candidates;
+    }
+
+    public synchronized int getEntryCount() {
+        return size + pendingSize;
+    }
+
+    public long getFileSize() {
+        return file.length();
+    }
+
+    private void collect(int x0, int x1, int y0, int y1, LongSet found) {
+        if (y1 - y0 + 1 > MAX_PROBED_ROWS) {
+            collectScan(tiles, rides, size, x0, x1, y0, y1, found);
+        } else {
+            for (int y = y0; y <= y1; y++) {
+                if (x0 <= x1) {
+                    collectRow(tileKey(x0, y), tileKey(x1, y), found);
+                } else {
+                    // The box crosses the antimeridian.
+                    collectRow(tileKey(x0, y), tileKey(TILES - 1, y), found);
+                    collectRow(tileKey(0, y), tileKey(x1, y), found);
+                }
+            }
+        }
+        // The pending run is short enough to check entry by entry.
+        collectScan(pendingTiles, pendingRides, pendingSize, x0, x1, y0, y1, found);
+    }
+
+    private static void collectScan(int[] tiles, long[] rides, int count, int x0, int x1, int y0,
+                                    int y1, LongSet found) {
+        for (int i = 0; i < count; i++) {
+            int tile = tiles[i];
+            int x = tile & (TILES - 1);
+            int y = tile >>> TILE_ZOOM;
+            if ((y >= y0) && (y <= y1) && inRange(x, x0, x1)) {
+                found.add(rides[i]);
+            }
+        }
+    }
+
+    private void collectRow(int fromKey, int toKey, LongSet found) {
+        for (int i = lowerBound(fromKey, Long.MIN_VALUE); (i < size) && (tiles[i] <= toKey); i++) {
+            found.add(rides[i]);
+        }
+    }
+
+    private static boolean inRange(int x, int x0, int x1) {
+        return (x0 <= x1) ? ((x >= x0) && (x <= x1)) : ((x >= x0) || (x <= x1));
+    }
+
+    private boolean contains(int tile, long ride) {
+        int i = lowerBound(tile, ride);
+        if ((i < size) && (tiles[i] == tile) && (rides[i] == ride)) {
+            return true;
+        }
+        for (int p = 0; p < pendingSize; p++) {
+            if ((pendingTiles[p] == tile) && (pendingRides[p] == ride)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the first entry not less than (tile, ride)
+     */
+    private int lowerBound(int tile, long ride) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((tiles[mid] < tile) || ((tiles[mid] == tile) && (rides[mid] < ride))) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Sorts the pending run and merges it into the sorted entries from the back, so nothing is
+     * allocated unless the arrays have to grow. The run never repeats an entry, as add() checks
+     * first.
+     */
+    private void mergePending() {
+        int n = pendingSize;
+        if (n == 0) {
+            return;
+        }
+        for (int p = 0; p < n; p++) {
+            pendingOrder[p] = ((long) pendingTiles[p] << 32) | p;
+        }
+        Arrays.sort(pendingOrder, 0, n);
+        int runStart = 0;
+        for (int i = 0; i < n; i++) {
+            int tile = (int) (pendingOrder[i] >>> 32);
+            long ride = pendingRides[(int) pendingOrder[i]];
+            if ((i > 0) && (tile != sortedPendingTiles[i - 1])) {
+                runStart = i;
+            }
+            int j = i;
+            while ((j > runStart) && (sortedPendingRides[j - 1] > ride)) {
+                sortedPendingTiles[j] = sortedPendingTiles[j - 1];
+                sortedPendingRides[j] = sortedPendingRides[j - 1];
+                j--;
+            }
+            sortedPendingTiles[j] = tile;
+            sortedPendingRides[j] = ride;
+        }
+
+        ensureCapacity(size + n);
+        int i = size - 1;
+        int j = n - 1;
+        for (int k = size + n - 1; j >= 0; k--) {
+            int tile = sortedPendingTiles[j];
+            if ((i >= 0) && ((tiles[i] > tile)
+                    || ((tiles[i] == tile) && (rides[i] > sortedPendingRides[j])))) {
+                tiles[k] = tiles[i];
+                rides[k] = rides[i];
+                i--;
+            } else {
+                tiles[k] = tile;
+                rides[k] = sortedPendingRides[j];
+                j--;
+            }
+        }
+        size += n;
+        pendingSize = 0;
+    }
+
+    private void sortAndDedupe() {
+        // Sort by tile with the entry's position packed in below it, then order the rides
+        // within each tile.
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) tiles[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] sortedTiles = new int[tiles.length];
+        long[] sortedRides = new long[rides.length];
+        int n = 0;
+        int runStart = 0;
+        for (int i = 0; i < size; i++) {
+            int tile = (int) (order[i] >>> 32);
+            if ((i > 0) && (tile != sortedTiles[n - 1])) {
+                runStart = n;
+            }
+            long ride = rides[(int) order[i]];
+            // Sort the rides within one tile; runs are short so insertion sort will do.
+            int j = n;
+            boolean duplicate = false;
+            while (j > runStart) {
+                if (sortedRides[j - 1] == ride) {
+                    duplicate = true;
+                    break;
+                }
+                if (sortedRides[j - 1] < ride) {
+                    break;
+                }
+                j--;
+            }
+            if (duplicate) {
+                continue;
+            }
+            System.arraycopy(sortedTiles, j, sortedTiles, j + 1, n - j);
+            System.arraycopy(sortedRides, j, sortedRides, j + 1, n - j);
+            sortedTiles[j] = tile;
+            sortedRides[j] = ride;
+            n++;
+        }
+        tiles = sortedTiles;
+        rides = sortedRides;
+        size = n;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > tiles.length) {
+            int capacity = Math.max(needed, tiles.length * 2);
+            tiles = Arrays.copyOf(tiles, capacity);
+            rides = Arrays.copyOf(rides, capacity);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int tileKey(int x, int y) {
+        return (y << TILE_ZOOM) | x;
+    }
+
+    static int tileX(double longitude) {
+        double lon = ((longitude + 180.0) % 360.0 + 360.0) % 360.0;
+        return Math.min(TILES - 1, (int) (lon / 360.0 * TILES));
+    }
+
+    static int tileY(double latitude) {
+        double lat = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double y = (1.0 - Math.log(Math.tan(lat) + 1.0 / Math.cos(lat)) / Math.PI) / 2.0;
+        return Math.max(0, Math.min(TILES - 1, (int) (y * TILES)));
+    }
+
+    /**
+     * @return the latitude of the top edge of a row of tiles
+     */
+    private static double tileLatitude(int y) {
+        double n = Math.PI * (1.0 - 2.0 * y / TILES);
+        return Math.toDegrees(Math.atan(0.5 * (Math.exp(n) - Math.exp(-n))));
+    }
+
+    private static double tileSizeMeters(double latitude) {
+        return 2.0 * Math.PI * GeoMath.EARTH_RADIUS_METERS * Math.cos(Math.toRadians(latitude)) / TILES;
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < a.length) && (j < b.length)) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Just enough of a set of longs for collecting query results.
+     */
+    private static class LongSet {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                compact();
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+            }
+            values[size++] = value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        long[] toSortedArray() {
+            compact();
+            return Arrays.copyOf(values, size);
+        }
+
+        private void compact() {
+            Arrays.sort(values, 0, size);
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if ((n == 0) || (values[i] != values[n - 1])) {
+                    values[n++] = values[i];
+                }
+            }
+            size = n;
+        }
+    }
+}
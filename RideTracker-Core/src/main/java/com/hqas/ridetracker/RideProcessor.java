@@ -0,0 +1,737 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Everything that happens to a fix once it has arrived: filtering, distance and time, the stored
+ * track, the journal, the ride index and the numbers sent to the Pebble.
+ *
+ * Fixes go through a {@link FixPipeline} in five stages (filter, accumulate, match, persist,
+ * notify). Persist and notify can take a whole batch, see {@link #drainBatch()}.
+ * All of it, commands included, is meant to run on one processing thread. The track, simplifier,
+ * snapshot and published stats can be read from other threads; so can the telemetry, through
+ * {@link #buildTelemetryFrame()}.
+ */
+public class RideProcessor {
+
+    public static final int QUEUE_CAPACITY = 256;
+    private static final String[] STAGE_NAMES =
+            {"filter", "accumulate", "match", "persist", "notify"};
+
+    // Longest gap between fixes that still counts towards the ride time.
+    private static final long MAX_FIX_GAP_MS = 30000L;
+    // Least fix time between two snapshots handed to the UI.
+    private static final long SNAPSHOT_INTERVAL_MS = 500L;
+    // Barometers report several times a second and jitter by a few tenths of a hPa.
+    private static final float PRESSURE_SMOOTHING = 0.1f;
+    // Gates of segments made from a ride: one every this many metres, this wide.
+    public static final double SEGMENT_SPLIT_METERS = 500.0;
+    public static final double SEGMENT_GATE_WIDTH = 40.0;
+
+    /**
+     * Called on the processing thread; implementations hand anything UI related on themselves.
+     */
+    public interface Listener {
+        void onSamplingModeChanged(SamplingPolicy.Mode mode);
+
+        void onTelemetryChanged();
+
+        void onSnapshot(RideSnapshot snapshot);
+
+        void onStorageError(String message, IOException e);
+
+        /**
+         * See {@link SegmentTimer.Listener#onSplit}.
+         */
+        void onSegmentSplit(int segment, int gate, int gateCount, long splitMs, long deltaMs);
+
+        /**
+         * The rider has stopped or moved off again while the tracker is started.
+         */
+        void onAutoPauseChanged(boolean paused);
+    }
+
+    private final Listener listener;
+    private final FixPipeline pipeline;
+    private final FixBatch batch = new FixBatch(QUEUE_CAPACITY);
+    private final Fix batchFix = new Fix();
+
+    private final TrackBuffer track = new TrackBuffer();
+    private final TrackSimplifier simplifier = new TrackSimplifier();
+    private final DistanceFilter distanceFilter = new DistanceFilter();
+    private final SamplingPolicy samplingPolicy = new SamplingPolicy();
+    private final MotionDetector motionDetector = new MotionDetector();
+    private final TelemetryCodec telemetryCodec = new TelemetryCodec();
+    private final int[] telemetry = new int[TelemetryCodec.FIELD_COUNT];
+    private final RideSnapshot snapshot = new RideSnapshot();
+    private final RideStats stats = new RideStats();
+    private final ElevationFilter elevationFilter = new ElevationFilter();
+    private final ElevationSeries elevationSeries = new ElevationSeries();
+    // Smoothed barometer reading in hPa, NaN without one; written by the sensor thread.
+    private volatile float pressure = Float.NaN;
+    private final SegmentTimer segmentTimer;
+    private SegmentStore segmentStore;
+    private TrackJournal journal;
+    private RideIndex rideIndex;
+    private MapMatcher mapMatcher;
+    private File archiveDir;
+    // Time of the ride's first fix, or -1 until there is one.
+    private long rideId = -1L;
+
+    private boolean started;
+    private boolean autoPaused;
+    // Whether the distance filter took the fix being processed.
+    private boolean fixAccepted;
+    private float distanceTravelled;
+    private double matchedDistance;
+    // Last point the matcher put out, matched or not, to bridge breaks in the matched path.
+    private boolean hasMatchedPoint;
+    private double matchedLatitude;
+    private double matchedLongitude;
+    private long rideElapsedMs;
+    private long lastFixTime;
+    private long lastSnapshotTime;
+
+    public RideProcessor(Listener listener) {
+        this.listener = listener;
+        segmentTimer = new SegmentTimer(segmentListener);
+        pipeline = new FixPipeline(QUEUE_CAPACITY, STAGE_NAMES,
+                new FixPipeline.Stage[] {filterStage, accumulateStage, matchStage, persistStage,
+                        notifyStage});
+    }
+
+    public FixPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Processes every queued fix as one batch: the journal is forced at most once and the
+     * listener hears about telemetry and the snapshot once, for the newest fix.
+     *
+     * @return the number of fixes processed
+     */
+    public int drainBatch() {
+        int drained = 0;
+        int n;
+        while ((n = pipeline.drainBatch(batch)) > 0) {
+            drained += n;
+        }
+        return drained;
+    }
+
+    public TrackBuffer getTrack() {
+        return track;
+    }
+
+    public TrackSimplifier getSimplifier() {
+        return simplifier;
+    }
+
+    public RideSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Read the published figures from one other thread only; see {@link RideStats#read()}.
+     */
+    public RideStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Fills min and max with the elevation profile of the whole ride; see
+     * {@link ElevationSeries#getProfile}. Processing thread only.
+     *
+     * @return the number of points filled
+     */
+    public int getElevationProfile(int points, float[] min, float[] max) {
+        return elevationSeries.getProfile(0.0, elevationSeries.getDistance(), points, min, max);
+    }
+
+    /**
+     * Takes a barometer reading. Call it from one thread only, e.g. the sensor callback's.
+     */
+    public void onPressure(float hPa) {
+        float last = pressure;
+        pressure = Float.isNaN(last) ? hPa : last + PRESSURE_SMOOTHING * (hPa - last);
+    }
+
+    public SamplingPolicy.Mode getSamplingMode() {
+        return samplingPolicy.getMode();
+    }
+
+    /**
+     * @return the index of past rides, or null if it isn't open
+     */
+    public RideIndex getRideIndex() {
+        return rideIndex;
+    }
+
+    /**
+     * Segments are timed on the processing thread, so only touch this from there.
+     */
+    public SegmentTimer getSegmentTimer() {
+        return segmentTimer;
+    }
+
+    public long getRideId() {
+        return rideId;
+    }
+
+    public float getDistance() {
+        return distanceTravelled;
+    }
+
+    /**
+     * The distance along the roads, lagging the ride by the matcher's window.
+     *
+     * @return metres, or -1 without a road graph
+     */
+    public double getMatchedDistance() {
+        return (mapMatcher == null) ? -1.0 : matchedDistance;
+    }
+
+    /**
+     * @return the graph the ride is matched to, or null
+     */
+    public RoadGraph getRoadGraph() {
+        return (mapMatcher == null) ? null : mapMatcher.getGraph();
+    }
+
+    public long getElapsedMs() {
+        return rideElapsedMs;
+    }
+
+    public boolean isAutoPaused() {
+        return autoPaused;
+    }
+
+    public MotionDetector.State getMotionState() {
+        return motionDetector.getState();
+    }
+
+    public long getRejectedCount() {
+        return distanceFilter.getRejectedCount();
+    }
+
+    public void setStarted(boolean started) {
+        this.started = started;
+        if (started) {
+            // Don't count the distance or time covered while the tracker was stopped.
+            distanceFilter.breakSegment();
+            segmentTimer.breakSegment();
+            stats.breakSegment();
+            elevationFilter.breakSegment();
+            lastFixTime = 0L;
+        }
+        // Started or stopped by hand, any stop has to be seen afresh.
+        motionDetector.reset();
+        autoPaused = false;
+        breakMatchedPath();
+        if (samplingPolicy.setTracking(started)) {
+            listener.onSamplingModeChanged(samplingPolicy.getMode());
+        }
+        if (!started) {
+            flushRideIndex();
+        }
+    }
+
+    public void reset() {
+        archiveRide();
+        track.clear();
+        simplifier.clear();
+        distanceFilter.reset();
+        segmentTimer.reset();
+        if (autoPaused) {
+            setAutoPaused(false);
+        }
+        motionDetector.reset();
+        stats.reset();
+        stats.publish();
+        elevationFilter.reset();
+        elevationSeries.clear();
+        if (mapMatcher != null) {
+            mapMatcher.reset();
+        }
+        hasMatchedPoint = false;
+        matchedDistance = 0.0;
+        distanceTravelled = 0.0f;
+        rideElapsedMs = 0L;
+        lastFixTime = 0L;
+        lastSnapshotTime = 0L;
+        rideId = -1L;
+        flushRideIndex();
+        synchronized (telemetry) {
+            Arrays.fill(telemetry, 0);
+            telemetryCodec.forceKeyframe();
+        }
+        if (journal != null) {
+            try {
+                journal.reset();
+            } catch (IOException e) {
+                listener.onStorageError("Could not reset ride journal", e);
+                closeJournal();
+            }
+        }
+    }
+
+    /**
+     * Opens the journal and replays whatever an earlier run left in it.
+     *
+     * @return the number of fixes recovered
+     */
+    public long openJournal(File file) {
+        journal = new TrackJournal(file);
+        try {
+            long recovered = journal.open(journalReplay);
+            stats.publish();
+            return recovered;
+        } catch (IOException e) {
+            listener.onStorageError("Could not open ride journal, this ride won't survive a restart", e);
+            closeJournal();
+            return 0L;
+        }
+    }
+
+    /**
+     * Matches the ride to the roads in this graph from now on, or stops matching if it's null.
+     */
+    public void setRoadGraph(RoadGraph graph) {
+        if (mapMatcher != null) {
+            mapMatcher.flush();
+        }
+        mapMatcher = (graph != null) ? new MapMatcher(graph, MapMatcher.LIVE_WINDOW, matchListener)
+                : null;
+        hasMatchedPoint = false;
+    }
+
+    /**
+     * Reads a road graph, if there is one; do this before {@link #openJournal} so a recovered
+     * ride gets matched.
+     *
+     * @return whether the graph was read
+     */
+    public boolean openRoadGraph(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            setRoadGraph(RoadGraph.read(file));
+            return true;
+        } catch (IOException e) {
+            listener.onStorageError("Could not read road graph, distance won't be matched to roads", e);
+            return false;
+        }
+    }
+
+    /**
+     * Reports whatever the matcher still holds and starts a new matched path.
+     */
+    private void breakMatchedPath() {
+        if (mapMatcher != null) {
+            mapMatcher.flush();
+        }
+        hasMatchedPoint = false;
+    }
+
+    private final MapMatcher.Listener matchListener = new MapMatcher.Listener() {
+        @Override
+        public void onMatched(long tag, long time, double latitude, double longitude,
+                              double routeMeters) {
+            addMatchedPoint(latitude, longitude, (routeMeters > 0.0) ? routeMeters : -1.0);
+        }
+
+        @Override
+        public void onUnmatched(long tag, long time, double latitude, double longitude) {
+            addMatchedPoint(latitude, longitude, -1.0);
+        }
+    };
+
+    /**
+     * @param routeMeters the distance from the last point, or -1 to go in a straight line
+     */
+    private void addMatchedPoint(double latitude, double longitude, double routeMeters) {
+        if (hasMatchedPoint) {
+            matchedDistance += (routeMeters >= 0.0) ? routeMeters
+                    : GeoMath.haversine(matchedLatitude, matchedLongitude, latitude, longitude);
+        }
+        hasMatchedPoint = true;
+        matchedLatitude = latitude;
+        matchedLongitude = longitude;
+    }
+
+    /**
+     * Finished rides are archived into this directory when the ride is reset, named after
+     * their ride id; see {@link #getArchiveFile}.
+     */
+    public void setArchiveDir(File dir) {
+        archiveDir = dir;
+    }
+
+    public File getArchiveFile(long rideId) {
+        return (archiveDir == null) ? null : new File(archiveDir, rideId + ".rta");
+    }
+
+    private void archiveRide() {
+        if ((archiveDir == null) || (rideId < 0) || track.isEmpty()) {
+            return;
+        }
+        try {
+            RideArchiveWriter.write(track.view(null), getArchiveFile(rideId));
+        } catch (IOException e) {
+            listener.onStorageError("Could not archive ride " + rideId, e);
+        }
+    }
+
+    /**
+     * Opens the ride index; do this before {@link #openJournal} so a recovered ride gets indexed.
+     */
+    public void openRideIndex(File file) {
+        rideIndex = new RideIndex(file);
+        try {
+            rideIndex.open();
+        } catch (IOException e) {
+            listener.onStorageError("Could not open ride index", e);
+            closeRideIndex();
+        }
+    }
+
+    public void closeRideIndex() {
+        if (rideIndex == null) {
+            return;
+        }
+        try {
+            rideIndex.close();
+        } catch (IOException e) {
+            listener.onStorageError("Could not close ride index", e);
+        }
+        rideIndex = null;
+    }
+
+    private void flushRideIndex() {
+        if (rideIndex == null) {
+            return;
+        }
+        try {
+            rideIndex.flush();
+        } catch (IOException e) {
+            listener.onStorageError("Could not write ride index", e);
+            closeRideIndex();
+        }
+    }
+
+    private void indexFix(double latitude, double longitude) {
+        if (rideIndex == null) {
+            return;
+        }
+        try {
+            rideIndex.add(rideId, latitude, longitude);
+        } catch (IOException e) {
+            listener.onStorageError("Could not write ride index", e);
+            closeRideIndex();
+        }
+    }
+
+    /**
+     * Loads the saved segments to time. Segments added afterwards, and best times as they're
+     * beaten, are saved to the same file.
+     */
+    public void openSegments(File file) {
+        segmentStore = new SegmentStore(file);
+        try {
+            segmentStore.load(segmentTimer);
+        } catch (IOException e) {
+            listener.onStorageError("Could not load segments", e);
+        }
+    }
+
+    /**
+     * Makes a segment of part of an earlier ride and saves it, with gates every
+     * {@link #SEGMENT_SPLIT_METERS}; see {@link SegmentTimer#addSegmentFromTrack}.
+     *
+     * @return the segment's number, or -1 if that part of the ride is too short
+     */
+    public int addSegmentFromTrack(TrackBuffer.View track, int from, int to) {
+        int segment = segmentTimer.addSegmentFromTrack(track, from, to, SEGMENT_SPLIT_METERS,
+                SEGMENT_GATE_WIDTH);
+        if (segment >= 0) {
+            saveSegments();
+        }
+        return segment;
+    }
+
+    private void saveSegments() {
+        if (segmentStore == null) {
+            return;
+        }
+        try {
+            segmentStore.save(segmentTimer);
+        } catch (IOException e) {
+            listener.onStorageError("Could not save segments", e);
+        }
+    }
+
+    public void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            listener.onStorageError("Could not close ride journal", e);
+        }
+        journal = null;
+    }
+
+    /**
+     * @return the next telemetry frame for the Pebble, or null if nothing has changed enough
+     */
+    public byte[] buildTelemetryFrame() {
+        synchronized (telemetry) {
+            return telemetryCodec.encode(telemetry);
+        }
+    }
+
+    public void onTelemetryLost() {
+        synchronized (telemetry) {
+            telemetryCodec.forceKeyframe();
+        }
+    }
+
+    private final FixPipeline.Stage filterStage = new FixPipeline.Stage() {
+        @Override
+        public boolean process(Fix fix) {
+            // The sampling policy sees fixes while stopped too, so it knows when riding starts.
+            if (samplingPolicy.onFix(fix.time, fix.latitude, fix.longitude, fix.speed, fix.bearing,
+                    fix.accuracy)) {
+                listener.onSamplingModeChanged(samplingPolicy.getMode());
+            }
+            if (!started) {
+                return false;
+            }
+            // The distance filter keeps going through a pause; it ignores standstill jitter by
+            // itself and this way the ride away from the stop is counted once it resumes.
+            fixAccepted = distanceFilter.update(fix.time, fix.latitude, fix.longitude, fix.accuracy);
+            if (motionDetector.update(fix.time, fix.latitude, fix.longitude, fix.speed,
+                    fix.accuracy) && (motionDetector.isStopped() != autoPaused)) {
+                setAutoPaused(motionDetector.isStopped());
+            }
+            return !autoPaused;
+        }
+    };
+
+    private void setAutoPaused(boolean paused) {
+        autoPaused = paused;
+        if (!paused) {
+            // The time stood still isn't ride time.
+            lastFixTime = 0L;
+            stats.breakSegment();
+        }
+        if (samplingPolicy.setPaused(paused)) {
+            listener.onSamplingModeChanged(samplingPolicy.getMode());
+        }
+        listener.onAutoPauseChanged(paused);
+    }
+
+    private final FixPipeline.Stage accumulateStage = new FixPipeline.Stage() {
+        @Override
+        public boolean process(Fix fix) {
+            accumulate(fix.time);
+            float speed = fix.hasSpeed() ? fix.speed : (float) distanceFilter.getSpeed();
+            float hPa = pressure;
+            double altitude = updateElevation(fix.time, fix.altitude,
+                    Float.isNaN(hPa) ? Double.NaN : ElevationFilter.pressureAltitude(hPa));
+            // The filtered position, so an outlier doesn't show up as a sharp turn.
+            stats.update(fix.time, speed, altitude, fix.bearing,
+                    distanceFilter.getLatitude(), distanceFilter.getLongitude(), distanceTravelled);
+            stats.setGrade(elevationFilter.getGrade());
+            track.append(fix.latitude, fix.longitude, fix.altitude, fix.time, fix.accuracy);
+            simplifier.add(fix.latitude, fix.longitude);
+            if (fixAccepted) {
+                // An outlier could cut across a gate that was never ridden through.
+                segmentTimer.update(fix.time, fix.latitude, fix.longitude);
+            }
+            updateTelemetry(fix, speed, altitude);
+            return true;
+        }
+    };
+
+    private final FixPipeline.Stage matchStage = new FixPipeline.Stage() {
+        @Override
+        public boolean process(Fix fix) {
+            if ((mapMatcher != null) && fixAccepted) {
+                mapMatcher.update(fix.time, fix.latitude, fix.longitude, fix.accuracy, 0L);
+            }
+            return true;
+        }
+    };
+
+    private final FixPipeline.BatchStage persistStage = new FixPipeline.BatchStage() {
+        @Override
+        public void processBatch(FixBatch fixes) {
+            int n = fixes.size();
+            for (int i = 0; i < n; i++) {
+                if (fixes.isPassed(i)) {
+                    indexFix(fixes.getLatitude(i), fixes.getLongitude(i));
+                }
+            }
+            if (journal == null) {
+                return;
+            }
+            try {
+                journal.appendAll(fixes);
+            } catch (IOException e) {
+                listener.onStorageError("Could not write to ride journal", e);
+                closeJournal();
+            }
+        }
+
+        @Override
+        public boolean process(Fix fix) {
+            indexFix(fix.latitude, fix.longitude);
+            if (journal == null) {
+                return true;
+            }
+            try {
+                journal.append(fix.latitude, fix.longitude, fix.altitude, fix.time, fix.accuracy);
+            } catch (IOException e) {
+                listener.onStorageError("Could not write to ride journal", e);
+                closeJournal();
+            }
+            return true;
+        }
+    };
+
+    private final FixPipeline.BatchStage notifyStage = new FixPipeline.BatchStage() {
+        @Override
+        public void processBatch(FixBatch fixes) {
+            int last = fixes.getLastPassed();
+            if (last >= 0) {
+                fixes.get(last, batchFix);
+                process(batchFix);
+            }
+        }
+
+        @Override
+        public boolean process(Fix fix) {
+            boolean telemetryChanged;
+            synchronized (telemetry) {
+                telemetryChanged = telemetryCodec.needsUpdate(telemetry);
+            }
+            if (telemetryChanged) {
+                listener.onTelemetryChanged();
+            }
+
+            long sinceSnapshot = fix.time - lastSnapshotTime;
+            if ((sinceSnapshot >= SNAPSHOT_INTERVAL_MS) || (sinceSnapshot < 0)) {
+                snapshot.set(fix, distanceTravelled, rideElapsedMs);
+                stats.publish();
+                lastSnapshotTime = fix.time;
+                listener.onSnapshot(snapshot);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Picks up the filter's distance and adds the fix's time to the ride.
+     */
+    private void accumulate(long time) {
+        if (rideId < 0) {
+            rideId = time;
+        }
+        distanceTravelled = (float) distanceFilter.getDistance();
+
+        long sinceLastFix = time - lastFixTime;
+        if ((lastFixTime > 0) && (sinceLastFix > 0) && (sinceLastFix <= MAX_FIX_GAP_MS)) {
+            rideElapsedMs += sinceLastFix;
+        }
+        lastFixTime = time;
+    }
+
+    /**
+     * @return the fused altitude, NaN if unknown
+     */
+    private double updateElevation(long time, double gpsAltitude, double pressureAltitude) {
+        double altitude = elevationFilter.update(time, gpsAltitude, pressureAltitude,
+                distanceTravelled);
+        // An outlier's distance isn't counted, so it can't stretch the profile either.
+        if (fixAccepted) {
+            elevationSeries.add(distanceTravelled, altitude);
+        }
+        return altitude;
+    }
+
+    private void updateTelemetry(Fix fix, float speed, double altitude) {
+        long elapsedSeconds = rideElapsedMs / 1000L;
+
+        synchronized (telemetry) {
+            telemetry[TelemetryCodec.FIELD_DISTANCE] = (int) distanceTravelled;
+            telemetry[TelemetryCodec.FIELD_SPEED] = Math.round(speed * 10.0f);
+            telemetry[TelemetryCodec.FIELD_AVERAGE_SPEED] = (elapsedSeconds > 0)
+                    ? Math.round(distanceTravelled * 10.0f / elapsedSeconds) : 0;
+            telemetry[TelemetryCodec.FIELD_ELAPSED] = (int) elapsedSeconds;
+            if (fix.hasBearing()) {
+                telemetry[TelemetryCodec.FIELD_HEADING] = Math.round(fix.bearing) % 360;
+            }
+            if (!Double.isNaN(altitude)) {
+                telemetry[TelemetryCodec.FIELD_ALTITUDE] = (int) Math.round(altitude);
+            }
+            telemetry[TelemetryCodec.FIELD_GRADE] = Math.round(elevationFilter.getGrade() * 10.0f);
+        }
+    }
+
+    private final SegmentTimer.Listener segmentListener = new SegmentTimer.Listener() {
+        @Override
+        public void onSplit(int segment, int gate, int gateCount, long splitMs, long deltaMs) {
+            if ((gate == gateCount - 1) && (segmentTimer.getBestSplit(segment, gate) == splitMs)) {
+                // A new best.
+                saveSegments();
+            }
+            listener.onSegmentSplit(segment, gate, gateCount, splitMs, deltaMs);
+        }
+    };
+
+    private final TrackJournal.Replay journalReplay = new TrackJournal.Replay() {
+        @Override
+        public void onRecord(double latitude, double longitude, double altitude, long time,
+                             float accuracy) {
+            track.append(latitude, longitude, altitude, time, accuracy);
+            simplifier.add(latitude, longitude);
+            boolean accepted = distanceFilter.update(time, latitude, longitude, accuracy);
+            accumulate(time);
+            fixAccepted = accepted;
+            // The barometer isn't journaled, so a fix without GPS altitude adds nothing to the
+            // climb or the profile.
+            double fused = Double.isNaN(altitude) ? Double.NaN
+                    : updateElevation(time, altitude, Double.NaN);
+            if ((mapMatcher != null) && accepted) {
+                mapMatcher.update(time, latitude, longitude, accuracy, 0L);
+            }
+            stats.update(time, (float) distanceFilter.getSpeed(), fused, -1.0f, latitude,
+                    longitude, distanceTravelled);
+            stats.setGrade(elevationFilter.getGrade());
+            indexFix(latitude, longitude);
+        }
+    };
+}
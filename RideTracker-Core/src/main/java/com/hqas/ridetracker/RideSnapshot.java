@@ -0,0 +1,96 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * The latest position and totals of the ride, published by the processing thread for the UI.
+ */
+public class RideSnapshot {
+    private long time;
+    private double latitude;
+    private double longitude;
+    private float speed;
+    private float bearing;
+    private float accuracy;
+    private float distance;
+    private long elapsedMs;
+
+    public synchronized void set(Fix fix, float distance, long elapsedMs) {
+        time = fix.time;
+        latitude = fix.latitude;
+        longitude = fix.longitude;
+        speed = fix.speed;
+        bearing = fix.bearing;
+        accuracy = fix.accuracy;
+        this.distance = distance;
+        this.elapsedMs = elapsedMs;
+    }
+
+    /**
+     * Copies the snapshot into out in one go, so the fields all come from the same fix.
+     */
+    public synchronized void copyTo(RideSnapshot out) {
+        out.time = time;
+        out.latitude = latitude;
+        out.longitude = longitude;
+        out.speed = speed;
+        out.bearing = bearing;
+        out.accuracy = accuracy;
+        out.distance = distance;
+        out.elapsedMs = elapsedMs;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Metres per second, negative when unknown.
+     */
+    public float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Degrees, negative when unknown.
+     */
+    public float getBearing() {
+        return bearing;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+}
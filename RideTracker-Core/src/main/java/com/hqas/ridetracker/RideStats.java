@@ -0,0 +1,358 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live ride statistics: current, rolling, average and top speed, moving time, climb and descent,
+ * and how hard the bike is turning.
+ *
+ * Rolling figures come from fixed size rings of recent speeds, with a running sum for the mean
+ * and a monotonic deque for the maximum, so an update is constant time and allocates nothing.
+ * Climb only counts once the altitude has moved past a hysteresis band, so GPS altitude noise
+ * on the flat doesn't add up. Lean is the angle that balances the turn: atan(speed * turn rate
+ * / g).
+ *
+ * Updates happen on one thread, which then calls {@link #publish()}. One other thread (the UI)
+ * reads the published values with {@link #read()}. A triple buffer sits in between, so neither
+ * side locks or waits.
+ */
+public class RideStats {
+
+    private static final long SHORT_WINDOW_MS = 10000L;
+    private static final long LONG_WINDOW_MS = 60000L;
+    // Enough for ten fixes a second over the longer window.
+    private static final int WINDOW_CAPACITY = 1024;
+
+    private static final float MOVING_SPEED = 1.0f;            // m/s
+    private static final float HEADING_SPEED = 3.0f;           // bearings are noise below this
+    private static final double HEADING_MIN_METERS = 10.0;
+    private static final double ELEVATION_HYSTERESIS = 4.0;    // metres
+    private static final float TURN_SMOOTHING = 0.15f;
+    private static final long MAX_FIX_GAP_MS = 30000L;
+    private static final double GRAVITY = 9.81;
+
+    /**
+     * One set of published figures. Speeds are in metres per second, angles in degrees with
+     * turns and leans to the right positive.
+     */
+    public static class Values {
+        public long time;
+        public float speed;
+        public float average10s;
+        public float max10s;
+        public float average60s;
+        public float max60s;
+        // Distance over moving time.
+        public float averageSpeed;
+        public float maxSpeed;
+        public long movingMs;
+        public float elevationGain;
+        public float elevationLoss;
+        // Metres, NaN if unknown.
+        public float altitude = Float.NaN;
+        // Percent, uphill positive.
+        public float grade;
+        // Degrees per second.
+        public float turnRate;
+        public float lean;
+        public float maxLeanLeft;
+        public float maxLeanRight;
+
+        void clear() {
+            time = 0L;
+            speed = 0.0f;
+            average10s = 0.0f;
+            max10s = 0.0f;
+            average60s = 0.0f;
+            max60s = 0.0f;
+            averageSpeed = 0.0f;
+            maxSpeed = 0.0f;
+            movingMs = 0L;
+            elevationGain = 0.0f;
+            elevationLoss = 0.0f;
+            altitude = Float.NaN;
+            grade = 0.0f;
+            turnRate = 0.0f;
+            lean = 0.0f;
+            maxLeanLeft = 0.0f;
+            maxLeanRight = 0.0f;
+        }
+
+        void copyFrom(Values other) {
+            time = other.time;
+            speed = other.speed;
+            average10s = other.average10s;
+            max10s = other.max10s;
+            average60s = other.average60s;
+            max60s = other.max60s;
+            averageSpeed = other.averageSpeed;
+            maxSpeed = other.maxSpeed;
+            movingMs = other.movingMs;
+            elevationGain = other.elevationGain;
+            elevationLoss = other.elevationLoss;
+            altitude = other.altitude;
+            grade = other.grade;
+            turnRate = other.turnRate;
+            lean = other.lean;
+            maxLeanLeft = other.maxLeanLeft;
+            maxLeanRight = other.maxLeanRight;
+        }
+    }
+
+    private final RollingWindow shortWindow = new RollingWindow(SHORT_WINDOW_MS, WINDOW_CAPACITY);
+    private final RollingWindow longWindow = new RollingWindow(LONG_WINDOW_MS, WINDOW_CAPACITY);
+    private final Values current = new Values();
+
+    // Triple buffer: the writer fills back, swaps it with middle to publish, and the reader
+    // swaps middle with front when there's something new. FRESH marks an unread middle.
+    private static final int FRESH = 4;
+    private final Values[] buffers = {new Values(), new Values(), new Values()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+
+    private long lastTime;
+    private boolean hasHeadingPosition;
+    private double headingLat;
+    private double headingLon;
+    private float lastBearing = -1.0f;
+    private long lastBearingTime;
+    private boolean hasElevation;
+    private double elevationReference;
+
+    /**
+     * Adds a fix.
+     *
+     * @param speed    metres per second
+     * @param altitude metres, NaN if unknown
+     * @param bearing  degrees, negative if unknown
+     * @param distance the ride's distance so far, for the average speed
+     */
+    public void update(long time, float speed, double altitude, float bearing, double latitude,
+                       double longitude, float distance) {
+        long sinceLast = time - lastTime;
+        if ((lastTime > 0) && (sinceLast > 0) && (sinceLast <= MAX_FIX_GAP_MS)
+                && (speed >= MOVING_SPEED)) {
+            current.movingMs += sinceLast;
+        }
+        lastTime = time;
+
+        shortWindow.add(time, speed);
+        longWindow.add(time, speed);
+        current.time = time;
+        current.speed = speed;
+        current.average10s = shortWindow.getAverage();
+        current.max10s = shortWindow.getMax();
+        current.average60s = longWindow.getAverage();
+        current.max60s = longWindow.getMax();
+        current.maxSpeed = Math.max(current.maxSpeed, speed);
+        current.averageSpeed = (current.movingMs > 0)
+                ? distance * 1000.0f / current.movingMs : 0.0f;
+
+        updateElevation(altitude);
+        updateTurn(time, speed, bearing, latitude, longitude);
+    }
+
+    /**
+     * Forgets the last fix so the gap up to the next one isn't counted, e.g. after a pause.
+     */
+    public void breakSegment() {
+        lastTime = 0L;
+        hasHeadingPosition = false;
+        lastBearing = -1.0f;
+        current.turnRate = 0.0f;
+        current.lean = 0.0f;
+    }
+
+    public void reset() {
+        breakSegment();
+        shortWindow.clear();
+        longWindow.clear();
+        hasElevation = false;
+        current.clear();
+    }
+
+    /**
+     * Makes the figures so far visible to {@link #read()}. Updating thread only.
+     */
+    public void publish() {
+        buffers[back].copyFrom(current);
+        back = middle.getAndSet(back | FRESH) & ~FRESH;
+    }
+
+    /**
+     * The latest published figures. The object stays as it is until the next call, and only
+     * one thread may call this.
+     */
+    public Values read() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & ~FRESH;
+        }
+        return buffers[front];
+    }
+
+    /**
+     * @param grade percent, uphill positive; see {@link ElevationFilter#getGrade()}
+     */
+    public void setGrade(float grade) {
+        current.grade = grade;
+    }
+
+    private void updateElevation(double altitude) {
+        if (Double.isNaN(altitude)) {
+            return;
+        }
+        current.altitude = (float) altitude;
+        if (!hasElevation) {
+            elevationReference = altitude;
+            hasElevation = true;
+            return;
+        }
+        double change = altitude - elevationReference;
+        if (change >= ELEVATION_HYSTERESIS) {
+            current.elevationGain += change;
+            elevationReference = altitude;
+        } else if (change <= -ELEVATION_HYSTERESIS) {
+            current.elevationLoss -= change;
+            elevationReference = altitude;
+        }
+    }
+
+    private void updateTurn(long time, float speed, float bearing, double latitude,
+                            double longitude) {
+        if (speed < HEADING_SPEED) {
+            lastBearing = -1.0f;
+            current.turnRate = 0.0f;
+            current.lean = 0.0f;
+            return;
+        }
+        if (bearing >= 0.0f) {
+            headingLat = latitude;
+            headingLon = longitude;
+            hasHeadingPosition = true;
+        } else {
+            // No bearing from the receiver, so take it from the track once it's moved enough
+            // for the direction to mean something.
+            if (hasHeadingPosition && (GeoMath.haversine(headingLat, headingLon, latitude,
+                    longitude) < HEADING_MIN_METERS)) {
+                return;
+            }
+            bearing = hasHeadingPosition ? (float) GeoMath.initialBearing(headingLat, headingLon,
+                    latitude, longitude) : -1.0f;
+            headingLat = latitude;
+            headingLon = longitude;
+            hasHeadingPosition = true;
+            if (bearing < 0.0f) {
+                return;
+            }
+        }
+
+        if ((lastBearing >= 0.0f) && (time > lastBearingTime)) {
+            float turn = bearing - lastBearing;
+            if (turn > 180.0f) {
+                turn -= 360.0f;
+            } else if (turn < -180.0f) {
+                turn += 360.0f;
+            }
+            float rate = turn * 1000.0f / (time - lastBearingTime);
+            current.turnRate += TURN_SMOOTHING * (rate - current.turnRate);
+            double lean = Math.toDegrees(Math.atan(speed * Math.toRadians(current.turnRate)
+                    / GRAVITY));
+            current.lean = (float) lean;
+            current.maxLeanRight = Math.max(current.maxLeanRight, current.lean);
+            current.maxLeanLeft = Math.max(current.maxLeanLeft, -current.lean);
+        }
+        lastBearing = bearing;
+        lastBearingTime = time;
+    }
+
+    /**
+     * Mean and maximum of the values over a trailing time window.
+     *
+     * The sum is kept in whole thousandths so adding and removing values never drifts. The
+     * deque holds the sequence numbers of values that are still the largest of everything
+     * after them, largest first, so its head is the window's maximum.
+     */
+    private static class RollingWindow {
+        private final long windowMs;
+        private final int mask;
+        private final long[] times;
+        private final float[] values;
+        private final long[] deque;
+        private long head;
+        private long tail;
+        private long dequeHead;
+        private long dequeTail;
+        private long sum;
+
+        RollingWindow(long windowMs, int capacity) {
+            this.windowMs = windowMs;
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            mask = size - 1;
+            times = new long[size];
+            values = new float[size];
+            deque = new long[size];
+        }
+
+        void add(long time, float value) {
+            while ((head < tail) && ((time - times[(int) (head & mask)] > windowMs)
+                    || (tail - head > mask))) {
+                evict();
+            }
+
+            int i = (int) (tail & mask);
+            times[i] = time;
+            values[i] = value;
+            sum += Math.round(value * 1000.0);
+            while ((dequeHead < dequeTail)
+                    && (values[(int) (deque[(int) ((dequeTail - 1) & mask)] & mask)] <= value)) {
+                dequeTail--;
+            }
+            deque[(int) (dequeTail & mask)] = tail;
+            dequeTail++;
+            tail++;
+        }
+
+        float getAverage() {
+            return (tail == head) ? 0.0f : sum / 1000.0f / (tail - head);
+        }
+
+        float getMax() {
+            return (dequeHead == dequeTail) ? 0.0f
+                    : values[(int) (deque[(int) (dequeHead & mask)] & mask)];
+        }
+
+        void clear() {
+            head = tail;
+            dequeHead = dequeTail;
+            sum = 0L;
+        }
+
+        private void evict() {
+            int i = (int) (head & mask);
+            sum -= Math.round(values[i] * 1000.0);
+            if ((dequeHead < dequeTail) && (deque[(int) (dequeHead & mask)] == head)) {
+                dequeHead++;
+            }
+            head++;
+        }
+    }
+}
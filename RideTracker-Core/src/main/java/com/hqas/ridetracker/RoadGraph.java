@@ -0,0 +1,452 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A road network read from a compact binary file, for {@link MapMatcher}.
+ *
+ * Nodes are fixed point coordinates (millionths of a degree) and roads are directed edges kept as
+ * adjacency arrays: the edges leaving node n are firstEdge[n] up to firstEdge[n + 1]. A two way
+ * road is two edges. The file holds just those arrays, so it is the same few bytes per node that
+ * the graph takes in memory; an OSM extract is boiled down to it off the device, e.g. with
+ * {@link Builder}.
+ *
+ * Edge lengths, edge start nodes and a grid index for finding the edges near a point are worked
+ * out on load. Distances are on a local flat plane through the middle of the graph, which is
+ * plenty for a city or county sized extract.
+ */
+public class RoadGraph {
+
+    private static final int MAGIC = 0x52475231; // "RGR1"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final double CELL_METERS = 200.0;
+
+    private final int nodeCount;
+    private final int edgeCount;
+    private final int[] nodeLat;
+    private final int[] nodeLon;
+    private final int[] firstEdge;
+    private final int[] edgeTo;
+
+    private final int[] edgeFrom;
+    private final float[] edgeLength;
+
+    // Local plane: metres per millionth of a degree, from the middle of the graph.
+    private final int originLat;
+    private final int originLon;
+    private final double metersPerUnitX;
+    private final double metersPerUnitY;
+
+    // Grid cells in sorted key order, each listing the edges whose bounds overlap it.
+    private int[] cellKeys;
+    private int[] cellStart;
+    private int[] cellEdges;
+
+    private RoadGraph(int[] nodeLat, int[] nodeLon, int[] firstEdge, int[] edgeTo) {
+        this.nodeCount = nodeLat.length;
+        this.edgeCount = edgeTo.length;
+        this.nodeLat = nodeLat;
+        this.nodeLon = nodeLon;
+        this.firstEdge = firstEdge;
+        this.edgeTo = edgeTo;
+
+        int minLat = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE;
+        int minLon = Integer.MAX_VALUE;
+        int maxLon = Integer.MIN_VALUE;
+        for (int n = 0; n < nodeCount; n++) {
+            minLat = Math.min(minLat, nodeLat[n]);
+            maxLat = Math.max(maxLat, nodeLat[n]);
+            minLon = Math.min(minLon, nodeLon[n]);
+            maxLon = Math.max(maxLon, nodeLon[n]);
+        }
+        originLat = (nodeCount == 0) ? 0 : (int) (((long) minLat + maxLat) / 2);
+        originLon = (nodeCount == 0) ? 0 : (int) (((long) minLon + maxLon) / 2);
+        metersPerUnitY = GeoMath.METERS_PER_DEGREE / 1e6;
+        metersPerUnitX = metersPerUnitY * Math.cos(Math.toRadians(originLat / 1e6));
+
+        edgeFrom = new int[edgeCount];
+        edgeLength = new float[edgeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            for (int e = firstEdge[n]; e < firstEdge[n + 1]; e++) {
+                edgeFrom[e] = n;
+                int to = edgeTo[e];
+                edgeLength[e] = (float) Math.hypot(x(nodeLon[to]) - x(nodeLon[n]),
+                        y(nodeLat[to]) - y(nodeLat[n]));
+            }
+        }
+        buildGrid();
+    }
+
+    public static RoadGraph read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a road graph: " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header);
+            header.flip();
+            if ((header.getInt() != MAGIC) || (header.getShort() != VERSION)) {
+                throw new IOException("Not a road graph: " + file);
+            }
+            header.getShort();
+            int nodes = header.getInt();
+            int edges = header.getInt();
+            long expected = HEADER_SIZE + 4L * (3L * nodes + 1 + edges);
+            if ((nodes < 0) || (edges < 0) || (size != expected)) {
+                throw new IOException("Road graph is truncated or corrupt: " + file);
+            }
+
+            ByteBuffer body = ByteBuffer.allocate((int) (size - HEADER_SIZE));
+            readFully(channel, body);
+            body.flip();
+            IntBuffer ints = body.asIntBuffer();
+            int[] lat = new int[nodes];
+            int[] lon = new int[nodes];
+            int[] first = new int[nodes + 1];
+            int[] to = new int[edges];
+            ints.get(lat);
+            ints.get(lon);
+            ints.get(first);
+            ints.get(to);
+            for (int n = 0; n < nodes; n++) {
+                if ((first[n] < 0) || (first[n] > first[n + 1])) {
+                    throw new IOException("Road graph is corrupt: " + file);
+                }
+            }
+            if ((first[0] != 0) || (first[nodes] != edges)) {
+                throw new IOException("Road graph is corrupt: " + file);
+            }
+            for (int e = 0; e < edges; e++) {
+                if ((to[e] < 0) || (to[e] >= nodes)) {
+                    throw new IOException("Road graph is corrupt: " + file);
+                }
+            }
+            return new RoadGraph(lat, lon, first, to);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(nodeCount);
+            out.writeInt(edgeCount);
+            for (int n = 0; n < nodeCount; n++) {
+                out.writeInt(nodeLat[n]);
+            }
+            for (int n = 0; n < nodeCount; n++) {
+                out.writeInt(nodeLon[n]);
+            }
+            for (int n = 0; n <= nodeCount; n++) {
+                out.writeInt(firstEdge[n]);
+            }
+            for (int e = 0; e < edgeCount; e++) {
+                out.writeInt(edgeTo[e]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public int getFirstEdge(int node) {
+        return firstEdge[node];
+    }
+
+    /**
+     * @return one past the last edge leaving the node
+     */
+    public int getEndEdge(int node) {
+        return firstEdge[node + 1];
+    }
+
+    public int getEdgeFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    public int getEdgeTo(int edge) {
+        return edgeTo[edge];
+    }
+
+    public float getEdgeLength(int edge) {
+        return edgeLength[edge];
+    }
+
+    public double getNodeLatitude(int node) {
+        return nodeLat[node] / 1e6;
+    }
+
+    public double getNodeLongitude(int node) {
+        return nodeLon[node] / 1e6;
+    }
+
+    /**
+     * @param fraction how far along the edge, 0 at its start and 1 at its end
+     */
+    public double getLatitudeAlong(int edge, float fraction) {
+        int a = nodeLat[edgeFrom[edge]];
+        return (a + (nodeLat[edgeTo[edge]] - a) * (double) fraction) / 1e6;
+    }
+
+    public double getLongitudeAlong(int edge, float fraction) {
+        int a = nodeLon[edgeFrom[edge]];
+        return (a + (nodeLon[edgeTo[edge]] - a) * (double) fraction) / 1e6;
+    }
+
+    /**
+     * Bytes held by the graph and its index.
+     */
+    public long getMemoryBytes() {
+        return 4L * (nodeLat.length + nodeLon.length + firstEdge.length + edgeTo.length
+                + edgeFrom.length + edgeLength.length + cellKeys.length + cellStart.length
+                + cellEdges.length);
+    }
+
+    /**
+     * Finds the edges that pass within radius of a point, nearest first.
+     *
+     * @param edges     filled with the edges found
+     * @param fractions filled with how far along each edge its nearest point is
+     * @param distances filled with the distance to that point, in metres
+     * @return how many were found, at most max
+     */
+    public int findNearbyEdges(double latitude, double longitude, double radius, int max,
+                               int[] edges, float[] fractions, float[] distances) {
+        double px = x((int) Math.round(longitude * 1e6));
+        double py = y((int) Math.round(latitude * 1e6));
+        int cx0 = cell(px - radius);
+        int cx1 = cell(px + radius);
+        int cy0 = cell(py - radius);
+        int cy1 = cell(py + radius);
+        int found = 0;
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                int c = Arrays.binarySearch(cellKeys, cellKey(cx, cy));
+                if (c < 0) {
+                    continue;
+                }
+                for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+                    int e = cellEdges[i];
+                    double ax = x(nodeLon[edgeFrom[e]]);
+                    double ay = y(nodeLat[edgeFrom[e]]);
+                    double dx = x(nodeLon[edgeTo[e]]) - ax;
+                    double dy = y(nodeLat[edgeTo[e]]) - ay;
+                    double lengthSquared = dx * dx + dy * dy;
+                    double t = (lengthSquared > 0.0)
+                            ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0.0;
+                    t = Math.max(0.0, Math.min(1.0, t));
+                    double ex = ax + t * dx - px;
+                    double ey = ay + t * dy - py;
+                    float d = (float) Math.sqrt(ex * ex + ey * ey);
+                    if ((d > radius) || ((found == max) && (d >= distances[max - 1]))
+                            || contains(edges, found, e)) {
+                        continue;
+                    }
+                    // Insert in distance order, pushing the farthest out if full.
+                    int j = (found < max) ? found++ : max - 1;
+                    while ((j > 0) && (distances[j - 1] > d)) {
+                        edges[j] = edges[j - 1];
+                        fractions[j] = fractions[j - 1];
+                        distances[j] = distances[j - 1];
+                        j--;
+                    }
+                    edges[j] = e;
+                    fractions[j] = (float) t;
+                    distances[j] = d;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean contains(int[] edges, int count, int edge) {
+        for (int i = 0; i < count; i++) {
+            if (edges[i] == edge) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double x(int lonE6) {
+        return (lonE6 - originLon) * metersPerUnitX;
+    }
+
+    private double y(int latE6) {
+        return (latE6 - originLat) * metersPerUnitY;
+    }
+
+    private static int cell(double meters) {
+        return (int) Math.floor(meters / CELL_METERS);
+    }
+
+    private static int cellKey(int cx, int cy) {
+        return ((cx & 0xffff) << 16) | (cy & 0xffff);
+    }
+
+    private void buildGrid() {
+        int entries = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long[] packed = (pass == 0) ? null : new long[entries];
+            int i = 0;
+            for (int e = 0; e < edgeCount; e++) {
+                double ax = x(nodeLon[edgeFrom[e]]);
+                double ay = y(nodeLat[edgeFrom[e]]);
+                double bx = x(nodeLon[edgeTo[e]]);
+                double by = y(nodeLat[edgeTo[e]]);
+                for (int cx = cell(Math.min(ax, bx)); cx <= cell(Math.max(ax, bx)); cx++) {
+                    for (int cy = cell(Math.min(ay, by)); cy <= cell(Math.max(ay, by)); cy++) {
+                        if (packed != null) {
+                            packed[i] = ((long) cellKey(cx, cy) << 32) | e;
+                        }
+                        i++;
+                    }
+                }
+            }
+            if (packed == null) {
+                entries = i;
+                continue;
+            }
+
+            // Cell keys are compared as signed ints, the same as the binary search does.
+            Arrays.sort(packed);
+            int cells = 0;
+            for (int k = 0; k < entries; k++) {
+                if ((k == 0) || ((int) (packed[k] >> 32) != (int) (packed[k - 1] >> 32))) {
+                    cells++;
+                }
+            }
+            cellKeys = new int[cells];
+            cellStart = new int[cells + 1];
+            cellEdges = new int[entries];
+            int c = -1;
+            for (int k = 0; k < entries; k++) {
+                int key = (int) (packed[k] >> 32);
+                if ((c < 0) || (key != cellKeys[c])) {
+                    c++;
+                    cellKeys[c] = key;
+                    cellStart[c] = k;
+                }
+                cellEdges[k] = (int) packed[k];
+            }
+            cellStart[cells] = entries;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of road graph");
+            }
+        }
+    }
+
+    /**
+     * Puts a graph together from nodes and roads, e.g. when converting map data.
+     */
+    public static class Builder {
+        private int[] lat = new int[256];
+        private int[] lon = new int[256];
+        private int nodes;
+        private int[] from = new int[256];
+        private int[] to = new int[256];
+        private int edges;
+
+        /**
+         * @return the new node's id
+         */
+        public int addNode(double latitude, double longitude) {
+            if (nodes == lat.length) {
+                lat = Arrays.copyOf(lat, nodes * 2);
+                lon = Arrays.copyOf(lon, nodes * 2);
+            }
+            lat[nodes] = (int) Math.round(latitude * 1e6);
+            lon[nodes] = (int) Math.round(longitude * 1e6);
+            return nodes++;
+        }
+
+        /**
+         * Adds a road between two nodes, usable both ways unless it is one way from a to b.
+         */
+        public void addRoad(int a, int b, boolean oneWay) {
+            addEdge(a, b);
+            if (!oneWay) {
+                addEdge(b, a);
+            }
+        }
+
+        public RoadGraph build() {
+            int[] first = new int[nodes + 1];
+            for (int e = 0; e < edges; e++) {
+                first[from[e] + 1]++;
+            }
+            for (int n = 0; n < nodes; n++) {
+                first[n + 1] += first[n];
+            }
+            int[] next = Arrays.copyOf(first, nodes);
+            int[] sortedTo = new int[edges];
+            for (int e = 0; e < edges; e++) {
+                sortedTo[next[from[e]]++] = to[e];
+            }
+            return new RoadGraph(Arrays.copyOf(lat, nodes), Arrays.copyOf(lon, nodes), first,
+                    sortedTo);
+        }
+
+        private void addEdge(int a, int b) {
+            if ((a < 0) || (a >= nodes) || (b < 0) || (b >= nodes)) {
+                throw new IllegalArgumentException("No such node");
+            }
+            if (edges == from.length) {
+                from = Arrays.copyOf(from, edges * 2);
+                to = Arrays.copyOf(to, edges * 2);
+            }
+            from[edges] = a;
+            to[edges] = b;
+            edges++;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Decides how often we need location fixes.
+ *
+ * Fast, twisty riding gets the full rate, a straight highway gets a fix every few seconds and
+ * sitting still or not tracking at all drops to a trickle. Moving to a faster mode happens
+ * straight away so a bend isn't missed; moving to a slower one waits until the new mode has been
+ * seen for a few fixes in a row, so we don't keep re-registering with the location provider.
+ *
+ * Plain Java, so it can be driven by recorded fixes off the device.
+ */
+public class SamplingPolicy {
+
+    public enum Mode {
+        IDLE(60000L, 100.0f),
+        STOPPED(10000L, 10.0f),
+        CRUISE(4000L, 0.0f),
+        NORMAL(2000L, 0.0f),
+        TWISTY(1000L, 0.0f);
+
+        private final long minTimeMs;
+        private final float minDistanceMeters;
+
+        Mode(long minTimeMs, float minDistanceMeters) {
+            this.minTimeMs = minTimeMs;
+            this.minDistanceMeters = minDistanceMeters;
+        }
+
+        public long getMinTimeMs() {
+            return minTimeMs;
+        }
+
+        public float getMinDistanceMeters() {
+            return minDistanceMeters;
+        }
+
+        boolean isFasterThan(Mode other) {
+            return minTimeMs < other.minTimeMs;
+        }
+    }
+
+    private static final float STOPPED_SPEED = 1.0f;          // m/s
+    private static final float CRUISE_SPEED = 22.0f;          // m/s, roughly 80 km/h
+    private static final float HEADING_SPEED = 3.0f;          // bearings are noise below this
+    private static final float TWISTY_TURN_RATE = 6.0f;       // degrees per second
+    private static final float CRUISE_TURN_RATE = 1.5f;       // degrees per second
+    private static final float POOR_ACCURACY = 50.0f;         // metres
+    private static final float SMOOTHING = 0.3f;
+    private static final int SLOWDOWN_FIXES = 3;
+
+    private boolean tracking;
+    private boolean paused;
+    private Mode mode = Mode.IDLE;
+    private Mode candidate = Mode.IDLE;
+    private int candidateFixes;
+
+    private boolean hasLast;
+    private long lastTime;
+    private double lastLat;
+    private double lastLon;
+    private float lastBearing = -1.0f;
+    private float smoothedSpeed;
+    private float smoothedTurnRate;
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if the mode changed
+     */
+    public boolean setTracking(boolean tracking) {
+        this.tracking = tracking;
+        paused = false;
+        hasLast = false;
+        candidateFixes = 0;
+        Mode wanted = tracking ? Mode.NORMAL : Mode.IDLE;
+        return changeMode(wanted);
+    }
+
+    /**
+     * Holds the policy at {@link Mode#STOPPED} while the ride is auto-paused, so the location
+     * provider isn't asked for more than it takes to notice riding again.
+     *
+     * @return true if the mode changed
+     */
+    public boolean setPaused(boolean paused) {
+        if (!tracking || (paused == this.paused)) {
+            return false;
+        }
+        this.paused = paused;
+        return changeMode(paused ? Mode.STOPPED : Mode.NORMAL);
+    }
+
+    /**
+     * Feeds a fix into the policy.
+     *
+     * @param speed    metres per second, negative if the provider didn't give one
+     * @param bearing  degrees, negative if the provider didn't give one
+     * @param accuracy metres, zero if unknown
+     * @return true if the mode changed and updates need re-registering
+     */
+    public boolean onFix(long time, double latitude, double longitude, float speed, float bearing,
+                         float accuracy) {
+        if (!tracking) {
+            return false;
+        }
+
+        if (hasLast && (time > lastTime)) {
+            float dt = (time - lastTime) / 1000.0f;
+            if ((speed < 0.0f) || (bearing < 0.0f)) {
+                double meters = GeoMath.haversine(lastLat, lastLon, latitude, longitude);
+                if (speed < 0.0f) {
+                    speed = (float) (meters / dt);
+                }
+                if ((bearing < 0.0f) && (meters > 0.0)) {
+                    bearing = (float) GeoMath.initialBearing(lastLat, lastLon, latitude, longitude);
+                }
+            }
+            smoothedSpeed += SMOOTHING * (speed - smoothedSpeed);
+
+            if ((speed >= HEADING_SPEED) && (bearing >= 0.0f) && (lastBearing >= 0.0f)) {
+                float turn = Math.abs(bearing - lastBearing);
+                if (turn > 180.0f) {
+                    turn = 360.0f - turn;
+                }
+                smoothedTurnRate += SMOOTHING * (turn / dt - smoothedTurnRate);
+            } else {
+                // No bearing worth using, so let the last bend fade rather than hold on to it.
+                smoothedTurnRate -= SMOOTHING * smoothedTurnRate;
+            }
+        } else if (speed >= 0.0f) {
+            smoothedSpeed = speed;
+        }
+
+        hasLast = true;
+        lastTime = time;
+        lastLat = latitude;
+        lastLon = longitude;
+        lastBearing = bearing;
+
+        return offer(classify(accuracy));
+    }
+
+    private Mode classify(float accuracy) {
+        Mode wanted;
+        if (paused) {
+            return Mode.STOPPED;
+        }
+        if (smoothedSpeed < STOPPED_SPEED) {
+            wanted = Mode.STOPPED;
+        } else if (smoothedTurnRate >= TWISTY_TURN_RATE) {
+            wanted = Mode.TWISTY;
+        } else if ((smoothedSpeed >= CRUISE_SPEED) && (smoothedTurnRate < CRUISE_TURN_RATE)) {
+            wanted = Mode.CRUISE;
+        } else {
+            wanted = Mode.NORMAL;
+        }
+
+        // A struggling receiver gets more chances rather than fewer.
+        if ((accuracy > POOR_ACCURACY) && Mode.NORMAL.isFasterThan(wanted)) {
+            wanted = Mode.NORMAL;
+        }
+        return wanted;
+    }
+
+    private boolean offer(Mode wanted) {
+        if (wanted == mode) {
+            candidateFixes = 0;
+            return false;
+        }
+        if (wanted.isFasterThan(mode)) {
+            return changeMode(wanted);
+        }
+
+        if (wanted != candidate) {
+            candidate = wanted;
+            candidateFixes = 0;
+        }
+        candidateFixes++;
+        if (candidateFixes >= SLOWDOWN_FIXES) {
+            return changeMode(wanted);
+        }
+        return false;
+    }
+
+    private boolean changeMode(Mode wanted) {
+        candidate = wanted;
+        candidateFixes = 0;
+        if (wanted == mode) {
+            return false;
+        }
+        mode = wanted;
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the {@link SegmentTimer}'s segments and their best times in a file.
+ *
+ * There are only ever a handful of segments and they change when one is added or a best is
+ * beaten, so the whole file is written again each time: to a temporary file that is then renamed
+ * over the old one, so a crash leaves either the old segments or the new ones.
+ */
+public class SegmentStore {
+
+    private static final int MAGIC = 0x53454731; // "SEG1"
+    private static final short VERSION = 1;
+
+    private final File file;
+
+    public SegmentStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Adds every saved segment to the timer, in the order they were saved, so they keep their
+     * numbers.
+     *
+     * @return the number of segments loaded
+     */
+    public int load(SegmentTimer timer) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if ((in.readInt() != MAGIC) || (in.readShort() != VERSION)) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            int segments = in.readShort();
+            for (int s = 0; s < segments; s++) {
+                int gates = in.readShort();
+                double[] lats = new double[gates * 2];
+                double[] lons = new double[gates * 2];
+                for (int i = 0; i < gates * 2; i++) {
+                    lats[i] = in.readDouble();
+                    lons[i] = in.readDouble();
+                }
+                long[] best = new long[gates - 1];
+                for (int i = 0; i < gates - 1; i++) {
+                    best[i] = in.readLong();
+                }
+                // Either every gate has a best or none does.
+                timer.addSegment(lats, lons, (best[0] == SegmentTimer.NO_BEST) ? null : best);
+            }
+            return segments;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes every segment the timer has, with its best times so far.
+     */
+    public void save(SegmentTimer timer) throws IOException {
+        File dir = file.getParentFile();
+        if ((dir != null) && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(timer.getSegmentCount());
+            for (int s = 0; s < timer.getSegmentCount(); s++) {
+                int gates = timer.getGateCount(s);
+                double[] lats = new double[gates * 2];
+                double[] lons = new double[gates * 2];
+                timer.getGates(s, lats, lons);
+                out.writeShort(gates);
+                for (int i = 0; i < gates * 2; i++) {
+                    out.writeDouble(lats[i]);
+                    out.writeDouble(lons[i]);
+                }
+                for (int gate = 1; gate < gates; gate++) {
+                    out.writeLong(timer.getBestSplit(s, gate));
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+}
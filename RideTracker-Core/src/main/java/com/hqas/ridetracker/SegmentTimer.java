@@ -0,0 +1,463 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.util.Arrays;
+
+/**
+ * Times the rider through user defined segments, live.
+ *
+ * A segment is an ordered list of gates, each a short line across the road: a start, any
+ * number of splits and a finish. A gate counts as crossed when the line between two consecutive
+ * fixes intersects it going the right way, and the crossing time is interpolated along that line.
+ * Crossing a start begins a run, crossing the run's next gate reports a split, and at the finish
+ * the run is compared with the best one, which it replaces if faster.
+ *
+ * Gates are bucketed in a grid of {@link #CELL_SIZE} metre cells, so a fix only tests the few
+ * gates in the cells its line passes through, however many segments there are. Processing a fix
+ * doesn't allocate. Not thread safe; everything happens on the thread that processes fixes.
+ */
+public class SegmentTimer {
+
+    public static final double CELL_SIZE = 250.0;        // metres
+    // Fix to fix jumps longer than this are gaps, not something to test gates against.
+    private static final double MAX_STEP = 2.0 * CELL_SIZE;
+    public static final long NO_BEST = Long.MIN_VALUE;
+
+    public interface Listener {
+        /**
+         * A gate of a running segment was crossed.
+         *
+         * @param gate 0 for the start, then 1 for the first split up to gateCount - 1 for the
+         *             finish
+         * @param splitMs time since the start gate
+         * @param deltaMs splitMs minus the best run's time at this gate, or {@link #NO_BEST}
+         */
+        void onSplit(int segment, int gate, int gateCount, long splitMs, long deltaMs);
+    }
+
+    private final Listener listener;
+
+    // Local plane the gates and fixes are worked in.
+    private boolean hasOrigin;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+
+    // Gates, as flat columns.
+    private int gateCount;
+    private double[] gateX1 = new double[16];
+    private double[] gateY1 = new double[16];
+    private double[] gateX2 = new double[16];
+    private double[] gateY2 = new double[16];
+    private int[] gateSegment = new int[16];
+    private int[] gateOrder = new int[16];
+
+    // Segments.
+    private int segmentCount;
+    private int[] segmentFirstGate = new int[8];
+    private int[] segmentGates = new int[8];
+    private long[] runStart = new long[8];           // -1 when not running
+    private int[] runNextGate = new int[8];
+    private long[][] runSplits = new long[8][];
+    private long[][] bestSplits = new long[8][];
+
+    // Grid cells: an open addressed map from cell key to the head of a list of gate entries.
+    private long[] cellKeys = new long[64];
+    private int[] cellHeads = new int[64];
+    private int cellsUsed;
+    private int[] entryGate = new int[32];
+    private int[] entryNext = new int[32];
+    private int entryCount;
+
+    // Last fix, in plane metres.
+    private boolean hasLast;
+    private double lastX;
+    private double lastY;
+    private long lastTime;
+
+    private long fixCount;
+    private long gateTests;
+    private long crossingCount;
+
+    public SegmentTimer(Listener listener) {
+        this.listener = listener;
+        Arrays.fill(cellHeads, -1);
+    }
+
+    /**
+     * Adds a segment.
+     *
+     * @param latitudes two points per gate, start gate first and finish gate last
+     * @param bestSplitsMs best time from the start to each later gate, or null if there isn't one
+     * @return the segment's number
+     */
+    public int addSegment(double[] latitudes, double[] longitudes, long[] bestSplitsMs) {
+        int gates = latitudes.length / 2;
+        if ((gates < 2) || (longitudes.length != latitudes.length)) {
+            throw new IllegalArgumentException("A segment needs at least a start and a finish gate");
+        }
+        if (!hasOrigin) {
+            originLat = latitudes[0];
+            originLon = longitudes[0];
+            metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+            hasOrigin = true;
+        }
+
+        int segment = segmentCount++;
+        if (segment == segmentFirstGate.length) {
+            int capacity = segment * 2;
+            segmentFirstGate = Arrays.copyOf(segmentFirstGate, capacity);
+            segmentGates = Arrays.copyOf(segmentGates, capacity);
+            runStart = Arrays.copyOf(runStart, capacity);
+            runNextGate = Arrays.copyOf(runNextGate, capacity);
+            runSplits = Arrays.copyOf(runSplits, capacity);
+            bestSplits = Arrays.copyOf(bestSplits, capacity);
+        }
+        segmentFirstGate[segment] = gateCount;
+        segmentGates[segment] = gates;
+        runStart[segment] = -1L;
+        runSplits[segment] = new long[gates];
+        bestSplits[segment] = new long[gates];
+        if (bestSplitsMs != null) {
+            System.arraycopy(bestSplitsMs, 0, bestSplits[segment], 1, gates - 1);
+        } else {
+            Arrays.fill(bestSplits[segment], NO_BEST);
+        }
+
+        for (int i = 0; i < gates; i++) {
+            addGate(segment, i, latitudes[2 * i], longitudes[2 * i], latitudes[2 * i + 1],
+                    longitudes[2 * i + 1]);
+        }
+        return segment;
+    }
+
+    /**
+     * Makes a segment out of part of an earlier ride, with gates across the track every
+     * splitMeters and the earlier ride's times as the best to beat.
+     *
+     * @return the segment's number, or -1 if that part of the track is too short
+     */
+    public int addSegmentFromTrack(TrackBuffer.View track, int from, int to, double splitMeters,
+                                   double gateWidth) {
+        if (to - from < 2) {
+            return -1;
+        }
+        int maxGates = 2 + (int) (trackLength(track, from, to) / splitMeters);
+        double[] lats = new double[maxGates * 2];
+        double[] lons = new double[maxGates * 2];
+        long[] best = new long[maxGates - 1];
+        int gates = 0;
+        double sinceGate = 0.0;
+        for (int i = from; i <= to; i++) {
+            if (i > from) {
+                sinceGate += GeoMath.haversine(track.getLatitude(i - 1), track.getLongitude(i - 1),
+                        track.getLatitude(i), track.getLongitude(i));
+            }
+            boolean last = (i == to);
+            if ((i == from) || last || ((sinceGate >= splitMeters) && (gates < maxGates - 1))) {
+                int a = Math.max(from, i - 1);
+                int b = Math.min(to, i + 1);
+                double bearing = GeoMath.initialBearing(track.getLatitude(a), track.getLongitude(a),
+                        track.getLatitude(b), track.getLongitude(b));
+                // The gate goes square across the direction of travel.
+                double rad = Math.toRadians(bearing + 90.0);
+                double half = gateWidth / 2.0;
+                double dLat = half * Math.cos(rad) / GeoMath.METERS_PER_DEGREE;
+                double dLon = half * Math.sin(rad)
+                        / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(track.getLatitude(i))));
+                // Left end first, so a crossing in the direction of travel counts.
+                lats[2 * gates] = track.getLatitude(i) - dLat;
+                lons[2 * gates] = track.getLongitude(i) - dLon;
+                lats[2 * gates + 1] = track.getLatitude(i) + dLat;
+                lons[2 * gates + 1] = track.getLongitude(i) + dLon;
+                if (gates > 0) {
+                    best[gates - 1] = track.getTime(i) - track.getTime(from);
+                }
+                gates++;
+                sinceGate = 0.0;
+            }
+        }
+        long[] bestSplitsMs = new long[gates];
+        System.arraycopy(best, 0, bestSplitsMs, 0, gates - 1);
+        return addSegment(Arrays.copyOf(lats, gates * 2), Arrays.copyOf(lons, gates * 2),
+                bestSplitsMs);
+    }
+
+    public void update(long time, double latitude, double longitude) {
+        if (!hasOrigin) {
+            return;
+        }
+        fixCount++;
+        double x = (longitude - originLon) * metersPerDegreeLon;
+        double y = (latitude - originLat) * GeoMath.METERS_PER_DEGREE;
+        if (hasLast) {
+            double dx = x - lastX;
+            double dy = y - lastY;
+            if ((dx * dx + dy * dy <= MAX_STEP * MAX_STEP) && (time > lastTime)) {
+                testCells(lastX, lastY, x, y, time);
+            }
+        }
+        lastX = x;
+        lastY = y;
+        lastTime = time;
+        hasLast = true;
+    }
+
+    /**
+     * Forgets the last fix, e.g. after a pause, so the gap isn't tested against any gates.
+     */
+    public void breakSegment() {
+        hasLast = false;
+    }
+
+    /**
+     * Abandons any runs in progress.
+     */
+    public void reset() {
+        hasLast = false;
+        for (int s = 0; s < segmentCount; s++) {
+            runStart[s] = -1L;
+        }
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getGateCount(int segment) {
+        return segmentGates[segment];
+    }
+
+    /**
+     * Copies out a segment's gates in the form {@link #addSegment} takes them.
+     *
+     * @param latitudes room for two points per gate
+     */
+    public void getGates(int segment, double[] latitudes, double[] longitudes) {
+        int first = segmentFirstGate[segment];
+        for (int i = 0; i < segmentGates[segment]; i++) {
+            int g = first + i;
+            latitudes[2 * i] = originLat + gateY1[g] / GeoMath.METERS_PER_DEGREE;
+            longitudes[2 * i] = originLon + gateX1[g] / metersPerDegreeLon;
+            latitudes[2 * i + 1] = originLat + gateY2[g] / GeoMath.METERS_PER_DEGREE;
+            longitudes[2 * i + 1] = originLon + gateX2[g] / metersPerDegreeLon;
+        }
+    }
+
+    public boolean isRunning(int segment) {
+        return runStart[segment] >= 0;
+    }
+
+    /**
+     * @return the best time from the start to the gate, or {@link #NO_BEST}
+     */
+    public long getBestSplit(int segment, int gate) {
+        return bestSplits[segment][gate];
+    }
+
+    public long getFixCount() {
+        return fixCount;
+    }
+
+    public long getGateTestCount() {
+        return gateTests;
+    }
+
+    public long getCrossingCount() {
+        return crossingCount;
+    }
+
+    private void testCells(double x0, double y0, double x1, double y1, long time) {
+        int cx0 = cell(Math.min(x0, x1));
+        int cx1 = cell(Math.max(x0, x1));
+        int cy0 = cell(Math.min(y0, y1));
+        int cy1 = cell(Math.max(y0, y1));
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                int slot = findCell(cellKey(cx, cy));
+                if (cellKeys[slot] == 0L) {
+                    continue;
+                }
+                for (int e = cellHeads[slot]; e >= 0; e = entryNext[e]) {
+                    int g = entryGate[e];
+                    // A gate in more than one cell is only tested from the first of them.
+                    if (!firstCellFor(g, cx, cy, cx0, cy0)) {
+                        continue;
+                    }
+                    gateTests++;
+                    testGate(g, x0, y0, x1, y1, time);
+                }
+            }
+        }
+    }
+
+    private boolean firstCellFor(int g, int cx, int cy, int cx0, int cy0) {
+        int gx = Math.max(cx0, cell(Math.min(gateX1[g], gateX2[g])));
+        int gy = Math.max(cy0, cell(Math.min(gateY1[g], gateY2[g])));
+        return (gx == cx) && (gy == cy);
+    }
+
+    private void testGate(int g, double x0, double y0, double x1, double y1, long time) {
+        double rx = x1 - x0;
+        double ry = y1 - y0;
+        double sx = gateX2[g] - gateX1[g];
+        double sy = gateY2[g] - gateY1[g];
+        double denominator = rx * sy - ry * sx;
+        // Only crossings from the gate's right to its left count, which is the direction of
+        // travel for a gate drawn left end first.
+        if (denominator >= 0.0) {
+            return;
+        }
+        double qx = gateX1[g] - x0;
+        double qy = gateY1[g] - y0;
+        double t = (qx * sy - qy * sx) / denominator;
+        double u = (qx * ry - qy * rx) / denominator;
+        if ((t < 0.0) || (t > 1.0) || (u < 0.0) || (u > 1.0)) {
+            return;
+        }
+
+        crossingCount++;
+        long crossedAt = lastTime + Math.round((time - lastTime) * t);
+        int segment = gateSegment[g];
+        int order = gateOrder[g];
+        if (order == 0) {
+            runStart[segment] = crossedAt;
+            runNextGate[segment] = 1;
+            listener.onSplit(segment, 0, segmentGates[segment], 0L, NO_BEST);
+            return;
+        }
+        if ((runStart[segment] < 0) || (order != runNextGate[segment])) {
+            return;
+        }
+
+        long split = crossedAt - runStart[segment];
+        long best = bestSplits[segment][order];
+        runSplits[segment][order] = split;
+        int gates = segmentGates[segment];
+        if (order == gates - 1) {
+            // The best is updated first, so the listener can save it.
+            if ((best == NO_BEST) || (split < best)) {
+                System.arraycopy(runSplits[segment], 1, bestSplits[segment], 1, gates - 1);
+            }
+            runStart[segment] = -1L;
+        } else {
+            runNextGate[segment] = order + 1;
+        }
+        listener.onSplit(segment, order, gates, split, (best == NO_BEST) ? NO_BEST : split - best);
+    }
+
+    private void addGate(int segment, int order, double lat1, double lon1, double lat2,
+                         double lon2) {
+        int g = gateCount++;
+        if (g == gateX1.length) {
+            int capacity = g * 2;
+            gateX1 = Arrays.copyOf(gateX1, capacity);
+            gateY1 = Arrays.copyOf(gateY1, capacity);
+            gateX2 = Arrays.copyOf(gateX2, capacity);
+            gateY2 = Arrays.copyOf(gateY2, capacity);
+            gateSegment = Arrays.copyOf(gateSegment, capacity);
+            gateOrder = Arrays.copyOf(gateOrder, capacity);
+        }
+        gateX1[g] = (lon1 - originLon) * metersPerDegreeLon;
+        gateY1[g] = (lat1 - originLat) * GeoMath.METERS_PER_DEGREE;
+        gateX2[g] = (lon2 - originLon) * metersPerDegreeLon;
+        gateY2[g] = (lat2 - originLat) * GeoMath.METERS_PER_DEGREE;
+        gateSegment[g] = segment;
+        gateOrder[g] = order;
+
+        int cx0 = cell(Math.min(gateX1[g], gateX2[g]));
+        int cx1 = cell(Math.max(gateX1[g], gateX2[g]));
+        int cy0 = cell(Math.min(gateY1[g], gateY2[g]));
+        int cy1 = cell(Math.max(gateY1[g], gateY2[g]));
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                addEntry(cellKey(cx, cy), g);
+            }
+        }
+    }
+
+    private void addEntry(long key, int gate) {
+        if ((cellsUsed + 1) * 2 > cellKeys.length) {
+            growCells();
+        }
+        int slot = findCell(key);
+        if (cellKeys[slot] == 0L) {
+            cellKeys[slot] = key;
+            cellHeads[slot] = -1;
+            cellsUsed++;
+        }
+        if (entryCount == entryGate.length) {
+            entryGate = Arrays.copyOf(entryGate, entryCount * 2);
+            entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+        }
+        entryGate[entryCount] = gate;
+        entryNext[entryCount] = cellHeads[slot];
+        cellHeads[slot] = entryCount;
+        entryCount++;
+    }
+
+    private void growCells() {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        cellKeys = new long[oldKeys.length * 2];
+        cellHeads = new int[oldKeys.length * 2];
+        Arrays.fill(cellHeads, -1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0L) {
+                int slot = findCell(oldKeys[i]);
+                cellKeys[slot] = oldKeys[i];
+                cellHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it would go
+     */
+    private int findCell(long key) {
+        int mask = cellKeys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h >>> 40) & mask;
+        while ((cellKeys[slot] != 0L) && (cellKeys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int cell(double metres) {
+        return (int) Math.floor(metres / CELL_SIZE);
+    }
+
+    /**
+     * Packs a cell's coordinates into a key that is never zero, zero meaning an empty slot.
+     */
+    private static long cellKey(int cx, int cy) {
+        return (((long) cx) << 32) ^ (cy & 0xffffffffL) ^ 0x8000000080000000L;
+    }
+
+    private static double trackLength(TrackBuffer.View track, int from, int to) {
+        double length = 0.0;
+        for (int i = from + 1; i <= to; i++) {
+            length += GeoMath.haversine(track.getLatitude(i - 1), track.getLongitude(i - 1),
+                    track.getLatitude(i), track.getLongitude(i));
+        }
+        return length;
+    }
+}
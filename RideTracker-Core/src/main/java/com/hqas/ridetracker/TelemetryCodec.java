@@ -0,0 +1,177 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.util.Arrays;
+
+/**
+ * Packs the ride metrics shown on the Pebble into one small byte array.
+ *
+ * A frame starts with {@link #FRAME_VERSION}, so a watch app built for another set of fields
+ * can tell, then a header byte: the top bit marks a keyframe and the low bits say which fields
+ * follow. Each field is a zigzag varint, holding the absolute value in a keyframe and the
+ * change since the last frame otherwise. A field only goes into a delta frame once it has moved
+ * past its threshold, and a frame is only produced if at least one field has.
+ *
+ * Deltas assume the watch saw every earlier frame, so after a lost message the next frame has to
+ * be a keyframe; see {@link #forceKeyframe()}. A keyframe is also sent every so often anyway.
+ */
+public class TelemetryCodec {
+
+    public static final int FIELD_DISTANCE = 0;         // metres
+    public static final int FIELD_SPEED = 1;            // decimetres per second
+    public static final int FIELD_AVERAGE_SPEED = 2;    // decimetres per second
+    public static final int FIELD_ELAPSED = 3;          // seconds
+    public static final int FIELD_HEADING = 4;          // degrees, 0 to 359
+    public static final int FIELD_ALTITUDE = 5;         // metres
+    public static final int FIELD_GRADE = 6;            // tenths of a percent
+    public static final int FIELD_COUNT = 7;
+    // Goes up whenever the fields change.
+    public static final int FRAME_VERSION = 1;
+
+    private static final int[] THRESHOLDS = {100, 10, 5, 60, 15, 5, 5};
+
+    private static final int KEYFRAME_FLAG = 0x80;
+    private static final int FIELD_MASK = (1 << FIELD_COUNT) - 1;
+    private static final int KEYFRAME_INTERVAL = 20;
+    public static final int MAX_FRAME_SIZE = 2 + FIELD_COUNT * 5;
+
+    private final int[] sent = new int[FIELD_COUNT];
+    private final byte[] scratch = new byte[MAX_FRAME_SIZE];
+    private boolean needKeyframe = true;
+    private int framesSinceKeyframe;
+
+    /**
+     * @return true if encoding these values now would produce a frame
+     */
+    public boolean needsUpdate(int[] values) {
+        return needKeyframe || (changedFields(values) != 0);
+    }
+
+    /**
+     * @return the frame to send, or null if nothing has changed enough to be worth sending
+     */
+    public byte[] encode(int[] values) {
+        boolean keyframe = needKeyframe || (framesSinceKeyframe >= KEYFRAME_INTERVAL);
+        int fields = keyframe ? FIELD_MASK : changedFields(values);
+        if (fields == 0) {
+            return null;
+        }
+
+        int pos = 0;
+        scratch[pos++] = (byte) FRAME_VERSION;
+        scratch[pos++] = (byte) (fields | (keyframe ? KEYFRAME_FLAG : 0));
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if ((fields & (1 << i)) == 0) {
+                continue;
+            }
+            int value = keyframe ? values[i] : delta(i, values[i], sent[i]);
+            pos = writeVarint(zigzag(value), pos);
+            sent[i] = values[i];
+        }
+
+        if (keyframe) {
+            needKeyframe = false;
+            framesSinceKeyframe = 0;
+        } else {
+            framesSinceKeyframe++;
+        }
+        return Arrays.copyOf(scratch, pos);
+    }
+
+    /**
+     * Makes the next frame a keyframe, e.g. because the last one may not have arrived.
+     */
+    public void forceKeyframe() {
+        needKeyframe = true;
+    }
+
+    /**
+     * Applies a frame to the receiver's copy of the values, the way the watch does.
+     *
+     * @return false if the frame is malformed or from another version
+     */
+    public static boolean decode(byte[] frame, int[] state) {
+        if ((frame == null) || (frame.length < 2) || ((frame[0] & 0xff) != FRAME_VERSION)) {
+            return false;
+        }
+        int header = frame[1] & 0xff;
+        boolean keyframe = (header & KEYFRAME_FLAG) != 0;
+        int pos = 2;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if ((header & (1 << i)) == 0) {
+                continue;
+            }
+            int raw = 0;
+            int shift = 0;
+            while (true) {
+                if ((pos >= frame.length) || (shift > 28)) {
+                    return false;
+                }
+                int b = frame[pos++] & 0xff;
+                raw |= (b & 0x7f) << shift;
+                shift += 7;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            int value = (raw >>> 1) ^ -(raw & 1);
+            if (keyframe) {
+                state[i] = value;
+            } else if (i == FIELD_HEADING) {
+                state[i] = ((state[i] + value) % 360 + 360) % 360;
+            } else {
+                state[i] += value;
+            }
+        }
+        return pos == frame.length;
+    }
+
+    private int changedFields(int[] values) {
+        int fields = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (Math.abs(delta(i, values[i], sent[i])) >= THRESHOLDS[i]) {
+                fields |= 1 << i;
+            }
+        }
+        return fields;
+    }
+
+    private static int delta(int field, int value, int previous) {
+        int d = value - previous;
+        if (field == FIELD_HEADING) {
+            // Take the short way round.
+            d = ((d % 360) + 540) % 360 - 180;
+        }
+        return d;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private int writeVarint(int value, int pos) {
+        while ((value & ~0x7f) != 0) {
+            scratch[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        scratch[pos++] = (byte) value;
+        return pos;
+    }
+}
@@ -0,0 +1,264 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Stores the recorded route as packed primitive columns.
+ *
+ * Points live in fixed size chunks which are kept in a ring, so once the ring is full the
+ * oldest chunk is dropped and its arrays are reused for new fixes. Appending only allocates
+ * when a chunk is used for the first time; after that recording a fix never touches the heap.
+ *
+ * Points are addressed by an absolute index which keeps counting up for the life of the ride,
+ * so an index handed out earlier stays valid until the ring wraps past it.
+ *
+ * There is a single writer. Readers may look at any index in
+ * [{@link #getFirstIndex()}, {@link #getEndIndex()}) from another thread.
+ */
+public class TrackBuffer {
+
+    public static final int DEFAULT_CHUNK_SHIFT = 12;
+    public static final int DEFAULT_MAX_CHUNKS = 32;
+
+    // lat + lon + alt (double), time (long), accuracy (float)
+    public static final int BYTES_PER_POINT = 8 + 8 + 8 + 8 + 4;
+
+    private final int chunkShift;
+    private final int chunkSize;
+    private final int chunkMask;
+    private final int maxChunks;
+
+    private final double[][] latitudes;
+    private final double[][] longitudes;
+    private final double[][] altitudes;
+    private final long[][] times;
+    private final float[][] accuracies;
+
+    private volatile long firstIndex;
+    private volatile long endIndex;
+
+    public TrackBuffer() {
+        this(DEFAULT_CHUNK_SHIFT, DEFAULT_MAX_CHUNKS);
+    }
+
+    /**
+     * @param chunkShift log2 of the number of points per chunk
+     * @param maxChunks number of chunks kept before the oldest one is recycled
+     */
+    public TrackBuffer(int chunkShift, int maxChunks) {
+        if ((chunkShift < 1) || (chunkShift > 24) || (maxChunks < 2)) {
+            throw new IllegalArgumentException("Bad track buffer geometry: " + chunkShift + "/" + maxChunks);
+        }
+        this.chunkShift = chunkShift;
+        this.chunkSize = 1 << chunkShift;
+        this.chunkMask = chunkSize - 1;
+        this.maxChunks = maxChunks;
+
+        latitudes = new double[maxChunks][];
+        longitudes = new double[maxChunks][];
+        altitudes = new double[maxChunks][];
+        times = new long[maxChunks][];
+        accuracies = new float[maxChunks][];
+    }
+
+    /**
+     * Records a fix and returns its absolute index.
+     */
+    public long append(double latitude, double longitude, double altitude, long time, float accuracy) {
+        long index = endIndex;
+        if (index - firstIndex == capacity()) {
+            // Ring is full, drop the oldest chunk. Its arrays get reused below.
+            firstIndex += chunkSize;
+        }
+
+        int chunk = chunkFor(index);
+        if (latitudes[chunk] == null) {
+            latitudes[chunk] = new double[chunkSize];
+            longitudes[chunk] = new double[chunkSize];
+            altitudes[chunk] = new double[chunkSize];
+            times[chunk] = new long[chunkSize];
+            accuracies[chunk] = new float[chunkSize];
+        }
+
+        int offset = (int) (index & chunkMask);
+        latitudes[chunk][offset] = latitude;
+        longitudes[chunk][offset] = longitude;
+        altitudes[chunk][offset] = altitude;
+        times[chunk][offset] = time;
+        accuracies[chunk][offset] = accuracy;
+
+        // Publish only once the point is fully written.
+        endIndex = index + 1;
+        return index;
+    }
+
+    /**
+     * Forgets every point. Chunk arrays are kept for the next ride.
+     */
+    public void clear() {
+        firstIndex = endIndex;
+    }
+
+    public long getFirstIndex() {
+        return firstIndex;
+    }
+
+    public long getEndIndex() {
+        return endIndex;
+    }
+
+    public int size() {
+        return (int) (endIndex - firstIndex);
+    }
+
+    public boolean isEmpty() {
+        return endIndex == firstIndex;
+    }
+
+    public int capacity() {
+        return chunkSize * maxChunks;
+    }
+
+    /**
+     * Bytes currently held by allocated chunks, whether or not they are filled.
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < maxChunks; i++) {
+            if (latitudes[i] != null) {
+                bytes += (long) chunkSize * BYTES_PER_POINT;
+            }
+        }
+        return bytes;
+    }
+
+    public double getLatitude(long index) {
+        return latitudes[chunkFor(index)][(int) (index & chunkMask)];
+    }
+
+    public double getLongitude(long index) {
+        return longitudes[chunkFor(index)][(int) (index & chunkMask)];
+    }
+
+    public double getAltitude(long index) {
+        return altitudes[chunkFor(index)][(int) (index & chunkMask)];
+    }
+
+    public long getTime(long index) {
+        return times[chunkFor(index)][(int) (index & chunkMask)];
+    }
+
+    public float getAccuracy(long index) {
+        return accuracies[chunkFor(index)][(int) (index & chunkMask)];
+    }
+
+    /**
+     * Copies latitudes and longitudes for [from, from + count) into the given arrays,
+     * one chunk at a time.
+     */
+    public void copyPositions(long from, int count, double[] latDest, double[] lonDest, int destOffset) {
+        checkRange(from, from + count);
+        long index = from;
+        int remaining = count;
+        int dest = destOffset;
+        while (remaining > 0) {
+            int chunk = chunkFor(index);
+            int offset = (int) (index & chunkMask);
+            int run = Math.min(remaining, chunkSize - offset);
+            System.arraycopy(latitudes[chunk], offset, latDest, dest, run);
+            System.arraycopy(longitudes[chunk], offset, lonDest, dest, run);
+            index += run;
+            dest += run;
+            remaining -= run;
+        }
+    }
+
+    /**
+     * Points the given view at [from, to) and returns it, so callers can keep reusing one view.
+     */
+    public View view(long from, long to, View reuse) {
+        checkRange(from, to);
+        View view = (reuse != null) ? reuse : new View();
+        view.buffer = this;
+        view.from = from;
+        view.to = to;
+        return view;
+    }
+
+    /**
+     * Returns a view over every point recorded so far.
+     */
+    public View view(View reuse) {
+        long end = endIndex;
+        return view(firstIndex, end, reuse);
+    }
+
+    private int chunkFor(long index) {
+        return (int) ((index >>> chunkShift) % maxChunks);
+    }
+
+    private void checkRange(long from, long to) {
+        if ((from < firstIndex) || (to > endIndex) || (from > to)) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") outside ["
+                    + firstIndex + ", " + endIndex + ")");
+        }
+    }
+
+    /**
+     * A window onto a range of the buffer. Indexes passed to the getters are relative to the
+     * start of the window. No data is copied, so a view is only good until the ring wraps past it.
+     */
+    public static class View {
+        private TrackBuffer buffer;
+        private long from;
+        private long to;
+
+        public int size() {
+            return (int) (to - from);
+        }
+
+        public long getStartIndex() {
+            return from;
+        }
+
+        public long getEndIndex() {
+            return to;
+        }
+
+        public double getLatitude(int i) {
+            return buffer.getLatitude(from + i);
+        }
+
+        public double getLongitude(int i) {
+            return buffer.getLongitude(from + i);
+        }
+
+        public double getAltitude(int i) {
+            return buffer.getAltitude(from + i);
+        }
+
+        public long getTime(int i) {
+            return buffer.getTime(from + i);
+        }
+
+        public float getAccuracy(int i) {
+            return buffer.getAccuracy(from + i);
+        }
+    }
+}
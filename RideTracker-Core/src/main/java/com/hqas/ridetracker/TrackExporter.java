@@ -0,0 +1,367 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams a recorded ride out as GPX, TCX or GeoJSON, optionally matched to the roads.
+ *
+ * Points are read straight from a {@link TrackBuffer.View}, or from a {@link MapMatcher} as it
+ * commits them, and numbers and timestamps are formatted into a reused char array, so memory use
+ * doesn't depend on the length of the ride. TCX and GeoJSON take two passes over the points; a
+ * matched export runs the matcher again for the second rather than keeping what it put out.
+ * The caller is expected to hand in a buffered writer.
+ */
+public class TrackExporter {
+
+    private static final String CREATOR = "RideTracker";
+    private static final int COORDINATE_DECIMALS = 7;
+    private static final int ALTITUDE_DECIMALS = 1;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+
+    // What each point is written as in the current pass.
+    private static final int GPX_POINTS = 0;
+    private static final int TCX_TOTALS = 1;
+    private static final int TCX_POINTS = 2;
+    private static final int GEOJSON_TIMES = 3;
+    private static final int GEOJSON_COORDINATES = 4;
+
+    public enum Format {
+        GPX("GPX", "gpx", "application/gpx+xml"),
+        TCX("TCX", "tcx", "application/vnd.garmin.tcx+xml"),
+        GEOJSON("GeoJSON", "geojson", "application/geo+json");
+
+        private final String label;
+        private final String extension;
+        private final String mimeType;
+
+        Format(String label, String extension, String mimeType) {
+            this.label = label;
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+    }
+
+    private final char[] scratch = new char[32];
+    private Writer out;
+    private TrackBuffer.View track;
+    private MapMatcher matcher;
+    // The matcher's listener can't throw, so a write that fails is held until its pass ends.
+    private IOException failure;
+
+    // Per pass.
+    private int pass;
+    private int count;
+    private double previousLatitude;
+    private double previousLongitude;
+    private double distance;
+    private long startTime;
+    private long endTime;
+
+    public void export(TrackBuffer.View track, Format format, Writer writer) throws IOException {
+        export(track, null, format, writer);
+    }
+
+    /**
+     * @param roads the graph to match the track to first, or null to export it as recorded.
+     *              Fixes a {@link DistanceFilter} takes for outliers are left out of a matched
+     *              export, see {@link MapMatcher#match}.
+     */
+    public void export(TrackBuffer.View track, RoadGraph roads, Format format, Writer writer)
+            throws IOException {
+        out = writer;
+        this.track = track;
+        matcher = (roads != null) ? new MapMatcher(roads, MapMatcher.BATCH_WINDOW, matchListener)
+                : null;
+        try {
+            switch (format) {
+                case GPX:
+                    writeGpx();
+                    break;
+                case TCX:
+                    writeTcx();
+                    break;
+                case GEOJSON:
+                    writeGeoJson();
+                    break;
+            }
+            out.flush();
+        } finally {
+            out = null;
+            this.track = null;
+            matcher = null;
+            failure = null;
+        }
+    }
+
+    private void writeGpx() throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<gpx version=\"1.1\" creator=\"" + CREATOR
+                + "\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+        out.write("<trk><name>Ride</name><trkseg>\n");
+        writePoints(GPX_POINTS);
+        out.write("</trkseg></trk>\n</gpx>\n");
+    }
+
+    private void writeTcx() throws IOException {
+        // TCX wants the lap totals before the points, so take one cheap pass for them.
+        writePoints(TCX_TOTALS);
+        long firstTime = startTime;
+        long lastTime = endTime;
+        double totalDistance = distance;
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<TrainingCenterDatabase"
+                + " xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\">\n");
+        out.write("<Activities><Activity Sport=\"Other\"><Id>");
+        writeTime(firstTime);
+        out.write("</Id>\n<Lap StartTime=\"");
+        writeTime(firstTime);
+        out.write("\"><TotalTimeSeconds>");
+        writeFixed((lastTime - firstTime) / 1000.0, 1);
+        out.write("</TotalTimeSeconds><DistanceMeters>");
+        writeFixed(totalDistance, 1);
+        out.write("</DistanceMeters><Calories>0</Calories><Intensity>Active</Intensity>"
+                + "<TriggerMethod>Manual</TriggerMethod>\n<Track>\n");
+        writePoints(TCX_POINTS);
+        out.write("</Track>\n</Lap>\n<Creator xsi:type=\"Device_t\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><Name>" + CREATOR
+                + "</Name><UnitId>0</UnitId><ProductID>0</ProductID></Creator>\n");
+        out.write("</Activity></Activities>\n</TrainingCenterDatabase>\n");
+    }
+
+    private void writeGeoJson() throws IOException {
+        out.write("{\"type\":\"Feature\",\"properties\":{\"name\":\"Ride\",\"creator\":\"" + CREATOR
+                + "\",\"coordTimes\":[");
+        writePoints(GEOJSON_TIMES);
+        out.write("]},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        writePoints(GEOJSON_COORDINATES);
+        out.write("]}}\n");
+    }
+
+    /**
+     * Takes one pass over the points, as recorded or through the matcher.
+     */
+    private void writePoints(int pass) throws IOException {
+        this.pass = pass;
+        count = 0;
+        distance = 0.0;
+        startTime = 0L;
+        endTime = 0L;
+        if (matcher != null) {
+            matcher.match(track);
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+        for (int i = 0, n = track.size(); i < n; i++) {
+            writePoint(track.getLatitude(i), track.getLongitude(i), track.getAltitude(i),
+                    track.getTime(i));
+        }
+    }
+
+    private void writePoint(double latitude, double longitude, double altitude, long time)
+            throws IOException {
+        if ((pass == TCX_TOTALS) || (pass == TCX_POINTS)) {
+            if (count > 0) {
+                distance += GeoMath.haversine(previousLatitude, previousLongitude, latitude,
+                        longitude);
+            } else {
+                startTime = time;
+            }
+            endTime = time;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+        }
+        switch (pass) {
+            case GPX_POINTS:
+                out.write("<trkpt lat=\"");
+                writeFixed(latitude, COORDINATE_DECIMALS);
+                out.write("\" lon=\"");
+                writeFixed(longitude, COORDINATE_DECIMALS);
+                out.write("\">");
+                // A missing altitude leaves the element out rather than claiming sea level.
+                if (!Double.isNaN(altitude)) {
+                    out.write("<ele>");
+                    writeFixed(altitude, ALTITUDE_DECIMALS);
+                    out.write("</ele>");
+                }
+                out.write("<time>");
+                writeTime(time);
+                out.write("</time></trkpt>\n");
+                break;
+            case TCX_POINTS:
+                out.write("<Trackpoint><Time>");
+                writeTime(time);
+                out.write("</Time><Position><LatitudeDegrees>");
+                writeFixed(latitude, COORDINATE_DECIMALS);
+                out.write("</LatitudeDegrees><LongitudeDegrees>");
+                writeFixed(longitude, COORDINATE_DECIMALS);
+                out.write("</LongitudeDegrees></Position>");
+                if (!Double.isNaN(altitude)) {
+                    out.write("<AltitudeMeters>");
+                    writeFixed(altitude, ALTITUDE_DECIMALS);
+                    out.write("</AltitudeMeters>");
+                }
+                out.write("<DistanceMeters>");
+                writeFixed(distance, 1);
+                out.write("</DistanceMeters></Trackpoint>\n");
+                break;
+            case GEOJSON_TIMES:
+                if (count > 0) {
+                    out.write(',');
+                }
+                out.write('"');
+                writeTime(time);
+                out.write('"');
+                break;
+            case GEOJSON_COORDINATES:
+                out.write((count > 0) ? ",\n[" : "\n[");
+                writeFixed(longitude, COORDINATE_DECIMALS);
+                out.write(',');
+                writeFixed(latitude, COORDINATE_DECIMALS);
+                if (!Double.isNaN(altitude)) {
+                    out.write(',');
+                    writeFixed(altitude, ALTITUDE_DECIMALS);
+                }
+                out.write(']');
+                break;
+        }
+        count++;
+    }
+
+    private final MapMatcher.Listener matchListener = new MapMatcher.Listener() {
+        @Override
+        public void onMatched(long tag, long time, double latitude, double longitude,
+                              double routeMeters) {
+            onPoint(tag, time, latitude, longitude);
+        }
+
+        @Override
+        public void onUnmatched(long tag, long time, double latitude, double longitude) {
+            onPoint(tag, time, latitude, longitude);
+        }
+
+        private void onPoint(long tag, long time, double latitude, double longitude) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                writePoint(latitude, longitude, track.getAltitude((int) tag), time);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    };
+
+    /**
+     * Writes value rounded to a fixed number of decimals, without going through a String.
+     */
+    private void writeFixed(double value, int decimals) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            value = 0.0;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        boolean negative = value < 0.0;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (scaled == 0) {
+            negative = false;
+        }
+
+        int pos = scratch.length;
+        for (int i = 0; i < decimals; i++) {
+            scratch[--pos] = (char) ('0' + (scaled % 10));
+            scaled /= 10;
+        }
+        if (decimals > 0) {
+            scratch[--pos] = '.';
+        }
+        do {
+            scratch[--pos] = (char) ('0' + (scaled % 10));
+            scaled /= 10;
+        } while (scaled > 0);
+        if (negative) {
+            scratch[--pos] = '-';
+        }
+        out.write(scratch, pos, scratch.length - pos);
+    }
+
+    /**
+     * Writes an epoch millisecond time as an ISO 8601 UTC timestamp, e.g. 2013-11-14T18:03:07Z.
+     */
+    private void writeTime(long millis) throws IOException {
+        long seconds = floorDiv(millis, 1000L);
+        long days = floorDiv(seconds, 86400L);
+        int secondOfDay = (int) (seconds - days * 86400L);
+
+        // Civil date from days since the epoch (Howard Hinnant's days_from_civil, inverted).
+        long z = days + 719468L;
+        long era = floorDiv(z, 146097L);
+        long dayOfEra = z - era * 146097L;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        writeDigits(year, 0, 4);
+        scratch[4] = '-';
+        writeDigits(month, 5, 2);
+        scratch[7] = '-';
+        writeDigits(day, 8, 2);
+        scratch[10] = 'T';
+        writeDigits(secondOfDay / 3600, 11, 2);
+        scratch[13] = ':';
+        writeDigits((secondOfDay / 60) % 60, 14, 2);
+        scratch[16] = ':';
+        writeDigits(secondOfDay % 60, 17, 2);
+        scratch[19] = 'Z';
+        out.write(scratch, 0, 20);
+    }
+
+    private void writeDigits(int value, int offset, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            scratch[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        return ((a % b != 0) && ((a ^ b) < 0)) ? q - 1 : q;
+    }
+}
@@ -0,0 +1,271 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of fixes so a ride survives the process being killed.
+ *
+ * Records are fixed size and written straight into a memory-mapped region of the file. Mapped
+ * pages belong to the kernel, so a record is safe from a process death as soon as it is written;
+ * {@link FileChannel#force(boolean)} is only called every so often to guard against power loss.
+ *
+ * Each record carries a CRC32 seeded with a per-ride salt from the header. Replay stops at the
+ * first record that fails the check, which covers both a torn last write and the stale records
+ * that are left behind the write position after a reset.
+ */
+public class TrackJournal {
+
+    private static final int MAGIC = 0x52544a31; // "RTJ1"
+    private static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+    private static final int PAYLOAD_SIZE = 8 + 8 + 8 + 8 + 4;
+    public static final int RECORD_SIZE = PAYLOAD_SIZE + 4;
+
+    private static final int REGION_RECORDS = 1024;
+    private static final int FORCE_EVERY_RECORDS = 60;
+    private static final long FORCE_INTERVAL_MS = 30000L;
+
+    /**
+     * Receives each intact record found while opening the journal.
+     */
+    public interface Replay {
+        void onRecord(double latitude, double longitude, double altitude, long time, float accuracy);
+    }
+
+    private final File file;
+    private final CRC32 crc = new CRC32();
+    private final byte[] payload = new byte[PAYLOAD_SIZE];
+    private final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+    private final byte[] saltBytes = new byte[4];
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    private int salt;
+    private long recordCount;
+    private int unforcedRecords;
+    private long lastForceTime;
+    private int forceCount;
+
+    public TrackJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal, replaying every intact record, and leaves it ready for appending
+     * right after the last one.
+     *
+     * @return the number of records replayed
+     */
+    public long open(Replay replay) throws IOException {
+        File dir = file.getParentFile();
+        if ((dir != null) && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+
+        recordCount = 0;
+        if (!readHeader()) {
+            writeHeader(newSalt());
+        } else {
+            recordCount = replay(replay);
+        }
+
+        mapRegion(HEADER_SIZE + recordCount * RECORD_SIZE);
+        return recordCount;
+    }
+
+    public void append(double latitude, double longitude, double altitude, long time, float accuracy)
+            throws IOException {
+        write(latitude, longitude, altitude, time, accuracy);
+        forceIfDue(time);
+    }
+
+    /**
+     * Appends the batch's passed fixes, forcing at most once for the lot.
+     */
+    public void appendAll(FixBatch batch) throws IOException {
+        int last = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            if (!batch.isPassed(i)) {
+                continue;
+            }
+            // A missing altitude stays NaN, so a replay can't take it for sea level.
+            write(batch.getLatitude(i), batch.getLongitude(i), batch.getAltitude(i),
+                    batch.getTime(i), batch.getAccuracy(i));
+            last = i;
+        }
+        if (last >= 0) {
+            forceIfDue(batch.getTime(last));
+        }
+    }
+
+    private void write(double latitude, double longitude, double altitude, long time,
+                       float accuracy) throws IOException {
+        if (!region.hasRemaining()) {
+            force();
+            mapRegion(regionStart + region.capacity());
+        }
+
+        payloadBuffer.putDouble(0, latitude);
+        payloadBuffer.putDouble(8, longitude);
+        payloadBuffer.putDouble(16, altitude);
+        payloadBuffer.putLong(24, time);
+        payloadBuffer.putFloat(32, accuracy);
+
+        region.put(payload);
+        region.putInt(checksum());
+        recordCount++;
+        unforcedRecords++;
+    }
+
+    private void forceIfDue(long time) {
+        if ((unforcedRecords >= FORCE_EVERY_RECORDS) || (time - lastForceTime >= FORCE_INTERVAL_MS)) {
+            force();
+            lastForceTime = time;
+        }
+    }
+
+    /**
+     * Starts a new ride. Old records stay on disk but fail the checksum under the new salt.
+     */
+    public void reset() throws IOException {
+        writeHeader(newSalt());
+        channel.force(false);
+        forceCount++;
+        recordCount = 0;
+        unforcedRecords = 0;
+        mapRegion(HEADER_SIZE);
+    }
+
+    public void force() {
+        if ((region != null) && (unforcedRecords > 0)) {
+            region.force();
+            forceCount++;
+            unforcedRecords = 0;
+        }
+    }
+
+    public void close() throws IOException {
+        force();
+        region = null;
+        if (raf != null) {
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public int getForceCount() {
+        return forceCount;
+    }
+
+    private boolean readHeader() throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        if ((header.getInt(0) != MAGIC) || (header.getShort(4) != VERSION)
+                || (header.getShort(6) != RECORD_SIZE)) {
+            return false;
+        }
+        setSalt(header.getInt(8));
+        return true;
+    }
+
+    private void writeHeader(int newSalt) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short) RECORD_SIZE);
+        header.putInt(newSalt);
+        header.putInt(0);
+        header.flip();
+        channel.write(header, 0);
+        setSalt(newSalt);
+    }
+
+    private long replay(Replay replay) throws IOException {
+        long available = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        if (available <= 0) {
+            return 0;
+        }
+
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                available * RECORD_SIZE);
+        long replayed = 0;
+        while (replayed < available) {
+            in.get(payload);
+            int stored = in.getInt();
+            if (stored != checksum()) {
+                break;
+            }
+            if (replay != null) {
+                replay.onRecord(payloadBuffer.getDouble(0), payloadBuffer.getDouble(8),
+                        payloadBuffer.getDouble(16), payloadBuffer.getLong(24),
+                        payloadBuffer.getFloat(32));
+            }
+            replayed++;
+        }
+        return replayed;
+    }
+
+    private void mapRegion(long start) throws IOException {
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) REGION_RECORDS * RECORD_SIZE);
+    }
+
+    private int checksum() {
+        crc.reset();
+        crc.update(saltBytes, 0, saltBytes.length);
+        crc.update(payload, 0, PAYLOAD_SIZE);
+        return (int) crc.getValue();
+    }
+
+    private void setSalt(int newSalt) {
+        salt = newSalt;
+        saltBytes[0] = (byte) (salt >>> 24);
+        saltBytes[1] = (byte) (salt >>> 16);
+        saltBytes[2] = (byte) (salt >>> 8);
+        saltBytes[3] = (byte) salt;
+    }
+
+    private int newSalt() {
+        int next = (int) (System.nanoTime() ^ (System.currentTimeMillis() << 16));
+        return (next == salt) ? next + 1 : next;
+    }
+}
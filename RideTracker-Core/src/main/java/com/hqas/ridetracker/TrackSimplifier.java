@@ -0,0 +1,264 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+/**
+ * Keeps simplified copies of the track at several levels of detail so the map can draw a
+ * polyline of bounded size however long the ride gets.
+ *
+ * Each tier runs a streaming "opening window" simplification: points are held back while every
+ * one of them stays within the tier's tolerance of the line from the last kept vertex to the
+ * newest point. Once that fails the previous point becomes a vertex. Tolerances double from one
+ * tier to the next and each tier is fed the vertices settled by the tier below it, so a point
+ * dropped at tier k is within the sum of tolerances up to k (under twice tier k's tolerance) of
+ * that tier's polyline. The window is capped, so each fix costs amortised constant time instead
+ * of re-running Douglas-Peucker over the whole ride.
+ *
+ * All methods are synchronized so the map can read while fixes are being added.
+ */
+public class TrackSimplifier {
+
+    public static final int TIER_COUNT = 12;
+    public static final double BASE_TOLERANCE_METERS = 1.0;
+    private static final int WINDOW_SIZE = 32;
+    private static final int INITIAL_VERTEX_CAPACITY = 256;
+
+    private final Tier[] tiers = new Tier[TIER_COUNT];
+
+    private boolean hasOrigin;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+    private long pointCount;
+
+    public TrackSimplifier() {
+        Tier next = null;
+        for (int i = TIER_COUNT - 1; i >= 0; i--) {
+            tiers[i] = new Tier(getTolerance(i), next);
+            next = tiers[i];
+        }
+    }
+
+    public synchronized void add(double latitude, double longitude) {
+        if (!hasOrigin) {
+            hasOrigin = true;
+            originLat = latitude;
+            originLon = longitude;
+            metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        }
+        double x = (longitude - originLon) * metersPerDegreeLon;
+        double y = (latitude - originLat) * GeoMath.METERS_PER_DEGREE;
+
+        tiers[0].add(x, y, latitude, longitude);
+        pointCount++;
+    }
+
+    public synchronized void clear() {
+        hasOrigin = false;
+        pointCount = 0;
+        for (int i = 0; i < TIER_COUNT; i++) {
+            tiers[i].clear();
+        }
+    }
+
+    public synchronized long getPointCount() {
+        return pointCount;
+    }
+
+    public static double getTolerance(int tier) {
+        return BASE_TOLERANCE_METERS * (1 << tier);
+    }
+
+    /**
+     * Number of points in the tier's polyline, counting the newest fix at the end.
+     */
+    public synchronized int getVertexCount(int tier) {
+        return polylineSize(tier);
+    }
+
+    /**
+     * Picks the most detailed tier whose error stays under half a pixel and whose polyline fits
+     * the vertex budget. Falls back to the coarsest tier when nothing fits.
+     */
+    public synchronized int selectTier(double metersPerPixel, int vertexBudget) {
+        double maxUsefulDetail = metersPerPixel * 0.5;
+        for (int i = 0; i < TIER_COUNT; i++) {
+            if ((getTolerance(i) >= maxUsefulDetail) || (i == TIER_COUNT - 1)) {
+                for (int j = i; j < TIER_COUNT; j++) {
+                    if (polylineSize(j) <= vertexBudget) {
+                        return j;
+                    }
+                }
+                break;
+            }
+        }
+        return TIER_COUNT - 1;
+    }
+
+    /**
+     * Copies a tier's polyline into the given arrays. If it has more than max points, every
+     * n-th settled vertex is taken so the result still fits; the unsettled tail is always kept.
+     *
+     * @return the number of points written
+     */
+    public synchronized int copyTier(int tier, double[] latOut, double[] lonOut, int max) {
+        Tier t = tiers[tier];
+        int size = polylineSize(tier);
+        if ((size == 0) || (max <= 0)) {
+            return 0;
+        }
+
+        // Points the tiers below haven't handed up yet, newest last.
+        int tail = 0;
+        for (int j = tier; j >= 0; j--) {
+            tail += tiers[j].pendingCount;
+        }
+        tail = Math.min(tail, max - 1);
+        int room = max - tail;
+
+        int stride = (t.vertexCount <= room) ? 1 : (t.vertexCount + room - 1) / room;
+        int written = 0;
+        for (int i = 0; (i < t.vertexCount) && (written < room); i += stride) {
+            latOut[written] = t.vertexLat[i];
+            lonOut[written] = t.vertexLon[i];
+            written++;
+        }
+
+        int skip = size - t.vertexCount - tail;
+        for (int j = tier; j >= 0; j--) {
+            Tier below = tiers[j];
+            for (int i = 0; i < below.pendingCount; i++) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                latOut[written] = below.pendingLat[i];
+                lonOut[written] = below.pendingLon[i];
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private int polylineSize(int tier) {
+        int size = tiers[tier].vertexCount;
+        for (int j = tier; j >= 0; j--) {
+            size += tiers[j].pendingCount;
+        }
+        return size;
+    }
+
+    private static class Tier {
+        private final double toleranceSquared;
+        private final Tier next;
+
+        private double[] vertexLat = new double[INITIAL_VERTEX_CAPACITY];
+        private double[] vertexLon = new double[INITIAL_VERTEX_CAPACITY];
+        private int vertexCount;
+
+        private double anchorX;
+        private double anchorY;
+
+        // Points since the anchor that may still be dropped, oldest first.
+        private final double[] pendingX = new double[WINDOW_SIZE];
+        private final double[] pendingY = new double[WINDOW_SIZE];
+        private final double[] pendingLat = new double[WINDOW_SIZE];
+        private final double[] pendingLon = new double[WINDOW_SIZE];
+        private int pendingCount;
+
+        Tier(double tolerance, Tier next) {
+            this.toleranceSquared = tolerance * tolerance;
+            this.next = next;
+        }
+
+        void clear() {
+            vertexCount = 0;
+            pendingCount = 0;
+        }
+
+        void add(double x, double y, double lat, double lon) {
+            if (vertexCount == 0) {
+                settle(x, y, lat, lon);
+                return;
+            }
+
+            if ((pendingCount == WINDOW_SIZE) || !allWithinTolerance(x, y)) {
+                // The newest pending point is the furthest we can go; settle it as a vertex.
+                int last = pendingCount - 1;
+                settle(pendingX[last], pendingY[last], pendingLat[last], pendingLon[last]);
+                pendingCount = 0;
+            }
+
+            pendingX[pendingCount] = x;
+            pendingY[pendingCount] = y;
+            pendingLat[pendingCount] = lat;
+            pendingLon[pendingCount] = lon;
+            pendingCount++;
+        }
+
+        private boolean allWithinTolerance(double x, double y) {
+            double dx = x - anchorX;
+            double dy = y - anchorY;
+            double lengthSquared = dx * dx + dy * dy;
+            for (int i = 0; i < pendingCount; i++) {
+                double px = pendingX[i] - anchorX;
+                double py = pendingY[i] - anchorY;
+                double distanceSquared;
+                double t = (lengthSquared > 0.0) ? (px * dx + py * dy) / lengthSquared : 0.0;
+                if (t <= 0.0) {
+                    distanceSquared = px * px + py * py;
+                } else if (t >= 1.0) {
+                    double ex = px - dx;
+                    double ey = py - dy;
+                    distanceSquared = ex * ex + ey * ey;
+                } else {
+                    double cross = px * dy - py * dx;
+                    distanceSquared = cross * cross / lengthSquared;
+                }
+                if (distanceSquared > toleranceSquared) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void settle(double x, double y, double lat, double lon) {
+            addVertex(lat, lon);
+            anchorX = x;
+            anchorY = y;
+            if (next != null) {
+                next.add(x, y, lat, lon);
+            }
+        }
+
+        private void addVertex(double lat, double lon) {
+            if (vertexCount == vertexLat.length) {
+                double[] newLat = new double[vertexCount * 2];
+                double[] newLon = new double[vertexCount * 2];
+                System.arraycopy(vertexLat, 0, newLat, 0, vertexCount);
+                System.arraycopy(vertexLon, 0, newLon, 0, vertexCount);
+                vertexLat = newLat;
+                vertexLon = newLon;
+            }
+            vertexLat[vertexCount] = lat;
+            vertexLon[vertexCount] = lon;
+            vertexCount++;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import com.getpebble.android.kit.util.PebbleDictionary;
+
+import java.util.Random;
+
+/**
+ * Stands in for the watch and PebbleKit when the ride logic runs without a phone: takes the
+ * messages a {@link PebbleSendQueue} sends, acks or loses them after a delay, and decodes
+ * telemetry the way the watch app does.
+ */
+public class FakePebble implements PebbleSendQueue.Transport {
+
+    private final Scheduler scheduler;
+    private final int telemetryKey;
+    private final long ackDelayMs;
+    private final double lossRate;
+    private final Random random;
+    private PebbleSendQueue queue;
+
+    private final int[] watchTelemetry = new int[TelemetryCodec.FIELD_COUNT];
+    private long messageCount;
+    private long telemetryCount;
+    private long telemetryBytes;
+    private long lostCount;
+    private long badFrameCount;
+
+    /**
+     * @param lossRate fraction of messages that get neither an ack nor a nack
+     */
+    public FakePebble(Scheduler scheduler, int telemetryKey, long ackDelayMs, double lossRate,
+                      long seed) {
+        this.scheduler = scheduler;
+        this.telemetryKey = telemetryKey;
+        this.ackDelayMs = ackDelayMs;
+        this.lossRate = lossRate;
+        this.random = new Random(seed);
+    }
+
+    public void attach(PebbleSendQueue queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public void send(PebbleDictionary data, final int transactionId) {
+        messageCount++;
+        boolean lost = random.nextDouble() < lossRate;
+        if (lost) {
+            lostCount++;
+        }
+
+        byte[] frame = data.getBytes(telemetryKey);
+        if (frame != null) {
+            telemetryCount++;
+            telemetryBytes += frame.length;
+            // A lost message never reaches the watch; an acked one has been applied.
+            if (!lost && !TelemetryCodec.decode(frame, watchTelemetry)) {
+                badFrameCount++;
+            }
+        }
+
+        if (!lost && (queue != null)) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    queue.onAck(transactionId);
+                }
+            }, ackDelayMs);
+        }
+    }
+
+    /**
+     * What the watch is showing, in {@link TelemetryCodec} field order.
+     */
+    public int getWatchValue(int field) {
+        return watchTelemetry[field];
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public long getTelemetryCount() {
+        return telemetryCount;
+    }
+
+    public long getTelemetryBytes() {
+        return telemetryBytes;
+    }
+
+    public long getLostCount() {
+        return lostCount;
+    }
+
+    public long getBadFrameCount() {
+        return badFrameCount;
+    }
+}
@@ -0,0 +1,163 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reads the track points of a GPX file into a {@link TrackBuffer}, e.g. to replay a ride.
+ *
+ * Only position, elevation and time are read. Points without a time are skipped, and one
+ * without an elevation gets NaN for it.
+ */
+public class GpxReader {
+
+    /**
+     * @return the number of points added
+     */
+    public static int read(InputStream in, TrackBuffer out) throws IOException {
+        PointHandler handler = new PointHandler(out);
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, handler);
+        } catch (ParserConfigurationException e) {
+            throw new IOException("No XML parser: " + e.getMessage());
+        } catch (SAXException e) {
+            throw new IOException("Bad GPX: " + e.getMessage());
+        }
+        return handler.count;
+    }
+
+    private static class PointHandler extends DefaultHandler {
+        private final TrackBuffer out;
+        private final StringBuilder text = new StringBuilder();
+        private boolean inPoint;
+        private double latitude;
+        private double longitude;
+        private double altitude;
+        private long time;
+        int count;
+
+        PointHandler(TrackBuffer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            String name = name(localName, qName);
+            if ("trkpt".equals(name)) {
+                inPoint = true;
+                latitude = Double.parseDouble(attributes.getValue("lat"));
+                longitude = Double.parseDouble(attributes.getValue("lon"));
+                altitude = Double.NaN;
+                time = -1L;
+            }
+            text.setLength(0);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inPoint) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (!inPoint) {
+                return;
+            }
+            String name = name(localName, qName);
+            if ("ele".equals(name)) {
+                altitude = Double.parseDouble(text.toString().trim());
+            } else if ("time".equals(name)) {
+                time = parseTime(text.toString().trim());
+            } else if ("trkpt".equals(name)) {
+                inPoint = false;
+                if (time >= 0) {
+                    out.append(latitude, longitude, altitude, time, 0.0f);
+                    count++;
+                }
+            }
+        }
+
+        private static String name(String localName, String qName) {
+            if ((localName != null) && (localName.length() > 0)) {
+                return localName;
+            }
+            int colon = qName.indexOf(':');
+            return (colon < 0) ? qName : qName.substring(colon + 1);
+        }
+    }
+
+    /**
+     * Parses an ISO 8601 timestamp as written in GPX, e.g. 2013-11-12T10:15:30.250Z or with a
+     * +hh:mm offset.
+     *
+     * @return milliseconds since the epoch
+     */
+    static long parseTime(String s) throws SAXException {
+        try {
+            int year = Integer.parseInt(s.substring(0, 4));
+            int month = Integer.parseInt(s.substring(5, 7));
+            int day = Integer.parseInt(s.substring(8, 10));
+            int hour = Integer.parseInt(s.substring(11, 13));
+            int minute = Integer.parseInt(s.substring(14, 16));
+            int second = Integer.parseInt(s.substring(17, 19));
+            int pos = 19;
+            int millis = 0;
+            if ((pos < s.length()) && (s.charAt(pos) == '.')) {
+                int scale = 100;
+                pos++;
+                while ((pos < s.length()) && Character.isDigit(s.charAt(pos))) {
+                    millis += (s.charAt(pos) - '0') * scale;
+                    scale /= 10;
+                    pos++;
+                }
+            }
+            int offsetMinutes = 0;
+            if ((pos < s.length()) && ((s.charAt(pos) == '+') || (s.charAt(pos) == '-'))) {
+                int sign = (s.charAt(pos) == '-') ? -1 : 1;
+                offsetMinutes = sign * (Integer.parseInt(s.substring(pos + 1, pos + 3)) * 60
+                        + Integer.parseInt(s.substring(pos + 4, pos + 6)));
+            }
+
+            // Days from the civil date, the inverse of what TrackExporter writes.
+            int y = (month <= 2) ? year - 1 : year;
+            int era = ((y >= 0) ? y : y - 399) / 400;
+            int yearOfEra = y - era * 400;
+            int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            long days = era * 146097L + dayOfEra - 719468L;
+
+            long seconds = days * 86400L + hour * 3600L + minute * 60L + second
+                    - offsetMinutes * 60L;
+            return seconds * 1000L + millis;
+        } catch (RuntimeException e) {
+            throw new SAXException("Bad time " + s);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import java.util.ArrayList;
+
+/**
+ * A {@link Scheduler} whose clock only moves when told to, for running the ride logic away from a
+ * Looper. Tasks run on the thread that calls {@link #advanceTo}.
+ */
+public class ManualScheduler implements Scheduler {
+
+    private final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+    private final ArrayList<Long> dueTimes = new ArrayList<Long>();
+    private long now;
+
+    public ManualScheduler(long start) {
+        now = start;
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMs) {
+        tasks.add(task);
+        dueTimes.add(now + Math.max(0L, delayMs));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            if (tasks.get(i) == task) {
+                tasks.remove(i);
+                dueTimes.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Moves the clock forward, running every task that falls due on the way in time order.
+     */
+    public void advanceTo(long time) {
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < tasks.size(); i++) {
+                if ((dueTimes.get(i) <= time)
+                        && ((next < 0) || (dueTimes.get(i) < dueTimes.get(next)))) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            Runnable task = tasks.remove(next);
+            now = Math.max(now, dueTimes.remove(next));
+            task.run();
+        }
+        now = Math.max(now, time);
+    }
+
+    public int getPendingCount() {
+        return tasks.size();
+    }
+}
@@ -0,0 +1,690 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import com.getpebble.android.kit.util.PebbleDictionary;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/**
+ * Feeds a recorded or synthetic ride through the same processing the service does, without a
+ * phone: a {@link RideProcessor} for the fixes, a {@link PebbleSendQueue} on a
+ * {@link ManualScheduler} for the watch messages and a {@link FakePebble} on the other end.
+ *
+ * Fixes are replayed flat out or paced at a multiple of real time. Recorded fixes the
+ * {@link SamplingPolicy} wouldn't have asked the location provider for are skipped, and how far
+ * the skipped ones were from the route that's left is reported. Each fix is timed from being
+ * offered to the pipeline to its last stage finishing, and the distance it comes to is compared
+ * with a reference distance. It lives in the core module's replay sources, which aren't part of
+ * the app, and runs on a desktop JVM with "gradle replay"; see {@link #main}.
+ */
+public class ReplayEngine {
+
+    // Latency histogram buckets, 100ns wide up to 100us.
+    private static final int BUCKET_NANOS = 100;
+    private static final int BUCKETS = 1000;
+
+    // Street grid for the grid replay.
+    private static final double GRID_LATITUDE = 51.5;
+    private static final double GRID_LONGITUDE = -0.12;
+    private static final int GRID_SIZE = 200;
+    private static final double GRID_SPACING_METERS = 100.0;
+
+    private final TrackBuffer source;
+    private double speedFactor;
+    private long ackDelayMs = 150L;
+    private double lossRate;
+    private long seed = 1L;
+    private double referenceDistance = Double.NaN;
+    private RoadGraph roadGraph;
+    private IngestMode ingestMode = IngestMode.LIVE;
+    private boolean honourSampling = true;
+
+    private RideProcessor processor;
+    private PebbleSendQueue pebbleQueue;
+    private FakePebble pebble;
+    private long fixCount;
+    private long totalNanos;
+    private long maxNanos;
+    private final long[] histogram = new long[BUCKETS + 1];
+    private long allocatedBytes = -1L;
+    private long wallMs;
+    private long splitCount;
+    private long pauseCount;
+    private long wakeCount;
+    private long rideMs;
+    private SamplingPolicy.Mode samplingMode = SamplingPolicy.Mode.IDLE;
+    private long skippedCount;
+    private long deviationCount;
+    private double deviationSquares;
+    private double maxDeviation;
+
+    public ReplayEngine(TrackBuffer source) {
+        this.source = source;
+    }
+
+    /**
+     * @param speedFactor multiple of real time to replay at, or 0 for as fast as possible
+     */
+    public void setSpeedFactor(double speedFactor) {
+        this.speedFactor = speedFactor;
+    }
+
+    public void setPebble(long ackDelayMs, double lossRate, long seed) {
+        this.ackDelayMs = ackDelayMs;
+        this.lossRate = lossRate;
+        this.seed = seed;
+    }
+
+    /**
+     * Distance the ride really covered, to measure the processed distance against. Defaults to
+     * the sum of the raw point to point distances.
+     */
+    public void setReferenceDistance(double metres) {
+        referenceDistance = metres;
+    }
+
+    /**
+     * Matches the ride to these roads as it's replayed.
+     */
+    public void setRoadGraph(RoadGraph graph) {
+        roadGraph = graph;
+    }
+
+    /**
+     * Batches fixes the way the service does when nothing is on screen.
+     */
+    public void setIngestMode(IngestMode mode) {
+        ingestMode = mode;
+    }
+
+    /**
+     * Whether to skip the recorded fixes the sampling policy's mode wouldn't have been sent,
+     * which is the default, or feed every one.
+     */
+    public void setHonourSampling(boolean honourSampling) {
+        this.honourSampling = honourSampling;
+    }
+
+    public void run() throws InterruptedException {
+        final int n = source.size();
+        if (n == 0) {
+            return;
+        }
+        long first = source.getFirstIndex();
+        final ManualScheduler scheduler = new ManualScheduler(source.getTime(first));
+        pebble = new FakePebble(scheduler, PebbleKeys.TELEMETRY, ackDelayMs, lossRate,
+                seed);
+        processor = new RideProcessor(new RideProcessor.Listener() {
+            @Override
+            public void onSamplingModeChanged(SamplingPolicy.Mode mode) {
+                samplingMode = mode;
+            }
+
+            @Override
+            public void onTelemetryChanged() {
+                pebbleQueue.markTelemetryDirty();
+            }
+
+            @Override
+            public void onSnapshot(RideSnapshot snapshot) {
+            }
+
+            @Override
+            public void onStorageError(String message, IOException e) {
+            }
+
+            @Override
+            public void onSegmentSplit(int segment, int gate, int gateCount, long splitMs,
+                                       long deltaMs) {
+                splitCount++;
+            }
+
+            @Override
+            public void onAutoPauseChanged(boolean paused) {
+                if (paused) {
+                    pauseCount++;
+                }
+            }
+        });
+        pebbleQueue = new PebbleSendQueue(pebble, scheduler, new PebbleSendQueue.TelemetrySource() {
+            @Override
+            public PebbleDictionary buildTelemetry() {
+                byte[] frame = processor.buildTelemetryFrame();
+                if (frame == null) {
+                    return null;
+                }
+                PebbleDictionary telemetryData = new PebbleDictionary();
+                telemetryData.addBytes(PebbleKeys.TELEMETRY, frame);
+                return telemetryData;
+            }
+
+            @Override
+            public void onTelemetryLost() {
+                processor.onTelemetryLost();
+            }
+        });
+        pebble.attach(pebbleQueue);
+        processor.setRoadGraph(roadGraph);
+        processor.setStarted(true);
+
+        FixPipeline pipeline = processor.getPipeline();
+        Fix fix = new Fix();
+        double rawDistance = 0.0;
+        // Time of the oldest fix waiting in a batch, or -1 if none is.
+        long batchStart = -1L;
+        long lastDelivered = -1L;
+        long allocatedBefore = threadAllocatedBytes();
+        long wallStart = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+            long index = first + i;
+            long time = source.getTime(index);
+            double lat = source.getLatitude(index);
+            double lon = source.getLongitude(index);
+            if (i > 0) {
+                rawDistance += GeoMath.haversine(source.getLatitude(index - 1),
+                        source.getLongitude(index - 1), lat, lon);
+                long dt = time - source.getTime(index - 1);
+                if (speedFactor > 0.0) {
+                    long pause = (long) (dt / speedFactor);
+                    if (pause > 0) {
+                        Thread.sleep(pause);
+                    }
+                }
+            }
+            if (honourSampling && (lastDelivered >= 0) && !wouldDeliver(lastDelivered, index)) {
+                skippedCount++;
+                continue;
+            }
+            measureSkipped(lastDelivered, index);
+            lastDelivered = index;
+
+            if ((batchStart >= 0) && (time - batchStart >= ingestMode.getMaxDelayMs())) {
+                // The batch timer would have gone off before this fix came in.
+                scheduler.advanceTo(batchStart + ingestMode.getMaxDelayMs());
+                drainTimed();
+                batchStart = -1L;
+            }
+            scheduler.advanceTo(time);
+            // Tracks don't record the receiver's speed and bearing, so they're left unknown and
+            // the filter's speed is used instead, as on a phone that doesn't report them.
+            fix.set(time, lat, lon, source.getAltitude(index), source.getAccuracy(index), -1.0f,
+                    -1.0f);
+
+            long start = System.nanoTime();
+            pipeline.offer(fix);
+            fixCount++;
+            if (ingestMode == IngestMode.LIVE) {
+                pipeline.drain();
+                record(System.nanoTime() - start, 1);
+            } else {
+                totalNanos += System.nanoTime() - start;
+                if (batchStart < 0) {
+                    batchStart = time;
+                }
+                if (pipeline.getQueueDepth() >= ingestMode.getMaxBatchFixes()) {
+                    drainTimed();
+                    batchStart = -1L;
+                }
+            }
+        }
+        if (batchStart >= 0) {
+            drainTimed();
+        }
+        measureSkipped(lastDelivered, first + n - 1);
+        rideMs = source.getTime(first + n - 1) - source.getTime(first);
+        // Report what's left in the map matcher's window, and let the last messages get acked.
+        processor.setStarted(false);
+        scheduler.advanceTo(scheduler.now() + 60000L);
+        wallMs = System.currentTimeMillis() - wallStart;
+        long allocatedAfter = threadAllocatedBytes();
+        if ((allocatedBefore >= 0) && (allocatedAfter >= 0)) {
+            allocatedBytes = allocatedAfter - allocatedBefore;
+        }
+        if (Double.isNaN(referenceDistance)) {
+            referenceDistance = rawDistance;
+        }
+    }
+
+    /**
+     * Whether the location provider would hand over the fix at index, given the last one it did
+     * and the minimum time and distance the current mode registered with.
+     */
+    private boolean wouldDeliver(long last, long index) {
+        if (source.getTime(index) - source.getTime(last) < samplingMode.getMinTimeMs()) {
+            return false;
+        }
+        float minDistance = samplingMode.getMinDistanceMeters();
+        return (minDistance <= 0.0f) || (GeoMath.haversine(source.getLatitude(last),
+                source.getLongitude(last), source.getLatitude(index),
+                source.getLongitude(index)) >= minDistance);
+    }
+
+    /**
+     * Measures how far each recorded fix skipped between two delivered ones is from the straight
+     * line joining them, which is all of the route the ride keeps there.
+     */
+    private void measureSkipped(long from, long to) {
+        if ((from < 0) || (to - from < 2)) {
+            return;
+        }
+        double lat0 = source.getLatitude(from);
+        double lon0 = source.getLongitude(from);
+        double metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat0));
+        double dx = (source.getLongitude(to) - lon0) * metersPerDegreeLon;
+        double dy = (source.getLatitude(to) - lat0) * GeoMath.METERS_PER_DEGREE;
+        double lengthSquared = dx * dx + dy * dy;
+        for (long i = from + 1; i < to; i++) {
+            double px = (source.getLongitude(i) - lon0) * metersPerDegreeLon;
+            double py = (source.getLatitude(i) - lat0) * GeoMath.METERS_PER_DEGREE;
+            double t = (lengthSquared > 0.0) ? (px * dx + py * dy) / lengthSquared : 0.0;
+            t = Math.max(0.0, Math.min(1.0, t));
+            double ex = px - t * dx;
+            double ey = py - t * dy;
+            double squared = ex * ex + ey * ey;
+            deviationSquares += squared;
+            maxDeviation = Math.max(maxDeviation, Math.sqrt(squared));
+            deviationCount++;
+        }
+    }
+
+    private void drainTimed() {
+        long start = System.nanoTime();
+        int drained = processor.drainBatch();
+        if (drained > 0) {
+            record(System.nanoTime() - start, drained);
+        }
+    }
+
+    /**
+     * Counts one wakeup of the worker that processed the given fixes.
+     */
+    private void record(long spent, int fixes) {
+        wakeCount++;
+        totalNanos += spent;
+        maxNanos = Math.max(maxNanos, spent);
+        histogram[(int) Math.min(BUCKETS, spent / fixes / BUCKET_NANOS)] += fixes;
+    }
+
+    /**
+     * @return fixes the processor was given
+     */
+    public long getFixCount() {
+        return fixCount;
+    }
+
+    /**
+     * @return recorded fixes the sampling policy would never have been sent
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return root mean square distance of the skipped fixes from the route that was kept
+     */
+    public double getRouteDeviationRms() {
+        return (deviationCount == 0) ? 0.0 : Math.sqrt(deviationSquares / deviationCount);
+    }
+
+    public double getRouteDeviationMax() {
+        return maxDeviation;
+    }
+
+    /**
+     * @return times the worker would have been woken to process fixes
+     */
+    public long getWakeCount() {
+        return wakeCount;
+    }
+
+    public double getWakesPerHour() {
+        return wakeCount * 3600000.0 / Math.max(1L, rideMs);
+    }
+
+    public double getProcessingMsPerHour() {
+        return totalNanos / 1e6 * 3600000.0 / Math.max(1L, rideMs);
+    }
+
+    public double getPebbleMessagesPerHour() {
+        return pebble.getMessageCount() * 3600000.0 / Math.max(1L, rideMs);
+    }
+
+    public long getAverageFixNanos() {
+        return (fixCount == 0) ? 0 : totalNanos / fixCount;
+    }
+
+    public long getMaxFixNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the upper bound of the bucket the percentile falls in; anything past the last
+     *         bucket is reported as the maximum
+     */
+    public long getFixNanosPercentile(double percentile) {
+        long target = (long) Math.ceil(fixCount * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= target) {
+                return (i + 1L) * BUCKET_NANOS;
+            }
+        }
+        return maxNanos;
+    }
+
+    /**
+     * @return bytes allocated by the replaying thread, or -1 if the JVM can't say
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public double getDistance() {
+        return processor.getDistance();
+    }
+
+    public double getReferenceDistance() {
+        return referenceDistance;
+    }
+
+    /**
+     * @return processed distance over reference distance, minus one
+     */
+    public double getDistanceError() {
+        return (referenceDistance > 0.0) ? getDistance() / referenceDistance - 1.0 : 0.0;
+    }
+
+    /**
+     * @return segment gates crossed, starts included
+     */
+    public long getSplitCount() {
+        return splitCount;
+    }
+
+    /**
+     * @return how many times the ride auto-paused
+     */
+    public long getPauseCount() {
+        return pauseCount;
+    }
+
+    public FakePebble getPebble() {
+        return pebble;
+    }
+
+    public PebbleSendQueue getPebbleQueue() {
+        return pebbleQueue;
+    }
+
+    public RideProcessor getProcessor() {
+        return processor;
+    }
+
+    public void report(PrintStream out) {
+        out.println(String.format("ingest %s: %d wakeups, %.0f/h, processing %.1fms/h, pebble"
+                        + " %.0f messages/h", ingestMode, wakeCount, getWakesPerHour(),
+                getProcessingMsPerHour(), getPebbleMessagesPerHour()));
+        out.println("fixes " + fixCount + " in " + wallMs + "ms, per fix avg "
+                + getAverageFixNanos() + "ns p50 " + getFixNanosPercentile(50)
+                + "ns p99 " + getFixNanosPercentile(99) + "ns max " + maxNanos + "ns");
+        if (honourSampling) {
+            out.println(String.format("sampling: %d of %d recorded fixes used, skipped ones off"
+                            + " the route by rms %.1fm max %.1fm", fixCount,
+                    fixCount + skippedCount, getRouteDeviationRms(), maxDeviation));
+        } else {
+            out.println("sampling policy ignored, every recorded fix used");
+        }
+        if (allocatedBytes >= 0) {
+            out.println("allocated " + allocatedBytes + " bytes, "
+                    + ((fixCount == 0) ? 0 : allocatedBytes / fixCount) + " per fix");
+        }
+        out.println("pebble " + pebble.getMessageCount() + " messages ("
+                + pebble.getTelemetryCount() + " telemetry, " + pebble.getTelemetryBytes()
+                + " bytes), " + pebble.getLostCount() + " lost, " + pebbleQueue.getRetryCount()
+                + " retries, avg latency " + pebbleQueue.getAverageLatencyMs() + "ms");
+        out.println(String.format("distance %.1fm reference %.1fm error %+.2f%%, watch shows %dm",
+                getDistance(), referenceDistance, getDistanceError() * 100.0,
+                pebble.getWatchValue(TelemetryCodec.FIELD_DISTANCE)));
+        if (processor.getMatchedDistance() >= 0.0) {
+            out.println(String.format("matched distance %.1fm error %+.2f%%",
+                    processor.getMatchedDistance(),
+                    (processor.getMatchedDistance() / referenceDistance - 1.0) * 100.0));
+        }
+        out.println("ride time " + processor.getElapsedMs() / 1000L + "s, " + pauseCount
+                + " auto-pauses");
+        processor.getStats().publish();
+        RideStats.Values stats = processor.getStats().read();
+        out.println(String.format("moving %ds, avg %.1fm/s max %.1fm/s, climb %.0fm descent %.0fm,"
+                + " max lean %.0f/%.0f", stats.movingMs / 1000L, stats.averageSpeed,
+                stats.maxSpeed, stats.elevationGain, stats.elevationLoss, stats.maxLeanLeft,
+                stats.maxLeanRight));
+        out.println(processor.getPipeline().describe());
+    }
+
+    /**
+     * Fills out with a made up ride: speed and heading wander, it stops now and again, and the
+     * fixes get GPS-like noise with the odd wild outlier.
+     *
+     * @return the distance actually covered, before noise
+     */
+    public static double synthesize(TrackBuffer out, int count, long intervalMs,
+                                    double noiseMeters, long seed) {
+        Random random = new Random(seed);
+        double lat = 51.5;
+        double lon = -0.12;
+        double heading = 0.0;
+        double distance = 0.0;
+        long time = 1384250400000L;
+        double dt = intervalMs / 1000.0;
+        double noiseLat = 0.0;
+        double noiseLon = 0.0;
+        for (int i = 0; i < count; i++) {
+            double seconds = i * dt;
+            boolean stopped = (seconds % 600.0) > 570.0;
+            double speed = stopped ? 0.0 : 15.0 + 8.0 * Math.sin(seconds / 45.0);
+            heading += 10.0 * Math.sin(seconds / 20.0) * dt;
+
+            double step = speed * dt;
+            double rad = Math.toRadians(heading);
+            lat += step * Math.cos(rad) / GeoMath.METERS_PER_DEGREE;
+            lon += step * Math.sin(rad) / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            distance += step;
+
+            // Receiver error wanders rather than jumping about independently each fix.
+            noiseLat = 0.8 * noiseLat + 0.6 * noiseMeters * random.nextGaussian();
+            noiseLon = 0.8 * noiseLon + 0.6 * noiseMeters * random.nextGaussian();
+            double errLat = noiseLat;
+            double errLon = noiseLon;
+            if (random.nextInt(200) == 0) {
+                errLat += 80.0 * random.nextGaussian();
+                errLon += 80.0 * random.nextGaussian();
+            }
+            out.append(lat + errLat / GeoMath.METERS_PER_DEGREE,
+                    lon + errLon / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat))),
+                    30.0 + 10.0 * Math.sin(seconds / 300.0), time, (float) (noiseMeters * 1.5));
+            time += intervalMs;
+        }
+        return distance;
+    }
+
+    /**
+     * Builds a square grid of two way streets, size nodes a side and spacing metres apart.
+     */
+    public static RoadGraph synthesizeRoads(int size, double spacing) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                builder.addNode(GRID_LATITUDE + y * spacing / GeoMath.METERS_PER_DEGREE,
+                        GRID_LONGITUDE + x * spacing / (GeoMath.METERS_PER_DEGREE
+                                * Math.cos(Math.toRadians(GRID_LATITUDE))));
+                if (x > 0) {
+                    builder.addRoad(y * size + x - 1, y * size + x, false);
+                }
+                if (y > 0) {
+                    builder.addRoad((y - 1) * size + x, y * size + x, false);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Fills out with a made up ride along the streets of {@link #synthesizeRoads}, turning at
+     * random junctions, with the same kind of noise as {@link #synthesize}.
+     *
+     * @return the distance actually covered, before noise
+     */
+    public static double synthesizeOnRoads(TrackBuffer out, int count, int size, double spacing,
+                                           double noiseMeters, long seed) {
+        Random random = new Random(seed);
+        double metersPerDegreeLon = GeoMath.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(GRID_LATITUDE));
+        int[] dx = {1, 0, -1, 0};
+        int[] dy = {0, 1, 0, -1};
+        int x = size / 2;
+        int y = size / 2;
+        int direction = 0;
+        double along = 0.0;
+        double distance = 0.0;
+        long time = 1384250400000L;
+        double noiseX = 0.0;
+        double noiseY = 0.0;
+        for (int i = 0; i < count; i++) {
+            double speed = 7.0 + 3.0 * Math.sin(i / 45.0);
+            along += speed;
+            distance += speed;
+            while (along >= spacing) {
+                along -= spacing;
+                x += dx[direction];
+                y += dy[direction];
+                // Straight on more often than not, never back the way it came or off the grid.
+                int turn;
+                do {
+                    int r = random.nextInt(10);
+                    turn = (r < 6) ? 0 : ((r < 8) ? 1 : 3);
+                } while (!inGrid(x + dx[(direction + turn) % 4], y + dy[(direction + turn) % 4],
+                        size));
+                direction = (direction + turn) % 4;
+            }
+
+            noiseX = 0.8 * noiseX + 0.6 * noiseMeters * random.nextGaussian();
+            noiseY = 0.8 * noiseY + 0.6 * noiseMeters * random.nextGaussian();
+            double errX = noiseX;
+            double errY = noiseY;
+            if (random.nextInt(200) == 0) {
+                errX += 80.0 * random.nextGaussian();
+                errY += 80.0 * random.nextGaussian();
+            }
+            double px = (x + dx[direction] * along / spacing) * spacing + errX;
+            double py = (y + dy[direction] * along / spacing) * spacing + errY;
+            out.append(GRID_LATITUDE + py / GeoMath.METERS_PER_DEGREE,
+                    GRID_LONGITUDE + px / metersPerDegreeLon, 30.0, time,
+                    (float) (noiseMeters * 1.5));
+            time += 1000L;
+        }
+        return distance;
+    }
+
+    /**
+     * Altitude of a made up climb ride: flat, 6% up for 5km, flat, 5% down for 6km, and over.
+     */
+    public static double climbAltitude(double distance) {
+        double d = distance % 16000.0;
+        if (d < 3000.0) {
+            return 100.0;
+        } else if (d < 8000.0) {
+            return 100.0 + 0.06 * (d - 3000.0);
+        } else if (d < 10000.0) {
+            return 400.0;
+        }
+        return 400.0 - 0.05 * (d - 10000.0);
+    }
+
+    private static boolean inGrid(int x, int y, int size) {
+        return (x >= 0) && (y >= 0) && (x < size) && (y < size);
+    }
+
+    /**
+     * Desktop entry point, run by "gradle replay" with the arguments in -Preplay.
+     *
+     * Usage: ReplayEngine (file.gpx | synthetic[:fixes] | grid[:fixes])
+     * [speed factor, 0 = flat out] [pebble loss rate] [ingest mode]
+     *
+     * grid rides a made up street grid and matches the ride to it as it goes.
+     */
+    public static void main(String[] args) throws Exception {
+        String input = (args.length > 0) ? args[0] : "synthetic";
+        double speedFactor = (args.length > 1) ? Double.parseDouble(args[1]) : 0.0;
+        double loss = (args.length > 2) ? Double.parseDouble(args[2]) : 0.0;
+        String ingest = (args.length > 3) ? args[3] : IngestMode.LIVE.name();
+
+        TrackBuffer track = new TrackBuffer();
+        double reference = Double.NaN;
+        RoadGraph graph = null;
+        if (input.startsWith("grid")) {
+            int count = input.contains(":")
+                    ? Integer.parseInt(input.substring(input.indexOf(':') + 1)) : 36000;
+            graph = synthesizeRoads(GRID_SIZE, GRID_SPACING_METERS);
+            reference = synthesizeOnRoads(track, count, GRID_SIZE, GRID_SPACING_METERS, 4.0, 42L);
+        } else if (input.startsWith("synthetic")) {
+            int count = input.contains(":")
+                    ? Integer.parseInt(input.substring(input.indexOf(':') + 1)) : 36000;
+            reference = synthesize(track, count, 1000L, 4.0, 42L);
+        } else {
+            InputStream in = new FileInputStream(input);
+            try {
+                GpxReader.read(in, track);
+            } finally {
+                in.close();
+            }
+        }
+
+        ReplayEngine engine = new ReplayEngine(track);
+        engine.setIngestMode(IngestMode.valueOf(ingest));
+        engine.setSpeedFactor(speedFactor);
+        engine.setPebble(150L, loss, 1L);
+        engine.setReferenceDistance(reference);
+        engine.setRoadGraph(graph);
+        engine.run();
+        engine.report(System.out);
+    }
+
+    /**
+     * HotSpot can count a thread's allocations; other JVMs may not, hence the reflection.
+     */
+    private static long threadAllocatedBytes() {
+        try {
+            Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+            Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+            Method allocated = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) allocated.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CameraFollowControllerTest {
+
+    private static final long START = 1384250400000L;
+    private static final double LATITUDE = 51.5;
+    private static final double LONGITUDE = -0.12;
+
+    private ManualScheduler scheduler;
+    private CameraFollowController controller;
+    private int moves;
+    private double movedLat;
+    private double movedLon;
+    private long lastMoveAt;
+    private long minGapMs = Long.MAX_VALUE;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler(START);
+        controller = new CameraFollowController(new CameraFollowController.Camera() {
+            @Override
+            public void moveTo(double latitude, double longitude, float zoom, int durationMs) {
+                if (moves > 0) {
+                    minGapMs = Math.min(minGapMs, scheduler.now() - lastMoveAt);
+                }
+                moves++;
+                movedLat = latitude;
+                movedLon = longitude;
+                lastMoveAt = scheduler.now();
+                assertEquals(CameraFollowController.MOVE_INTERVAL_MS, durationMs);
+            }
+        }, scheduler);
+    }
+
+    @Test
+    public void tenFixesASecondMoveTheCameraTwice() {
+        // A minute at 10Hz, riding north at 10m/s, zoomed in far enough for every move to show.
+        controller.setZoom(17.0f);
+        for (int i = 0; i < 600; i++) {
+            scheduler.advanceTo(START + i * 100L);
+            controller.update(north(i), LONGITUDE, 10.0f, 0.0f);
+        }
+        scheduler.advanceTo(START + 60000L);
+        assertEquals(600L, controller.getUpdateCount());
+        assertTrue("moves " + moves, moves <= 60000 / CameraFollowController.MOVE_INTERVAL_MS + 1);
+        assertTrue("moves " + moves, moves >= 100);
+        assertEquals("moves " + moves, CameraFollowController.MOVE_INTERVAL_MS, minGapMs);
+    }
+
+    @Test
+    public void aimsWhereTheRiderWillBe() {
+        controller.update(LATITUDE, LONGITUDE, 20.0f, 0.0f);
+        scheduler.advanceTo(START);
+        // Half a second of animation at 20m/s.
+        assertEquals(1, moves);
+        assertEquals(LATITUDE + 10.0 / GeoMath.METERS_PER_DEGREE, movedLat, 1e-9);
+        assertEquals(LONGITUDE, movedLon, 1e-12);
+
+        // No fix for a second: it keeps gliding on the last speed and bearing.
+        scheduler.advanceTo(START + 1000L);
+        assertEquals(3, moves);
+        assertEquals(LATITUDE + 30.0 / GeoMath.METERS_PER_DEGREE, movedLat, 1e-9);
+    }
+
+    @Test
+    public void stopsGuessingWhenFixesDryUp() {
+        controller.update(LATITUDE, LONGITUDE, 10.0f, 90.0f);
+        scheduler.advanceTo(START + 60000L);
+        // A move every interval for five seconds and then nothing more is scheduled.
+        assertTrue(moves <= 5000 / CameraFollowController.MOVE_INTERVAL_MS + 2);
+        assertEquals(0, scheduler.getPendingCount());
+        // The last guess never went more than the prediction limit ahead.
+        double metres = (movedLon - LONGITUDE) * GeoMath.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(LATITUDE));
+        assertTrue("went " + metres, metres <= 10.0 * 5.5);
+    }
+
+    @Test
+    public void jitterAtAStandstillDoesNotMoveTheMap() {
+        Random random = new Random(9L);
+        controller.setZoom(15.0f);
+        for (int i = 0; i < 600; i++) {
+            scheduler.advanceTo(START + i * 1000L);
+            // Under a metre of wobble is well under 2 pixels at zoom 15, about 3m a pixel.
+            controller.update(LATITUDE + 0.3 * random.nextGaussian() / GeoMath.METERS_PER_DEGREE,
+                    LONGITUDE, 0.0f, -1.0f);
+        }
+        scheduler.advanceTo(START + 601000L);
+        assertEquals(1, moves);
+        assertEquals(599L, controller.getSkippedCount());
+    }
+
+    @Test
+    public void zoomingMovesEvenWhenStill() {
+        controller.update(LATITUDE, LONGITUDE, 0.0f, -1.0f);
+        scheduler.advanceTo(START + 1000L);
+        controller.setZoom(17.0f);
+        controller.update(LATITUDE, LONGITUDE, 0.0f, -1.0f);
+        scheduler.advanceTo(START + 2000L);
+        assertEquals(2, moves);
+    }
+
+    @Test
+    public void stopCancelsTheTimer() {
+        controller.update(LATITUDE, LONGITUDE, 10.0f, 0.0f);
+        scheduler.advanceTo(START);
+        controller.stop();
+        assertEquals(0, scheduler.getPendingCount());
+        scheduler.advanceTo(START + 10000L);
+        assertEquals(1, moves);
+    }
+
+    private static double north(int tenths) {
+        return LATITUDE + tenths / GeoMath.METERS_PER_DEGREE;
+    }
+}
@@ -0,0 +1,147 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DistanceFilterTest {
+
+    private static final double LATITUDE = 51.5;
+    private static final double LONGITUDE = -0.12;
+    private static final double METERS_PER_DEGREE_LON = GeoMath.METERS_PER_DEGREE
+            * Math.cos(Math.toRadians(LATITUDE));
+    private static final long START = 1384250400000L;
+
+    @Test
+    public void outliersInARowDontMoveTheFilter() {
+        DistanceFilter filter = new DistanceFilter();
+        // 10m/s due east, a fix a second.
+        for (int i = 0; i < 30; i++) {
+            assertTrue(filter.update(START + i * 1000L, LATITUDE, east(10.0 * i), 5.0f));
+        }
+        double before = filter.getDistance();
+
+        // Three wild fixes, short of the number that restarts the filter.
+        for (int i = 30; i < 33; i++) {
+            assertFalse(filter.update(START + i * 1000L, LATITUDE + 0.01, east(10.0 * i), 5.0f));
+        }
+        assertEquals(3L, filter.getRejectedCount());
+        assertEquals(before, filter.getDistance(), 0.0);
+
+        // The next good fix is where the rider really is, not ahead of them.
+        assertTrue(filter.update(START + 33000L, LATITUDE, east(330.0), 5.0f));
+        assertEquals(3L, filter.getRejectedCount());
+        assertEquals(east(330.0), filter.getLongitude(), 2.0 / METERS_PER_DEGREE_LON);
+        assertEquals(LATITUDE, filter.getLatitude(), 2.0 / GeoMath.METERS_PER_DEGREE);
+        assertEquals(10.0, filter.getSpeed(), 0.5);
+        for (int i = 34; i < 60; i++) {
+            assertTrue(filter.update(START + i * 1000L, LATITUDE, east(10.0 * i), 5.0f));
+        }
+        assertEquals(590.0, filter.getDistance(), 10.0);
+    }
+
+    @Test
+    public void restartsWhenItIsTheOneLost() {
+        DistanceFilter filter = new DistanceFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.update(START + i * 1000L, LATITUDE, LONGITUDE, 5.0f);
+        }
+        // Moved a kilometre while the receiver was off: after a few rejections it follows.
+        int rejected = 0;
+        for (int i = 10; i < 20; i++) {
+            if (!filter.update(START + i * 1000L, LATITUDE + 0.01, LONGITUDE, 5.0f)) {
+                rejected++;
+            }
+        }
+        assertEquals(4, rejected);
+        assertEquals(LATITUDE + 0.01, filter.getLatitude(), 1e-6);
+    }
+
+    @Test
+    public void standingStillCountsLittleOfTheJitter() {
+        DistanceFilter filter = new DistanceFilter();
+        Random random = new Random(3L);
+        double raw = 0.0;
+        double lastLat = LATITUDE;
+        double lastLon = LONGITUDE;
+        for (int i = 0; i < 600; i++) {
+            double lat = LATITUDE + 3.0 * random.nextGaussian() / GeoMath.METERS_PER_DEGREE;
+            double lon = LONGITUDE + 3.0 * random.nextGaussian() / METERS_PER_DEGREE_LON;
+            filter.update(START + i * 1000L, lat, lon, 8.0f);
+            if (i > 0) {
+                raw += GeoMath.haversine(lastLat, lastLon, lat, lon);
+            }
+            lastLat = lat;
+            lastLon = lon;
+        }
+        assertTrue("jitter counted " + filter.getDistance() + " of " + raw,
+                filter.getDistance() < raw / 5.0);
+    }
+
+    @Test
+    public void noisyRidesComeToTheirTrueLength() {
+        for (long seed = 1; seed <= 5; seed++) {
+            TrackBuffer track = new TrackBuffer(10, 8);
+            double truth = ReplayEngine.synthesize(track, 3600, 1000L, 4.0, seed);
+            DistanceFilter filter = new DistanceFilter();
+            double raw = 0.0;
+            for (long i = 0; i < track.size(); i++) {
+                filter.update(track.getTime(i), track.getLatitude(i), track.getLongitude(i),
+                        track.getAccuracy(i));
+                if (i > 0) {
+                    raw += GeoMath.haversine(track.getLatitude(i - 1), track.getLongitude(i - 1),
+                            track.getLatitude(i), track.getLongitude(i));
+                }
+            }
+            double error = Math.abs(filter.getDistance() / truth - 1.0);
+            assertTrue("seed " + seed + " off by " + error, error < 0.04);
+            // Summing the raw fixes is what the filter is there to beat.
+            assertTrue(error < Math.abs(raw / truth - 1.0));
+        }
+    }
+
+    @Test
+    public void breakSegmentKeepsTheDistance() {
+        DistanceFilter filter = new DistanceFilter();
+        for (int i = 0; i < 20; i++) {
+            filter.update(START + i * 1000L, LATITUDE, east(10.0 * i), 5.0f);
+        }
+        double distance = filter.getDistance();
+        filter.breakSegment();
+        assertFalse(filter.hasPosition());
+        // The gap isn't counted.
+        filter.update(START + 600000L, LATITUDE, east(5000.0), 5.0f);
+        assertEquals(distance, filter.getDistance(), 0.0);
+
+        filter.reset();
+        assertEquals(0.0, filter.getDistance(), 0.0);
+        assertEquals(0L, filter.getRejectedCount());
+    }
+
+    private static double east(double meters) {
+        return LONGITUDE + meters / METERS_PER_DEGREE_LON;
+    }
+}
@@ -0,0 +1,166 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElevationFilterTest {
+
+    private static final long START = 1384250400000L;
+
+    private final ElevationFilter filter = new ElevationFilter();
+    private final Random random = new Random(1L);
+
+    @Test
+    public void gpsAloneIsSmoothed() {
+        double worstRaw = 0.0;
+        double worst = 0.0;
+        for (int s = 0; s < 600; s++) {
+            double gps = 120.0 + 5.0 * random.nextGaussian();
+            double altitude = filter.update(START + s * 1000L, gps, Double.NaN, s * 5.0);
+            if (s >= 60) {
+                worstRaw = Math.max(worstRaw, Math.abs(gps - 120.0));
+                worst = Math.max(worst, Math.abs(altitude - 120.0));
+            }
+        }
+        assertTrue(worst < 5.0);
+        assertTrue(worst < worstRaw / 2.0);
+    }
+
+    @Test
+    public void barometerIsPulledOntoGps() {
+        // The barometer is smooth but 30 m out for the weather; GPS is right on average.
+        double worst = 0.0;
+        for (int s = 0; s < 1800; s++) {
+            double truth = 100.0 + 40.0 * Math.sin(s / 200.0);
+            double altitude = filter.update(START + s * 1000L,
+                    truth + 5.0 * random.nextGaussian(), truth + 30.0, s * 5.0);
+            if (s >= 900) {
+                worst = Math.max(worst, Math.abs(altitude - truth));
+            }
+        }
+        assertTrue("off by " + worst, worst < 3.0);
+    }
+
+    @Test
+    public void gradeOfASteadyClimb() {
+        // 5 m/s up a 6% grade, then down the same.
+        double altitude = 100.0;
+        int s = 0;
+        for (; s < 300; s++) {
+            altitude += 0.3;
+            filter.update(START + s * 1000L, Double.NaN, altitude, s * 5.0);
+        }
+        assertEquals(6.0f, filter.getGrade(), 0.1f);
+        for (; s < 600; s++) {
+            altitude -= 0.3;
+            filter.update(START + s * 1000L, Double.NaN, altitude, s * 5.0);
+        }
+        assertEquals(-6.0f, filter.getGrade(), 0.1f);
+
+        filter.breakSegment();
+        assertEquals(0.0f, filter.getGrade(), 0.0f);
+    }
+
+    @Test
+    public void barometerBringsTheClimbCloser() {
+        // 8 m/s over and over the made up climb, with GPS altitude wandering 8 m and a barometer
+        // drifting half a hPa an hour with the weather, smoothed like RideProcessor does.
+        ElevationFilter fused = new ElevationFilter();
+        RideStats rawStats = new RideStats();
+        RideStats gpsStats = new RideStats();
+        RideStats fusedStats = new RideStats();
+        int count = 36000;
+        double speed = 8.0;
+        double gpsNoise = 0.0;
+        double pressure = Double.NaN;
+        double gpsError = 0.0;
+        double fusedError = 0.0;
+        double gpsGradeError = 0.0;
+        double fusedGradeError = 0.0;
+        double trueGain = 0.0;
+        for (int i = 0; i < count; i++) {
+            long time = START + i * 1000L;
+            double distance = i * speed;
+            double truth = ReplayEngine.climbAltitude(distance);
+            if (i > 0) {
+                trueGain += Math.max(0.0, truth - ReplayEngine.climbAltitude(distance - speed));
+            }
+            gpsNoise = 0.95 * gpsNoise + 0.31 * 8.0 * random.nextGaussian();
+            double gps = truth + gpsNoise;
+            double hPa = 1013.25 * Math.pow(1.0 - truth / 44330.0, 5.255) + 0.5 * i / 3600.0
+                    + 0.1 * random.nextGaussian();
+            pressure = Double.isNaN(pressure) ? hPa : pressure + 0.1 * (hPa - pressure);
+
+            double a = filter.update(time, gps, Double.NaN, distance);
+            double b = fused.update(time, gps, ElevationFilter.pressureAltitude(pressure),
+                    distance);
+            rawStats.update(time, (float) speed, gps, -1.0f, 0.0, 0.0, (float) distance);
+            gpsStats.update(time, (float) speed, a, -1.0f, 0.0, 0.0, (float) distance);
+            fusedStats.update(time, (float) speed, b, -1.0f, 0.0, 0.0, (float) distance);
+            gpsError += (a - truth) * (a - truth);
+            fusedError += (b - truth) * (b - truth);
+            if (distance >= 2.0 * ElevationFilter.GRADE_METERS) {
+                double grade = (truth - ReplayEngine.climbAltitude(
+                        distance - ElevationFilter.GRADE_METERS)) * 100.0
+                        / ElevationFilter.GRADE_METERS;
+                gpsGradeError += (filter.getGrade() - grade) * (filter.getGrade() - grade);
+                fusedGradeError += (fused.getGrade() - grade) * (fused.getGrade() - grade);
+            }
+        }
+        rawStats.publish();
+        gpsStats.publish();
+        fusedStats.publish();
+        double rawGain = rawStats.read().elevationGain;
+        double gpsGain = gpsStats.read().elevationGain;
+        double fusedGain = fusedStats.read().elevationGain;
+
+        assertTrue("raw " + rawGain + " gps " + gpsGain, gpsGain < rawGain / 2.0);
+        assertTrue("gps " + gpsGain + " fused " + fusedGain,
+                Math.abs(fusedGain - trueGain) < Math.abs(gpsGain - trueGain) / 4.0);
+        assertEquals(trueGain, fusedGain, trueGain * 0.05);
+        assertTrue(fusedError < gpsError / 4.0);
+        assertTrue(fusedGradeError < gpsGradeError / 4.0);
+    }
+
+    @Test
+    public void nothingToGoOnIsNaN() {
+        assertTrue(Double.isNaN(filter.update(START, Double.NaN, Double.NaN, 0.0)));
+        assertEquals(50.0, filter.update(START + 1000L, 50.0, Double.NaN, 5.0), 0.0);
+        // A fix without altitude keeps the last one.
+        assertEquals(50.0, filter.update(START + 2000L, Double.NaN, Double.NaN, 10.0), 0.0);
+        // After a long gap GPS is taken as it is rather than smoothed towards.
+        assertEquals(90.0, filter.update(START + 120000L, 90.0, Double.NaN, 15.0), 0.0);
+
+        filter.reset();
+        assertTrue(Double.isNaN(filter.getAltitude()));
+    }
+
+    @Test
+    public void standardAtmosphere() {
+        assertEquals(0.0, ElevationFilter.pressureAltitude(1013.25), 1e-9);
+        assertEquals(110.9, ElevationFilter.pressureAltitude(1000.0), 0.1);
+        assertEquals(1457.0, ElevationFilter.pressureAltitude(850.0), 1.0);
+    }
+}
@@ -0,0 +1,129 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElevationSeriesTest {
+
+    private final ElevationSeries series = new ElevationSeries();
+
+    @Test
+    public void profileBoundsEveryAltitudeInItsStep() {
+        // 150 km, past the end of the finer levels, as a random walk a few metres a fix.
+        Random random = new Random(1L);
+        int n = 30000;
+        double[] distances = new double[n];
+        double[] altitudes = new double[n];
+        double distance = 0.0;
+        double altitude = 200.0;
+        for (int i = 0; i < n; i++) {
+            distance += 3.0 + 4.0 * random.nextDouble();
+            altitude += random.nextGaussian();
+            distances[i] = distance;
+            altitudes[i] = altitude;
+            series.add(distance, altitude);
+        }
+        assertEquals(distance, series.getDistance(), 0.0);
+        assertEquals(n, series.getCount());
+
+        checkProfile(distances, altitudes, 0.0, distance, 300);
+        checkProfile(distances, altitudes, 0.0, distance, 7);
+        checkProfile(distances, altitudes, 20000.0, 30000.0, 100);
+        checkProfile(distances, altitudes, 140000.0, distance, 64);
+    }
+
+    @Test
+    public void emptyStepsCarryTheOneBefore() {
+        for (double d = 1000.0; d < 1200.0; d += 5.0) {
+            series.add(d, 50.0);
+        }
+        for (double d = 1500.0; d < 2000.0; d += 5.0) {
+            series.add(d, 80.0);
+        }
+        float[] min = new float[20];
+        float[] max = new float[20];
+        assertEquals(20, series.getProfile(0.0, 2000.0, 20, min, max));
+        // Buckets are 80 m here, so the step before each stretch can catch its start.
+        for (int p = 0; p < 9; p++) {
+            assertTrue(Float.isNaN(min[p]) && Float.isNaN(max[p]));
+        }
+        for (int p = 10; p < 14; p++) {
+            assertEquals(50.0f, min[p], 0.0f);
+            assertEquals(50.0f, max[p], 0.0f);
+        }
+        assertEquals(80.0f, max[19], 0.0f);
+    }
+
+    @Test
+    public void ignoresMissingAltitudeAndNegativeDistance() {
+        float[] min = new float[4];
+        float[] max = new float[4];
+        series.add(100.0, Double.NaN);
+        series.add(-5.0, 10.0);
+        assertEquals(0L, series.getCount());
+        assertEquals(0, series.getProfile(0.0, 200.0, 4, min, max));
+
+        series.add(100.0, 10.0);
+        assertEquals(0, series.getProfile(200.0, 200.0, 4, min, max));
+        assertEquals(0, series.getProfile(0.0, 200.0, 0, min, max));
+        series.clear();
+        assertEquals(0L, series.getCount());
+        assertEquals(0, series.getProfile(0.0, 200.0, 4, min, max));
+    }
+
+    /**
+     * Each point has to take in every altitude within its step, and may only reach a little
+     * either side for the buckets not lining up with it: a bucket can be up to twice a step
+     * long when the finer levels have filled up.
+     */
+    private void checkProfile(double[] distances, double[] altitudes, double from, double to,
+                              int points) {
+        float[] min = new float[points];
+        float[] max = new float[points];
+        assertEquals(points, series.getProfile(from, to, points, min, max));
+        double step = (to - from) / points;
+        for (int p = 0; p < points; p++) {
+            double start = from + p * step;
+            float inside = Float.POSITIVE_INFINITY;
+            float insideMax = Float.NEGATIVE_INFINITY;
+            float near = Float.POSITIVE_INFINITY;
+            float nearMax = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < distances.length; i++) {
+                float a = (float) altitudes[i];
+                if ((distances[i] >= start) && (distances[i] < start + step)) {
+                    inside = Math.min(inside, a);
+                    insideMax = Math.max(insideMax, a);
+                }
+                if ((distances[i] >= start - 2 * step) && (distances[i] < start + 3 * step)) {
+                    near = Math.min(near, a);
+                    nearMax = Math.max(nearMax, a);
+                }
+            }
+            String at = "point " + p + " of " + points + " from " + from;
+            assertTrue(at, (min[p] <= inside) && (min[p] >= near));
+            assertTrue(at, (max[p] >= insideMax) && (max[p] <= nearMax));
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FixPipelineTest {
+
+    @Test
+    public void stagesRunInOrderUntilOneSaysStop() {
+        final List<String> seen = new ArrayList<String>();
+        FixPipeline pipeline = new FixPipeline(8, new String[] {"a", "b", "c"},
+                new FixPipeline.Stage[] {recorder(seen, "a", true), recorder(seen, "b", false),
+                        recorder(seen, "c", true)});
+        Fix fix = new Fix();
+        pipeline.offer(fix.set(1L, 1.0, 2.0, 3.0, 4.0f, 5.0f, 6.0f));
+        pipeline.offer(fix.set(2L, 1.0, 2.0, 3.0, 4.0f, 5.0f, 6.0f));
+        assertEquals(2, pipeline.getQueueDepth());
+
+        assertEquals(2, pipeline.drain());
+        assertEquals("[a1, b1, a2, b2]", seen.toString());
+        assertEquals(2L, pipeline.getProcessedCount());
+        assertEquals(0, pipeline.getQueueDepth());
+        assertEquals(0, pipeline.drain());
+    }
+
+    @Test
+    public void fullQueueDropsInsteadOfWaiting() {
+        // Rounded up to 8.
+        FixPipeline pipeline = new FixPipeline(5, new String[0], new FixPipeline.Stage[0]);
+        Fix fix = new Fix();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i < 8, pipeline.offer(fix.set(i, 0.0, 0.0, 0.0, 0.0f, 0.0f, 0.0f)));
+        }
+        assertEquals(20L, pipeline.getOfferedCount());
+        assertEquals(12L, pipeline.getDroppedCount());
+        assertEquals(8, pipeline.getMaxQueueDepth());
+
+        // Room again once drained, and the ring carries on from where it was.
+        assertEquals(8, pipeline.drain());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(pipeline.offer(fix.set(i, 0.0, 0.0, 0.0, 0.0f, 0.0f, 0.0f)));
+        }
+    }
+
+    @Test
+    public void producerNeverBlocksOnAStuckWorker() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final FixPipeline pipeline = new FixPipeline(64, new String[] {"stuck"},
+                new FixPipeline.Stage[] {new FixPipeline.Stage() {
+                    @Override
+                    public boolean process(Fix fix) {
+                        stuck.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return true;
+                    }
+                }});
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (pipeline.getProcessedCount() == 0) {
+                    pipeline.drain();
+                }
+            }
+        });
+
+        Fix fix = new Fix();
+        pipeline.offer(fix.set(0L, 0.0, 0.0, 0.0, 0.0f, 0.0f, 0.0f));
+        worker.start();
+        stuck.await();
+
+        // A million fixes while the worker is stuck on the first: none may wait on it.
+        long start = System.nanoTime();
+        int accepted = 0;
+        for (int i = 1; i <= 1000000; i++) {
+            if (pipeline.offer(fix.set(i, 0.0, 0.0, 0.0, 0.0f, 0.0f, 0.0f))) {
+                accepted++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        release.countDown();
+        worker.join(10000L);
+
+        assertEquals(64, accepted);
+        assertEquals(1000001L - 65L, pipeline.getDroppedCount());
+        assertTrue("producer took " + nanos / 1000000L + "ms", nanos < 2000000000L);
+    }
+
+    @Test
+    public void highRateAcrossThreadsKeepsEveryFixWhole() throws Exception {
+        final int fixes = 2000000;
+        final AtomicLong lastTime = new AtomicLong(-1L);
+        final AtomicLong received = new AtomicLong();
+        final AtomicBoolean torn = new AtomicBoolean();
+        final FixPipeline pipeline = new FixPipeline(256, new String[] {"check"},
+                new FixPipeline.Stage[] {new FixPipeline.Stage() {
+                    @Override
+                    public boolean process(Fix fix) {
+                        // Every column must come from the same fix, in the order offered.
+                        if ((fix.latitude != fix.time * 1e-6) || (fix.longitude != -fix.time)
+                                || (fix.accuracy != (float) (fix.time & 0xff))
+                                || (fix.time <= lastTime.get())) {
+                            torn.set(true);
+                        }
+                        lastTime.set(fix.time);
+                        received.incrementAndGet();
+                        return true;
+                    }
+                }});
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (producing.get() || (pipeline.getQueueDepth() > 0)) {
+                    pipeline.drain();
+                }
+            }
+        });
+        worker.start();
+
+        Fix fix = new Fix();
+        long accepted = 0;
+        for (long i = 0; i < fixes; i++) {
+            if (pipeline.offer(fix.set(i, i * 1e-6, -i, 0.0, (float) (i & 0xff), 0.0f, 0.0f))) {
+                accepted++;
+            }
+        }
+        producing.set(false);
+        worker.join(10000L);
+        assertFalse(worker.isAlive());
+
+        assertFalse(torn.get());
+        assertEquals(accepted, received.get());
+        assertEquals(fixes, accepted + pipeline.getDroppedCount());
+        assertEquals(accepted, pipeline.getProcessedCount());
+        assertTrue(pipeline.getMaxQueueDepth() <= 256);
+    }
+
+    @Test
+    public void batchStagesSeeWhichFixesPassed() {
+        final int[] batchSizes = new int[1];
+        final int[] lastPassed = new int[1];
+        final List<Boolean> passed = new ArrayList<Boolean>();
+        FixPipeline.Stage evenOnly = new FixPipeline.Stage() {
+            @Override
+            public boolean process(Fix fix) {
+                return fix.time % 2 == 0;
+            }
+        };
+        FixPipeline.BatchStage persist = new FixPipeline.BatchStage() {
+            @Override
+            public boolean process(Fix fix) {
+                fail("a batch stage drained as a batch gets the batch");
+                return true;
+            }
+
+            @Override
+            public void processBatch(FixBatch batch) {
+                batchSizes[0] = batch.size();
+                lastPassed[0] = batch.getLastPassed();
+                for (int i = 0; i < batch.size(); i++) {
+                    passed.add(batch.isPassed(i));
+                }
+            }
+        };
+        FixPipeline pipeline = new FixPipeline(16, new String[] {"filter", "persist"},
+                new FixPipeline.Stage[] {evenOnly, persist});
+        Fix fix = new Fix();
+        for (int i = 0; i < 5; i++) {
+            pipeline.offer(fix.set(i, 0.0, 0.0, 0.0, 0.0f, 0.0f, 0.0f));
+        }
+
+        FixBatch batch = new FixBatch(4);
+        assertEquals(4, pipeline.drainBatch(batch));
+        assertEquals(4, batchSizes[0]);
+        assertEquals(2, lastPassed[0]);
+        assertEquals("[true, false, true, false]", passed.toString());
+        assertEquals(1, pipeline.getQueueDepth());
+        assertEquals(1, pipeline.drainBatch(batch));
+        assertEquals(0, pipeline.drainBatch(batch));
+        assertEquals(5L, pipeline.getProcessedCount());
+        assertEquals(2L, pipeline.getDrainCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void everyStageNeedsAName() {
+        new FixPipeline(8, new String[] {"a"}, new FixPipeline.Stage[0]);
+    }
+
+    private static FixPipeline.Stage recorder(final List<String> seen, final String name,
+                                              final boolean carryOn) {
+        return new FixPipeline.Stage() {
+            @Override
+            public boolean process(Fix fix) {
+                seen.add(name + fix.time);
+                return carryOn;
+            }
+        };
+    }
+}
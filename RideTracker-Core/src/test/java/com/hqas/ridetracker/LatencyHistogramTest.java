@@ -0,0 +1,208 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LatencyHistogram histogram = new LatencyHistogram("test", 1000000L);
+
+    @Before
+    public void setUp() {
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void everyValueIsKnownToASixteenth() {
+        Random random = new Random(1L);
+        for (int i = 0; i < 200000; i++) {
+            // Spread evenly over the exponents, plus the edges around each power of two.
+            long value = (i % 3 == 0) ? (1L << random.nextInt(42)) + random.nextInt(3) - 1
+                    : (long) Math.pow(2.0, random.nextDouble() * 41.0);
+            value = Math.max(0L, Math.min(value, (1L << 41) - 1));
+            int bucket = LatencyHistogram.bucketFor(value);
+            long highest = LatencyHistogram.highestValueIn(bucket);
+            long lowest = (bucket == 0) ? 0L : LatencyHistogram.highestValueIn(bucket - 1) + 1;
+            assertTrue("value " + value, (lowest <= value) && (value <= highest));
+            assertTrue("value " + value, highest - lowest <= Math.max(0L, value / 16));
+        }
+        // Buckets run on from one another, with the last taking everything larger.
+        for (int b = 1; b < LatencyHistogram.BUCKET_COUNT; b++) {
+            long start = LatencyHistogram.highestValueIn(b - 1) + 1;
+            assertEquals(b, LatencyHistogram.bucketFor(start));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketFor(1L << 50));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesMatchSortedValues() {
+        Random random = new Random(2L);
+        long[] values = new long[100000];
+        double total = 0.0;
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal around 2 ms in nanoseconds, with a long tail like real latencies.
+            values[i] = (long) (2000000.0 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+            total += values[i];
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(total / values.length, histogram.getMean(), 1.0);
+        assertEquals(values[values.length - 1], histogram.getMax());
+
+        for (double percentile : new double[] {0.0, 1.0, 50.0, 90.0, 99.0, 99.9, 100.0}) {
+            int rank = (int) Math.ceil(percentile / 100.0 * values.length);
+            long exact = values[Math.max(0, rank - 1)];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + "th " + reported + " for " + exact,
+                    (reported >= exact) && (reported <= exact + exact / 16));
+        }
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void recordsNothingWhileDisabled() {
+        Metrics.setEnabled(false);
+        histogram.record(5L);
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getValueAtPercentile(50.0));
+
+        Metrics.setEnabled(true);
+        histogram.record(-5L);
+        assertEquals(1L, histogram.getCount());
+        assertEquals(0L, histogram.getMax());
+        histogram.record(7L);
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0L, histogram.getMax());
+        assertEquals(0L, histogram.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void threadsRecordingTogetherLoseNothing() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 250000; i++) {
+                        histogram.record(random.nextInt(1000000));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000000L, histogram.getCount());
+        assertTrue(histogram.getMax() < 1000000L);
+        assertTrue(histogram.getMax() >= 999000L);
+    }
+
+    @Test
+    public void dumpReadsBack() throws IOException {
+        Metrics.reset();
+        for (int i = 0; i < 1000; i++) {
+            Metrics.PEBBLE_ACK.record(100 + i);
+        }
+        Metrics.FIXES.add(42L);
+        File file = folder.newFile("metrics.dump");
+        Metrics.writeDump(file);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            assertEquals(0x52544d31, in.readInt()); // "RTM1"
+            in.readShort();
+            in.readShort();
+            assertTrue(in.readLong() > 0L);
+            in.readLong();
+            int counters = in.readInt();
+            long fixes = -1L;
+            for (int i = 0; i < counters; i++) {
+                String name = in.readUTF();
+                long value = in.readLong();
+                if (name.equals("fixes")) {
+                    fixes = value;
+                }
+            }
+            assertEquals(42L, fixes);
+
+            int histograms = in.readInt();
+            boolean found = false;
+            for (int h = 0; h < histograms; h++) {
+                String name = in.readUTF();
+                in.readLong();
+                long count = in.readLong();
+                long total = in.readLong();
+                long max = in.readLong();
+                assertEquals(4, in.readByte());
+                int used = in.readShort();
+                long inBuckets = 0L;
+                for (int i = 0; i < used; i++) {
+                    int bucket = in.readShort();
+                    long n = in.readLong();
+                    assertTrue(LatencyHistogram.highestValueIn(bucket) <= (1L << 41));
+                    inBuckets += n;
+                }
+                assertEquals(count, inBuckets);
+                if (name.equals("pebble_ack")) {
+                    found = true;
+                    assertEquals(1000L, count);
+                    assertEquals(1000L * 100 + 999L * 1000 / 2, total);
+                    assertEquals(1099L, max);
+                }
+            }
+            assertTrue(found);
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+}
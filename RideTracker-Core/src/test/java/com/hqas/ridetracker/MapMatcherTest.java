@@ -0,0 +1,162 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.hqas.ridetracker.RoadGraphTest.latitude;
+import static com.hqas.ridetracker.RoadGraphTest.longitude;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MapMatcherTest {
+
+    private static final long START = 1384250400000L;
+
+    private final RoadGraph graph = RoadGraphTest.twoStreets();
+    private final Recorder recorder = new Recorder();
+
+    @Test
+    public void noisyTraceSnapsToTheStreetItFollows() {
+        MapMatcher matcher = new MapMatcher(graph, MapMatcher.LIVE_WINDOW, recorder);
+        Random random = new Random(3L);
+        // Along the south street at 10 m/s, wandering up to 20 m towards the north one.
+        for (int i = 0; i < 97; i++) {
+            double north = Math.max(-20.0, Math.min(20.0, 8.0 * random.nextGaussian()));
+            matcher.update(START + 1000L * i, latitude(north), longitude(20.0 + 10.0 * i), 10.0f,
+                    i);
+        }
+        matcher.flush();
+
+        assertEquals(97, recorder.tags.size());
+        assertEquals(0L, matcher.getUnmatchedCount());
+        double routed = 0.0;
+        for (int i = 0; i < 97; i++) {
+            assertTrue(recorder.matched.get(i));
+            assertEquals(Long.valueOf(i), recorder.tags.get(i));
+            assertEquals(latitude(0.0), recorder.latitudes.get(i), 1e-6);
+            assertEquals(longitude(20.0 + 10.0 * i), recorder.longitudes.get(i), 0.0003);
+            routed += recorder.routes.get(i);
+        }
+        assertEquals(960.0, routed, 20.0);
+    }
+
+    @Test
+    public void batchWindowCommitsTheOldestOnceFull() {
+        MapMatcher matcher = new MapMatcher(graph, MapMatcher.BATCH_WINDOW, recorder);
+        int i = 0;
+        for (; i < MapMatcher.BATCH_WINDOW; i++) {
+            along(matcher, i);
+        }
+        // A full window, but nothing has had to leave it yet.
+        assertEquals(0, recorder.tags.size());
+
+        along(matcher, i++);
+        assertEquals(1, recorder.tags.size());
+        assertEquals(Long.valueOf(0L), recorder.tags.get(0));
+        assertEquals(0.0, recorder.routes.get(0), 0.0);
+
+        matcher.flush();
+        assertEquals(MapMatcher.BATCH_WINDOW + 1, recorder.tags.size());
+        for (int k = 0; k <= MapMatcher.BATCH_WINDOW; k++) {
+            assertEquals(Long.valueOf(k), recorder.tags.get(k));
+            if (k > 0) {
+                assertEquals(10.0, recorder.routes.get(k), 0.5);
+            }
+        }
+
+        // After a flush the next fix starts a path of its own.
+        along(matcher, i);
+        matcher.flush();
+        assertEquals(MapMatcher.BATCH_WINDOW + 2, recorder.tags.size());
+        assertEquals(0.0, recorder.routes.get(MapMatcher.BATCH_WINDOW + 1), 0.0);
+    }
+
+    @Test
+    public void fixWithNoRoadNearIsPassedThrough() {
+        MapMatcher matcher = new MapMatcher(graph, MapMatcher.LIVE_WINDOW, recorder);
+        for (int i = 0; i < 5; i++) {
+            along(matcher, i);
+        }
+        // 500 m south of everything.
+        matcher.update(START + 5000L, latitude(-500.0), longitude(60.0), 10.0f, 5L);
+
+        // The fixes before it are committed first, then it goes out as it came in.
+        assertEquals(6, recorder.tags.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(recorder.matched.get(i));
+        }
+        assertFalse(recorder.matched.get(5));
+        assertEquals(Long.valueOf(5L), recorder.tags.get(5));
+        assertEquals(latitude(-500.0), recorder.latitudes.get(5), 0.0);
+        assertEquals(longitude(60.0), recorder.longitudes.get(5), 0.0);
+        assertEquals(1L, matcher.getUnmatchedCount());
+
+        // Back on the street, the path starts again.
+        for (int i = 6; i < 9; i++) {
+            along(matcher, i);
+        }
+        matcher.flush();
+        assertEquals(9, recorder.tags.size());
+        assertTrue(recorder.matched.get(6));
+        assertEquals(0.0, recorder.routes.get(6), 0.0);
+        assertEquals(10.0, recorder.routes.get(7), 0.5);
+    }
+
+    /**
+     * A fix right on the south street, 10 m further east each second.
+     */
+    private static void along(MapMatcher matcher, int i) {
+        matcher.update(START + 1000L * i, latitude(0.0), longitude(20.0 + 10.0 * i), 5.0f, i);
+    }
+
+    private static class Recorder implements MapMatcher.Listener {
+        final List<Long> tags = new ArrayList<Long>();
+        final List<Boolean> matched = new ArrayList<Boolean>();
+        final List<Double> latitudes = new ArrayList<Double>();
+        final List<Double> longitudes = new ArrayList<Double>();
+        final List<Double> routes = new ArrayList<Double>();
+
+        @Override
+        public void onMatched(long tag, long time, double latitude, double longitude,
+                              double routeMeters) {
+            add(tag, true, latitude, longitude, routeMeters);
+        }
+
+        @Override
+        public void onUnmatched(long tag, long time, double latitude, double longitude) {
+            add(tag, false, latitude, longitude, 0.0);
+        }
+
+        private void add(long tag, boolean isMatched, double latitude, double longitude,
+                         double route) {
+            tags.add(tag);
+            matched.add(isMatched);
+            latitudes.add(latitude);
+            longitudes.add(longitude);
+            routes.add(route);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionDetectorTest {
+
+    private static final long START = 1384250400000L;
+
+    private final MotionDetector detector = new MotionDetector();
+    private final Random random = new Random(11);
+    // Noise that wanders like a receiver's, in metres.
+    private double noiseX;
+    private double noiseY;
+    private long time = START;
+    private double along;
+    private final List<Long> stops = new ArrayList<Long>();
+    private final List<Long> resumes = new ArrayList<Long>();
+
+    @Test
+    public void pausesAtEachStopOfAReplayedRide() {
+        // The synthetic ride stops for the last 30 seconds of every 10 minutes.
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(track, 3000, 1000L, 4.0, 5L);
+        TrackBuffer.View view = track.view(null);
+        for (int i = 0; i < view.size(); i++) {
+            feed(view.getTime(i), view.getLatitude(i), view.getLongitude(i), -1.0f,
+                    view.getAccuracy(i));
+        }
+
+        assertEquals(5, detector.getStopCount());
+        assertEquals(5, stops.size());
+        for (int i = 0; i < stops.size(); i++) {
+            long stopBegan = START + (570L + 600L * i) * 1000L;
+            // Pause from close to when the rider stopped, once it's sure.
+            assertTrue("Stop " + i + " at " + (stops.get(i) - stopBegan),
+                    (stops.get(i) >= stopBegan) && (stops.get(i) - stopBegan <= 15000L));
+        }
+        // Every stop but the last, which the ride ends in, is ridden away from quickly.
+        assertEquals(4, resumes.size());
+        for (int i = 0; i < resumes.size(); i++) {
+            long stopEnded = START + 600000L * (i + 1);
+            assertTrue("Resume " + i + " at " + (resumes.get(i) - stopEnded),
+                    (resumes.get(i) >= stopEnded) && (resumes.get(i) - stopEnded <= 10000L));
+        }
+        long paused = detector.getPausedMs(view.getTime(view.size() - 1));
+        assertTrue("Paused " + paused, (paused > 5 * 15000L) && (paused < 5 * 30000L));
+    }
+
+    @Test
+    public void driftAtAStandstillStaysStopped() {
+        ride(60, 8.0f);
+        stand(600, 6.0f);
+        assertEquals(1, detector.getStopCount());
+        assertTrue(detector.isStopped());
+        assertEquals(0, resumes.size());
+    }
+
+    @Test
+    public void crawlingInTrafficIsNotAStop() {
+        ride(60, 8.0f);
+        ride(300, 1.5f);
+        assertEquals(0, detector.getStopCount());
+        assertFalse(detector.isStopped());
+    }
+
+    @Test
+    public void oneWildFixDoesntEndAStop() {
+        ride(60, 8.0f);
+        stand(30, 4.0f);
+        assertTrue(detector.isStopped());
+        feed(time, latitude(along + 150.0, 0.0), -0.12, 25.0f, 5.0f);
+        time += 1000L;
+        stand(30, 4.0f);
+        assertTrue(detector.isStopped());
+        assertEquals(1, detector.getStopCount());
+
+        ride(30, 8.0f);
+        assertFalse(detector.isStopped());
+        assertEquals(MotionDetector.State.MOVING, detector.getState());
+    }
+
+    @Test
+    public void aFalseStartCountsAsOneMoreStop() {
+        ride(60, 8.0f);
+        stand(30, 4.0f);
+        // Edges forward in a queue, far enough to count as moving off, and stops again.
+        ride(8, 5.0f);
+        assertEquals(MotionDetector.State.RESUMED, detector.getState());
+        stand(30, 4.0f);
+        assertTrue(detector.isStopped());
+        assertEquals(2, detector.getStopCount());
+    }
+
+    @Test
+    public void worksWithoutReceiverSpeeds() {
+        rideWithoutSpeed(60, 8.0f);
+        standWithoutSpeed(60);
+        assertTrue(detector.isStopped());
+        rideWithoutSpeed(30, 8.0f);
+        assertEquals(MotionDetector.State.MOVING, detector.getState());
+        assertEquals(1, resumes.size());
+        assertTrue(Math.abs(detector.getPausedMs(time) - 60000L) < 15000L);
+    }
+
+    private void ride(int seconds, float speed) {
+        for (int i = 0; i < seconds; i++) {
+            along += speed;
+            fix(speed + (float) random.nextGaussian() * 0.3f);
+        }
+    }
+
+    private void stand(int seconds, float noiseMeters) {
+        for (int i = 0; i < seconds; i++) {
+            fix(Math.abs((float) random.nextGaussian()) * noiseMeters / 10.0f);
+        }
+    }
+
+    private void rideWithoutSpeed(int seconds, float speed) {
+        for (int i = 0; i < seconds; i++) {
+            along += speed;
+            fix(-1.0f);
+        }
+    }
+
+    private void standWithoutSpeed(int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            fix(-1.0f);
+        }
+    }
+
+    /**
+     * A fix due north along the road with receiver noise, a second after the last.
+     */
+    private void fix(float speed) {
+        noiseX = 0.8 * noiseX + 0.6 * 3.0 * random.nextGaussian();
+        noiseY = 0.8 * noiseY + 0.6 * 3.0 * random.nextGaussian();
+        feed(time, latitude(along, noiseY),
+                -0.12 + noiseX / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(51.5))),
+                speed, 5.0f);
+        time += 1000L;
+    }
+
+    private static double latitude(double meters, double noise) {
+        return 51.5 + (meters + noise) / GeoMath.METERS_PER_DEGREE;
+    }
+
+    private void feed(long time, double latitude, double longitude, float speed, float accuracy) {
+        if (detector.update(time, latitude, longitude, speed, accuracy)) {
+            if (detector.isStopped()) {
+                stops.add(detector.getStoppedAt());
+            } else if (detector.getState() == MotionDetector.State.RESUMED) {
+                resumes.add(time);
+            }
+        }
+    }
+}
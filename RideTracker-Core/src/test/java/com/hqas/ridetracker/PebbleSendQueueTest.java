@@ -0,0 +1,329 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import com.getpebble.android.kit.util.PebbleDictionary;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PebbleSendQueueTest {
+
+    private static final long START = 1384250400000L;
+
+    private ManualScheduler scheduler;
+    private final List<PebbleDictionary> sent = new ArrayList<PebbleDictionary>();
+    private final List<Integer> sentIds = new ArrayList<Integer>();
+    private int telemetryBuilt;
+    private int telemetryLost;
+    private PebbleSendQueue queue;
+
+    // Hands every message over and leaves the test to ack or nack it.
+    private final PebbleSendQueue.Transport link = new PebbleSendQueue.Transport() {
+        @Override
+        public void send(PebbleDictionary data, int transactionId) {
+            sent.add(data);
+            sentIds.add(transactionId);
+        }
+    };
+
+    private final PebbleSendQueue.TelemetrySource telemetry =
+            new PebbleSendQueue.TelemetrySource() {
+                @Override
+                public PebbleDictionary buildTelemetry() {
+                    PebbleDictionary data = new PebbleDictionary();
+                    data.addInt32(PebbleKeys.TELEMETRY, ++telemetryBuilt);
+                    return data;
+                }
+
+                @Override
+                public void onTelemetryLost() {
+                    telemetryLost++;
+                }
+            };
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler(START);
+        queue = new PebbleSendQueue(link, scheduler, telemetry);
+    }
+
+    @Test
+    public void oneInFlightAndControlFirst() {
+        queue.markTelemetryDirty();
+        assertEquals(1, sent.size());
+        queue.markTelemetryDirty();
+        queue.markTelemetryDirty();
+        assertTrue(queue.sendControl(PebbleKeys.RESET, control(PebbleKeys.RESET, "reset")));
+        assertEquals(1, sent.size());
+        assertEquals(1L, queue.getCoalescedCount());
+
+        ackLast();
+        assertEquals("reset", sent.get(1).getString(PebbleKeys.RESET));
+        ackLast();
+        // The three dirty marks went as one message, built when it was sent.
+        assertEquals(Long.valueOf(2L), sent.get(2).getInteger(PebbleKeys.TELEMETRY));
+        ackLast();
+        assertEquals(3, sent.size());
+        assertTrue(queue.isIdle());
+        assertEquals(3L, queue.getAckCount());
+    }
+
+    @Test
+    public void newerControlReplacesTheOneWaiting() {
+        queue.sendControl(PebbleKeys.RESET, control(PebbleKeys.RESET, "reset"));
+        queue.sendControl(PebbleKeys.START_STOP, control(PebbleKeys.START_STOP, "stopped"));
+        queue.sendControl(PebbleKeys.RESET, control(PebbleKeys.RESET, "reset"));
+        queue.sendControl(PebbleKeys.START_STOP, control(PebbleKeys.START_STOP, "started"));
+        // The first reset is already in flight, so only the stop is overtaken.
+        assertEquals(1L, queue.getSupersededCount());
+
+        drain();
+        assertEquals(3, sent.size());
+        assertEquals("started", sent.get(2).getString(PebbleKeys.START_STOP));
+        assertEquals("reset", sent.get(1).getString(PebbleKeys.RESET));
+        assertEquals(0L, queue.getDropCount());
+    }
+
+    @Test
+    public void pauseAndResumeStormEndsOnTheLastState() {
+        queue.markTelemetryDirty();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(queue.sendControl(PebbleKeys.START_STOP,
+                    control(PebbleKeys.START_STOP, (i % 2 == 0) ? "stopped" : "started")));
+        }
+        drain();
+        assertEquals(2, sent.size());
+        assertEquals("started", sent.get(1).getString(PebbleKeys.START_STOP));
+        assertEquals(999L, queue.getSupersededCount());
+        assertEquals(0L, queue.getDropCount());
+    }
+
+    @Test
+    public void refusesRatherThanDroppingWhenFull() {
+        queue.markTelemetryDirty();
+        int accepted = 0;
+        for (int key = 100; key < 120; key++) {
+            if (queue.sendControl(key, control(key, "m" + key))) {
+                accepted++;
+            }
+        }
+        assertEquals(16, accepted);
+        assertEquals(4L, queue.getRefusedCount());
+        assertEquals(0L, queue.getDropCount());
+
+        drain();
+        // The ones taken all went, oldest first.
+        assertEquals(17, sent.size());
+        for (int i = 0; i < 16; i++) {
+            assertEquals("m" + (100 + i), sent.get(i + 1).getString(100 + i));
+        }
+    }
+
+    @Test
+    public void backgroundWaitsForControlAndTelemetry() {
+        queue.markTelemetryDirty();
+        assertTrue(queue.sendBackground(PebbleKeys.PROFILE, control(PebbleKeys.PROFILE, "old")));
+        assertTrue(queue.sendBackground(PebbleKeys.PROFILE, control(PebbleKeys.PROFILE, "new")));
+        queue.sendControl(PebbleKeys.START_STOP, control(PebbleKeys.START_STOP, "stopped"));
+        queue.markTelemetryDirty();
+        assertEquals(1L, queue.getSupersededCount());
+
+        drain();
+        assertEquals(4, sent.size());
+        assertEquals("stopped", sent.get(1).getString(PebbleKeys.START_STOP));
+        assertEquals(Long.valueOf(2L), sent.get(2).getInteger(PebbleKeys.TELEMETRY));
+        assertEquals("new", sent.get(3).getString(PebbleKeys.PROFILE));
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void backgroundIsNotStarvedByTelemetry() {
+        queue.markTelemetryDirty();
+        queue.sendBackground(PebbleKeys.PROFILE, control(PebbleKeys.PROFILE, "profile"));
+        long sentAt = -1L;
+        // Telemetry changes faster than the watch acks it, so it's always dirty.
+        for (int i = 1; (i < 100) && (sentAt < 0); i++) {
+            queue.markTelemetryDirty();
+            scheduler.advanceTo(START + i * 500L);
+            ackLast();
+            if (sent.get(sent.size() - 1).getString(PebbleKeys.PROFILE) != null) {
+                sentAt = scheduler.now();
+            }
+        }
+        assertEquals(START + PebbleSendQueue.MAX_BACKGROUND_WAIT_MS, sentAt);
+        ackLast();
+        // The telemetry it overtook goes next.
+        assertTrue(sent.get(sent.size() - 1).getInteger(PebbleKeys.TELEMETRY) != null);
+    }
+
+    @Test
+    public void clearDropsWaitingBackground() {
+        queue.markTelemetryDirty();
+        queue.sendBackground(PebbleKeys.PROFILE, control(PebbleKeys.PROFILE, "profile"));
+        queue.clear();
+        assertEquals(2L, queue.getDropCount());
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void eventsAreNeverSuperseded() {
+        queue.markTelemetryDirty();
+        for (int gate = 0; gate < 3; gate++) {
+            PebbleDictionary split = new PebbleDictionary();
+            split.addInt32(PebbleKeys.SEGMENT, 0);
+            split.addInt32(PebbleKeys.SEGMENT_GATE, gate);
+            assertTrue(queue.sendEvent(split));
+        }
+        queue.sendControl(PebbleKeys.START_STOP, control(PebbleKeys.START_STOP, "stopped"));
+        queue.markTelemetryDirty();
+
+        drain();
+        assertEquals(0L, queue.getSupersededCount());
+        assertEquals(6, sent.size());
+        // Control first, then every split in order, then telemetry.
+        assertEquals("stopped", sent.get(1).getString(PebbleKeys.START_STOP));
+        for (int gate = 0; gate < 3; gate++) {
+            assertEquals(Long.valueOf(gate),
+                    sent.get(2 + gate).getInteger(PebbleKeys.SEGMENT_GATE));
+        }
+        assertEquals(Long.valueOf(2L), sent.get(5).getInteger(PebbleKeys.TELEMETRY));
+    }
+
+    @Test
+    public void refusesEventsWhenFull() {
+        queue.markTelemetryDirty();
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            PebbleDictionary split = new PebbleDictionary();
+            split.addInt32(PebbleKeys.SEGMENT_GATE, i);
+            if (queue.sendEvent(split)) {
+                accepted++;
+            }
+        }
+        assertEquals(8, accepted);
+        assertEquals(2L, queue.getRefusedCount());
+        queue.clear();
+        assertEquals(9L, queue.getDropCount());
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void nackRetriesWithBackoffThenGivesUp() {
+        queue.sendControl(PebbleKeys.START_STOP, control(PebbleKeys.START_STOP, "started"));
+        long[] backoffs = {250L, 500L, 1000L};
+        for (long backoff : backoffs) {
+            int before = sent.size();
+            nackLast();
+            scheduler.advanceTo(scheduler.now() + backoff - 1);
+            assertEquals(before, sent.size());
+            scheduler.advanceTo(scheduler.now() + 1);
+            assertEquals(before + 1, sent.size());
+            // Resent as it was, under a new transaction id.
+            assertEquals("started", sent.get(before).getString(PebbleKeys.START_STOP));
+            assertFalse(sentIds.get(before).equals(sentIds.get(before - 1)));
+        }
+        nackLast();
+        assertEquals(4, sent.size());
+        assertEquals(3L, queue.getRetryCount());
+        assertEquals(1L, queue.getDropCount());
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void lostTelemetryIsRebuiltNotResent() {
+        queue.markTelemetryDirty();
+        // No ack at all: the timeout counts as a failure.
+        scheduler.advanceTo(START + 3000L);
+        assertEquals(1L, queue.getTimeoutCount());
+        scheduler.advanceTo(START + 3250L);
+        assertEquals(1, telemetryLost);
+        assertEquals(2, sent.size());
+        assertEquals(Long.valueOf(2L), sent.get(1).getInteger(PebbleKeys.TELEMETRY));
+        ackLast();
+        // Latency runs from when it was first marked dirty.
+        assertEquals(3250L, queue.getMaxLatencyMs());
+    }
+
+    @Test
+    public void lateAcksAreIgnored() {
+        queue.sendControl(PebbleKeys.RESET, control(PebbleKeys.RESET, "reset"));
+        int first = sentIds.get(0);
+        nackLast();
+        queue.onAck(first);
+        assertEquals(0L, queue.getAckCount());
+        scheduler.advanceTo(START + 250L);
+        queue.onAck(first);
+        assertEquals(0L, queue.getAckCount());
+        ackLast();
+        assertEquals(1L, queue.getAckCount());
+    }
+
+    @Test
+    public void flakyLinkKeepsTheCountsStraight() {
+        // The test's telemetry isn't a real frame, so the fake watch isn't told where to look.
+        FakePebble pebble = new FakePebble(scheduler, -1, 150L, 0.2, 5L);
+        PebbleSendQueue lossy = new PebbleSendQueue(pebble, scheduler, telemetry);
+        pebble.attach(lossy);
+        for (int i = 0; i < 600; i++) {
+            lossy.markTelemetryDirty();
+            if (i % 60 == 0) {
+                lossy.sendControl(PebbleKeys.START_STOP,
+                        control(PebbleKeys.START_STOP, (i % 120 == 0) ? "started" : "stopped"));
+            }
+            scheduler.advanceTo(START + i * 1000L);
+        }
+        scheduler.advanceTo(scheduler.now() + 60000L);
+        assertTrue(lossy.isIdle());
+        assertTrue(pebble.getLostCount() > 0);
+        assertTrue(lossy.getRetryCount() >= pebble.getLostCount() - lossy.getDropCount() * 4);
+        assertEquals(pebble.getMessageCount(), lossy.getSentCount());
+        assertTrue(lossy.getAverageLatencyMs() >= 150L);
+    }
+
+    private static PebbleDictionary control(int key, String value) {
+        PebbleDictionary data = new PebbleDictionary();
+        data.addString(key, value);
+        return data;
+    }
+
+    private void ackLast() {
+        queue.onAck(sentIds.get(sentIds.size() - 1));
+    }
+
+    private void nackLast() {
+        queue.onNack(sentIds.get(sentIds.size() - 1));
+    }
+
+    private void drain() {
+        int acked = -1;
+        while (acked != sent.size()) {
+            acked = sent.size();
+            ackLast();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RideArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrackBuffer track;
+    private TrackBuffer.View view;
+    private File file;
+    private RideArchive archive;
+    private final RideArchive.Block block = new RideArchive.Block();
+
+    @Before
+    public void setUp() throws IOException {
+        track = new TrackBuffer(10, 16);
+        ReplayEngine.synthesize(track, 10000, 1000L, 4.0, 21L);
+        view = track.view(null);
+        file = new File(folder.getRoot(), "ride.rta");
+        RideArchiveWriter.write(view, file);
+        archive = new RideArchive(file);
+        assertTrue(archive.getBlockCount() > 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        archive.close();
+    }
+
+    @Test
+    public void roundTripsWithinTheFixedPoint() throws IOException {
+        assertEquals(10000L, archive.getPointCount());
+        assertSame(view, readAll(archive));
+        // One fix a second packs small.
+        assertTrue("Took " + file.length() + " bytes", file.length() < 4L * 10000L);
+    }
+
+    @Test
+    public void roundTripsIrregularFixes() throws IOException {
+        // Times that jitter and skip, accuracies that change every fix, and big jumps: across
+        // the antimeridian, pole to pole, and below sea level.
+        Random random = new Random(8);
+        TrackBuffer irregular = new TrackBuffer(10, 16);
+        long time = 1384250400000L;
+        for (int i = 0; i < 2 * RideArchive.BLOCK_SIZE + 1; i++) {
+            time += 1000L + random.nextInt(200) - 100 + ((i % 500 == 0) ? 86400000L : 0L);
+            double lat = (i % 1000 == 1) ? -80.0 + random.nextDouble() * 160.0
+                    : 51.5 + random.nextGaussian() * 0.001;
+            double lon = (i % 2 == 0) ? 179.9999 : -179.9999;
+            irregular.append(lat, lon, -400.0 + random.nextDouble() * 9000.0, time,
+                    random.nextInt(100));
+        }
+        File other = new File(folder.getRoot(), "irregular.rta");
+        RideArchiveWriter.write(irregular.view(null), other);
+        RideArchive reader = new RideArchive(other);
+        try {
+            assertEquals(3, reader.getBlockCount());
+            assertSame(irregular.view(null), readAll(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void roundTripsOneFix() throws IOException {
+        TrackBuffer one = new TrackBuffer(10, 8);
+        one.append(-33.9, 18.4, 12.3, 5L, 3.0f);
+        File other = new File(folder.getRoot(), "one.rta");
+        RideArchiveWriter.write(one.view(null), other);
+        RideArchive reader = new RideArchive(other);
+        try {
+            assertEquals(1, reader.getBlockCount());
+            assertSame(one.view(null), readAll(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void queriesMatchFilteringEveryPoint() throws IOException {
+        TrackBuffer.View all = readAll(archive);
+        Random random = new Random(4);
+        for (int q = 0; q < 50; q++) {
+            int a = random.nextInt(view.size());
+            int b = random.nextInt(view.size());
+            double minLat = Math.min(view.getLatitude(a), view.getLatitude(b));
+            double maxLat = Math.max(view.getLatitude(a), view.getLatitude(b));
+            double minLon = Math.min(view.getLongitude(a), view.getLongitude(b));
+            double maxLon = Math.max(view.getLongitude(a), view.getLongitude(b));
+            long fromTime = view.getTime(random.nextInt(view.size()));
+            long toTime = fromTime + random.nextInt(5000) * 1000L;
+
+            TrackBuffer found = new TrackBuffer(10, 16);
+            int count = archive.query(minLat, minLon, maxLat, maxLon, fromTime, toTime, block,
+                    found);
+            assertEquals(count, found.size());
+            int n = 0;
+            for (int i = 0; i < all.size(); i++) {
+                double lat = all.getLatitude(i);
+                double lon = all.getLongitude(i);
+                if ((lat >= minLat) && (lat <= maxLat) && (lon >= minLon) && (lon <= maxLon)
+                        && (all.getTime(i) >= fromTime) && (all.getTime(i) <= toTime)) {
+                    assertEquals(all.getTime(i), found.getTime(found.getFirstIndex() + n));
+                    n++;
+                }
+            }
+            assertEquals(n, count);
+        }
+    }
+
+    @Test
+    public void corruptBlocksAreCaught() throws IOException {
+        archive.close();
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(100);
+            int b = raw.read();
+            raw.seek(100);
+            raw.write(b ^ 0x10);
+        } finally {
+            raw.close();
+        }
+        archive = new RideArchive(file);
+        try {
+            archive.readBlock(0, block);
+            fail();
+        } catch (IOException expected) {
+            // The block's CRC doesn't match.
+        }
+        // The other blocks are fine.
+        archive.readBlock(1, block);
+        assertEquals(RideArchive.BLOCK_SIZE, block.size);
+    }
+
+    @Test
+    public void readsTheStretchBetweenTwoPoints() throws IOException {
+        TrackBuffer out = new TrackBuffer(10, 8);
+        // Across block boundaries.
+        assertEquals(5001, archive.readStretch(view.getLatitude(3000), view.getLongitude(3000),
+                view.getLatitude(8000), view.getLongitude(8000), 50.0, block, out));
+        TrackBuffer.View stretch = out.view(null);
+        assertEquals(5001, stretch.size());
+        for (int i = 0; i < stretch.size(); i++) {
+            assertEquals(view.getTime(3000 + i), stretch.getTime(i));
+            assertEquals(view.getLatitude(3000 + i), stretch.getLatitude(i), 1e-6);
+            assertEquals(view.getLongitude(3000 + i), stretch.getLongitude(i), 1e-6);
+        }
+    }
+
+    @Test
+    public void findsNothingTheWrongWayRound() throws IOException {
+        TrackBuffer out = new TrackBuffer(10, 8);
+        assertEquals(0, archive.readStretch(view.getLatitude(8000), view.getLongitude(8000),
+                view.getLatitude(3000), view.getLongitude(3000), 50.0, block, out));
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    public void findsNothingAwayFromTheRide() throws IOException {
+        TrackBuffer out = new TrackBuffer(10, 8);
+        assertEquals(0, archive.readStretch(view.getLatitude(3000), view.getLongitude(3000),
+                view.getLatitude(8000) + 0.01, view.getLongitude(8000), 50.0, block, out));
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    public void findsNothingTooLongToHold() throws IOException {
+        TrackBuffer out = new TrackBuffer(10, 8);
+        assertEquals(0, archive.readStretch(view.getLatitude(100), view.getLongitude(100),
+                view.getLatitude(9900), view.getLongitude(9900), 50.0, block, out));
+        assertTrue(out.isEmpty());
+    }
+
+    private TrackBuffer.View readAll(RideArchive reader) throws IOException {
+        TrackBuffer out = new TrackBuffer(10, 16);
+        reader.readAll(block, out);
+        return out.view(null);
+    }
+
+    /**
+     * Same fixes to within the archive's units: a millionth of a degree, a tenth of a metre of
+     * altitude and whole metres of accuracy.
+     */
+    private static void assertSame(TrackBuffer.View expected, TrackBuffer.View actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 5e-7);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 5e-7);
+            assertEquals(expected.getAltitude(i), actual.getAltitude(i), 0.05);
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(Math.round(expected.getAccuracy(i)), actual.getAccuracy(i), 0.0);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RideIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private RideIndex index;
+    // Every point added as {ride, latitude, longitude, tile x, tile y}, for working the answers
+    // out the slow way.
+    private final List<double[]> points = new ArrayList<double[]>();
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "rides.idx");
+        index = new RideIndex(file);
+        assertEquals(0, index.open());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void boxQueriesMatchBruteForce() throws IOException {
+        Random random = new Random(12);
+        // Out of order, so new entries land between old ones within a tile.
+        List<Long> rides = new ArrayList<Long>();
+        for (long ride = 1; ride <= 60; ride++) {
+            rides.add(ride);
+        }
+        Collections.shuffle(rides, random);
+        TreeSet<String> pairs = new TreeSet<String>();
+        for (long ride : rides) {
+            int from = points.size();
+            addRandomRide(ride, random);
+            for (int i = from; i < points.size(); i++) {
+                pairs.add(ride + "@" + (int) points.get(i)[3] + "," + (int) points.get(i)[4]);
+            }
+            // Each (tile, ride) once, which only holds while the entries stay in order.
+            assertEquals(pairs.size(), index.getEntryCount());
+            // Query between rides too, so some answers come partly from the pending run.
+            for (int q = 0; q < 10; q++) {
+                checkRandomBox(random);
+            }
+        }
+        assertTrue("Too few entries to merge: " + index.getEntryCount(),
+                index.getEntryCount() > 1000);
+
+        for (double[] point : points) {
+            index.add((long) point[0], point[1], point[2]);
+        }
+        assertEquals(pairs.size(), index.getEntryCount());
+    }
+
+    @Test
+    public void wideBoxesAreScanned() throws IOException {
+        Random random = new Random(3);
+        for (int ride = 1; ride <= 5; ride++) {
+            addRandomRide(ride, random);
+        }
+        assertArrayEquals(new long[] {1, 2, 3, 4, 5},
+                index.queryBoundingBox(-80.0, -179.0, 80.0, 179.0));
+    }
+
+    @Test
+    public void boxesCanCrossTheAntimeridian() throws IOException {
+        index.add(1L, -17.0, 179.99);
+        index.add(2L, -17.0, -179.99);
+        index.add(3L, -17.0, 178.0);
+        assertArrayEquals(new long[] {1, 2},
+                index.queryBoundingBox(-17.1, 179.9, -16.9, -179.9));
+    }
+
+    @Test
+    public void corridorsNeedTheWholeStretch() throws IOException {
+        // Ride 1 goes the whole way east, ride 2 turns off half way, ride 3 is elsewhere.
+        for (int i = 0; i <= 1000; i++) {
+            index.add(1L, 51.5, -0.2 + i * 0.0002);
+            index.add(2L, 51.5 + ((i > 500) ? (i - 500) * 0.0002 : 0.0),
+                    -0.2 + Math.min(i, 500) * 0.0002);
+            index.add(3L, 52.5, -0.2 + i * 0.0002);
+        }
+        double[] lats = {51.5, 51.5, 51.5};
+        double[] lons = {-0.2, -0.1, 0.0};
+        assertArrayEquals(new long[] {1}, index.queryCorridor(lats, lons, 3, 100.0));
+        assertArrayEquals(new long[] {1, 2}, index.queryCorridor(lats, lons, 2, 100.0));
+    }
+
+    @Test
+    public void reopeningKeepsEntriesAndDropsATornRecord() throws IOException {
+        Random random = new Random(5);
+        for (int ride = 1; ride <= 20; ride++) {
+            addRandomRide(ride, random);
+        }
+        int entries = index.getEntryCount();
+        long[] before = index.queryBoundingBox(51.4, -0.3, 51.6, 0.0);
+        index.close();
+
+        // Half a record, as if the process died mid write.
+        FileOutputStream torn = new FileOutputStream(file, true);
+        torn.write(new byte[RideIndex.RECORD_SIZE / 2]);
+        torn.close();
+
+        index = new RideIndex(file);
+        assertEquals(entries, index.open());
+        assertArrayEquals(before, index.queryBoundingBox(51.4, -0.3, 51.6, 0.0));
+
+        // Points it already has add nothing, and new ones land after the last whole record.
+        for (double[] point : points) {
+            index.add((long) point[0], point[1], point[2]);
+        }
+        assertEquals(entries, index.getEntryCount());
+        index.add(99L, 10.0, 10.0);
+        index.close();
+        assertEquals(8 + (entries + 1) * RideIndex.RECORD_SIZE, file.length());
+
+        index = new RideIndex(file);
+        assertEquals(entries + 1, index.open());
+        assertArrayEquals(new long[] {99}, index.queryBoundingBox(9.9, 9.9, 10.1, 10.1));
+    }
+
+    /**
+     * A wandering ride around London, some tens of km across.
+     */
+    private void addRandomRide(long ride, Random random) throws IOException {
+        double lat = 51.5 + (random.nextDouble() - 0.5) * 0.3;
+        double lon = -0.1 + (random.nextDouble() - 0.5) * 0.5;
+        double bearing = random.nextDouble() * 2.0 * Math.PI;
+        for (int i = 0; i < 3000; i++) {
+            bearing += random.nextGaussian() * 0.2;
+            lat += Math.cos(bearing) * 20.0 / GeoMath.METERS_PER_DEGREE;
+            lon += Math.sin(bearing) * 20.0
+                    / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            index.add(ride, lat, lon);
+            points.add(new double[] {ride, lat, lon, RideIndex.tileX(lon), RideIndex.tileY(lat)});
+        }
+    }
+
+    private void checkRandomBox(Random random) {
+        double minLat = 51.3 + random.nextDouble() * 0.4;
+        double minLon = -0.4 + random.nextDouble() * 0.6;
+        double maxLat = minLat + random.nextDouble() * 0.05;
+        double maxLon = minLon + random.nextDouble() * 0.08;
+
+        // Any ride with a point in a tile the box touches.
+        int x0 = RideIndex.tileX(minLon);
+        int x1 = RideIndex.tileX(maxLon);
+        int y0 = RideIndex.tileY(maxLat);
+        int y1 = RideIndex.tileY(minLat);
+        TreeSet<Long> expected = new TreeSet<Long>();
+        for (double[] point : points) {
+            int x = (int) point[3];
+            int y = (int) point[4];
+            if ((x >= x0) && (x <= x1) && (y >= y0) && (y <= y1)) {
+                expected.add((long) point[0]);
+            }
+        }
+        long[] wanted = new long[expected.size()];
+        int i = 0;
+        for (Long ride : expected) {
+            wanted[i++] = ride;
+        }
+        long[] found = index.queryBoundingBox(minLat, minLon, maxLat, maxLon);
+        assertArrayEquals(Arrays.toString(found), wanted, found);
+    }
+}
@@ -0,0 +1,100 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RideProcessorTest {
+
+    private static final long START = 1400000000000L;
+    private static final int FIXES = 60;
+    private static final int NO_ALTITUDE = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void liveFixWithoutAltitudeReplaysAsMissing() throws IOException {
+        File file = new File(folder.getRoot(), "ride.journal");
+        RideProcessor live = new RideProcessor(new QuietListener());
+        live.openJournal(file);
+        live.setStarted(true);
+        // Level at 100 m, with one fix the provider gave no altitude for.
+        Fix fix = new Fix();
+        for (int i = 0; i < FIXES; i++) {
+            double altitude = (i == NO_ALTITUDE) ? Double.NaN : 100.0;
+            fix.set(START + 1000L * i, 51.0 + i * 5e-5, -0.1, altitude, 4.0f, 5.5f, 0.0f);
+            // One fix at a time, the way IngestMode.LIVE drains the queue.
+            live.getPipeline().offer(fix);
+            live.getPipeline().drain();
+        }
+        live.closeJournal();
+        TrackBuffer track = live.getTrack();
+        assertEquals(FIXES, track.size());
+        assertTrue(Double.isNaN(track.getAltitude(track.getFirstIndex() + NO_ALTITUDE)));
+
+        RideProcessor recovered = new RideProcessor(new QuietListener());
+        assertEquals(FIXES, recovered.openJournal(file));
+        recovered.closeJournal();
+        track = recovered.getTrack();
+        assertEquals(FIXES, track.size());
+        assertEquals(100.0, track.getAltitude(track.getFirstIndex() + NO_ALTITUDE - 1), 0.0);
+        assertTrue(Double.isNaN(track.getAltitude(track.getFirstIndex() + NO_ALTITUDE)));
+        RideStats.Values stats = recovered.getStats().read();
+        assertEquals(0.0f, stats.elevationGain, 0.0f);
+        assertEquals(0.0f, stats.elevationLoss, 0.0f);
+    }
+
+    private static class QuietListener implements RideProcessor.Listener {
+        @Override
+        public void onSamplingModeChanged(SamplingPolicy.Mode mode) {
+        }
+
+        @Override
+        public void onTelemetryChanged() {
+        }
+
+        @Override
+        public void onSnapshot(RideSnapshot snapshot) {
+        }
+
+        @Override
+        public void onStorageError(String message, IOException e) {
+            throw new AssertionError(message);
+        }
+
+        @Override
+        public void onSegmentSplit(int segment, int gate, int gateCount, long splitMs,
+                                   long deltaMs) {
+        }
+
+        @Override
+        public void onAutoPauseChanged(boolean paused) {
+        }
+    }
+}
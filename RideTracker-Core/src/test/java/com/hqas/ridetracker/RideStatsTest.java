@@ -0,0 +1,229 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RideStatsTest {
+
+    private static final long START = 1384250400000L;
+
+    private final RideStats stats = new RideStats();
+
+    @Test
+    public void rollingWindowsMatchBruteForceAtOneFixASecond() {
+        checkWindows(1000L, 0L);
+    }
+
+    @Test
+    public void rollingWindowsMatchBruteForceAtTenFixesASecond() {
+        checkWindows(100L, 0L);
+    }
+
+    @Test
+    public void rollingWindowsMatchBruteForceWithGapsAndBursts() {
+        checkWindows(1000L, 900L);
+    }
+
+    @Test
+    public void movingTimeAndAverageMatchBruteForce() {
+        Random random = new Random(2);
+        long time = START;
+        long moving = 0L;
+        long last = 0L;
+        float distance = 0.0f;
+        float max = 0.0f;
+        for (int i = 0; i < 5000; i++) {
+            // Mostly riding, with stops and the odd long gap.
+            time += (random.nextInt(100) == 0) ? 45000L : 500L + random.nextInt(1000);
+            float speed = (random.nextInt(10) == 0) ? random.nextFloat() : 2.0f + 10.0f * random.nextFloat();
+            if ((last > 0) && (time - last <= 30000L) && (speed >= 1.0f)) {
+                moving += time - last;
+            }
+            last = time;
+            distance += speed;
+            max = Math.max(max, speed);
+            stats.update(time, speed, Double.NaN, -1.0f, 51.5, -0.12, distance);
+        }
+        stats.publish();
+        RideStats.Values values = stats.read();
+        assertEquals(moving, values.movingMs);
+        assertEquals(distance * 1000.0f / moving, values.averageSpeed, 1e-3);
+        assertEquals(max, values.maxSpeed, 0.0f);
+    }
+
+    @Test
+    public void climbIgnoresNoiseOnTheFlat() {
+        Random random = new Random(3);
+        long time = START;
+        // Flat with three metres of jitter, then 100 m up, 60 m down, with the same jitter.
+        for (int i = 0; i < 600; i++) {
+            feedAltitude(time += 1000L, 50.0 + (random.nextDouble() - 0.5) * 3.0);
+        }
+        stats.publish();
+        assertEquals(0.0f, stats.read().elevationGain, 0.0f);
+        assertEquals(0.0f, stats.read().elevationLoss, 0.0f);
+
+        for (int i = 0; i < 1000; i++) {
+            feedAltitude(time += 1000L, 50.0 + i * 0.1 + (random.nextDouble() - 0.5) * 3.0);
+        }
+        for (int i = 0; i < 600; i++) {
+            feedAltitude(time += 1000L, 150.0 - i * 0.1 + (random.nextDouble() - 0.5) * 3.0);
+        }
+        stats.publish();
+        RideStats.Values values = stats.read();
+        assertEquals(100.0f, values.elevationGain, 6.0f);
+        assertEquals(60.0f, values.elevationLoss, 6.0f);
+    }
+
+    @Test
+    public void leanBalancesASteadyTurn() {
+        // 10 m/s round a circle at 10 degrees a second, to the right, then the same to the left.
+        long time = START;
+        float bearing = 0.0f;
+        for (int i = 0; i < 60; i++) {
+            bearing = (bearing + 10.0f) % 360.0f;
+            stats.update(time += 1000L, 10.0f, Double.NaN, bearing, 51.5, -0.12, 0.0f);
+        }
+        stats.publish();
+        double expected = Math.toDegrees(Math.atan(10.0 * Math.toRadians(10.0) / 9.81));
+        assertEquals(10.0f, stats.read().turnRate, 0.01f);
+        assertEquals(expected, stats.read().lean, 0.01);
+
+        for (int i = 0; i < 60; i++) {
+            bearing = (bearing + 350.0f) % 360.0f;
+            stats.update(time += 1000L, 10.0f, Double.NaN, bearing, 51.5, -0.12, 0.0f);
+        }
+        stats.publish();
+        assertEquals(-expected, stats.read().lean, 0.01);
+        assertEquals(expected, stats.read().maxLeanRight, 0.01);
+        assertEquals(expected, stats.read().maxLeanLeft, 0.01);
+    }
+
+    @Test
+    public void leanFromTheTrackWithoutBearings() {
+        // The same right hand circle as positions, radius speed over turn rate.
+        double radius = 10.0 / Math.toRadians(10.0);
+        double metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(51.5));
+        long time = START;
+        for (int i = 0; i < 120; i++) {
+            double angle = Math.toRadians(10.0 * i);
+            double x = radius * Math.sin(angle);
+            double y = radius * Math.cos(angle);
+            stats.update(time += 1000L, 10.0f, Double.NaN, -1.0f,
+                    51.5 + y / GeoMath.METERS_PER_DEGREE, -0.12 + x / metersPerDegreeLon, 0.0f);
+        }
+        stats.publish();
+        // A circle ridden clockwise seen from above turns right.
+        double expected = Math.toDegrees(Math.atan(10.0 * Math.toRadians(10.0) / 9.81));
+        assertEquals(expected, stats.read().lean, 0.1);
+    }
+
+    @Test
+    public void readerOnlySeesWholeUpdates() throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastTime = 0L;
+                while (!done.get()) {
+                    RideStats.Values values = stats.read();
+                    // Every field written in the same update agrees.
+                    if ((values.time > 0) && ((values.speed != speedAt(values.time))
+                            || (values.maxSpeed < values.speed) || (values.time < lastTime))) {
+                        failure.set("Torn read at " + values.time);
+                        return;
+                    }
+                    lastTime = values.time;
+                }
+            }
+        });
+        reader.start();
+        long time = START;
+        for (int i = 0; i < 2000000; i++) {
+            time += 1000L;
+            stats.update(time, speedAt(time), Double.NaN, -1.0f, 51.5, -0.12, 0.0f);
+            stats.publish();
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(time, stats.read().time);
+    }
+
+    private static float speedAt(long time) {
+        return (time / 1000L) % 40L;
+    }
+
+    private void feedAltitude(long time, double altitude) {
+        stats.update(time, 8.0f, altitude, -1.0f, 51.5, -0.12, 0.0f);
+    }
+
+    /**
+     * Random speeds at about the interval, and every so often a gap of up to gapMs or a burst of
+     * fixes close together, against the mean and maximum over each window worked out in full.
+     */
+    private void checkWindows(long intervalMs, long gapMs) {
+        Random random = new Random(intervalMs + gapMs);
+        List<long[]> fixes = new ArrayList<long[]>();
+        long time = START;
+        for (int i = 0; i < 20000; i++) {
+            long step = intervalMs;
+            if ((gapMs > 0) && (random.nextInt(50) == 0)) {
+                step = random.nextBoolean() ? 10L : gapMs * (1 + random.nextInt(20));
+            }
+            time += step;
+            float speed = 15.0f * random.nextFloat();
+            fixes.add(new long[] {time, Float.floatToIntBits(speed)});
+            stats.update(time, speed, Double.NaN, -1.0f, 51.5, -0.12, 0.0f);
+            stats.publish();
+            RideStats.Values values = stats.read();
+            assertWindow(fixes, 10000L, values.average10s, values.max10s);
+            assertWindow(fixes, 60000L, values.average60s, values.max60s);
+        }
+    }
+
+    private static void assertWindow(List<long[]> fixes, long windowMs, float average,
+                                     float max) {
+        long now = fixes.get(fixes.size() - 1)[0];
+        double sum = 0.0;
+        float expectedMax = 0.0f;
+        int count = 0;
+        for (int i = fixes.size() - 1; (i >= 0) && (now - fixes.get(i)[0] <= windowMs); i--) {
+            float speed = Float.intBitsToFloat((int) fixes.get(i)[1]);
+            sum += speed;
+            expectedMax = Math.max(expectedMax, speed);
+            count++;
+        }
+        assertEquals("Mean over " + windowMs + " at " + now, sum / count, average, 1e-3);
+        assertEquals("Max over " + windowMs + " at " + now, expectedMax, max, 0.0f);
+        assertTrue(count > 0);
+    }
+}
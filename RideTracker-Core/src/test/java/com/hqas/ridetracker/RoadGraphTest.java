@@ -0,0 +1,152 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoadGraphTest {
+
+    private static final double LATITUDE = 51.5;
+    private static final double LONGITUDE = -0.12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        RoadGraph graph = twoStreets();
+        File file = new File(folder.getRoot(), "roads.rgr");
+        graph.write(file);
+        RoadGraph read = RoadGraph.read(file);
+
+        assertEquals(graph.getNodeCount(), read.getNodeCount());
+        assertEquals(graph.getEdgeCount(), read.getEdgeCount());
+        for (int n = 0; n < graph.getNodeCount(); n++) {
+            assertEquals(graph.getNodeLatitude(n), read.getNodeLatitude(n), 0.0);
+            assertEquals(graph.getNodeLongitude(n), read.getNodeLongitude(n), 0.0);
+            assertEquals(graph.getFirstEdge(n), read.getFirstEdge(n));
+            assertEquals(graph.getEndEdge(n), read.getEndEdge(n));
+        }
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            assertEquals(graph.getEdgeFrom(e), read.getEdgeFrom(e));
+            assertEquals(graph.getEdgeTo(e), read.getEdgeTo(e));
+            assertEquals(graph.getEdgeLength(e), read.getEdgeLength(e), 0.0f);
+        }
+        assertEquals(graph.getMemoryBytes(), read.getMemoryBytes());
+    }
+
+    @Test
+    public void nearbyEdgesComeNearestFirst() {
+        RoadGraph graph = twoStreets();
+        int[] edges = new int[8];
+        float[] fractions = new float[8];
+        float[] distances = new float[8];
+        // 10 m north of the middle of the first block of the south street.
+        int found = graph.findNearbyEdges(latitude(10.0), longitude(100.0), 100.0, 8, edges,
+                fractions, distances);
+
+        // Both ways along the south street, then both ways along the north one, 70 m off.
+        assertEquals(4, found);
+        for (int i = 0; i < found; i++) {
+            assertEquals((i < 2) ? 10.0 : 70.0, distances[i], 0.1);
+            assertEquals(0.5, fractions[i], 0.01);
+            double along = (i < 2) ? 0.0 : 80.0;
+            assertEquals(latitude(along), graph.getLatitudeAlong(edges[i], fractions[i]), 1e-6);
+            assertEquals(200.0, graph.getEdgeLength(edges[i]), 0.5);
+        }
+
+        // Keeping only the nearest two leaves out the north street.
+        assertEquals(2, graph.findNearbyEdges(latitude(10.0), longitude(100.0), 100.0, 2, edges,
+                fractions, distances));
+        assertEquals(10.0, distances[1], 0.1);
+        // And nothing is near a point well away from both.
+        assertEquals(0, graph.findNearbyEdges(latitude(-500.0), longitude(100.0), 100.0, 8,
+                edges, fractions, distances));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedFile() throws IOException {
+        File file = new File(folder.getRoot(), "roads.rgr");
+        twoStreets().write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+        RoadGraph.read(file);
+    }
+
+    @Test
+    public void rejectsAnEdgeToNowhere() throws IOException {
+        File file = new File(folder.getRoot(), "roads.rgr");
+        twoStreets().write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        // The last int is the last edge's end node.
+        raf.seek(raf.length() - 4);
+        raf.writeInt(1000);
+        raf.close();
+        try {
+            RoadGraph.read(file);
+            fail("Read a corrupt graph");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("corrupt"));
+        }
+    }
+
+    /**
+     * Two parallel streets 80 m apart, six nodes each 200 m apart, joined at both ends.
+     */
+    static RoadGraph twoStreets() {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int street = 0; street < 2; street++) {
+            for (int i = 0; i < 6; i++) {
+                int node = builder.addNode(latitude(street * 80.0), longitude(i * 200.0));
+                if (i > 0) {
+                    builder.addRoad(node - 1, node, false);
+                }
+            }
+        }
+        builder.addRoad(0, 6, false);
+        builder.addRoad(5, 11, false);
+        return builder.build();
+    }
+
+    /**
+     * @param north metres north of the south street
+     */
+    static double latitude(double north) {
+        return LATITUDE + north / GeoMath.METERS_PER_DEGREE;
+    }
+
+    /**
+     * @param east metres east of the streets' west end
+     */
+    static double longitude(double east) {
+        return LONGITUDE + east / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+}
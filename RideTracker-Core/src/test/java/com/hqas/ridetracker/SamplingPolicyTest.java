@@ -0,0 +1,169 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingPolicyTest {
+
+    private final SamplingPolicy policy = new SamplingPolicy();
+    private long time = 1384250400000L;
+    private double latitude = 51.5;
+
+    @Test
+    public void idleUntilTracking() {
+        assertEquals(SamplingPolicy.Mode.IDLE, policy.getMode());
+        assertFalse(fix(10.0f, 0.0f));
+        assertEquals(SamplingPolicy.Mode.IDLE, policy.getMode());
+
+        assertTrue(policy.setTracking(true));
+        assertEquals(SamplingPolicy.Mode.NORMAL, policy.getMode());
+        assertTrue(policy.setTracking(false));
+        assertEquals(SamplingPolicy.Mode.IDLE, policy.getMode());
+    }
+
+    @Test
+    public void speedsUpAtOnceAndSlowsDownAfterAFewFixes() {
+        policy.setTracking(true);
+        fix(10.0f, 0.0f);
+        // One sharp bend is enough for the full rate.
+        assertTrue(fix(10.0f, 40.0f));
+        assertEquals(SamplingPolicy.Mode.TWISTY, policy.getMode());
+
+        // Straight again: the turn rate has to fade, then three fixes of NORMAL.
+        int fixes = 0;
+        while (policy.getMode() == SamplingPolicy.Mode.TWISTY) {
+            fix(10.0f, 40.0f);
+            fixes++;
+            assertTrue(fixes < 20);
+        }
+        assertEquals(SamplingPolicy.Mode.NORMAL, policy.getMode());
+        assertTrue(fixes >= 3);
+    }
+
+    @Test
+    public void cruisesOnAStraightFastRoad() {
+        policy.setTracking(true);
+        for (int i = 0; i < 20; i++) {
+            fix(30.0f, 90.0f);
+        }
+        assertEquals(SamplingPolicy.Mode.CRUISE, policy.getMode());
+    }
+
+    @Test
+    public void twistyFadesWhenTooSlowForABearing() {
+        policy.setTracking(true);
+        float bearing = 0.0f;
+        for (int i = 0; i < 10; i++) {
+            fix(10.0f, bearing);
+            bearing = (bearing + 25.0f) % 360.0f;
+        }
+        assertEquals(SamplingPolicy.Mode.TWISTY, policy.getMode());
+
+        // Walking pace: the bearings are noise and get ignored, but the bends are behind us.
+        for (int i = 0; (i < 30) && (policy.getMode() == SamplingPolicy.Mode.TWISTY); i++) {
+            fix(2.0f, bearing);
+            bearing = (bearing + 170.0f) % 360.0f;
+        }
+        assertEquals(SamplingPolicy.Mode.NORMAL, policy.getMode());
+    }
+
+    @Test
+    public void twistyFadesWithoutBearings() {
+        policy.setTracking(true);
+        float bearing = 0.0f;
+        for (int i = 0; i < 10; i++) {
+            fix(10.0f, bearing);
+            bearing = (bearing + 25.0f) % 360.0f;
+        }
+        assertEquals(SamplingPolicy.Mode.TWISTY, policy.getMode());
+
+        // A provider that stops giving bearings, with the rider standing still on the spot.
+        for (int i = 0; (i < 30) && (policy.getMode() == SamplingPolicy.Mode.TWISTY); i++) {
+            fix(5.0f, -1.0f, 0.0);
+        }
+        assertEquals(SamplingPolicy.Mode.NORMAL, policy.getMode());
+    }
+
+    @Test
+    public void stopsAndHoldsWhilePaused() {
+        policy.setTracking(true);
+        for (int i = 0; i < 10; i++) {
+            fix(0.2f, -1.0f);
+        }
+        assertEquals(SamplingPolicy.Mode.STOPPED, policy.getMode());
+
+        assertTrue(fix(12.0f, 0.0f));
+        assertEquals(SamplingPolicy.Mode.NORMAL, policy.getMode());
+
+        assertTrue(policy.setPaused(true));
+        assertEquals(SamplingPolicy.Mode.STOPPED, policy.getMode());
+        for (int i = 0; i < 5; i++) {
+            assertFalse(fix(12.0f, 0.0f));
+        }
+        assertEquals(SamplingPolicy.Mode.STOPPED, policy.getMode());
+        assertTrue(policy.setPaused(false));
+        assertEquals(SamplingPolicy.Mode.NORMAL, policy.getMode());
+    }
+
+    @Test
+    public void poorAccuracyKeepsNormalRate() {
+        policy.setTracking(true);
+        for (int i = 0; i < 20; i++) {
+            policy.onFix(time += 1000L, latitude += 30.0 / GeoMath.METERS_PER_DEGREE, -0.12,
+                    30.0f, 90.0f, 80.0f);
+        }
+        assertEquals(SamplingPolicy.Mode.NORMAL, policy.getMode());
+    }
+
+    @Test
+    public void replaySkipsFixesButKeepsTheRoute() throws InterruptedException {
+        TrackBuffer ride = new TrackBuffer();
+        ReplayEngine.synthesize(ride, 36000, 1000L, 4.0, 42L);
+        ReplayEngine every = new ReplayEngine(ride);
+        every.setHonourSampling(false);
+        every.run();
+        assertEquals(36000L, every.getFixCount());
+        assertEquals(0L, every.getSkippedCount());
+
+        ReplayEngine sampled = new ReplayEngine(ride);
+        sampled.run();
+        assertEquals(36000L, sampled.getFixCount() + sampled.getSkippedCount());
+        assertTrue(sampled.getSkippedCount() > 36000 / 20);
+        // The skipped fixes were close to the line the ride keeps there, and the distance
+        // hardly changes.
+        assertTrue("rms " + sampled.getRouteDeviationRms(), sampled.getRouteDeviationRms() < 20.0);
+        assertEquals(every.getDistanceError(), sampled.getDistanceError(), 0.01);
+    }
+
+    private boolean fix(float speed, float bearing) {
+        return fix(speed, bearing, speed);
+    }
+
+    private boolean fix(float speed, float bearing, double meters) {
+        time += 1000L;
+        latitude += meters / GeoMath.METERS_PER_DEGREE;
+        return policy.onFix(time, latitude, -0.12, speed, bearing, 5.0f);
+    }
+}
@@ -0,0 +1,104 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SegmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final SegmentTimer.Listener IGNORE = new SegmentTimer.Listener() {
+        @Override
+        public void onSplit(int segment, int gate, int gateCount, long splitMs, long deltaMs) {
+        }
+    };
+
+    @Test
+    public void keepsGatesAndBestTimes() throws IOException {
+        TrackBuffer ride = SegmentTimerTest.ride(1L);
+        SegmentTimer timer = new SegmentTimer(IGNORE);
+        timer.addSegmentFromTrack(ride.view(null), 200, 1400, 500.0, 40.0);
+        timer.addSegmentFromTrack(ride.view(null), 1500, 1700, 250.0, 30.0);
+        // One that's never been ridden.
+        timer.addSegment(new double[] {51.5, 51.5, 51.6, 51.6},
+                new double[] {-0.1, -0.11, -0.1, -0.11}, null);
+
+        File file = new File(folder.getRoot(), "segments.dat");
+        SegmentStore store = new SegmentStore(file);
+        store.save(timer);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        SegmentTimer loaded = new SegmentTimer(IGNORE);
+        assertEquals(3, new SegmentStore(file).load(loaded));
+        assertEquals(timer.getSegmentCount(), loaded.getSegmentCount());
+        for (int s = 0; s < timer.getSegmentCount(); s++) {
+            int gates = timer.getGateCount(s);
+            assertEquals(gates, loaded.getGateCount(s));
+            double[] lats = new double[gates * 2];
+            double[] lons = new double[gates * 2];
+            double[] loadedLats = new double[gates * 2];
+            double[] loadedLons = new double[gates * 2];
+            timer.getGates(s, lats, lons);
+            loaded.getGates(s, loadedLats, loadedLons);
+            for (int i = 0; i < gates * 2; i++) {
+                assertEquals(lats[i], loadedLats[i], 1e-9);
+                assertEquals(lons[i], loadedLons[i], 1e-9);
+            }
+            for (int gate = 1; gate < gates; gate++) {
+                assertEquals(timer.getBestSplit(s, gate), loaded.getBestSplit(s, gate));
+            }
+        }
+        assertEquals(SegmentTimer.NO_BEST, loaded.getBestSplit(2, 1));
+
+        // Saving again replaces the file.
+        loaded.addSegment(new double[] {52.5, 52.5, 52.6, 52.6},
+                new double[] {-0.1, -0.11, -0.1, -0.11}, new long[] {60000L});
+        new SegmentStore(file).save(loaded);
+        SegmentTimer reloaded = new SegmentTimer(IGNORE);
+        assertEquals(4, new SegmentStore(file).load(reloaded));
+        assertEquals(60000L, reloaded.getBestSplit(3, 1));
+    }
+
+    @Test
+    public void noFileMeansNoSegments() throws IOException {
+        SegmentTimer timer = new SegmentTimer(IGNORE);
+        assertEquals(0, new SegmentStore(new File(folder.getRoot(), "none.dat")).load(timer));
+        assertEquals(0, timer.getSegmentCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesSomethingElse() throws IOException {
+        File file = folder.newFile("other.dat");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        new SegmentStore(file).load(new SegmentTimer(IGNORE));
+    }
+}
@@ -0,0 +1,261 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+package com.hqas.ridetracker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentTimerTest {
+
+    // The segment is made from this stretch of the first ride.
+    private static final int FROM = 200;
+    private static final int TO = 1400;
+
+    private final Recorder recorder = new Recorder();
+    private SegmentTimer timer;
+    private TrackBuffer first;
+    private TrackBuffer second;
+    private int segment;
+    private long best;
+
+    @Before
+    public void setUp() {
+        // The same route twice with different receiver noise.
+        first = ride(1L);
+        second = ride(2L);
+        timer = new SegmentTimer(recorder);
+        segment = timer.addSegmentFromTrack(first.view(null), FROM, TO, 500.0, 40.0);
+        best = first.getTime(first.getFirstIndex() + TO) - first.getTime(first.getFirstIndex() + FROM);
+    }
+
+    @Test
+    public void timesEveryGateAgainstTheRideItCameFrom() {
+        int gates = timer.getGateCount(segment);
+        assertTrue("Only " + gates + " gates", gates > 10);
+        assertEquals(best, timer.getBestSplit(segment, gates - 1));
+
+        // Ten percent slower than the first time.
+        replay(second, 1.1);
+        assertEquals(gates, recorder.gates.size());
+        for (int i = 0; i < gates; i++) {
+            assertEquals(i, (int) recorder.gates.get(i));
+        }
+        long split = recorder.splits.get(gates - 1);
+        assertEquals(1.1 * best, split, 2000.0);
+        assertEquals(split - best, (long) recorder.deltas.get(gates - 1));
+        assertEquals(best, timer.getBestSplit(segment, gates - 1));
+        assertTrue(!timer.isRunning(segment));
+
+        // Then faster, which is the new best and already is by the time the finish is heard of.
+        recorder.clear();
+        replay(second, 0.9);
+        split = recorder.splits.get(gates - 1);
+        assertEquals(0.9 * best, split, 2000.0);
+        assertTrue(recorder.deltas.get(gates - 1) < 0L);
+        assertEquals(split, (long) recorder.bestAtFinish.get(0));
+        assertEquals(split, timer.getBestSplit(segment, gates - 1));
+    }
+
+    @Test
+    public void ridingItBackwardsCountsNothing() {
+        TrackBuffer.View view = second.view(null);
+        long time = view.getTime(0);
+        for (int i = view.size() - 1; i >= 0; i--) {
+            timer.update(time, view.getLatitude(i), view.getLongitude(i));
+            time += 1000L;
+        }
+        assertEquals(0, recorder.gates.size());
+    }
+
+    @Test
+    public void joiningPartWayWaitsForTheStart() {
+        TrackBuffer.View view = second.view(null);
+        for (int i = (FROM + TO) / 2; i < view.size(); i++) {
+            timer.update(view.getTime(i), view.getLatitude(i), view.getLongitude(i));
+        }
+        assertEquals(0, recorder.gates.size());
+        assertTrue(!timer.isRunning(segment));
+    }
+
+    @Test
+    public void gapsArentTestedAgainstTheGates() {
+        TrackBuffer.View view = second.view(null);
+        // Either side of the start gate, with a pause in between.
+        int start = nearest(view, first.getLatitude(first.getFirstIndex() + FROM),
+                first.getLongitude(first.getFirstIndex() + FROM));
+        timer.update(view.getTime(start - 3), view.getLatitude(start - 3),
+                view.getLongitude(start - 3));
+        timer.breakSegment();
+        timer.update(view.getTime(start + 3), view.getLatitude(start + 3),
+                view.getLongitude(start + 3));
+        assertEquals(0, recorder.gates.size());
+
+        // Without the pause the same step starts a run.
+        timer.update(view.getTime(start - 3), view.getLatitude(start - 3),
+                view.getLongitude(start - 3));
+        timer.update(view.getTime(start + 3) + 6000L, view.getLatitude(start + 3),
+                view.getLongitude(start + 3));
+        assertEquals(1, recorder.gates.size());
+        assertTrue(timer.isRunning(segment));
+    }
+
+    @Test
+    public void crossingsMatchBruteForceWithManySegments() {
+        Random random = new Random(7);
+        for (int s = 0; s < 300; s++) {
+            int from = random.nextInt(first.size() - 400);
+            timer.addSegmentFromTrack(first.view(null), from, from + 60 + random.nextInt(300),
+                    100.0 + random.nextInt(400), 20.0 + random.nextInt(40));
+        }
+        replay(second, 1.0);
+
+        // Every gate against every step, in a plane of our own.
+        TrackBuffer.View view = second.view(null);
+        double originLat = view.getLatitude(0);
+        double originLon = view.getLongitude(0);
+        double metersPerDegreeLon = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+        List<double[]> gates = new ArrayList<double[]>();
+        for (int s = 0; s < timer.getSegmentCount(); s++) {
+            int count = timer.getGateCount(s);
+            double[] lats = new double[count * 2];
+            double[] lons = new double[count * 2];
+            timer.getGates(s, lats, lons);
+            for (int g = 0; g < count; g++) {
+                gates.add(new double[] {
+                        (lons[2 * g] - originLon) * metersPerDegreeLon,
+                        (lats[2 * g] - originLat) * GeoMath.METERS_PER_DEGREE,
+                        (lons[2 * g + 1] - originLon) * metersPerDegreeLon,
+                        (lats[2 * g + 1] - originLat) * GeoMath.METERS_PER_DEGREE});
+            }
+        }
+        long crossings = 0L;
+        for (int i = 1; i < view.size(); i++) {
+            double x0 = (view.getLongitude(i - 1) - originLon) * metersPerDegreeLon;
+            double y0 = (view.getLatitude(i - 1) - originLat) * GeoMath.METERS_PER_DEGREE;
+            double x1 = (view.getLongitude(i) - originLon) * metersPerDegreeLon;
+            double y1 = (view.getLatitude(i) - originLat) * GeoMath.METERS_PER_DEGREE;
+            for (double[] gate : gates) {
+                if (crosses(x0, y0, x1, y1, gate)) {
+                    crossings++;
+                }
+            }
+        }
+        assertTrue(crossings > 300);
+        assertEquals(crossings, timer.getCrossingCount());
+        // All of them on the one route, yet the grid only tests a few percent of them a fix.
+        assertTrue(gates.size() > 3000);
+        assertTrue("Tested " + timer.getGateTestCount() + " gates",
+                timer.getGateTestCount() < gates.size() * timer.getFixCount() / 20L);
+    }
+
+    /**
+     * The ride with its outliers dropped, the way the processor only times fixes the distance
+     * filter takes.
+     */
+    static TrackBuffer ride(long seed) {
+        TrackBuffer raw = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(raw, 3000, 1000L, 3.0, seed);
+        TrackBuffer.View view = raw.view(null);
+        TrackBuffer ride = new TrackBuffer(10, 8);
+        DistanceFilter filter = new DistanceFilter();
+        for (int i = 0; i < view.size(); i++) {
+            if (filter.update(view.getTime(i), view.getLatitude(i), view.getLongitude(i),
+                    view.getAccuracy(i))) {
+                ride.append(view.getLatitude(i), view.getLongitude(i), view.getAltitude(i),
+                        view.getTime(i), view.getAccuracy(i));
+            }
+        }
+        return ride;
+    }
+
+    /**
+     * Rides the track again with its times stretched by the factor.
+     */
+    private void replay(TrackBuffer track, double scale) {
+        TrackBuffer.View view = track.view(null);
+        long start = view.getTime(0);
+        timer.reset();
+        for (int i = 0; i < view.size(); i++) {
+            timer.update(start + Math.round((view.getTime(i) - start) * scale),
+                    view.getLatitude(i), view.getLongitude(i));
+        }
+    }
+
+    private static int nearest(TrackBuffer.View view, double latitude, double longitude) {
+        int nearest = 0;
+        double distance = Double.MAX_VALUE;
+        for (int i = 0; i < view.size(); i++) {
+            double d = GeoMath.haversine(latitude, longitude, view.getLatitude(i),
+                    view.getLongitude(i));
+            if (d < distance) {
+                distance = d;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Right to left across the gate, as {@link SegmentTimer} counts it.
+     */
+    private static boolean crosses(double x0, double y0, double x1, double y1, double[] gate) {
+        double rx = x1 - x0;
+        double ry = y1 - y0;
+        double sx = gate[2] - gate[0];
+        double sy = gate[3] - gate[1];
+        double denominator = rx * sy - ry * sx;
+        if (denominator >= 0.0) {
+            return false;
+        }
+        double t = ((gate[0] - x0) * sy - (gate[1] - y0) * sx) / denominator;
+        double u = ((gate[0] - x0) * ry - (gate[1] - y0) * rx) / denominator;
+        return (t >= 0.0) && (t <= 1.0) && (u >= 0.0) && (u <= 1.0);
+    }
+
+    private class Recorder implements SegmentTimer.Listener {
+        final List<Integer> gates = new ArrayList<Integer>();
+        final List<Long> splits = new ArrayList<Long>();
+        final List<Long> deltas = new ArrayList<Long>();
+        final List<Long> bestAtFinish = new ArrayList<Long>();
+
+        @Override
+        public void onSplit(int segment, int gate, int gateCount, long splitMs, long deltaMs) {
+            gates.add(gate);
+            splits.add(splitMs);
+            deltas.add(deltaMs);
+            if (gate == gateCount - 1) {
+                bestAtFinish.add(timer.getBestSplit(segment, gate));
+            }
+        }
+
+        void clear() {
+            gates.clear();
+            splits.clear();
+            deltas.clear();
+            bestAtFinish.clear();
+        }
+    }
+}
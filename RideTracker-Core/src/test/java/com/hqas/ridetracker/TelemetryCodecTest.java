@@ -0,0 +1,192 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryCodecTest {
+
+    // Largest change each field can have without a frame going out; see TelemetryCodec.
+    private static final int[] THRESHOLDS = {100, 10, 5, 60, 15, 5, 5};
+
+    @Test
+    public void watchStaysWithinThresholdsOverARide() {
+        Random random = new Random(1L);
+        TelemetryCodec codec = new TelemetryCodec();
+        int[] values = new int[TelemetryCodec.FIELD_COUNT];
+        int[] watch = new int[TelemetryCodec.FIELD_COUNT];
+        values[TelemetryCodec.FIELD_ALTITUDE] = -20;
+        int frames = 0;
+        int keyframes = 0;
+        for (int second = 0; second < 7200; second++) {
+            values[TelemetryCodec.FIELD_DISTANCE] += 12 + random.nextInt(6);
+            values[TelemetryCodec.FIELD_SPEED] = 100 + (int) (80 * Math.sin(second / 30.0));
+            values[TelemetryCodec.FIELD_AVERAGE_SPEED] = 140 + (int) (5 * Math.sin(second / 500.0));
+            values[TelemetryCodec.FIELD_ELAPSED] = second;
+            values[TelemetryCodec.FIELD_HEADING] =
+                    ((values[TelemetryCodec.FIELD_HEADING] + random.nextInt(21) - 7) % 360 + 360)
+                            % 360;
+            values[TelemetryCodec.FIELD_ALTITUDE] += random.nextInt(3) - 1;
+            values[TelemetryCodec.FIELD_GRADE] = (int) (60 * Math.sin(second / 90.0));
+
+            byte[] frame = codec.encode(values);
+            if (frame != null) {
+                frames++;
+                assertEquals(TelemetryCodec.FRAME_VERSION, frame[0]);
+                if ((frame[1] & 0x80) != 0) {
+                    keyframes++;
+                }
+                assertTrue(frame.length <= TelemetryCodec.MAX_FRAME_SIZE);
+                assertTrue(TelemetryCodec.decode(frame, watch));
+            }
+            assertFalse(codec.needsUpdate(values));
+            for (int i = 0; i < TelemetryCodec.FIELD_COUNT; i++) {
+                int off = Math.abs(values[i] - watch[i]);
+                if (i == TelemetryCodec.FIELD_HEADING) {
+                    off = Math.min(off, 360 - off);
+                }
+                assertTrue("field " + i + " off by " + off + " at " + second,
+                        off < THRESHOLDS[i]);
+            }
+        }
+        assertTrue(frames < 7200);
+        // One at the start and one every 21 frames after.
+        assertEquals(1 + (frames - 1) / 21, keyframes);
+    }
+
+    @Test
+    public void keyframeCarriesEveryFieldExactly() {
+        TelemetryCodec codec = new TelemetryCodec();
+        int[] values = {123456, 98, 87, 3600, 359, -412, -85};
+        byte[] frame = codec.encode(values);
+        assertNotNull(frame);
+        assertEquals(0x80 | 0x7f, frame[1] & 0xff);
+
+        int[] watch = {1, 2, 3, 4, 5, 6, 7};
+        assertTrue(TelemetryCodec.decode(frame, watch));
+        assertArrayEquals(values, watch);
+    }
+
+    @Test
+    public void onlyFieldsPastThresholdAreSent() {
+        TelemetryCodec codec = new TelemetryCodec();
+        int[] values = {1000, 50, 50, 60, 90, 10, 0};
+        codec.encode(values);
+        assertNull(codec.encode(values));
+
+        values[TelemetryCodec.FIELD_DISTANCE] += 99;
+        values[TelemetryCodec.FIELD_SPEED] += 9;
+        assertFalse(codec.needsUpdate(values));
+        assertNull(codec.encode(values));
+
+        values[TelemetryCodec.FIELD_DISTANCE] += 1;
+        assertTrue(codec.needsUpdate(values));
+        byte[] frame = codec.encode(values);
+        // Version, header and one small varint: only distance went.
+        assertEquals(1 << TelemetryCodec.FIELD_DISTANCE, frame[1] & 0xff);
+        assertEquals(4, frame.length);
+    }
+
+    @Test
+    public void headingGoesTheShortWayRound() {
+        TelemetryCodec codec = new TelemetryCodec();
+        int[] values = new int[TelemetryCodec.FIELD_COUNT];
+        int[] watch = new int[TelemetryCodec.FIELD_COUNT];
+        values[TelemetryCodec.FIELD_HEADING] = 350;
+        TelemetryCodec.decode(codec.encode(values), watch);
+
+        values[TelemetryCodec.FIELD_HEADING] = 10;
+        byte[] frame = codec.encode(values);
+        // +20 is one byte; -340 would take two.
+        assertEquals(3, frame.length);
+        assertTrue(TelemetryCodec.decode(frame, watch));
+        assertEquals(10, watch[TelemetryCodec.FIELD_HEADING]);
+
+        values[TelemetryCodec.FIELD_HEADING] = 340;
+        assertTrue(TelemetryCodec.decode(codec.encode(values), watch));
+        assertEquals(340, watch[TelemetryCodec.FIELD_HEADING]);
+    }
+
+    @Test
+    public void forcedKeyframeRecoversFromALostFrame() {
+        TelemetryCodec codec = new TelemetryCodec();
+        int[] values = new int[TelemetryCodec.FIELD_COUNT];
+        int[] watch = new int[TelemetryCodec.FIELD_COUNT];
+        TelemetryCodec.decode(codec.encode(values), watch);
+
+        values[TelemetryCodec.FIELD_DISTANCE] = 500;
+        // Never arrives.
+        assertNotNull(codec.encode(values));
+        codec.forceKeyframe();
+        assertTrue(codec.needsUpdate(values));
+        values[TelemetryCodec.FIELD_DISTANCE] = 520;
+        byte[] frame = codec.encode(values);
+        assertTrue((frame[1] & 0x80) != 0);
+        assertTrue(TelemetryCodec.decode(frame, watch));
+        assertEquals(520, watch[TelemetryCodec.FIELD_DISTANCE]);
+    }
+
+    @Test
+    public void malformedFramesAreRejected() {
+        int[] watch = new int[TelemetryCodec.FIELD_COUNT];
+        assertFalse(TelemetryCodec.decode(null, watch));
+        assertFalse(TelemetryCodec.decode(new byte[0], watch));
+        assertFalse(TelemetryCodec.decode(new byte[] {TelemetryCodec.FRAME_VERSION}, watch));
+
+        TelemetryCodec codec = new TelemetryCodec();
+        int[] values = {200000, 1, 2, 3, 4, 5, 6};
+        byte[] frame = codec.encode(values);
+        byte[] truncated = new byte[frame.length - 1];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        assertFalse(TelemetryCodec.decode(truncated, watch));
+
+        byte[] padded = new byte[frame.length + 1];
+        System.arraycopy(frame, 0, padded, 0, frame.length);
+        assertFalse(TelemetryCodec.decode(padded, watch));
+
+        // A varint that never ends.
+        byte[] endless = {TelemetryCodec.FRAME_VERSION, (byte) 0x81, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        assertFalse(TelemetryCodec.decode(endless, watch));
+    }
+
+    @Test
+    public void framesFromAnotherVersionAreRejected() {
+        TelemetryCodec codec = new TelemetryCodec();
+        int[] values = {1000, 50, 50, 60, 90, 10, 0};
+        int[] watch = new int[TelemetryCodec.FIELD_COUNT];
+        byte[] frame = codec.encode(values);
+        frame[0]++;
+        assertFalse(TelemetryCodec.decode(frame, watch));
+        // The header on its own, as the frames before versioning started.
+        byte[] unversioned = new byte[frame.length - 1];
+        System.arraycopy(frame, 1, unversioned, 0, unversioned.length);
+        assertFalse(TelemetryCodec.decode(unversioned, watch));
+    }
+}
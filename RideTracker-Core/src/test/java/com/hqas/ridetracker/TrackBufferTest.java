@@ -0,0 +1,131 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrackBufferTest {
+
+    @Test
+    public void keepsEveryColumn() {
+        TrackBuffer track = new TrackBuffer(3, 4);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, track.append(50.0 + i, -1.0 - i, 100.0 + i, 1000L * i, 0.5f * i));
+        }
+        assertEquals(20, track.size());
+        for (long i = 0; i < 20; i++) {
+            assertEquals(50.0 + i, track.getLatitude(i), 0.0);
+            assertEquals(-1.0 - i, track.getLongitude(i), 0.0);
+            assertEquals(100.0 + i, track.getAltitude(i), 0.0);
+            assertEquals(1000L * i, track.getTime(i));
+            assertEquals(0.5f * i, track.getAccuracy(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void wrapsByWholeChunks() {
+        // 8 points a chunk, 4 chunks.
+        TrackBuffer track = new TrackBuffer(3, 4);
+        for (int i = 0; i < 32; i++) {
+            track.append(i, i, i, i, 0.0f);
+        }
+        assertEquals(0L, track.getFirstIndex());
+        assertEquals(32, track.size());
+
+        // The next point recycles the oldest chunk.
+        track.append(32, 32, 32, 32, 0.0f);
+        assertEquals(8L, track.getFirstIndex());
+        assertEquals(33L, track.getEndIndex());
+        assertEquals(25, track.size());
+
+        for (int i = 33; i < 100; i++) {
+            track.append(i, i, i, i, 0.0f);
+        }
+        assertTrue(track.size() <= track.capacity());
+        assertTrue(track.size() > track.capacity() - 8);
+        for (long i = track.getFirstIndex(); i < track.getEndIndex(); i++) {
+            assertEquals((double) i, track.getLatitude(i), 0.0);
+            assertEquals(i, track.getTime(i));
+        }
+        assertEquals(4L * 8 * TrackBuffer.BYTES_PER_POINT, track.getAllocatedBytes());
+    }
+
+    @Test
+    public void copiesAcrossChunks() {
+        TrackBuffer track = new TrackBuffer(2, 8);
+        for (int i = 0; i < 30; i++) {
+            track.append(i, -i, 0.0, i, 0.0f);
+        }
+        double[] lat = new double[12];
+        double[] lon = new double[12];
+        track.copyPositions(5, 10, lat, lon, 2);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(5.0 + i, lat[i + 2], 0.0);
+            assertEquals(-5.0 - i, lon[i + 2], 0.0);
+        }
+    }
+
+    @Test
+    public void viewsAreRelativeAndReusable() {
+        TrackBuffer track = new TrackBuffer(2, 4);
+        for (int i = 0; i < 10; i++) {
+            track.append(i, i, i, 10L * i, 0.0f);
+        }
+        TrackBuffer.View view = track.view(3, 7, null);
+        assertEquals(4, view.size());
+        assertEquals(3L, view.getStartIndex());
+        assertEquals(30L, view.getTime(0));
+        assertEquals(6.0, view.getLatitude(3), 0.0);
+
+        TrackBuffer.View all = track.view(view);
+        assertSame(view, all);
+        assertEquals(10, all.size());
+    }
+
+    @Test
+    public void rejectsRangesThatWrappedAway() {
+        TrackBuffer track = new TrackBuffer(2, 2);
+        for (int i = 0; i < 12; i++) {
+            track.append(i, i, i, i, 0.0f);
+        }
+        try {
+            track.view(0, 4, null);
+            fail("Range before the first index was allowed");
+        } catch (IndexOutOfBoundsException expected) {
+            // Good.
+        }
+    }
+
+    @Test
+    public void clearKeepsCounting() {
+        TrackBuffer track = new TrackBuffer(2, 2);
+        track.append(1.0, 1.0, 1.0, 1L, 0.0f);
+        track.append(2.0, 2.0, 2.0, 2L, 0.0f);
+        track.clear();
+        assertTrue(track.isEmpty());
+        assertEquals(2L, track.append(3.0, 3.0, 3.0, 3L, 0.0f));
+        assertEquals(3.0, track.getLatitude(2), 0.0);
+    }
+}
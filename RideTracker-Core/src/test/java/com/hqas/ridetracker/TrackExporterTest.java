@@ -0,0 +1,278 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackExporterTest {
+
+    private final TrackExporter exporter = new TrackExporter();
+
+    @Test
+    public void gpxReadsBack() throws IOException {
+        TrackBuffer track = ride(500, 1L);
+        TrackBuffer read = new TrackBuffer();
+        String gpx = export(track, TrackExporter.Format.GPX);
+        assertEquals(500, GpxReader.read(new ByteArrayInputStream(gpx.getBytes("UTF-8")), read));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(track.getLatitude(i), read.getLatitude(i), 0.6e-7);
+            assertEquals(track.getLongitude(i), read.getLongitude(i), 0.6e-7);
+            assertEquals(track.getAltitude(i), read.getAltitude(i), 0.06);
+            assertEquals(track.getTime(i) / 1000L, read.getTime(i) / 1000L);
+        }
+    }
+
+    @Test
+    public void timesMatchTheCalendar() throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(7L);
+        TrackBuffer track = new TrackBuffer();
+        long[] times = new long[1000];
+        for (int i = 0; i < times.length; i++) {
+            // 1902 to 2100, leap days and all.
+            times[i] = (long) ((random.nextDouble() * 198.0 - 68.0) * 365.25 * 86400000.0);
+            track.append(0.0, 0.0, 0.0, times[i], 0.0f);
+        }
+        Matcher matcher = Pattern.compile("<time>([^<]*)</time>")
+                .matcher(export(track, TrackExporter.Format.GPX));
+        for (long time : times) {
+            matcher.find();
+            long second = (long) Math.floor(time / 1000.0) * 1000L;
+            assertEquals(format.format(second), matcher.group(1));
+        }
+    }
+
+    @Test
+    public void tcxLapMatchesItsPoints() throws Exception {
+        TrackBuffer track = ride(300, 2L);
+        String tcx = export(track, TrackExporter.Format.TCX);
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(tcx.getBytes("UTF-8")));
+
+        NodeList points = doc.getElementsByTagName("Trackpoint");
+        assertEquals(300, points.getLength());
+        NodeList distances = doc.getElementsByTagName("DistanceMeters");
+        // The lap's total comes first, then one a point; the last point's is the total.
+        double lapTotal = Double.parseDouble(distances.item(0).getTextContent());
+        double lastPoint = Double.parseDouble(
+                distances.item(distances.getLength() - 1).getTextContent());
+        assertEquals(lapTotal, lastPoint, 0.1);
+        double expected = 0.0;
+        for (int i = 1; i < 300; i++) {
+            expected += GeoMath.haversine(track.getLatitude(i - 1), track.getLongitude(i - 1),
+                    track.getLatitude(i), track.getLongitude(i));
+        }
+        assertEquals(expected, lapTotal, 0.1);
+        assertEquals((track.getTime(299) - track.getTime(0)) / 1000.0, Double.parseDouble(
+                doc.getElementsByTagName("TotalTimeSeconds").item(0).getTextContent()), 0.1);
+    }
+
+    @Test
+    public void geoJsonIsLongitudeFirst() throws IOException, JSONException {
+        TrackBuffer track = ride(200, 3L);
+        JSONObject feature = new JSONObject(export(track, TrackExporter.Format.GEOJSON));
+        JSONArray coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+        JSONArray times = feature.getJSONObject("properties").getJSONArray("coordTimes");
+        assertEquals(200, coordinates.length());
+        assertEquals(200, times.length());
+        for (int i = 0; i < 200; i++) {
+            JSONArray point = coordinates.getJSONArray(i);
+            assertEquals(track.getLongitude(i), point.getDouble(0), 0.6e-7);
+            assertEquals(track.getLatitude(i), point.getDouble(1), 0.6e-7);
+            assertEquals(track.getAltitude(i), point.getDouble(2), 0.06);
+        }
+    }
+
+    @Test
+    public void numbersRoundLikeFixedDecimals() throws IOException {
+        TrackBuffer track = new TrackBuffer();
+        track.append(-0.00000004, 179.99999996, 0.04, 0L, 0.0f);
+        track.append(-12.345678951, -0.5, -3.25, 0L, 0.0f);
+        String gpx = export(track, TrackExporter.Format.GPX);
+        assertEquals(true, gpx.contains("<trkpt lat=\"0.0000000\" lon=\"180.0000000\"><ele>0.0</ele>"));
+        assertEquals(true, gpx.contains("<trkpt lat=\"-12.3456790\" lon=\"-0.5000000\"><ele>-3.3</ele>"));
+    }
+
+    @Test
+    public void missingAltitudeIsLeftOut() throws Exception {
+        TrackBuffer track = new TrackBuffer();
+        track.append(51.0, -0.1, 12.5, 1000L, 4.0f);
+        track.append(51.0001, -0.1, Double.NaN, 2000L, 4.0f);
+
+        String gpx = export(track, TrackExporter.Format.GPX);
+        assertEquals(1, gpx.split("<ele>", -1).length - 1);
+        TrackBuffer read = new TrackBuffer();
+        assertEquals(2, GpxReader.read(new ByteArrayInputStream(gpx.getBytes("UTF-8")), read));
+        assertEquals(12.5, read.getAltitude(0), 0.06);
+        assertTrue(Double.isNaN(read.getAltitude(1)));
+
+        String tcxText = export(track, TrackExporter.Format.TCX);
+        Document tcx = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(tcxText.getBytes("UTF-8")));
+        NodeList points = tcx.getElementsByTagName("Trackpoint");
+        assertEquals(2, points.getLength());
+        assertEquals(1, ((Element) points.item(0)).getElementsByTagName("AltitudeMeters")
+                .getLength());
+        assertEquals(0, ((Element) points.item(1)).getElementsByTagName("AltitudeMeters")
+                .getLength());
+
+        JSONArray coordinates = new JSONObject(export(track, TrackExporter.Format.GEOJSON))
+                .getJSONObject("geometry").getJSONArray("coordinates");
+        assertEquals(3, coordinates.getJSONArray(0).length());
+        assertEquals(2, coordinates.getJSONArray(1).length());
+    }
+
+    @Test
+    public void emptyRideIsStillADocument() throws Exception {
+        TrackBuffer track = new TrackBuffer();
+        for (TrackExporter.Format format : new TrackExporter.Format[] {
+                TrackExporter.Format.GPX, TrackExporter.Format.TCX}) {
+            DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+                    new ByteArrayInputStream(export(track, format).getBytes("UTF-8")));
+        }
+        new JSONObject(export(track, TrackExporter.Format.GEOJSON));
+    }
+
+    @Test
+    public void matchedExportIsWhatTheMatcherPutsOut() throws Exception {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesizeOnRoads(track, 3000, 20, 100.0, 4.0, 6L);
+        RoadGraph roads = ReplayEngine.synthesizeRoads(20, 100.0);
+        final List<double[]> expected = new ArrayList<double[]>();
+        final TrackBuffer.View view = track.view(null);
+        new MapMatcher(roads, MapMatcher.BATCH_WINDOW, new MapMatcher.Listener() {
+            @Override
+            public void onMatched(long tag, long time, double latitude, double longitude,
+                                  double routeMeters) {
+                onUnmatched(tag, time, latitude, longitude);
+            }
+
+            @Override
+            public void onUnmatched(long tag, long time, double latitude, double longitude) {
+                expected.add(new double[] {latitude, longitude, view.getAltitude((int) tag)});
+            }
+        }).match(view);
+        // Outliers are dropped, so there are fewer points than fixes.
+        assertTrue(expected.size() < 3000);
+        assertTrue(expected.size() > 2900);
+
+        StringWriter gpx = new StringWriter();
+        exporter.export(view, roads, TrackExporter.Format.GPX, gpx);
+        Matcher m = Pattern.compile(
+                "<trkpt lat=\"([-0-9.]+)\" lon=\"([-0-9.]+)\"><ele>([-0-9.]+)</ele>")
+                .matcher(gpx.toString());
+        int n = 0;
+        for (; m.find(); n++) {
+            double[] point = expected.get(n);
+            assertEquals(point[0], Double.parseDouble(m.group(1)), 0.6e-7);
+            assertEquals(point[1], Double.parseDouble(m.group(2)), 0.6e-7);
+            assertEquals(point[2], Double.parseDouble(m.group(3)), 0.06);
+        }
+        assertEquals(expected.size(), n);
+
+        // TCX and GeoJSON go through the matcher twice; both passes have to agree.
+        StringWriter tcx = new StringWriter();
+        exporter.export(view, roads, TrackExporter.Format.TCX, tcx);
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(tcx.toString().getBytes("UTF-8")));
+        assertEquals(expected.size(), doc.getElementsByTagName("Trackpoint").getLength());
+        double total = 0.0;
+        for (int i = 1; i < expected.size(); i++) {
+            total += GeoMath.haversine(expected.get(i - 1)[0], expected.get(i - 1)[1],
+                    expected.get(i)[0], expected.get(i)[1]);
+        }
+        assertEquals(total, Double.parseDouble(
+                doc.getElementsByTagName("DistanceMeters").item(0).getTextContent()), 0.1);
+
+        StringWriter geoJson = new StringWriter();
+        exporter.export(view, roads, TrackExporter.Format.GEOJSON, geoJson);
+        JSONObject feature = new JSONObject(geoJson.toString());
+        assertEquals(expected.size(),
+                feature.getJSONObject("geometry").getJSONArray("coordinates").length());
+        assertEquals(expected.size(),
+                feature.getJSONObject("properties").getJSONArray("coordTimes").length());
+    }
+
+    @Test(expected = IOException.class)
+    public void matchedExportPassesWriteFailuresOn() throws IOException {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesizeOnRoads(track, 500, 20, 100.0, 4.0, 7L);
+        exporter.export(track.view(null), ReplayEngine.synthesizeRoads(20, 100.0),
+                TrackExporter.Format.GPX, new Writer() {
+                    private int written;
+
+                    @Override
+                    public void write(char[] buffer, int offset, int length) throws IOException {
+                        // Fails once, part way through the points inside the matcher's
+                        // listener, so it's only seen if the exporter hands it on.
+                        int before = written;
+                        written += length;
+                        if ((before <= 10000) && (written > 10000)) {
+                            throw new IOException("Disk full");
+                        }
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+    }
+
+    private String export(TrackBuffer track, TrackExporter.Format format) throws IOException {
+        StringWriter writer = new StringWriter();
+        exporter.export(track.view(null), format, writer);
+        return writer.toString();
+    }
+
+    private static TrackBuffer ride(int count, long seed) {
+        TrackBuffer track = new TrackBuffer();
+        ReplayEngine.synthesize(track, count, 1000L, 4.0, seed);
+        return track;
+    }
+}
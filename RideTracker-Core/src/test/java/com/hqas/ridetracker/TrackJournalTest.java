@@ -0,0 +1,213 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private TrackJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "ride.journal");
+        journal = new TrackJournal(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void replaysEveryRecordAfterReopening() throws IOException {
+        assertEquals(0L, journal.open(null));
+        // More than one mapped region's worth.
+        for (int i = 0; i < 2500; i++) {
+            journal.append(51.0 + i * 1e-5, -0.1 - i * 1e-5, 20.0 + i, 1000L * i, 4.0f);
+        }
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        journal = new TrackJournal(file);
+        assertEquals(2500L, journal.open(recorder));
+        assertEquals(2500, recorder.times.size());
+        for (int i = 0; i < 2500; i++) {
+            assertEquals(1000L * i, (long) recorder.times.get(i));
+            assertEquals(51.0 + i * 1e-5, recorder.latitudes.get(i), 0.0);
+            assertEquals(20.0 + i, recorder.altitudes.get(i), 0.0);
+        }
+
+        // Appending carries on after the last record.
+        journal.append(52.0, 0.0, 0.0, 9999999L, 1.0f);
+        journal.close();
+        recorder = new Recorder();
+        journal = new TrackJournal(file);
+        assertEquals(2501L, journal.open(recorder));
+        assertEquals(9999999L, (long) recorder.times.get(2500));
+    }
+
+    @Test
+    public void stopsAtACorruptRecord() throws IOException {
+        journal.open(null);
+        for (int i = 0; i < 100; i++) {
+            journal.append(51.0, -0.1, 20.0, 1000L * i, 4.0f);
+        }
+        journal.close();
+
+        // Flip one bit in the payload of record 40.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long offset = TrackJournal.HEADER_SIZE + 40L * TrackJournal.RECORD_SIZE + 5;
+        raf.seek(offset);
+        int b = raf.read();
+        raf.seek(offset);
+        raf.write(b ^ 0x10);
+        raf.close();
+
+        Recorder recorder = new Recorder();
+        journal = new TrackJournal(file);
+        assertEquals(40L, journal.open(recorder));
+        assertEquals(40, recorder.times.size());
+        assertEquals(39000L, (long) recorder.times.get(39));
+    }
+
+    @Test
+    public void recoversFromATornLastRecord() throws IOException {
+        journal.open(null);
+        for (int i = 0; i < 10; i++) {
+            journal.append(51.0, -0.1, 20.0, 1000L * i, 4.0f);
+        }
+        journal.close();
+
+        // Cut the file off halfway through record 7, as a crash mid-write might.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(TrackJournal.HEADER_SIZE + 7L * TrackJournal.RECORD_SIZE
+                + TrackJournal.RECORD_SIZE / 2);
+        raf.close();
+
+        journal = new TrackJournal(file);
+        assertEquals(7L, journal.open(null));
+        journal.append(51.0, -0.1, 20.0, 7000L, 4.0f);
+        journal.close();
+        journal = new TrackJournal(file);
+        assertEquals(8L, journal.open(null));
+    }
+
+    @Test
+    public void resetInvalidatesOldRecords() throws IOException {
+        journal.open(null);
+        for (int i = 0; i < 50; i++) {
+            journal.append(51.0, -0.1, 20.0, 1000L * i, 4.0f);
+        }
+        journal.reset();
+        journal.append(52.0, 0.5, 10.0, 123L, 3.0f);
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        journal = new TrackJournal(file);
+        assertEquals(1L, journal.open(recorder));
+        assertEquals(123L, (long) recorder.times.get(0));
+    }
+
+    @Test
+    public void ignoresAFileThatIsntAJournal() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[64]);
+        raf.close();
+        assertEquals(0L, journal.open(null));
+    }
+
+    @Test
+    public void appendsOnlyPassedFixesOfABatch() throws IOException {
+        journal.open(null);
+        FixBatch batch = new FixBatch(8);
+        for (int i = 0; i < 8; i++) {
+            batch.times[i] = 1000L * i;
+            batch.latitudes[i] = 51.0;
+            batch.longitudes[i] = -0.1;
+            batch.altitudes[i] = 15.0;
+            batch.passed[i] = (i % 2) == 0;
+        }
+        batch.size = 8;
+        int forces = journal.getForceCount();
+        journal.appendAll(batch);
+        assertTrue(journal.getForceCount() - forces <= 1);
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        journal = new TrackJournal(file);
+        assertEquals(4L, journal.open(recorder));
+        assertEquals(6000L, (long) recorder.times.get(3));
+    }
+
+    @Test
+    public void missingAltitudeReplaysAsMissing() throws IOException {
+        journal.open(null);
+        FixBatch batch = new FixBatch(2);
+        batch.times[0] = 1000L;
+        batch.altitudes[0] = Double.NaN;
+        batch.times[1] = 2000L;
+        batch.altitudes[1] = 0.0;
+        batch.passed[0] = true;
+        batch.passed[1] = true;
+        batch.size = 2;
+        journal.appendAll(batch);
+        journal.append(51.0, -0.1, Double.NaN, 3000L, 5.0f);
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        journal = new TrackJournal(file);
+        assertEquals(3L, journal.open(recorder));
+        assertTrue(Double.isNaN(recorder.altitudes.get(0)));
+        assertEquals(0.0, recorder.altitudes.get(1), 0.0);
+        assertTrue(Double.isNaN(recorder.altitudes.get(2)));
+    }
+
+    private static class Recorder implements TrackJournal.Replay {
+        final List<Long> times = new ArrayList<Long>();
+        final List<Double> latitudes = new ArrayList<Double>();
+        final List<Double> altitudes = new ArrayList<Double>();
+
+        @Override
+        public void onRecord(double latitude, double longitude, double altitude, long time,
+                             float accuracy) {
+            times.add(time);
+            latitudes.add(latitude);
+            altitudes.add(altitude);
+        }
+    }
+}
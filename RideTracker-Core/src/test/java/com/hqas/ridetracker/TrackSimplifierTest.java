@@ -0,0 +1,164 @@
+/*  Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+
+
+package com.hqas.ridetracker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackSimplifierTest {
+
+    private static final int POINTS = 4000;
+
+    @Test
+    public void everyPointStaysNearEachTier() {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(track, POINTS, 1000L, 4.0, 7L);
+        TrackSimplifier simplifier = new TrackSimplifier();
+        for (long i = 0; i < POINTS; i++) {
+            simplifier.add(track.getLatitude(i), track.getLongitude(i));
+        }
+
+        double[] lat = new double[POINTS];
+        double[] lon = new double[POINTS];
+        double metersPerDegreeLon = GeoMath.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(track.getLatitude(0)));
+        for (int tier = 0; tier < TrackSimplifier.TIER_COUNT; tier++) {
+            int count = simplifier.copyTier(tier, lat, lon, POINTS);
+            assertEquals(simplifier.getVertexCount(tier), count);
+            assertEquals(track.getLatitude(0), lat[0], 0.0);
+            assertEquals(track.getLatitude(POINTS - 1), lat[count - 1], 0.0);
+
+            // Dropped points are within the sum of the tolerances up to this tier.
+            double bound = 2.0 * TrackSimplifier.getTolerance(tier) + 1e-6;
+            for (long i = 0; i < POINTS; i++) {
+                double error = distanceToPolyline(track.getLatitude(i), track.getLongitude(i),
+                        lat, lon, count, metersPerDegreeLon);
+                assertTrue("tier " + tier + " point " + i + " off by " + error, error <= bound);
+            }
+            if (tier > 0) {
+                assertTrue(count <= simplifier.getVertexCount(tier - 1));
+            }
+        }
+    }
+
+    @Test
+    public void straightLineKeepsOnlyWindowVertices() {
+        TrackSimplifier simplifier = new TrackSimplifier();
+        for (int i = 0; i < 100; i++) {
+            simplifier.add(51.0 + i * 1e-4, -1.0);
+        }
+        // The first point, a vertex each time the 32 point window fills (32, 64, 96) and the
+        // three still pending. Coarser tiers can't do better.
+        double[] lat = new double[100];
+        double[] lon = new double[100];
+        int count = simplifier.copyTier(0, lat, lon, lat.length);
+        assertEquals(7, count);
+        assertEquals(7, simplifier.getVertexCount(TrackSimplifier.TIER_COUNT - 1));
+        assertEquals(51.0, lat[0], 0.0);
+        assertEquals(51.0 + 99e-4, lat[count - 1], 1e-12);
+        assertEquals(100L, simplifier.getPointCount());
+    }
+
+    @Test
+    public void copyStaysWithinTheBudget() {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(track, POINTS, 1000L, 4.0, 11L);
+        TrackSimplifier simplifier = new TrackSimplifier();
+        for (long i = 0; i < POINTS; i++) {
+            simplifier.add(track.getLatitude(i), track.getLongitude(i));
+        }
+
+        double[] lat = new double[POINTS];
+        double[] lon = new double[POINTS];
+        for (int max = 2; max < 600; max += 37) {
+            int count = simplifier.copyTier(0, lat, lon, max);
+            assertTrue(count <= max);
+            assertEquals(track.getLatitude(0), lat[0], 0.0);
+            assertEquals(track.getLatitude(POINTS - 1), lat[count - 1], 0.0);
+            assertEquals(track.getLongitude(POINTS - 1), lon[count - 1], 0.0);
+        }
+    }
+
+    @Test
+    public void selectsTheFinestTierThatFits() {
+        TrackBuffer track = new TrackBuffer(10, 8);
+        ReplayEngine.synthesize(track, POINTS, 1000L, 4.0, 13L);
+        TrackSimplifier simplifier = new TrackSimplifier();
+        for (long i = 0; i < POINTS; i++) {
+            simplifier.add(track.getLatitude(i), track.getLongitude(i));
+        }
+
+        for (int budget = 50; budget <= 2000; budget *= 2) {
+            for (double metersPerPixel = 0.5; metersPerPixel < 500.0; metersPerPixel *= 3.0) {
+                int tier = simplifier.selectTier(metersPerPixel, budget);
+                assertTrue(simplifier.getVertexCount(tier) <= budget);
+                assertTrue(TrackSimplifier.getTolerance(tier) >= metersPerPixel * 0.5
+                        || tier == TrackSimplifier.TIER_COUNT - 1);
+                if (tier > 0) {
+                    // The next finer tier was either too detailed to matter or too big.
+                    assertTrue(TrackSimplifier.getTolerance(tier - 1) < metersPerPixel * 0.5
+                            || simplifier.getVertexCount(tier - 1) > budget);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void clearStartsAgain() {
+        TrackSimplifier simplifier = new TrackSimplifier();
+        for (int i = 0; i < 100; i++) {
+            simplifier.add(51.0 + i * 1e-4, -1.0 + (i % 2) * 1e-3);
+        }
+        simplifier.clear();
+        assertEquals(0L, simplifier.getPointCount());
+        assertEquals(0, simplifier.getVertexCount(0));
+
+        simplifier.add(10.0, 20.0);
+        double[] lat = new double[4];
+        double[] lon = new double[4];
+        assertEquals(1, simplifier.copyTier(0, lat, lon, 4));
+        assertEquals(10.0, lat[0], 0.0);
+        assertEquals(20.0, lon[0], 0.0);
+    }
+
+    private static double distanceToPolyline(double latitude, double longitude, double[] lat,
+                                             double[] lon, int count, double metersPerDegreeLon) {
+        double x = longitude * metersPerDegreeLon;
+        double y = latitude * GeoMath.METERS_PER_DEGREE;
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            double ax = lon[i] * metersPerDegreeLon;
+            double ay = lat[i] * GeoMath.METERS_PER_DEGREE;
+            double bx = lon[Math.min(i + 1, count - 1)] * metersPerDegreeLon;
+            double by = lat[Math.min(i + 1, count - 1)] * GeoMath.METERS_PER_DEGREE;
+            double dx = bx - ax;
+            double dy = by - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = (lengthSquared > 0.0) ? ((x - ax) * dx + (y - ay) * dy) / lengthSquared : 0.0;
+            t = Math.max(0.0, Math.min(1.0, t));
+            double ex = x - (ax + t * dx);
+            double ey = y - (ay + t * dy);
+            best = Math.min(best, Math.sqrt(ex * ex + ey * ey));
+        }
+        return best;
+    }
+}